@@ -0,0 +1,44 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CategoryDictionary er en fælles ordbog over kategorinavne
+ * Noter gemmer kun et lille id, så en million noter i "Arbejde" deler én streng
+ */
+public class CategoryDictionary {
+    private static final Map<String, Integer> ids = new HashMap<>();
+    private static volatile String[] names = new String[0];
+
+    private CategoryDictionary() {
+    }
+
+    /**
+     * Returnerer id'et for et kategorinavn og tilføjer det hvis det er nyt
+     */
+    public static synchronized int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.length;
+            String[] grown = Arrays.copyOf(names, id + 1);
+            grown[id] = name;
+            names = grown;
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returnerer kategorinavnet for et id
+     */
+    public static String nameOf(int id) {
+        return names[id];
+    }
+
+    /**
+     * Antal forskellige kategorinavne der er set
+     */
+    public static int size() {
+        return names.length;
+    }
+}
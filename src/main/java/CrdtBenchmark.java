@@ -0,0 +1,122 @@
+import java.util.*;
+
+/**
+ * CrdtBenchmark måler fletning af store noter med TextCrdt: to replikaer redigerer hver sin kopi af samme
+ * tekst, og den ene flettes ind i den anden. Viser tid pr. fletning, tegn pr. sekund, antal runs og
+ * hvor mange bytes historikken fylder pr. tegn, kodet og i hukommelsen:
+ * {@code java CrdtBenchmark [tegn...]}
+ */
+public class CrdtBenchmark {
+    private static final int EDITS = 500;
+    private static final int RUNS = 9;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+            : new int[]{10_000, 100_000, 500_000};
+
+        System.out.printf("%10s %8s %10s %12s %8s %12s %12s%n",
+            "tegn", "ændr.", "flet ms", "tegn/s", "runs", "kodet B/tegn", "heap B/tegn");
+        for (int size : sizes) {
+            Random random = new Random(42);
+            String base = FilterBenchmark.randomText(random, size / 6);
+            TextCrdt original = TextCrdt.fromText(base);
+            byte[] history = original.encode(base);
+
+            // To kopier med hver sine redigeringer: indsættelser, sletninger og skrivning i stræk
+            TextCrdt local = decode(history, base);
+            TextCrdt remote = decode(history, base);
+            edit(local, "aaaaaaaa", random);
+            edit(remote, "bbbbbbbb", random);
+            String remoteText = remote.text();
+            byte[] remoteHistory = remote.encode(remoteText);
+            String localText = local.text();
+            byte[] localHistory = local.encode(localText);
+
+            // Som ved fletning af en note: begge historikker afkodes, flettes og teksten bygges
+            double mergeMs = median(() -> {
+                TextCrdt mine = decode(localHistory, localText);
+                mine.merge(decode(remoteHistory, remoteText));
+                mine.text();
+            });
+            TextCrdt merged = decode(localHistory, localText);
+            merged.merge(decode(remoteHistory, remoteText));
+            String text = merged.text();
+            byte[] encoded = merged.encode(text);
+
+            // Determinisme: fletning i modsat rækkefølge giver samme tekst
+            TextCrdt other = decode(remoteHistory, remoteText);
+            other.merge(decode(localHistory, localText));
+            if (!other.text().equals(text)) {
+                throw new IllegalStateException("Fletningen afhænger af rækkefølgen");
+            }
+
+            System.out.printf("%10d %8d %10.2f %12.0f %8d %12.2f %12.1f%n", text.length(), 2 * EDITS, mergeMs,
+                text.length() / (mergeMs / 1000), merged.getRunCount(), (double) encoded.length / text.length(),
+                heapPerChar(encoded, text));
+        }
+    }
+
+    /**
+     * Blanding af enkelttegn, ord skrevet i stræk og sletninger på tilfældige steder
+     */
+    private static void edit(TextCrdt crdt, String replica, Random random) {
+        for (int i = 0; i < EDITS; i++) {
+            int length = crdt.length();
+            int position = random.nextInt(length + 1);
+            int kind = random.nextInt(4);
+            if (kind == 0 && length > 0) {
+                int count = Math.min(1 + random.nextInt(20), length - Math.min(position, length - 1));
+                crdt.delete(Math.min(position, length - 1), count);
+            } else if (kind == 1) {
+                String word = FilterBenchmark.randomText(random, 1) + " ";
+                for (int c = 0; c < word.length(); c++) {
+                    crdt.insert(replica, position + c, word.substring(c, c + 1));
+                }
+            } else {
+                crdt.insert(replica, position, FilterBenchmark.randomText(random, 1 + random.nextInt(3)) + " ");
+            }
+        }
+    }
+
+    /**
+     * Heapforbruget for en indlæst historik inkl. runsenes tekst, målt over flere kopier
+     */
+    private static double heapPerChar(byte[] encoded, String text) {
+        Runtime runtime = Runtime.getRuntime();
+        TextCrdt[] copies = new TextCrdt[20];
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = decode(encoded, text);
+        }
+        System.gc();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+        double perCopy = (after - before) / (double) copies.length;
+        return copies[0].length() == text.length() ? perCopy / text.length() : Double.NaN;
+    }
+
+    private static TextCrdt decode(byte[] history, String content) {
+        try {
+            return TextCrdt.decode(history, content);
+        } catch (java.io.IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Kører opvarmning og returnerer mediantiden i millisekunder
+     */
+    private static double median(Runnable run) {
+        for (int i = 0; i < 10; i++) {
+            run.run();
+        }
+        double[] times = new double[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            times[i] = (System.nanoTime() - start) / 1_000_000.0;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+}
@@ -24,17 +24,27 @@ public class CryptoManager {
     private static final int KEY_LENGTH = 256;
     private static final int PBKDF2_ITERATIONS = 100000;
     
+    private static final SecureRandom RANDOM = new SecureRandom();
+    
     private SecretKey secretKey;
     
     /**
      * Genererer en krypteringsnøgle baseret på brugerens password
      */
     public void generateKeyFromPassword(String password, byte[] salt) throws Exception {
+        long start = NotesMetrics.start();
+        NotesEvents.CryptoEvent event = new NotesEvents.CryptoEvent();
+        event.begin();
+        
         PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, PBKDF2_ITERATIONS, KEY_LENGTH);
         SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
         byte[] keyBytes = factory.generateSecret(spec).getEncoded();
         this.secretKey = new SecretKeySpec(keyBytes, ALGORITHM);
         spec.clearPassword();
+        
+        event.operation = "nøgle";
+        event.commit();
+        NotesMetrics.DERIVE_KEY.record(start, 0);
     }
     
     /**
@@ -50,52 +60,79 @@ public class CryptoManager {
      * Krypterer tekst og returnerer Base64-encoded resultat
      */
     public String encrypt(String plainText) throws Exception {
+        return Base64.getEncoder().encodeToString(encryptBytes(plainText.getBytes("UTF-8")));
+    }
+    
+    /**
+     * Krypterer bytes og returnerer IV + krypteret data (bruges til de enkelte note-records)
+     */
+    public byte[] encryptBytes(byte[] plainData) throws Exception {
         if (secretKey == null) {
             throw new IllegalStateException("Krypteringsnøgle er ikke genereret. Kald generateKeyFromPassword først.");
         }
         
+        long start = NotesMetrics.start();
+        NotesEvents.CryptoEvent event = new NotesEvents.CryptoEvent();
+        event.begin();
+        
         Cipher cipher = Cipher.getInstance(TRANSFORMATION);
         
         // Generer tilfældig IV
         byte[] iv = new byte[GCM_IV_LENGTH];
-        new SecureRandom().nextBytes(iv);
+        RANDOM.nextBytes(iv);
         
         GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv);
         cipher.init(Cipher.ENCRYPT_MODE, secretKey, gcmSpec);
         
-        byte[] encryptedData = cipher.doFinal(plainText.getBytes("UTF-8"));
-        
         // Kombiner IV og krypteret data
-        byte[] encryptedWithIv = new byte[GCM_IV_LENGTH + encryptedData.length];
+        byte[] encryptedWithIv = new byte[GCM_IV_LENGTH + cipher.getOutputSize(plainData.length)];
         System.arraycopy(iv, 0, encryptedWithIv, 0, GCM_IV_LENGTH);
-        System.arraycopy(encryptedData, 0, encryptedWithIv, GCM_IV_LENGTH, encryptedData.length);
+        cipher.doFinal(plainData, 0, plainData.length, encryptedWithIv, GCM_IV_LENGTH);
         
-        return Base64.getEncoder().encodeToString(encryptedWithIv);
+        event.operation = "krypter";
+        event.bytes = plainData.length;
+        event.commit();
+        NotesMetrics.ENCRYPT.record(start, plainData.length);
+        return encryptedWithIv;
     }
     
     /**
      * Dekrypterer Base64-encoded krypteret tekst
      */
     public String decrypt(String encryptedText) throws Exception {
+        return new String(decryptBytes(Base64.getDecoder().decode(encryptedText)), "UTF-8");
+    }
+    
+    /**
+     * Dekrypterer IV + krypteret data fra encryptBytes
+     */
+    public byte[] decryptBytes(byte[] encryptedWithIv) throws Exception {
         if (secretKey == null) {
             throw new IllegalStateException("Krypteringsnøgle er ikke genereret. Kald generateKeyFromPassword først.");
         }
         
-        byte[] encryptedWithIv = Base64.getDecoder().decode(encryptedText);
-        
-        // Udpak IV og krypteret data
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        byte[] encryptedData = new byte[encryptedWithIv.length - GCM_IV_LENGTH];
-        
-        System.arraycopy(encryptedWithIv, 0, iv, 0, GCM_IV_LENGTH);
-        System.arraycopy(encryptedWithIv, GCM_IV_LENGTH, encryptedData, 0, encryptedData.length);
+        long start = NotesMetrics.start();
+        NotesEvents.CryptoEvent event = new NotesEvents.CryptoEvent();
+        event.begin();
         
+        // IV'en ligger forrest; resten dekrypteres direkte fra samme array
         Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-        GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv);
+        GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, encryptedWithIv, 0, GCM_IV_LENGTH);
         cipher.init(Cipher.DECRYPT_MODE, secretKey, gcmSpec);
         
-        byte[] decryptedData = cipher.doFinal(encryptedData);
-        return new String(decryptedData, "UTF-8");
+        byte[] plainData;
+        try {
+            plainData = cipher.doFinal(encryptedWithIv, GCM_IV_LENGTH, encryptedWithIv.length - GCM_IV_LENGTH);
+        } catch (Exception e) {
+            NotesMetrics.DECRYPT.recordError();
+            throw e;
+        }
+        
+        event.operation = "dekrypter";
+        event.bytes = plainData.length;
+        event.commit();
+        NotesMetrics.DECRYPT.record(start, plainData.length);
+        return plainData;
     }
     
     /**
@@ -0,0 +1,229 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * EdtWatchdog måler hvor længe hvert event tager på Event Dispatch Thread
+ * Den lægges ind som EventQueue og tager tid på hver dispatch. En baggrundstråd tager prøver af
+ * EDT's stak mens et event kører for længe, og de værste stop gemmes med deres stakke til en rapport.
+ * Tærsklen sættes med -Dnotesapp.stallThresholdMs=N (standard 100 ms)
+ */
+public class EdtWatchdog extends EventQueue {
+    private static final int MAX_STALLS = 20;
+    private static final int MAX_SAMPLES = 200;
+    private static final int REPORT_FRAMES = 15;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private static EdtWatchdog installed;
+
+    private final long thresholdNanos;
+    private final long sampleIntervalMillis;
+
+    // Den inderste igangværende dispatch; læses af sampler-tråden
+    private volatile Thread edtThread;
+    private volatile long dispatchStart;
+    private volatile long dispatchToken;
+    private final List<StackTraceElement[]> currentSamples = new ArrayList<>();
+
+    // Kun EDT: modal-dialoger kører en indre event-løkke, så et ydre event der venter på en dialog er ikke et stop
+    private int depth = 0;
+    private final Deque<boolean[]> nestedFlags = new ArrayDeque<>();
+
+    private final PriorityQueue<Stall> worst = new PriorityQueue<>(Comparator.comparingLong((Stall stall) -> stall.durationNanos));
+    private long totalEvents = 0;
+    private long totalStalls = 0;
+
+    /**
+     * Et registreret stop: hvilket event, hvor længe og stakprøverne taget undervejs
+     */
+    public static final class Stall {
+        final String event;
+        final long durationNanos;
+        final LocalTime time;
+        final List<StackTraceElement[]> samples;
+
+        Stall(String event, long durationNanos, LocalTime time, List<StackTraceElement[]> samples) {
+            this.event = event;
+            this.durationNanos = durationNanos;
+            this.time = time;
+            this.samples = samples;
+        }
+
+        public String getEvent() {
+            return event;
+        }
+
+        public long getDurationMillis() {
+            return durationNanos / 1_000_000;
+        }
+    }
+
+    public EdtWatchdog(long thresholdMillis) {
+        this.thresholdNanos = thresholdMillis * 1_000_000;
+        this.sampleIntervalMillis = Math.max(5, thresholdMillis / 10);
+    }
+
+    /**
+     * Lægger vagthunden ind som systemets EventQueue og starter sampler-tråden (kun én gang)
+     */
+    public static synchronized EdtWatchdog install() {
+        if (installed == null) {
+            installed = new EdtWatchdog(Long.getLong("notesapp.stallThresholdMs", 100));
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(installed);
+            Thread sampler = new Thread(installed::sampleLoop, "EDT-watchdog");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+        return installed;
+    }
+
+    /**
+     * Den installerede vagthund, eller null hvis den ikke er slået til
+     */
+    public static synchronized EdtWatchdog getInstalled() {
+        return installed;
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        if (depth > 0) {
+            nestedFlags.peek()[0] = true;
+        }
+        boolean[] nested = {false};
+        nestedFlags.push(nested);
+        depth++;
+
+        edtThread = Thread.currentThread();
+        long start = System.nanoTime();
+        synchronized (currentSamples) {
+            currentSamples.clear();
+            dispatchToken++;
+            dispatchStart = start;
+        }
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long duration = System.nanoTime() - start;
+            List<StackTraceElement[]> samples;
+            synchronized (currentSamples) {
+                samples = new ArrayList<>(currentSamples);
+                currentSamples.clear();
+                // Et evt. ydre event har kørt en indre løkke og tælles ikke, så der måles ikke videre på det
+                dispatchToken++;
+                dispatchStart = 0;
+            }
+            depth--;
+            nestedFlags.pop();
+            synchronized (this) {
+                totalEvents++;
+            }
+            if (duration >= thresholdNanos && !nested[0]) {
+                record(new Stall(describe(event), duration, LocalTime.now(), samples));
+            }
+        }
+    }
+
+    /**
+     * Tager stakprøver af EDT mens den aktuelle dispatch har kørt længere end tærsklen
+     */
+    private void sampleLoop() {
+        while (true) {
+            try {
+                Thread.sleep(sampleIntervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = dispatchStart;
+            Thread thread = edtThread;
+            if (start == 0 || thread == null || System.nanoTime() - start < thresholdNanos) {
+                continue;
+            }
+            long token = dispatchToken;
+            StackTraceElement[] stack = thread.getStackTrace();
+            synchronized (currentSamples) {
+                if (token == dispatchToken && currentSamples.size() < MAX_SAMPLES) {
+                    currentSamples.add(stack);
+                }
+            }
+        }
+    }
+
+    private synchronized void record(Stall stall) {
+        totalStalls++;
+        worst.add(stall);
+        if (worst.size() > MAX_STALLS) {
+            worst.poll();
+        }
+    }
+
+    /**
+     * De værste stop, længste først
+     */
+    public synchronized List<Stall> getWorstStalls() {
+        List<Stall> stalls = new ArrayList<>(worst);
+        stalls.sort(Comparator.comparingLong((Stall stall) -> stall.durationNanos).reversed());
+        return stalls;
+    }
+
+    /**
+     * Tekstrapport over de værste stop; stakprøver der er ens i toppen grupperes og tælles
+     */
+    public String report() {
+        List<Stall> stalls = getWorstStalls();
+        StringBuilder report = new StringBuilder();
+        synchronized (this) {
+            report.append("EDT stop over ").append(thresholdNanos / 1_000_000).append(" ms: ")
+                .append(totalStalls).append(" af ").append(totalEvents).append(" events\n");
+        }
+        if (stalls.isEmpty()) {
+            report.append("\nIngen stop registreret.\n");
+            return report.toString();
+        }
+        int number = 1;
+        for (Stall stall : stalls) {
+            report.append("\n#").append(number++).append("  ").append(stall.getDurationMillis()).append(" ms  ")
+                .append(stall.time.format(TIME_FORMAT)).append("  ").append(stall.event).append('\n');
+            if (stall.samples.isEmpty()) {
+                report.append("    (ingen stakprøver - stoppet var kortere end en prøveperiode)\n");
+                continue;
+            }
+            Map<String, Integer> grouped = new LinkedHashMap<>();
+            for (StackTraceElement[] sample : stall.samples) {
+                grouped.merge(formatStack(sample), 1, Integer::sum);
+            }
+            List<Map.Entry<String, Integer>> entries = new ArrayList<>(grouped.entrySet());
+            entries.sort((a, b) -> b.getValue() - a.getValue());
+            for (Map.Entry<String, Integer> entry : entries) {
+                report.append("  ").append(entry.getValue()).append('/').append(stall.samples.size())
+                    .append(" prøver:\n").append(entry.getKey());
+            }
+        }
+        return report.toString();
+    }
+
+    private static String formatStack(StackTraceElement[] stack) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < Math.min(REPORT_FRAMES, stack.length); i++) {
+            text.append("      at ").append(stack[i]).append('\n');
+        }
+        if (stack.length > REPORT_FRAMES) {
+            text.append("      ... ").append(stack.length - REPORT_FRAMES).append(" flere\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Beskriver eventet; paramString viser fx tasten, knappen eller hvilken Runnable invokeLater kørte
+     */
+    private static String describe(AWTEvent event) {
+        String source = event.getSource() == null ? "" : " fra " + event.getSource().getClass().getName();
+        String params = event.paramString();
+        if (params.length() > 120) {
+            params = params.substring(0, 117) + "...";
+        }
+        return event.getClass().getSimpleName() + " [" + params + "]" + source;
+    }
+}
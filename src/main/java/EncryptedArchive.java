@@ -0,0 +1,215 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * EncryptedArchive krypterer en eksport (fx en ZIP) med samlingens nøgle, uden at hele filen er i hukommelsen
+ * Strømmen deles i bidder på 64 KB, og hver bid krypteres for sig med AES-GCM via CryptoManager. Hver bid
+ * har sit nummer og et slut-flag med inde i krypteringen, så bidder ikke kan byttes om, fjernes eller
+ * skæres af uden at det opdages. Samlingens salt står i headeren, så arkivet kan åbnes med passwordet alene
+ * <pre>
+ * "NOTESAPP-ARKIV 1\n" | int saltlængde | salt | (int længde | krypteret bid)*
+ * bid før kryptering: long nummer | boolean sidste | data
+ * </pre>
+ */
+public class EncryptedArchive {
+    private static final byte[] MAGIC = "NOTESAPP-ARKIV 1\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private EncryptedArchive() {
+    }
+
+    /**
+     * Læser headeren og returnerer saltet, så nøglen kan afledes før Input bruges på resten af strømmen
+     */
+    public static byte[] readSalt(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Filen er ikke et krypteret notes-arkiv");
+        }
+        int length = data.readInt();
+        if (length <= 0 || length > 1024) {
+            throw new IOException("Ugyldigt salt i arkivet");
+        }
+        byte[] salt = new byte[length];
+        data.readFully(salt);
+        return salt;
+    }
+
+    /**
+     * Krypterer alt der skrives; close skriver den sidste bid og skal kaldes for at arkivet er gyldigt
+     * Fejler eksporten undervejs, lukkes der med abort, så arkivet mangler sin sidste bid og ikke kan læses færdigt
+     */
+    public static final class Output extends OutputStream {
+        private final CryptoManager cryptoManager;
+        private final DataOutputStream target;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int buffered;
+        private long index;
+        private boolean closed;
+        private boolean failed;
+
+        public Output(CryptoManager cryptoManager, byte[] salt, OutputStream target) throws IOException {
+            this.cryptoManager = cryptoManager;
+            this.target = new DataOutputStream(target);
+            this.target.write(MAGIC);
+            this.target.writeInt(salt.length);
+            this.target.write(salt);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buffered == buffer.length) {
+                writeChunk(false);
+            }
+            buffer[buffered++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (buffered == buffer.length) {
+                    writeChunk(false);
+                }
+                int copied = Math.min(length, buffer.length - buffered);
+                System.arraycopy(bytes, offset, buffer, buffered, copied);
+                buffered += copied;
+                offset += copied;
+                length -= copied;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (failed) {
+                abort();
+                throw new IOException("Arkivet er ufuldstændigt, fordi en skrivning fejlede");
+            }
+            closed = true;
+            try {
+                writeChunk(true);
+            } finally {
+                target.close();
+            }
+        }
+
+        /**
+         * Lukker uden at skrive den sidste bid, så en læsning af arkivet ender med "Arkivet er afkortet"
+         */
+        public void abort() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            target.close();
+        }
+
+        private void writeChunk(boolean last) throws IOException {
+            if (failed) {
+                throw new IOException("En tidligere skrivning til arkivet fejlede");
+            }
+            // Står til hele bidden er skrevet, så en bid der fejlede halvvejs aldrig følges af en sidste bid
+            failed = true;
+            ByteArrayOutputStream plain = new ByteArrayOutputStream(buffered + 9);
+            DataOutputStream header = new DataOutputStream(plain);
+            header.writeLong(index++);
+            header.writeBoolean(last);
+            header.write(buffer, 0, buffered);
+            byte[] encrypted;
+            try {
+                encrypted = cryptoManager.encryptBytes(plain.toByteArray());
+            } catch (Exception e) {
+                throw new IOException("Kunne ikke kryptere arkivet", e);
+            }
+            target.writeInt(encrypted.length);
+            target.write(encrypted);
+            buffered = 0;
+            failed = false;
+        }
+    }
+
+    /**
+     * Dekrypterer bidderne efter headeren (læs den først med readSalt og afled nøglen)
+     */
+    public static final class Input extends InputStream {
+        private final CryptoManager cryptoManager;
+        private final DataInputStream source;
+        private byte[] chunk = new byte[0];
+        private int position;
+        private long index;
+        private boolean last;
+
+        public Input(CryptoManager cryptoManager, InputStream source) {
+            this.cryptoManager = cryptoManager;
+            this.source = new DataInputStream(source);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return chunk[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int copied = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, bytes, offset, copied);
+            position += copied;
+            return copied;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+
+        /**
+         * Sørger for at der er ulæste bytes; false når den sidste bid er læst
+         */
+        private boolean fill() throws IOException {
+            while (position == chunk.length) {
+                if (last) {
+                    return false;
+                }
+                byte[] encrypted;
+                try {
+                    int length = source.readInt();
+                    if (length <= 0 || length > CHUNK_SIZE + 1024) {
+                        throw new IOException("Ugyldig bid i arkivet");
+                    }
+                    encrypted = new byte[length];
+                    source.readFully(encrypted);
+                } catch (EOFException e) {
+                    throw new IOException("Arkivet er afkortet");
+                }
+                byte[] plain;
+                try {
+                    plain = cryptoManager.decryptBytes(encrypted);
+                } catch (Exception e) {
+                    throw new IOException("Forkert password eller beskadiget arkiv", e);
+                }
+                DataInputStream header = new DataInputStream(new ByteArrayInputStream(plain));
+                if (header.readLong() != index++) {
+                    throw new IOException("Bidderne i arkivet er i forkert rækkefølge");
+                }
+                last = header.readBoolean();
+                chunk = Arrays.copyOfRange(plain, 9, plain.length);
+                position = 0;
+            }
+            return true;
+        }
+    }
+}
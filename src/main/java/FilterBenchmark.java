@@ -0,0 +1,93 @@
+import java.util.*;
+
+/**
+ * FilterBenchmark måler sekventiel mod parallel filtrering på syntetiske noter
+ * Bruges til at finde tærsklen hvor den parallelle scanning begynder at betale sig:
+ * {@code java FilterBenchmark [antal...]}
+ */
+public class FilterBenchmark {
+    private static final String[] WORDS = {
+        "møde", "kaffe", "projekt", "idé", "indkøb", "ferie", "rapport", "budget", "kunde", "frist",
+        "opgave", "familie", "træning", "bog", "film", "rejse", "kode", "fejl", "plan", "liste",
+        "husk", "aftale", "weekend", "mail", "telefon", "faktura", "kontrakt", "notat", "skitse", "tanke"
+    };
+    private static final String[] CATEGORIES = {"Generel", "Arbejde", "Personligt", "Ideer"};
+    private static final int RUNS = 15;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? parseSizes(args) : new int[]{1000, 5000, 10000, 20000, 50000, 100000, 200000};
+        String query = "kaffe budget -ferie";
+        NoteQuery.Context context = Collections::singleton;
+
+        System.out.println("Forespørgsel: " + query + "  (" + Runtime.getRuntime().availableProcessors() + " kerner)");
+        System.out.printf("%10s %14s %14s %10s%n", "noter", "sekventiel ms", "parallel ms", "speedup");
+
+        int crossover = -1;
+        for (int size : sizes) {
+            NoteIndex index = new NoteIndex();
+            index.rebuild(generateNotes(size, new Random(42)));
+
+            double sequential = median(() -> index.filterSequential(query, "", context, NoteSortOrder.NEWEST));
+            double parallel = median(() -> index.filterParallel(query, "", context, NoteSortOrder.NEWEST));
+            System.out.printf("%10d %14.2f %14.2f %9.2fx%n", size, sequential, parallel, sequential / parallel);
+
+            // Tærsklen er den mindste størrelse hvorfra parallel er hurtigst for alle større størrelser
+            if (parallel < sequential) {
+                if (crossover < 0) crossover = size;
+            } else {
+                crossover = -1;
+            }
+        }
+        System.out.println(crossover < 0
+            ? "Parallel scanning var ikke hurtigere for nogen af størrelserne"
+            : "Parallel scanning er hurtigere fra ca. " + crossover + " noter (-Dnotesapp.parallelThreshold=" + crossover + ")");
+    }
+
+    /**
+     * Genererer noter med tilfældig tekst, kategori og favorit status
+     */
+    static List<Note> generateNotes(int count, Random random) {
+        List<Note> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Note note = new Note(randomText(random, 2 + random.nextInt(4)), randomText(random, 20 + random.nextInt(300)));
+            note.setCategory(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            note.setFavorite(random.nextInt(10) == 0);
+            notes.add(note);
+        }
+        return notes;
+    }
+
+    static String randomText(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) text.append(' ');
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Kører opvarmning og returnerer mediantiden i millisekunder
+     */
+    private static double median(Runnable run) {
+        for (int i = 0; i < 5; i++) {
+            run.run();
+        }
+        double[] times = new double[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            times[i] = (System.nanoTime() - start) / 1_000_000.0;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    private static int[] parseSizes(String[] args) {
+        int[] sizes = new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        return sizes;
+    }
+}
@@ -0,0 +1,145 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * MerkleTree er et hash-træ over nøgle/værdi-par (i VaultSync: note-id og hash af notens krypterede record)
+ * Nøglerne fordeles efter SHA-256 af nøglen i et fast træ med 16 børn pr. knude, og hver knudes hash
+ * dækker alt under den. To træer med samme dybde sammenlignes fra roden, og kun grene med forskellige
+ * hashes følges, så k forskelle findes ved at se på O(k · log n) knuder i stedet for alle n par
+ */
+public final class MerkleTree {
+    private static final int FANOUT = 16;
+    private static final int BUCKET_SIZE = 8;
+    private static final int MAX_DEPTH = 4;
+
+    private final int depth;
+    private final byte[][][] levels;
+    private final TreeMap<String, String>[] buckets;
+
+    /**
+     * @param entries nøgle til værdi; værdien skal ændre sig når indholdet gør
+     * @param depth   træets dybde; to træer kan kun sammenlignes med samme dybde (se depthFor)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MerkleTree(Map<String, String> entries, int depth) {
+        if (depth < 0 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Ugyldig dybde: " + depth);
+        }
+        this.depth = depth;
+        int leaves = 1 << (4 * depth);
+        buckets = new TreeMap[leaves];
+        MessageDigest sha = sha256();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            int bucket = bucketOf(sha, entry.getKey());
+            if (buckets[bucket] == null) {
+                buckets[bucket] = new TreeMap<>();
+            }
+            buckets[bucket].put(entry.getKey(), entry.getValue());
+        }
+        levels = new byte[depth + 1][][];
+        levels[depth] = new byte[leaves][];
+        for (int i = 0; i < leaves; i++) {
+            levels[depth][i] = hashBucket(sha, buckets[i]);
+        }
+        for (int level = depth - 1; level >= 0; level--) {
+            byte[][] children = levels[level + 1];
+            byte[][] nodes = new byte[children.length / FANOUT][];
+            for (int i = 0; i < nodes.length; i++) {
+                for (int child = 0; child < FANOUT; child++) {
+                    sha.update(children[i * FANOUT + child]);
+                }
+                nodes[i] = sha.digest();
+            }
+            levels[level] = nodes;
+        }
+    }
+
+    /**
+     * Dybden der giver omkring BUCKET_SIZE par pr. blad for den største af samlingerne
+     */
+    public static int depthFor(int size) {
+        int depth = 0;
+        long leaves = 1;
+        while (leaves * BUCKET_SIZE < size && depth < MAX_DEPTH) {
+            leaves *= FANOUT;
+            depth++;
+        }
+        return depth;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public byte[] getRoot() {
+        return levels[0][0].clone();
+    }
+
+    /**
+     * Lægger nøglerne hvis værdi er forskellig i de to træer (eller kun findes i det ene) i differing
+     * og returnerer antallet af knuder der blev sammenlignet
+     */
+    public int diff(MerkleTree other, Set<String> differing) {
+        if (other.depth != depth) {
+            throw new IllegalArgumentException("Træerne har forskellig dybde");
+        }
+        return diff(other, 0, 0, differing);
+    }
+
+    private int diff(MerkleTree other, int level, int index, Set<String> differing) {
+        if (Arrays.equals(levels[level][index], other.levels[level][index])) {
+            return 1;
+        }
+        if (level == depth) {
+            Map<String, String> mine = buckets[index] == null ? Collections.emptyMap() : buckets[index];
+            Map<String, String> theirs = other.buckets[index] == null ? Collections.emptyMap() : other.buckets[index];
+            for (Map.Entry<String, String> entry : mine.entrySet()) {
+                if (!entry.getValue().equals(theirs.get(entry.getKey()))) {
+                    differing.add(entry.getKey());
+                }
+            }
+            for (String key : theirs.keySet()) {
+                if (!mine.containsKey(key)) {
+                    differing.add(key);
+                }
+            }
+            return 1;
+        }
+        int compared = 1;
+        for (int child = 0; child < FANOUT; child++) {
+            compared += diff(other, level + 1, index * FANOUT + child, differing);
+        }
+        return compared;
+    }
+
+    private int bucketOf(MessageDigest sha, String key) {
+        if (depth == 0) {
+            return 0;
+        }
+        byte[] hash = sha.digest(key.getBytes(StandardCharsets.UTF_8));
+        int prefix = ((hash[0] & 0xff) << 24) | ((hash[1] & 0xff) << 16) | ((hash[2] & 0xff) << 8) | (hash[3] & 0xff);
+        return prefix >>> (32 - 4 * depth);
+    }
+
+    private static byte[] hashBucket(MessageDigest sha, TreeMap<String, String> bucket) {
+        if (bucket != null) {
+            for (Map.Entry<String, String> entry : bucket.entrySet()) {
+                sha.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) 0);
+                sha.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) '\n');
+            }
+        }
+        return sha.digest();
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,52 +1,123 @@
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.UUID;
 
 /**
  * Note klasse repræsenterer en enkelt note med titel, indhold og metadata
+ * I hukommelsen er metadata pakket kompakt: ID som to longs, tidsstempler som millisekunder og
+ * kategorien som id i CategoryDictionary. På disk skrives de gamle felter, så notes.dat er uændret
  */
-public class Note implements Serializable {
+public class Note implements NoteData, Serializable {
     private static final long serialVersionUID = 1L;
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
     
-    private String id;
-    private String title;
-    private String content;
-    private String category;
-    private boolean isFavorite;
-    private LocalDateTime createdAt;
-    private LocalDateTime lastModified;
+    // Det serialiserede format er det oprindelige, uanset hvordan felterne ligger i hukommelsen
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("id", String.class),
+        new ObjectStreamField("title", String.class),
+        new ObjectStreamField("content", String.class),
+        new ObjectStreamField("category", String.class),
+        new ObjectStreamField("isFavorite", boolean.class),
+        new ObjectStreamField("createdAt", LocalDateTime.class),
+        new ObjectStreamField("lastModified", LocalDateTime.class)
+    };
+    
+    // UUID som to longs; ID'er der ikke er UUID'er (fx importerede) gemmes som streng i legacyId
+    private transient long idHigh;
+    private transient long idLow;
+    private transient String legacyId;
+    private transient String title;
+    private transient String content;
+    private transient int categoryId;
+    private transient boolean isFavorite;
+    // Lokal tid som millisekunder siden 1970 (uden tidszone, ligesom LocalDateTime)
+    private transient long createdAt;
+    private transient long lastModified;
+    
+    // Indekserne får besked om ændringer; gemmes ikke sammen med noten
+    private transient ChangeListener changeListener;
+    
+    // Ordantal caches pr. indholdsversion (selve strengen); null betyder ikke talt endnu
+    private transient WordCount wordCount;
+    
+    // Kodet TextCrdt for indholdet; null indtil noten redigeres første gang. Arrayet ændres aldrig, kun erstattes
+    private transient byte[] history;
+    
+    /**
+     * Felter der kan ændre sig på en note
+     */
+    public enum Field { TITLE, CONTENT, CATEGORY, FAVORITE, MODIFIED }
+    
+    /**
+     * Uforanderligt par af indhold og dets ordantal, så parallelle læsere altid ser et sammenhængende par
+     */
+    private static final class WordCount {
+        final String content;
+        final int words;
+        
+        WordCount(String content, int words) {
+            this.content = content;
+            this.words = words;
+        }
+    }
+    
+    /**
+     * Lytter der får besked når en note ændres (bruges af NoteIndex)
+     */
+    public interface ChangeListener {
+        void noteChanged(Note note, Field field);
+    }
     
     /**
      * Opretter en ny note med automatisk genereret ID og tidsstempler
      */
     public Note(String title, String content) {
-        this.id = UUID.randomUUID().toString();
+        UUID uuid = UUID.randomUUID();
+        this.idHigh = uuid.getMostSignificantBits();
+        this.idLow = uuid.getLeastSignificantBits();
         this.title = title;
         this.content = content;
-        this.category = "Generel";
+        this.categoryId = CategoryDictionary.idOf("Generel");
         this.isFavorite = false;
-        this.createdAt = LocalDateTime.now();
-        this.lastModified = LocalDateTime.now();
+        this.createdAt = now();
+        this.lastModified = createdAt;
     }
     
     /**
      * Konstruktør til at genskabe eksisterende noter (fx fra fil) - bagudkompatibel
      */
     public Note(String id, String title, String content, LocalDateTime createdAt, LocalDateTime lastModified) {
-        this.id = id;
+        setId(id);
         this.title = title;
         this.content = content;
-        this.category = "Generel"; // Standard kategori for gamle noter
+        this.categoryId = CategoryDictionary.idOf("Generel"); // Standard kategori for gamle noter
         this.isFavorite = false;
-        this.createdAt = createdAt;
-        this.lastModified = lastModified;
+        this.createdAt = NoteData.toMillis(createdAt);
+        this.lastModified = NoteData.toMillis(lastModified);
+    }
+    
+    /**
+     * Konstruktør til at genskabe en note med alle felter uden at røre tidsstemplerne (bruges af NoteCodec)
+     */
+    public Note(String id, String title, String content, String category, boolean favorite,
+                long createdAtMillis, long lastModifiedMillis) {
+        setId(id);
+        this.title = title;
+        this.content = content;
+        this.categoryId = CategoryDictionary.idOf(category);
+        this.isFavorite = favorite;
+        this.createdAt = createdAtMillis;
+        this.lastModified = lastModifiedMillis;
     }
     
     // Getters og Setters
     public String getId() {
-        return id;
+        return legacyId != null ? legacyId : new UUID(idHigh, idLow).toString();
     }
     
     public String getTitle() {
@@ -55,7 +126,8 @@ public class Note implements Serializable {
     
     public void setTitle(String title) {
         this.title = title;
-        this.lastModified = LocalDateTime.now();
+        this.lastModified = now();
+        fireChanged(Field.TITLE);
     }
     
     public String getContent() {
@@ -64,28 +136,57 @@ public class Note implements Serializable {
     
     public void setContent(String content) {
         this.content = content;
-        this.lastModified = LocalDateTime.now();
+        this.lastModified = now();
+        fireChanged(Field.CONTENT);
+    }
+    
+    @Override
+    public byte[] getHistory() {
+        return history;
+    }
+    
+    /**
+     * Sætter historikken for det nuværende indhold (uden at ændre tidsstempler)
+     */
+    public void setHistory(byte[] history) {
+        this.history = history;
     }
     
     public LocalDateTime getCreatedAt() {
-        return createdAt;
+        return NoteData.toDateTime(createdAt);
     }
     
     public LocalDateTime getLastModified() {
+        return NoteData.toDateTime(lastModified);
+    }
+    
+    /**
+     * Oprettelsestid som lokale millisekunder; billig at sammenligne uden at lave LocalDateTime
+     */
+    public long getCreatedAtMillis() {
+        return createdAt;
+    }
+    
+    /**
+     * Sidste ændring som lokale millisekunder
+     */
+    public long getLastModifiedMillis() {
         return lastModified;
     }
     
     public void updateLastModified() {
-        this.lastModified = LocalDateTime.now();
+        this.lastModified = now();
+        fireChanged(Field.MODIFIED);
     }
     
     public String getCategory() {
-        return category;
+        return CategoryDictionary.nameOf(categoryId);
     }
     
     public void setCategory(String category) {
-        this.category = category;
+        this.categoryId = CategoryDictionary.idOf(category);
         updateLastModified();
+        fireChanged(Field.CATEGORY);
     }
     
     public boolean isFavorite() {
@@ -95,20 +196,34 @@ public class Note implements Serializable {
     public void setFavorite(boolean favorite) {
         this.isFavorite = favorite;
         updateLastModified();
+        fireChanged(Field.FAVORITE);
+    }
+    
+    /**
+     * Sætter lytteren der får besked om ændringer (null for at fjerne)
+     */
+    public void setChangeListener(ChangeListener listener) {
+        this.changeListener = listener;
+    }
+    
+    private void fireChanged(Field field) {
+        if (changeListener != null) {
+            changeListener.noteChanged(this, field);
+        }
     }
     
     /**
      * Returnerer formateret oprettelsesdato
      */
     public String getFormattedCreatedAt() {
-        return createdAt.format(DATE_FORMATTER);
+        return getCreatedAt().format(DATE_FORMATTER);
     }
     
     /**
      * Returnerer formateret sidste ændring dato
      */
     public String getFormattedLastModified() {
-        return lastModified.format(DATE_FORMATTER);
+        return getLastModified().format(DATE_FORMATTER);
     }
     
     /**
@@ -140,14 +255,31 @@ public class Note implements Serializable {
     }
     
     /**
-     * Tæller antal ord i noten
+     * Tæller antal ord i noten; tælles kun én gang pr. indholdsversion
      */
     public int getWordCount() {
-        if (content == null || content.trim().isEmpty()) {
+        String current = content;
+        if (current == null) {
+            return 0;
+        }
+        WordCount cached = wordCount;
+        if (cached == null || cached.content != current) {
+            cached = new WordCount(current, WordCounter.countWords(current, 0, current.length()));
+            wordCount = cached;
+        }
+        return cached.words;
+    }
+    
+    /**
+     * Ordantallet hvis det allerede er talt for det nuværende indhold, ellers -1
+     */
+    int knownWordCount() {
+        String current = content;
+        if (current == null) {
             return 0;
         }
-        String[] words = content.trim().split("\\s+");
-        return words.length;
+        WordCount cached = wordCount;
+        return cached != null && cached.content == current ? cached.words : -1;
     }
     
     /**
@@ -174,11 +306,68 @@ public class Note implements Serializable {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         Note note = (Note) obj;
-        return id.equals(note.id);
+        if (legacyId != null || note.legacyId != null) {
+            return legacyId != null && legacyId.equals(note.legacyId);
+        }
+        return idHigh == note.idHigh && idLow == note.idLow;
     }
     
     @Override
     public int hashCode() {
-        return id.hashCode();
+        if (legacyId != null) {
+            return legacyId.hashCode();
+        }
+        long hash = idHigh ^ idLow;
+        return (int) (hash >> 32) ^ (int) hash;
+    }
+    
+    /**
+     * Gemmer ID'et som to longs hvis det er en UUID i kanonisk form, ellers som streng
+     */
+    private void setId(String id) {
+        this.legacyId = null;
+        if (id != null && id.length() == 36) {
+            try {
+                UUID uuid = UUID.fromString(id);
+                if (uuid.toString().equals(id)) {
+                    this.idHigh = uuid.getMostSignificantBits();
+                    this.idLow = uuid.getLeastSignificantBits();
+                    return;
+                }
+            } catch (IllegalArgumentException e) {
+                // Ikke en UUID - gem som streng nedenfor
+            }
+        }
+        this.legacyId = id;
+    }
+    
+    private static long now() {
+        return NoteData.toMillis(LocalDateTime.now());
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", getId());
+        fields.put("title", title);
+        fields.put("content", content);
+        fields.put("category", getCategory());
+        fields.put("isFavorite", isFavorite);
+        fields.put("createdAt", getCreatedAt());
+        fields.put("lastModified", getLastModified());
+        out.writeFields();
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        setId((String) fields.get("id", null));
+        title = (String) fields.get("title", null);
+        content = (String) fields.get("content", null);
+        String category = (String) fields.get("category", null);
+        categoryId = CategoryDictionary.idOf(category != null ? category : "Generel");
+        isFavorite = fields.get("isFavorite", false);
+        LocalDateTime created = (LocalDateTime) fields.get("createdAt", null);
+        LocalDateTime modified = (LocalDateTime) fields.get("lastModified", null);
+        createdAt = created != null ? NoteData.toMillis(created) : now();
+        lastModified = modified != null ? NoteData.toMillis(modified) : createdAt;
     }
 }
\ No newline at end of file
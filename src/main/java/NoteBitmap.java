@@ -0,0 +1,345 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * NoteBitmap er et komprimeret bitmap over note-pladser (int id'er)
+ * Id'erne deles i blokke af 65536; tynde blokke gemmes som sorteret char-array og tætte som long-bitmap,
+ * så et indeks med få noter fylder lidt og AND/OR arbejder blok for blok
+ */
+public class NoteBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private char[] keys = new char[0];
+    private Object[] containers = new Object[0];
+    private int[] cardinalities = new int[0];
+    private int size = 0;
+
+    /**
+     * Tilføjer et id til bitmappet
+     */
+    public void add(int id) {
+        char key = (char) (id >>> 16);
+        char low = (char) id;
+        int index = findKey(key);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, key, new char[]{low}, 1);
+            return;
+        }
+        Object container = containers[index];
+        if (container instanceof long[]) {
+            long[] words = (long[]) container;
+            long before = words[low >>> 6];
+            words[low >>> 6] = before | (1L << low);
+            if (before != words[low >>> 6]) cardinalities[index]++;
+            return;
+        }
+        char[] values = (char[]) container;
+        int count = cardinalities[index];
+        int position = Arrays.binarySearch(values, 0, count, low);
+        if (position >= 0) return;
+        position = -position - 1;
+        if (count == ARRAY_MAX) {
+            long[] words = toWords(values, count);
+            words[low >>> 6] |= 1L << low;
+            containers[index] = words;
+            cardinalities[index] = count + 1;
+            return;
+        }
+        if (count == values.length) {
+            values = Arrays.copyOf(values, Math.min(ARRAY_MAX, count * 2));
+            containers[index] = values;
+        }
+        System.arraycopy(values, position, values, position + 1, count - position);
+        values[position] = low;
+        cardinalities[index] = count + 1;
+    }
+
+    /**
+     * Fjerner et id fra bitmappet
+     */
+    public void remove(int id) {
+        char key = (char) (id >>> 16);
+        char low = (char) id;
+        int index = findKey(key);
+        if (index < 0) return;
+        Object container = containers[index];
+        if (container instanceof long[]) {
+            long[] words = (long[]) container;
+            long before = words[low >>> 6];
+            words[low >>> 6] = before & ~(1L << low);
+            if (before != words[low >>> 6]) {
+                cardinalities[index]--;
+                if (cardinalities[index] <= ARRAY_MAX / 2) {
+                    containers[index] = toArray(words, cardinalities[index]);
+                }
+            }
+        } else {
+            char[] values = (char[]) container;
+            int count = cardinalities[index];
+            int position = Arrays.binarySearch(values, 0, count, low);
+            if (position < 0) return;
+            System.arraycopy(values, position + 1, values, position, count - position - 1);
+            cardinalities[index] = count - 1;
+        }
+        if (cardinalities[index] == 0) {
+            removeContainer(index);
+        }
+    }
+
+    /**
+     * Tjekker om id findes i bitmappet
+     */
+    public boolean contains(int id) {
+        int index = findKey((char) (id >>> 16));
+        if (index < 0) return false;
+        char low = (char) id;
+        Object container = containers[index];
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, 0, cardinalities[index], low) >= 0;
+    }
+
+    /**
+     * Antal id'er i bitmappet
+     */
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += cardinalities[i];
+        }
+        return total;
+    }
+
+    /**
+     * Fjerner alle id'er
+     */
+    public void clear() {
+        keys = new char[0];
+        containers = new Object[0];
+        cardinalities = new int[0];
+        size = 0;
+    }
+
+    /**
+     * Tjekker om bitmappet er tomt
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Kalder consumer for hvert id i stigende rækkefølge
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            int high = keys[i] << 16;
+            Object container = containers[i];
+            if (container instanceof long[]) {
+                long[] words = (long[]) container;
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        int bit = Long.numberOfTrailingZeros(word);
+                        consumer.accept(high | (w << 6) | bit);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[]) container;
+                for (int v = 0; v < cardinalities[i]; v++) {
+                    consumer.accept(high | values[v]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returnerer et nyt bitmap med fællesmængden
+     */
+    public NoteBitmap and(NoteBitmap other) {
+        NoteBitmap result = new NoteBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else if (containers[i] instanceof char[] && other.containers[j] instanceof char[]) {
+                // To tynde blokke: flet de sorterede arrays direkte
+                char[] values = (char[]) containers[i];
+                char[] otherValues = (char[]) other.containers[j];
+                char[] merged = new char[Math.min(cardinalities[i], other.cardinalities[j])];
+                int count = 0;
+                int a = 0;
+                int b = 0;
+                while (a < cardinalities[i] && b < other.cardinalities[j]) {
+                    if (values[a] < otherValues[b]) {
+                        a++;
+                    } else if (values[a] > otherValues[b]) {
+                        b++;
+                    } else {
+                        merged[count++] = values[a];
+                        a++;
+                        b++;
+                    }
+                }
+                if (count > 0) {
+                    result.insertContainer(result.size, keys[i], merged, count);
+                }
+                i++;
+                j++;
+            } else {
+                long[] words = toWords(containers[i], cardinalities[i]);
+                long[] otherWords = asWords(other.containers[j], other.cardinalities[j]);
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    words[w] &= otherWords[w];
+                }
+                result.appendWords(keys[i], words);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returnerer et nyt bitmap med foreningsmængden
+     */
+    public NoteBitmap or(NoteBitmap other) {
+        NoteBitmap result = new NoteBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || (i < size && keys[i] < other.keys[j])) {
+                result.appendWords(keys[i], toWords(containers[i], cardinalities[i]));
+                i++;
+            } else if (i >= size || keys[i] > other.keys[j]) {
+                result.appendWords(other.keys[j], toWords(other.containers[j], other.cardinalities[j]));
+                j++;
+            } else {
+                long[] words = toWords(containers[i], cardinalities[i]);
+                long[] otherWords = asWords(other.containers[j], other.cardinalities[j]);
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    words[w] |= otherWords[w];
+                }
+                result.appendWords(keys[i], words);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returnerer et nyt bitmap med de id'er der ikke findes i other
+     */
+    public NoteBitmap andNot(NoteBitmap other) {
+        NoteBitmap result = new NoteBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) j++;
+            long[] words = toWords(containers[i], cardinalities[i]);
+            if (j < other.size && other.keys[j] == keys[i]) {
+                long[] otherWords = asWords(other.containers[j], other.cardinalities[j]);
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    words[w] &= ~otherWords[w];
+                }
+            }
+            result.appendWords(keys[i], words);
+        }
+        return result;
+    }
+
+    /**
+     * Returnerer en uafhængig kopi
+     */
+    public NoteBitmap copy() {
+        NoteBitmap result = new NoteBitmap();
+        for (int i = 0; i < size; i++) {
+            Object container = containers[i];
+            Object clone = container instanceof long[] ? ((long[]) container).clone() : ((char[]) container).clone();
+            result.insertContainer(result.size, keys[i], clone, cardinalities[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Tilføjer en blok i slutningen og vælger den mest kompakte repræsentation
+     */
+    private void appendWords(char key, long[] words) {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        if (count == 0) return;
+        Object container = count <= ARRAY_MAX ? toArray(words, count) : words;
+        insertContainer(size, key, container, count);
+    }
+
+    private int findKey(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insertContainer(int index, char key, Object container, int cardinality) {
+        if (size == keys.length) {
+            int capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+            cardinalities = Arrays.copyOf(cardinalities, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        System.arraycopy(cardinalities, index, cardinalities, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        cardinalities[index] = cardinality;
+        size++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        System.arraycopy(cardinalities, index + 1, cardinalities, index, size - index - 1);
+        size--;
+        containers[size] = null;
+    }
+
+    /**
+     * Returnerer en ny long-bitmap kopi af en blok
+     */
+    private static long[] toWords(Object container, int cardinality) {
+        if (container instanceof long[]) {
+            return ((long[]) container).clone();
+        }
+        char[] values = (char[]) container;
+        long[] words = new long[BITMAP_WORDS];
+        for (int i = 0; i < cardinality; i++) {
+            words[values[i] >>> 6] |= 1L << values[i];
+        }
+        return words;
+    }
+
+    /**
+     * Som toWords men uden kopi når blokken allerede er et bitmap (kun til læsning)
+     */
+    private static long[] asWords(Object container, int cardinality) {
+        return container instanceof long[] ? (long[]) container : toWords(container, cardinality);
+    }
+
+    private static char[] toArray(long[] words, int cardinality) {
+        char[] values = new char[Math.max(1, cardinality)];
+        int index = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                values[index++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return values;
+    }
+}
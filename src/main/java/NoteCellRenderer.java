@@ -0,0 +1,217 @@
+import javax.swing.*;
+import java.awt.*;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * NoteCellRenderer tegner rækkerne i notelisten direkte med Graphics2D
+ * Farver og fonte deles mellem alle rækker, og visningsteksten beregnes én gang pr. note og
+ * genbruges indtil noten ændres, så tegning af en række hverken allokerer eller parser HTML
+ */
+public class NoteCellRenderer extends JComponent implements ListCellRenderer<Note> {
+    private static final long serialVersionUID = 1L;
+
+    private static final Color FAVORITE_BACKGROUND = new Color(255, 248, 220);
+    private static final Color FAVORITE_SELECTED = new Color(255, 193, 7, 150);
+    private static final Color FAVORITE_BORDER = new Color(255, 193, 7);
+    private static final Color FAVORITE_TITLE = new Color(0xB8, 0x86, 0x0B);
+    private static final Color SELECTED_DETAIL = new Color(0xE0, 0xE0, 0xE0);
+    private static final Color DETAIL = new Color(0x9A, 0xA0, 0xA6);
+    private static final Color CATEGORY = new Color(0x6C, 0x75, 0x7D);
+    private static final int PADDING_X = 12;
+    private static final int PADDING_Y = 8;
+    private static final int LINE_GAP = 4;
+
+    private final Color background;
+    private final Color selectedBackground;
+    private final Color textColor;
+    private final Color borderColor;
+    private final Map<?, ?> desktopHints;
+    private final Map<Note, Row> rows = new WeakHashMap<>();
+
+    private Font baseFont;
+    private Font titleFont;
+    private Font categoryFont;
+    private Font detailFont;
+
+    // Tilstanden for den række der tegnes lige nu
+    private Row row;
+    private boolean selected;
+    private boolean favorite;
+
+    /**
+     * Visningsdata for én note; felterne sammenlignes på reference, så en ændret note opdages uden at bygge strenge
+     */
+    private static final class Row {
+        String title;
+        String category;
+        String content;
+        long modified;
+        boolean favorite;
+
+        String titleText;
+        String categoryText;
+        String detailText;
+
+        int clipWidth = -1;
+        String clippedTitle;
+
+        boolean isCurrent(Note note) {
+            return title == note.getTitle() && category == note.getCategory() && content == note.getContent()
+                && modified == note.getLastModifiedMillis() && favorite == note.isFavorite();
+        }
+
+        void update(Note note) {
+            title = note.getTitle();
+            category = note.getCategory();
+            content = note.getContent();
+            modified = note.getLastModifiedMillis();
+            favorite = note.isFavorite();
+
+            titleText = (favorite ? "[*] " : "") + (title == null || title.isEmpty() ? "Untitled" : title);
+            categoryText = "Generel".equals(category) ? null : "[" + category + "]";
+            detailText = note.getFormattedDate() + " • " + note.getWordCount() + " ord";
+            clipWidth = -1;
+        }
+    }
+
+    public NoteCellRenderer(Color background, Color selectedBackground, Color textColor, Color borderColor) {
+        this.background = background;
+        this.selectedBackground = selectedBackground;
+        this.textColor = textColor;
+        this.borderColor = borderColor;
+        this.desktopHints = (Map<?, ?>) Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+        setOpaque(true);
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends Note> list, Note note, int index,
+                                                  boolean isSelected, boolean cellHasFocus) {
+        Font listFont = list.getFont();
+        if (listFont != baseFont) {
+            baseFont = listFont;
+            titleFont = listFont.deriveFont(Font.BOLD);
+            categoryFont = listFont.deriveFont(9f);
+            detailFont = listFont.deriveFont(10f);
+            for (Row cached : rows.values()) {
+                cached.clipWidth = -1;
+            }
+        }
+
+        Row cached = rows.get(note);
+        if (cached == null) {
+            cached = new Row();
+            cached.update(note);
+            rows.put(note, cached);
+        } else if (!cached.isCurrent(note)) {
+            cached.update(note);
+        }
+        row = cached;
+        selected = isSelected;
+        favorite = note.isFavorite();
+        return this;
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        Graphics2D g = (Graphics2D) graphics;
+        if (desktopHints != null) {
+            g.addRenderingHints(desktopHints);
+        }
+        int width = getWidth();
+        int height = getHeight();
+
+        if (selected) {
+            g.setColor(favorite ? FAVORITE_SELECTED : selectedBackground);
+        } else {
+            g.setColor(favorite ? FAVORITE_BACKGROUND : background);
+        }
+        g.fillRect(0, 0, width, height);
+        g.setColor(favorite ? FAVORITE_BORDER : borderColor);
+        g.drawRect(0, 0, width - 1, height - 1);
+
+        FontMetrics titleMetrics = g.getFontMetrics(titleFont);
+        FontMetrics detailMetrics = g.getFontMetrics(detailFont);
+        int textHeight = titleMetrics.getHeight() + LINE_GAP + detailMetrics.getHeight();
+        int titleBaseline = Math.max(PADDING_Y, (height - textHeight) / 2) + titleMetrics.getAscent();
+        int detailBaseline = titleBaseline + titleMetrics.getDescent() + LINE_GAP + detailMetrics.getAscent();
+
+        // Kategorien står efter titlen; titlen forkortes så begge kan være der
+        int available = width - 2 * PADDING_X;
+        int categoryWidth = 0;
+        FontMetrics categoryMetrics = null;
+        if (row.categoryText != null) {
+            categoryMetrics = g.getFontMetrics(categoryFont);
+            categoryWidth = categoryMetrics.stringWidth(row.categoryText) + 6;
+        }
+        String title = clippedTitle(titleMetrics, Math.max(0, available - categoryWidth));
+
+        g.setFont(titleFont);
+        g.setColor(favorite && !selected ? FAVORITE_TITLE : (selected ? Color.WHITE : textColor));
+        g.drawString(title, PADDING_X, titleBaseline);
+
+        if (categoryMetrics != null) {
+            g.setFont(categoryFont);
+            g.setColor(selected ? SELECTED_DETAIL : CATEGORY);
+            g.drawString(row.categoryText, PADDING_X + titleMetrics.stringWidth(title) + 6, titleBaseline);
+        }
+
+        g.setFont(detailFont);
+        g.setColor(selected ? SELECTED_DETAIL : DETAIL);
+        g.drawString(row.detailText, PADDING_X, detailBaseline);
+    }
+
+    /**
+     * Returnerer titlen forkortet med "..." til bredden; resultatet caches pr. bredde
+     */
+    private String clippedTitle(FontMetrics metrics, int width) {
+        if (row.clipWidth == width) {
+            return row.clippedTitle;
+        }
+        String text = row.titleText;
+        if (metrics.stringWidth(text) > width) {
+            int ellipsis = metrics.stringWidth("...");
+            int end = text.length();
+            while (end > 0 && metrics.stringWidth(text.substring(0, end)) + ellipsis > width) {
+                end--;
+            }
+            text = text.substring(0, end) + "...";
+        }
+        row.clipWidth = width;
+        row.clippedTitle = text;
+        return text;
+    }
+
+    // Samme genveje som DefaultListCellRenderer: en stempel-komponent skal ikke lave layout eller events
+    @Override
+    public void invalidate() {
+    }
+
+    @Override
+    public void validate() {
+    }
+
+    @Override
+    public void revalidate() {
+    }
+
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+    }
+
+    @Override
+    public void repaint(Rectangle r) {
+    }
+
+    @Override
+    public void repaint() {
+    }
+
+    @Override
+    protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+    }
+
+    @Override
+    public void firePropertyChange(String propertyName, boolean oldValue, boolean newValue) {
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * NoteCodec koder en enkelt note til bytes og tilbage
+ * Bruges til de enkelte records i notes.dat, så hver note kan krypteres og læses for sig.
+ * Formatet er versioneret, så nye felter kan tilføjes uden at gamle filer bliver ulæselige
+ * (version 2 tilføjede redigeringshistorikken til sidst)
+ */
+public class NoteCodec {
+    private static final int VERSION = 2;
+
+    private NoteCodec() {
+    }
+
+    /**
+     * Koder alle felter i noten
+     */
+    public static byte[] encode(NoteData note) throws IOException {
+        String content = note.getContent() == null ? "" : note.getContent();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + content.length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            writeString(out, note.getId());
+            writeString(out, note.getTitle());
+            writeString(out, content);
+            writeString(out, note.getCategory());
+            out.writeBoolean(note.isFavorite());
+            out.writeLong(note.getCreatedAtMillis());
+            out.writeLong(note.getLastModifiedMillis());
+            byte[] history = note.getHistory();
+            out.writeInt(history == null ? -1 : history.length);
+            if (history != null) {
+                out.write(history);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Genskaber en note fra encode
+     */
+    public static Note decode(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int version = in.readUnsignedByte();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Ukendt note-format: " + version);
+            }
+            String id = readString(in);
+            String title = readString(in);
+            String content = readString(in);
+            String category = readString(in);
+            boolean favorite = in.readBoolean();
+            long createdAt = in.readLong();
+            long lastModified = in.readLong();
+            Note note = new Note(id, title, content, category, favorite, createdAt, lastModified);
+            if (version >= 2) {
+                int length = in.readInt();
+                if (length >= 0) {
+                    byte[] history = new byte[length];
+                    in.readFully(history);
+                    note.setHistory(history);
+                }
+            }
+            return note;
+        }
+    }
+
+    // writeUTF er begrænset til 64 KB, så strenge skrives som længde + UTF-8
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,60 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * NoteData er de læsbare felter på en note
+ * Implementeres både af den redigerbare Note og af den uforanderlige NoteVersion, så lager,
+ * søgning og sortering virker på begge uden kopiering
+ */
+public interface NoteData {
+    String getId();
+
+    String getTitle();
+
+    String getContent();
+
+    String getCategory();
+
+    boolean isFavorite();
+
+    /**
+     * Oprettelsestid som lokale millisekunder
+     */
+    long getCreatedAtMillis();
+
+    /**
+     * Sidste ændring som lokale millisekunder
+     */
+    long getLastModifiedMillis();
+
+    int getWordCount();
+
+    /**
+     * Redigeringshistorikken til fletning (se TextCrdt), eller null hvis noten ikke har nogen
+     */
+    default byte[] getHistory() {
+        return null;
+    }
+
+    default LocalDateTime getCreatedAt() {
+        return toDateTime(getCreatedAtMillis());
+    }
+
+    default LocalDateTime getLastModified() {
+        return toDateTime(getLastModifiedMillis());
+    }
+
+    /**
+     * Lokal tid som millisekunder; tidszonen gemmes ikke, så tiden regnes som om den var UTC
+     */
+    static long toMillis(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC) * 1000 + dateTime.getNano() / 1_000_000;
+    }
+
+    /**
+     * Den modsatte vej af toMillis
+     */
+    static LocalDateTime toDateTime(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
+}
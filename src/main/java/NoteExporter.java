@@ -0,0 +1,247 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * NoteExporter skriver noter til et ZIP-arkiv med én fil pr. note, som Markdown eller JSON
+ * Noterne kommer som en strøm (fx direkte fra NotesStorage.readNotes) og formateres parallelt på en
+ * trådpool, men skrives i den rækkefølge de kom. Kun et vindue af noter er i luften ad gangen, så
+ * hukommelsen er den samme uanset samlingens størrelse
+ */
+public class NoteExporter implements AutoCloseable {
+    private static final int WINDOW = 256;
+
+    private final Format format;
+    private final ExecutorService renderers;
+
+    /**
+     * Filformatet for noterne i arkivet
+     */
+    public enum Format {
+        /** Markdown med metadata som YAML front-matter */
+        MARKDOWN(".md"),
+        /** Ét JSON-objekt pr. note i samme format som import læser */
+        JSON(".json");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public static Format parse(String value) {
+            switch (value.toLowerCase()) {
+                case "md":
+                case "markdown": return MARKDOWN;
+                case "json": return JSON;
+                default: throw new IllegalArgumentException("Ukendt format: " + value + " (brug markdown eller json)");
+            }
+        }
+    }
+
+    /**
+     * Giver noterne til consumer én ad gangen, fx {@code consumer -> model.readNotes(consumer::accept)}
+     */
+    public interface Source {
+        void read(Consumer<NoteData> consumer) throws Exception;
+    }
+
+    /**
+     * En formateret note klar til at blive skrevet
+     */
+    private static final class Rendered {
+        final String name;
+        final byte[] bytes;
+        final long modified;
+
+        Rendered(String name, byte[] bytes, long modified) {
+            this.name = name;
+            this.bytes = bytes;
+            this.modified = modified;
+        }
+    }
+
+    public NoteExporter(Format format, int threads) {
+        this.format = format;
+        this.renderers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "notes-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Skriver alle noter fra kilden til arkivet og lukker strømmen; returnerer antallet af noter
+     * Noterne der gives videre må ikke ændres mens eksporten kører (brug Note fra en læsning eller NoteVersion).
+     * Fejler eksporten, afsluttes arkivet ikke (ZIP-indholdsfortegnelsen og et krypteret arkivs sidste bid
+     * skrives ikke), så en halv eksport ikke ligner en hel
+     */
+    public int export(Source source, OutputStream out) throws Exception {
+        Deque<Future<Rendered>> pending = new ArrayDeque<>(WINDOW);
+        Set<String> names = new HashSet<>();
+        int[] count = {0};
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out), StandardCharsets.UTF_8);
+        try {
+            try {
+                source.read(note -> {
+                    pending.add(renderers.submit(() -> render(note)));
+                    if (pending.size() >= WINDOW) {
+                        writeEntry(zip, pending.poll(), names);
+                        count[0]++;
+                    }
+                });
+                while (!pending.isEmpty()) {
+                    writeEntry(zip, pending.poll(), names);
+                    count[0]++;
+                }
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+            zip.close();
+        } catch (Throwable e) {
+            for (Future<Rendered> future : pending) {
+                future.cancel(true);
+            }
+            abort(out, e);
+            throw e;
+        }
+        return count[0];
+    }
+
+    /**
+     * Skriver arkivet til filen, krypteret med samlingens nøgle når encryptWith ikke er null
+     * Fejler eksporten, slettes den halve fil
+     */
+    public int export(Source source, Path file, NotesStorage encryptWith) throws Exception {
+        byte[] salt = encryptWith == null ? null : encryptWith.loadSalt();
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(file));
+        try {
+            if (encryptWith != null) {
+                out = new EncryptedArchive.Output(encryptWith.getCryptoManager(), salt, out);
+            }
+            return export(source, out);
+        } catch (Throwable e) {
+            abort(out, e);
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException deleteError) {
+                e.addSuppressed(deleteError);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Lukker strømmen efter en fejl uden at afslutte et krypteret arkiv; fejl ved lukningen lægges på den første
+     */
+    private static void abort(OutputStream out, Throwable failure) {
+        try {
+            if (out instanceof EncryptedArchive.Output) {
+                ((EncryptedArchive.Output) out).abort();
+            } else {
+                out.close();
+            }
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        renderers.shutdownNow();
+    }
+
+    /**
+     * Venter på den ældste formaterede note og skriver den som en ZIP-post
+     */
+    private static void writeEntry(ZipOutputStream zip, Future<Rendered> future, Set<String> names) {
+        try {
+            Rendered rendered = future.get();
+            String name = rendered.name;
+            // To noter med samme titel og id-start i samme kategori får et løbenummer
+            for (int i = 2; !names.add(name); i++) {
+                int dot = rendered.name.lastIndexOf('.');
+                name = rendered.name.substring(0, dot) + " " + i + rendered.name.substring(dot);
+            }
+            ZipEntry entry = new ZipEntry(name);
+            entry.setLastModifiedTime(FileTime.from(NoteData.toDateTime(rendered.modified)
+                .atZone(ZoneId.systemDefault()).toInstant()));
+            zip.putNextEntry(entry);
+            zip.write(rendered.bytes);
+            zip.closeEntry();
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        } catch (InterruptedException | IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private Rendered render(NoteData note) {
+        String name = fileName(note.getCategory()) + "/" + fileName(note.getTitle()) + " (" + shortId(note.getId()) + ")"
+            + format.extension;
+        StringBuilder text = new StringBuilder(note.getContent() == null ? 64 : note.getContent().length() + 256);
+        if (format == Format.JSON) {
+            NoteJson.write(note, text);
+            text.append('\n');
+        } else {
+            renderMarkdown(note, text);
+        }
+        return new Rendered(name, text.toString().getBytes(StandardCharsets.UTF_8), note.getLastModifiedMillis());
+    }
+
+    /**
+     * Metadata som YAML front-matter; strengene skrives i JSON-form, som også er gyldig YAML
+     */
+    static void renderMarkdown(NoteData note, StringBuilder out) {
+        out.append("---\n");
+        out.append("id: ");
+        Json.quote(note.getId(), out);
+        out.append("\ntitle: ");
+        Json.quote(note.getTitle() == null ? "" : note.getTitle(), out);
+        out.append("\ncategory: ");
+        Json.quote(note.getCategory(), out);
+        out.append("\nfavorite: ").append(note.isFavorite());
+        out.append("\ncreated: ").append(note.getCreatedAt());
+        out.append("\nmodified: ").append(note.getLastModified());
+        out.append("\n---\n\n");
+        out.append(note.getContent() == null ? "" : note.getContent());
+        if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Gør en titel eller kategori brugbar som filnavn på alle systemer
+     */
+    static String fileName(String text) {
+        StringBuilder name = new StringBuilder();
+        String source = text == null ? "" : text.trim();
+        for (int i = 0; i < source.length() && name.length() < 80; i++) {
+            char c = source.charAt(i);
+            name.append(c < 0x20 || "\\/:*?\"<>|".indexOf(c) >= 0 ? '_' : c);
+        }
+        while (name.length() > 0 && (name.charAt(name.length() - 1) == '.' || name.charAt(name.length() - 1) == ' ')) {
+            name.setLength(name.length() - 1);
+        }
+        return name.length() == 0 ? "Uden titel" : name.toString();
+    }
+
+    private static String shortId(String id) {
+        return id.length() > 8 ? id.substring(0, 8) : fileName(id);
+    }
+}
@@ -0,0 +1,91 @@
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * NoteFootprint måler hukommelse pr. note før og efter den kompakte Note
+ * Noterne oprettes uden indhold, så tallet er ren metadata-overhead. Målingen sker med heap-forskelle
+ * efter GC, så kør med en fast heap for stabile tal: {@code java -Xms1g -Xmx1g NoteFootprint [antal]}
+ */
+public class NoteFootprint {
+    private static final String[] CATEGORIES = {"Generel", "Arbejde", "Personligt", "Ideer"};
+
+    /**
+     * Den oprindelige Note layout (UUID-streng, to LocalDateTime og en ikke-internet kategori)
+     */
+    private static final class LegacyNote {
+        final String id;
+        final String title;
+        final String content;
+        final String category;
+        final boolean isFavorite;
+        final LocalDateTime createdAt;
+        final LocalDateTime lastModified;
+
+        LegacyNote(String title, String content, String category) {
+            this.id = UUID.randomUUID().toString();
+            this.title = title;
+            this.content = content;
+            this.category = category;
+            this.isFavorite = false;
+            this.createdAt = LocalDateTime.now();
+            this.lastModified = LocalDateTime.now();
+        }
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        String title = "";
+        String content = "";
+
+        long legacyBytes = measure(count, random -> {
+            // new String svarer til kategorier læst fra fil, hvor hver note får sin egen kopi
+            return new LegacyNote(title, content, new String(CATEGORIES[random.nextInt(CATEGORIES.length)]));
+        });
+        long compactBytes = measure(count, random -> {
+            Note note = new Note(title, content);
+            note.setCategory(new String(CATEGORIES[random.nextInt(CATEGORIES.length)]));
+            return note;
+        });
+
+        System.out.println("Noter: " + count + " (uden titel og indhold)");
+        System.out.printf("%-30s %10s%n", "layout", "bytes/note");
+        System.out.printf("%-30s %10.1f%n", "før (strenge + LocalDateTime)", (double) legacyBytes / count);
+        System.out.printf("%-30s %10.1f%n", "efter (kompakt)", (double) compactBytes / count);
+        System.out.printf("Sparet: %.1f MB pr. million noter%n", (legacyBytes - compactBytes) / (double) count);
+    }
+
+    private interface Factory {
+        Object create(Random random);
+    }
+
+    /**
+     * Opretter count objekter og returnerer hvor meget heapen voksede
+     */
+    private static long measure(int count, Factory factory) {
+        Random random = new Random(42);
+        Object[] keep = new Object[count];
+        long before = usedMemory();
+        for (int i = 0; i < count; i++) {
+            keep[i] = factory.create(random);
+        }
+        long after = usedMemory();
+        if (keep[random.nextInt(count)] == null) {
+            throw new IllegalStateException();
+        }
+        return after - before;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * NoteImporter læser mapper med .txt/.md filer og store JSON-arkiver og afleverer noterne i bidder
+ * Filerne i en mappe læses og afkodes parallelt på en trådpool, men afleveres i den rækkefølge de blev
+ * fundet. Der er højst et par bidder i luften ad gangen, så hukommelsen er begrænset uanset antal
+ * filer; JSON-arkiver læses som strøm (JSON-linjer eller ét stort array). Noter med et id der allerede
+ * findes springes over
+ */
+public class NoteImporter implements AutoCloseable {
+    private final Set<String> existingIds;
+    private final int batchSize;
+    private final Sink sink;
+    private final Consumer<NoteImporter> progress;
+    private final ExecutorService readers;
+    private final List<Note> batch = new ArrayList<>();
+
+    private int imported;
+    private int skipped;
+    private long bytesRead;
+
+    /**
+     * Modtager hver færdig bid, fx NotesStorage.appendNotes
+     */
+    public interface Sink {
+        void write(List<Note> batch) throws Exception;
+    }
+
+    /**
+     * @param existingIds id'er der allerede findes; importerede id'er lægges til undervejs
+     * @param batchSize   antal noter pr. bid
+     * @param threads     antal tråde der læser filer
+     * @param sink        modtager bidderne; kaldes på den tråd der importerer
+     * @param progress    kaldes efter hver bid (kan være null)
+     */
+    public NoteImporter(Set<String> existingIds, int batchSize, int threads, Sink sink, Consumer<NoteImporter> progress) {
+        this.existingIds = existingIds;
+        this.batchSize = batchSize;
+        this.sink = sink;
+        this.progress = progress;
+        this.readers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "notes-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Importerer en mappe (rekursivt), en .jsonl/.json fil eller en enkelt tekstfil
+     */
+    public void importPath(Path path) throws Exception {
+        String name = path.getFileName() == null ? "" : path.getFileName().toString().toLowerCase();
+        if (Files.isDirectory(path)) {
+            importDirectory(path);
+        } else if (name.endsWith(".jsonl") || name.endsWith(".json")) {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                importJson(reader);
+            }
+        } else {
+            add(readTextNote(path));
+        }
+    }
+
+    /**
+     * Importerer JSON fra en strøm; starter den med [ er det ét array, ellers JSON-linjer
+     */
+    public void importJson(Reader in) throws Exception {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        reader.mark(1);
+        int first = reader.read();
+        while (first != -1 && Character.isWhitespace(first)) {
+            reader.mark(1);
+            first = reader.read();
+        }
+        if (first == -1) {
+            return;
+        }
+        reader.reset();
+        if (first == '[') {
+            int[] number = {0};
+            try {
+                Json.streamArray(reader, element -> {
+                    number[0]++;
+                    try {
+                        addJson(element, "Element " + number[0]);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                });
+            } catch (CompletionException e) {
+                throw (Exception) e.getCause();
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Element " + (number[0] + 1) + ": " + e.getMessage());
+            }
+            return;
+        }
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            if (!line.trim().isEmpty()) {
+                addJson(line, "Linje " + number);
+            }
+        }
+    }
+
+    /**
+     * Skriver den sidste halve bid
+     */
+    public void flush() throws Exception {
+        if (!batch.isEmpty()) {
+            sink.write(new ArrayList<>(batch));
+            batch.clear();
+            if (progress != null) {
+                progress.accept(this);
+            }
+        }
+    }
+
+    /**
+     * Skriver resten og stopper læsetrådene; fejl fra skrivningen kommer ud som IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Den sidste bid kunne ikke gemmes", e);
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Bytes læst fra tekstfiler og JSON-elementer indtil nu
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Går mappen igennem og læser filerne parallelt; højst to bidder ligger færdige eller i gang ad gangen
+     */
+    private void importDirectory(Path directory) throws Exception {
+        int window = Math.max(1, 2 * batchSize);
+        Deque<Future<Note>> pending = new ArrayDeque<>(window);
+        try (Stream<Path> files = Files.walk(directory)) {
+            Iterator<Path> iterator = files.filter(NoteImporter::isTextFile).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                pending.add(readers.submit(() -> readTextNote(file)));
+                if (pending.size() >= window) {
+                    add(result(pending.poll()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                add(result(pending.poll()));
+            }
+        } finally {
+            for (Future<Note> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void addJson(String json, String where) throws Exception {
+        Note note;
+        try {
+            note = NoteJson.fromJson(Json.parseObject(json));
+        } catch (RuntimeException e) {
+            throw new IOException(where + ": " + e.getMessage());
+        }
+        bytesRead += json.length();
+        if (!existingIds.add(note.getId())) {
+            skipped++;
+            return;
+        }
+        add(note);
+    }
+
+    private void add(Note note) throws Exception {
+        batch.add(note);
+        imported++;
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    private Note result(Future<Note> future) throws Exception {
+        try {
+            Note note = future.get();
+            bytesRead += note.getCharacterCount();
+            return note;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new IOException(cause);
+        }
+    }
+
+    static boolean isTextFile(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return Files.isRegularFile(file) && (name.endsWith(".txt") || name.endsWith(".md"));
+    }
+
+    /**
+     * Filnavnet uden endelse bliver titlen og filens ændringstid bliver notens tidsstempler
+     */
+    static Note readTextNote(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        LocalDateTime modified = LocalDateTime.ofInstant(Files.getLastModifiedTime(file).toInstant(), ZoneId.systemDefault());
+        long millis = NoteData.toMillis(modified);
+        return new Note(UUID.randomUUID().toString(), dot > 0 ? name.substring(0, dot) : name, content,
+            "Generel", false, millis, millis);
+    }
+}
@@ -0,0 +1,612 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * NoteIndex giver hver note en fast plads (int id) og vedligeholder komprimerede bitmap-indekser
+ * for kategorier og favoritter. Søgeudtryk (NoteQuery) evalueres som AND/OR/ANDNOT på bitmaps,
+ * og kun de prædikater der ikke har et indeks testes note for note.
+ * Sorteringerne vedligeholdes som sorterede blokke af pladser, så en filtrering blot fletter
+ * resultat-bitmappet med den forudsorterede rækkefølge i lineær tid
+ */
+public class NoteIndex implements Note.ChangeListener {
+    private static final int PLAN_CACHE_SIZE = 64;
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 20000;
+
+    private final List<Note> slots = new ArrayList<>();
+    private final List<String> slotCategories = new ArrayList<>();
+    private final Map<Note, Integer> slotOf = new HashMap<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+
+    private final NoteBitmap allNotes = new NoteBitmap();
+    private final NoteBitmap favorites = new NoteBitmap();
+    private final Map<String, NoteBitmap> categoryBitmaps = new HashMap<>();
+    private final Map<String, String> categoryNames = new TreeMap<>();
+    private long version = 0;
+    private long categoryVersion = 0;
+
+    // Cachet ordantal pr. plads, så "Mest ordrig" ikke tæller ord ved hver sammenligning
+    private int[] slotWordCounts = new int[16];
+    private final Map<NoteSortOrder, MaintainedOrder> sortOrders = new EnumMap<>(NoteSortOrder.class);
+
+    // Fra dette antal noter filtreres parallelt (kan sættes med -Dnotesapp.parallelThreshold=N)
+    private int parallelThreshold = Integer.getInteger("notesapp.parallelThreshold", DEFAULT_PARALLEL_THRESHOLD);
+
+    // LRU cache af parsede forespørgsler pr. søgestreng; planen (rækkefølgen af AND-børn) gemmes i træet
+    private final Map<String, CachedPlan> planCache = new LinkedHashMap<String, CachedPlan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedPlan> eldest) {
+            return size() > PLAN_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Parset forespørgsel og den indeksversion planen sidst blev lavet for
+     */
+    private static final class CachedPlan {
+        final NoteQuery query;
+        long planVersion = -1;
+
+        CachedPlan(NoteQuery query) {
+            this.query = query;
+        }
+    }
+
+    /**
+     * Genopbygger alle indekser fra bunden
+     */
+    public void rebuild(List<Note> notes) {
+        for (Note note : slots) {
+            if (note != null) note.setChangeListener(null);
+        }
+        slots.clear();
+        slotCategories.clear();
+        slotOf.clear();
+        freeSlots.clear();
+        allNotes.clear();
+        favorites.clear();
+        categoryBitmaps.clear();
+        categoryNames.clear();
+        sortOrders.clear(); // Bygges igen første gang de bruges
+        for (Note note : notes) {
+            add(note);
+        }
+        categoryVersion++;
+    }
+
+    /**
+     * Tilføjer en ny note til indekserne og abonnerer på dens ændringer
+     */
+    public void add(Note note) {
+        if (slotOf.containsKey(note)) {
+            return;
+        }
+        int slot;
+        if (freeSlots.isEmpty()) {
+            slot = slots.size();
+            slots.add(note);
+            slotCategories.add(null);
+        } else {
+            slot = freeSlots.pop();
+            slots.set(slot, note);
+        }
+        slotOf.put(note, slot);
+        allNotes.add(slot);
+        indexFields(slot, note);
+        if (slot >= slotWordCounts.length) {
+            slotWordCounts = Arrays.copyOf(slotWordCounts, Math.max(slot + 1, slotWordCounts.length * 2));
+        }
+        slotWordCounts[slot] = note.getWordCount();
+        for (MaintainedOrder order : sortOrders.values()) {
+            order.insert(slot);
+        }
+        note.setChangeListener(this);
+        version++;
+    }
+
+    /**
+     * Fjerner en note fra indekserne
+     */
+    public void remove(Note note) {
+        Integer slot = slotOf.remove(note);
+        if (slot == null) {
+            return;
+        }
+        note.setChangeListener(null);
+        for (MaintainedOrder order : sortOrders.values()) {
+            order.remove(slot);
+        }
+        unindexFields(slot);
+        allNotes.remove(slot);
+        slots.set(slot, null);
+        freeSlots.push(slot);
+        version++;
+    }
+
+    /**
+     * Kaldes af Note ved ændringer, så bitmaps og sorteringer altid er opdaterede
+     */
+    @Override
+    public void noteChanged(Note note, Note.Field field) {
+        Integer slot = slotOf.get(note);
+        if (slot == null) {
+            return;
+        }
+
+        // Flyt kun noten i de sorteringer hvor det ændrede felt indgår
+        List<MaintainedOrder> affected = new ArrayList<>(2);
+        for (MaintainedOrder order : sortOrders.values()) {
+            if (order.order.dependsOn(field)) {
+                affected.add(order);
+                order.remove(slot);
+            }
+        }
+        if (field == Note.Field.CONTENT) {
+            slotWordCounts[slot] = note.getWordCount();
+        }
+        if (field == Note.Field.CATEGORY || field == Note.Field.FAVORITE) {
+            unindexFields(slot);
+            indexFields(slot, note);
+            version++;
+        }
+        for (MaintainedOrder order : affected) {
+            order.insert(slot);
+        }
+    }
+
+    /**
+     * Fletter et resultat-bitmap med den vedligeholdte sortering.
+     * Mange træffere: lineær gennemgang af det forudsorterede array.
+     * Få træffere: sortér kun træfferne efter deres position i sorteringen
+     */
+    public int[] sorted(NoteBitmap matches, NoteSortOrder sortOrder) {
+        MaintainedOrder order = orderFor(sortOrder).flatten();
+        int count = matches.cardinality();
+        int[] result = new int[count];
+        if (count == 0) {
+            return result;
+        }
+
+        if ((long) count * 32 < order.size) {
+            long[] keyed = new long[count];
+            int[] index = {0};
+            matches.forEach(slot -> keyed[index[0]++] = ((long) order.position[slot] << 32) | slot);
+            Arrays.sort(keyed);
+            for (int i = 0; i < count; i++) {
+                result[i] = (int) keyed[i];
+            }
+        } else {
+            boolean[] hit = new boolean[slots.size()];
+            matches.forEach(slot -> hit[slot] = true);
+            int next = 0;
+            for (int i = 0; i < order.size; i++) {
+                int slot = order.sorted[i];
+                if (hit[slot]) {
+                    result[next++] = slot;
+                }
+            }
+        }
+        return result;
+    }
+
+    private MaintainedOrder orderFor(NoteSortOrder sortOrder) {
+        MaintainedOrder order = sortOrders.get(sortOrder);
+        if (order == null) {
+            order = new MaintainedOrder(sortOrder);
+            order.build();
+            sortOrders.put(sortOrder, order);
+        }
+        return order;
+    }
+
+    /**
+     * Sammenligner to pladser; uafgjort afgøres af pladsnummeret så ordenen er total
+     */
+    private int compareSlots(NoteSortOrder sortOrder, int a, int b) {
+        int result = sortOrder.compare(slots.get(a), slotWordCounts[a], slots.get(b), slotWordCounts[b]);
+        return result != 0 ? result : Integer.compare(a, b);
+    }
+
+    /**
+     * En sortering holdt som en liste af sorterede blokke på højst 2 * BLOCK pladser. En ændring finder
+     * blokken med binær søgning og flytter kun inden i den, så den koster O(BLOCK + n / BLOCK) i stedet for
+     * O(n). Det flade array og opslaget plads -> position bygges først når en filtrering læser dem
+     */
+    private final class MaintainedOrder {
+        static final int BLOCK = 256;
+
+        final NoteSortOrder order;
+        final List<Block> blocks = new ArrayList<>();
+        Block[] blockOf = new Block[16];
+        int size = 0;
+
+        // Fladt udsnit til filtrering; gyldigt når flat er true
+        int[] sorted = new int[16];
+        int[] position = new int[16];
+        boolean flat = false;
+
+        MaintainedOrder(NoteSortOrder order) {
+            this.order = order;
+        }
+
+        void build() {
+            List<Integer> all = new ArrayList<>(slotOf.values());
+            all.sort((a, b) -> compareSlots(order, a, b));
+            blocks.clear();
+            blockOf = new Block[Math.max(16, slots.size())];
+            size = all.size();
+            for (int start = 0; start < all.size(); start += BLOCK) {
+                Block block = new Block();
+                for (int i = start; i < Math.min(all.size(), start + BLOCK); i++) {
+                    int slot = all.get(i);
+                    block.slots[block.size++] = slot;
+                    blockOf[slot] = block;
+                }
+                blocks.add(block);
+            }
+            flat = false;
+        }
+
+        void insert(int slot) {
+            if (slot >= blockOf.length) {
+                blockOf = Arrays.copyOf(blockOf, Math.max(slot + 1, blockOf.length * 2));
+            }
+            if (blocks.isEmpty()) {
+                blocks.add(new Block());
+            }
+            // Første blok hvis sidste plads sorteres efter den nye; ellers den sidste blok
+            int low = 0;
+            int high = blocks.size() - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                Block block = blocks.get(mid);
+                if (compareSlots(order, block.slots[block.size - 1], slot) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            Block block = blocks.get(low);
+            block.insert(slot);
+            blockOf[slot] = block;
+            if (block.size == block.slots.length) {
+                Block upper = block.split();
+                for (int i = 0; i < upper.size; i++) {
+                    blockOf[upper.slots[i]] = upper;
+                }
+                blocks.add(low + 1, upper);
+            }
+            size++;
+            flat = false;
+        }
+
+        void remove(int slot) {
+            // Sorteringsnøglen kan allerede være ændret, så pladsen findes ved at lede i dens blok
+            Block block = blockOf[slot];
+            block.remove(slot);
+            blockOf[slot] = null;
+            if (block.size == 0) {
+                blocks.remove(block);
+            }
+            size--;
+            flat = false;
+        }
+
+        /**
+         * Bygger det flade array og positionerne hvis sorteringen er ændret siden sidst
+         */
+        MaintainedOrder flatten() {
+            if (flat) {
+                return this;
+            }
+            if (sorted.length < size) {
+                sorted = new int[Math.max(size, sorted.length * 2)];
+            }
+            if (position.length < slots.size()) {
+                position = new int[Math.max(slots.size(), position.length * 2)];
+            }
+            int next = 0;
+            for (Block block : blocks) {
+                for (int i = 0; i < block.size; i++) {
+                    int slot = block.slots[i];
+                    sorted[next] = slot;
+                    position[slot] = next++;
+                }
+            }
+            flat = true;
+            return this;
+        }
+
+        /**
+         * Sorterede pladser i én blok
+         */
+        private final class Block {
+            int[] slots = new int[2 * BLOCK];
+            int size = 0;
+
+            void insert(int slot) {
+                int low = 0;
+                int high = size;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (compareSlots(order, slots[mid], slot) < 0) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                System.arraycopy(slots, low, slots, low + 1, size - low);
+                slots[low] = slot;
+                size++;
+            }
+
+            void remove(int slot) {
+                for (int i = 0; i < size; i++) {
+                    if (slots[i] == slot) {
+                        System.arraycopy(slots, i + 1, slots, i, size - i - 1);
+                        size--;
+                        return;
+                    }
+                }
+            }
+
+            /**
+             * Flytter den øverste halvdel til en ny blok og returnerer den
+             */
+            Block split() {
+                Block upper = new Block();
+                int half = size / 2;
+                upper.size = size - half;
+                System.arraycopy(slots, half, upper.slots, 0, upper.size);
+                size = half;
+                return upper;
+            }
+        }
+    }
+
+    /**
+     * Evaluerer et søgeudtryk og returnerer de matchende noter
+     */
+    public List<Note> search(String queryText, NoteQuery.Context context) {
+        return search(queryText, "", context);
+    }
+
+    /**
+     * Evaluerer et søgeudtryk hvor filters (fx fra dropdowns) altid skal være opfyldt
+     */
+    public List<Note> search(String queryText, String filters, NoteQuery.Context context) {
+        List<Note> result = new ArrayList<>();
+        searchBitmap(queryText, filters, context).forEach(slot -> result.add(slots.get(slot)));
+        return result;
+    }
+
+    /**
+     * Evaluerer et søgeudtryk og returnerer resultatet som bitmap over note-pladser
+     */
+    public NoteBitmap searchBitmap(String queryText, String filters, NoteQuery.Context context) {
+        CachedPlan plan = planFor(queryText, filters);
+        if (plan.query.isEmpty()) {
+            return allNotes.copy();
+        }
+        return evaluate(plan.query.getRoot(), allNotes, context);
+    }
+
+    /**
+     * Filtrerer og sorterer; returnerer pladserne i sorteret rækkefølge og
+     * skifter automatisk til parallel scanning over tærsklen
+     */
+    public int[] filter(String queryText, String filters, NoteQuery.Context context, NoteSortOrder sortOrder) {
+        if (size() >= parallelThreshold) {
+            return filterParallel(queryText, filters, context, sortOrder);
+        }
+        return filterSequential(queryText, filters, context, sortOrder);
+    }
+
+    /**
+     * Sekventiel filtrering: bitmap-evaluering flettet med den vedligeholdte sortering
+     */
+    public int[] filterSequential(String queryText, String filters, NoteQuery.Context context, NoteSortOrder sortOrder) {
+        return sorted(searchBitmap(queryText, filters, context), sortOrder);
+    }
+
+    /**
+     * Parallel filtrering på ForkJoin common pool; context skal være trådsikker
+     */
+    public int[] filterParallel(String queryText, String filters, NoteQuery.Context context, NoteSortOrder sortOrder) {
+        CachedPlan plan = planFor(queryText, filters);
+        MaintainedOrder order = orderFor(sortOrder).flatten();
+        Note[] snapshot = slots.toArray(new Note[0]);
+        return new ParallelNoteScan(snapshot, order.position, plan.query.getRoot(), context).run(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Sætter antal noter hvorfra filtrering kører parallelt
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    private CachedPlan planFor(String queryText, String filters) {
+        String key = queryText + '\u0000' + filters;
+        CachedPlan plan = planCache.get(key);
+        if (plan == null) {
+            plan = new CachedPlan(NoteQuery.parse(queryText, filters));
+            planCache.put(key, plan);
+        }
+        if (plan.planVersion != version) {
+            plan(plan.query.getRoot());
+            plan.planVersion = version;
+        }
+        return plan;
+    }
+
+    /**
+     * Returnerer noten på en given plads
+     */
+    public Note getNote(int slot) {
+        return slots.get(slot);
+    }
+
+    /**
+     * Returnerer pladsen for en note, eller -1 hvis den ikke er indekseret
+     */
+    public int slotOf(Note note) {
+        Integer slot = slotOf.get(note);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Antal pladser (inklusiv ledige); alle id'er er mindre end dette tal
+     */
+    public int slotCount() {
+        return slots.size();
+    }
+
+    /**
+     * Antal indekserede noter
+     */
+    public int size() {
+        return slotOf.size();
+    }
+
+    /**
+     * Returnerer antal noter i en kategori ifølge indekset
+     */
+    public int countCategory(String category) {
+        NoteBitmap bitmap = categoryBitmaps.get(category.toLowerCase());
+        return bitmap == null ? 0 : bitmap.cardinality();
+    }
+
+    /**
+     * Returnerer antal favoritter ifølge indekset
+     */
+    public int countFavorites() {
+        return favorites.cardinality();
+    }
+
+    /**
+     * Returnerer de kategorier der findes i noterne, alfabetisk
+     */
+    public List<String> getCategories() {
+        return new ArrayList<>(categoryNames.values());
+    }
+
+    /**
+     * Tæller der ændres når mængden af kategorier ændres (til at opdatere dropdowns)
+     */
+    public long getCategoryVersion() {
+        return categoryVersion;
+    }
+
+    /**
+     * Sorterer AND-børn så billige og selektive prædikater evalueres først;
+     * indekserede prædikaters selektivitet tages fra bitmappets kardinalitet
+     */
+    private void plan(NoteQuery.Node node) {
+        if (node instanceof NoteQuery.AndNode) {
+            List<NoteQuery.Node> children = ((NoteQuery.AndNode) node).getChildren();
+            for (NoteQuery.Node child : children) {
+                plan(child);
+            }
+            children.sort(Comparator.comparingDouble(this::rank));
+        } else if (node instanceof NoteQuery.OrNode) {
+            for (NoteQuery.Node child : ((NoteQuery.OrNode) node).getChildren()) {
+                plan(child);
+            }
+        } else if (node instanceof NoteQuery.NotNode) {
+            plan(((NoteQuery.NotNode) node).getChild());
+        }
+    }
+
+    /**
+     * Filterrang: pris divideret med andelen der bliver sorteret fra
+     */
+    private double rank(NoteQuery.Node node) {
+        double selectivity = node.selectivity();
+        double cost = node.cost();
+        int total = size();
+        if (total > 0 && node instanceof NoteQuery.CategoryNode) {
+            selectivity = (double) countCategory(((NoteQuery.CategoryNode) node).getCategory()) / total;
+            cost = 0.1;
+        } else if (total > 0 && node instanceof NoteQuery.FavoriteNode) {
+            double favoriteShare = (double) favorites.cardinality() / total;
+            selectivity = ((NoteQuery.FavoriteNode) node).isFavorite() ? favoriteShare : 1 - favoriteShare;
+            cost = 0.1;
+        }
+        return cost / Math.max(1e-6, 1 - selectivity);
+    }
+
+    /**
+     * Evaluerer en node mod en kandidatmængde og returnerer de kandidater der matcher
+     */
+    private NoteBitmap evaluate(NoteQuery.Node node, NoteBitmap candidates, NoteQuery.Context context) {
+        if (node instanceof NoteQuery.AndNode) {
+            NoteBitmap result = candidates;
+            for (NoteQuery.Node child : ((NoteQuery.AndNode) node).getChildren()) {
+                if (result.isEmpty()) break;
+                result = evaluate(child, result, context);
+            }
+            return result;
+        }
+        if (node instanceof NoteQuery.OrNode) {
+            NoteBitmap result = new NoteBitmap();
+            for (NoteQuery.Node child : ((NoteQuery.OrNode) node).getChildren()) {
+                // Noter der allerede matcher behøver ikke testes mod de næste grene
+                result = result.or(evaluate(child, candidates.andNot(result), context));
+            }
+            return result;
+        }
+        if (node instanceof NoteQuery.NotNode) {
+            return candidates.andNot(evaluate(((NoteQuery.NotNode) node).getChild(), candidates, context));
+        }
+        if (node instanceof NoteQuery.CategoryNode) {
+            NoteBitmap bitmap = categoryBitmaps.get(((NoteQuery.CategoryNode) node).getCategory().toLowerCase());
+            return bitmap == null ? new NoteBitmap() : candidates.and(bitmap);
+        }
+        if (node instanceof NoteQuery.FavoriteNode) {
+            return ((NoteQuery.FavoriteNode) node).isFavorite() ? candidates.and(favorites) : candidates.andNot(favorites);
+        }
+
+        // Prædikat uden indeks: test hver kandidat
+        NoteBitmap result = new NoteBitmap();
+        candidates.forEach(slot -> {
+            if (node.matches(slots.get(slot), context)) {
+                result.add(slot);
+            }
+        });
+        return result;
+    }
+
+    private void indexFields(int slot, Note note) {
+        String name = note.getCategory();
+        String category = name.toLowerCase();
+        NoteBitmap bitmap = categoryBitmaps.get(category);
+        if (bitmap == null) {
+            bitmap = new NoteBitmap();
+            categoryBitmaps.put(category, bitmap);
+            categoryNames.put(category, name);
+            categoryVersion++;
+        }
+        bitmap.add(slot);
+        slotCategories.set(slot, category);
+        if (note.isFavorite()) {
+            favorites.add(slot);
+        }
+    }
+
+    private void unindexFields(int slot) {
+        String category = slotCategories.get(slot);
+        if (category != null) {
+            NoteBitmap bitmap = categoryBitmaps.get(category);
+            if (bitmap != null) {
+                bitmap.remove(slot);
+                if (bitmap.isEmpty()) {
+                    categoryBitmaps.remove(category);
+                    categoryNames.remove(category);
+                    categoryVersion++;
+                }
+            }
+            slotCategories.set(slot, null);
+        }
+        favorites.remove(slot);
+    }
+}
@@ -0,0 +1,71 @@
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * NoteJson oversætter mellem noter og JSON-objekter på én linje (bruges af CLI'en til eksport og import)
+ * Tidsstempler skrives som lokal tid i ISO-format, fx {@code 2026-10-19T14:03:12.345}
+ */
+public class NoteJson {
+    private NoteJson() {
+    }
+
+    /**
+     * Skriver noten som ét JSON-objekt uden linjeskift
+     */
+    public static void write(NoteData note, StringBuilder out) {
+        out.append("{\"id\":");
+        Json.quote(note.getId(), out);
+        out.append(",\"title\":");
+        Json.quote(note.getTitle() == null ? "" : note.getTitle(), out);
+        out.append(",\"category\":");
+        Json.quote(note.getCategory(), out);
+        out.append(",\"favorite\":").append(note.isFavorite());
+        out.append(",\"created\":");
+        Json.quote(note.getCreatedAt().toString(), out);
+        out.append(",\"modified\":");
+        Json.quote(note.getLastModified().toString(), out);
+        out.append(",\"content\":");
+        Json.quote(note.getContent() == null ? "" : note.getContent(), out);
+        out.append('}');
+    }
+
+    public static String toJson(NoteData note) {
+        StringBuilder out = new StringBuilder();
+        write(note, out);
+        return out.toString();
+    }
+
+    /**
+     * Laver en note fra et JSON-objekt; manglende felter får samme standard som en ny note
+     */
+    public static Note fromJson(Map<String, Object> object) {
+        String title = string(object, "title", "Untitled");
+        String content = string(object, "content", "");
+        String id = string(object, "id", UUID.randomUUID().toString());
+        long now = NoteData.toMillis(LocalDateTime.now());
+        long created = time(object, "created", now);
+        long modified = time(object, "modified", created);
+        return new Note(id, title, content, string(object, "category", "Generel"),
+            Boolean.TRUE.equals(object.get("favorite")), created, modified);
+    }
+
+    /**
+     * Et tidspunkt fra feltet; mangler det eller er det null, bruges fallback
+     */
+    private static long time(Map<String, Object> object, String field, long fallback) {
+        String value = string(object, field, null);
+        return value == null ? fallback : NoteData.toMillis(LocalDateTime.parse(value));
+    }
+
+    private static String string(Map<String, Object> object, String field, String fallback) {
+        Object value = object.get(field);
+        if (value == null) {
+            return fallback;
+        }
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("Feltet " + field + " skal være en streng");
+        }
+        return (String) value;
+    }
+}
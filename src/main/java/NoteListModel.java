@@ -0,0 +1,96 @@
+import javax.swing.AbstractListModel;
+import java.util.Arrays;
+
+/**
+ * NoteListModel er en virtualiseret ListModel for sidebaren
+ * Modellen er blot et int-array af note-pladser i NoteIndex; en ny filtrering udskifter arrayet
+ * på én gang og sender ét contentsChanged event, så JList kun tegner de synlige rækker
+ */
+public class NoteListModel extends AbstractListModel<Note> {
+    private static final long serialVersionUID = 1L;
+
+    private final NoteIndex noteIndex;
+    private volatile int[] slots = new int[0];
+
+    public NoteListModel(NoteIndex noteIndex) {
+        this.noteIndex = noteIndex;
+    }
+
+    @Override
+    public int getSize() {
+        return slots.length;
+    }
+
+    @Override
+    public Note getElementAt(int index) {
+        return noteIndex.getNote(slots[index]);
+    }
+
+    /**
+     * Udskifter hele indholdet med et nyt array af pladser og giver JList besked én gang
+     */
+    public void setSlots(int[] newSlots) {
+        int oldSize = slots.length;
+        slots = newSlots;
+        int changed = Math.max(oldSize, newSlots.length);
+        if (changed > 0) {
+            fireContentsChanged(this, 0, changed - 1);
+        }
+    }
+
+    /**
+     * Tilføjer pladser i slutningen (bruges mens noterne indlæses i bidder)
+     */
+    public void append(int[] moreSlots) {
+        if (moreSlots.length == 0) {
+            return;
+        }
+        int[] current = slots;
+        int[] grown = Arrays.copyOf(current, current.length + moreSlots.length);
+        System.arraycopy(moreSlots, 0, grown, current.length, moreSlots.length);
+        slots = grown;
+        fireIntervalAdded(this, current.length, grown.length - 1);
+    }
+
+    /**
+     * Returnerer rækken for en note, eller -1 hvis den ikke vises
+     */
+    public int indexOf(Note note) {
+        int slot = noteIndex.slotOf(note);
+        if (slot < 0) {
+            return -1;
+        }
+        int[] current = slots;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == slot) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Fortæller JList at en række skal tegnes igen (fx efter gem eller favorit)
+     */
+    public void fireRowChanged(int row) {
+        if (row >= 0 && row < slots.length) {
+            fireContentsChanged(this, row, row);
+        }
+    }
+
+    /**
+     * Fjerner en enkelt note fra visningen; skal kaldes før noten fjernes fra indekset
+     */
+    public void remove(Note note) {
+        int row = indexOf(note);
+        if (row < 0) {
+            return;
+        }
+        int[] current = slots;
+        int[] shrunk = new int[current.length - 1];
+        System.arraycopy(current, 0, shrunk, 0, row);
+        System.arraycopy(current, row + 1, shrunk, row, current.length - row - 1);
+        slots = shrunk;
+        fireIntervalRemoved(this, row, row);
+    }
+}
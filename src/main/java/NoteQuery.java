@@ -0,0 +1,583 @@
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * NoteQuery er et parset søgeudtryk fra søgefeltet, fx
+ * {@code kategori:Arbejde fav:ja ændret:>2026-01-01 ord:>500 "præcis sætning" -kladde}
+ * Udtrykket bliver til et prædikattræ som NoteIndex planlægger og evaluerer
+ */
+public class NoteQuery {
+    private final Node root;
+
+    private NoteQuery(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Returnerer roden af prædikattræet
+     */
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * Tjekker om forespørgslen matcher alle noter (tom forespørgsel)
+     */
+    public boolean isEmpty() {
+        return root instanceof AndNode && ((AndNode) root).children.isEmpty();
+    }
+
+    /**
+     * Antallet af betingelser (blade) i prædikattræet
+     */
+    public int countClauses() {
+        return countClauses(root);
+    }
+
+    private static int countClauses(Node node) {
+        if (node instanceof NotNode) {
+            return countClauses(((NotNode) node).child);
+        }
+        List<Node> children = node instanceof AndNode ? ((AndNode) node).children
+            : node instanceof OrNode ? ((OrNode) node).children : null;
+        if (children == null) {
+            return 1;
+        }
+        int count = 0;
+        for (Node child : children) {
+            count += countClauses(child);
+        }
+        return count;
+    }
+
+    /**
+     * Kontekst for evaluering; giver adgang til fuzzy udvidelse af søgeord
+     */
+    public interface Context {
+        Set<String> variants(String word);
+    }
+
+    // ---------------------------------------------------------------
+    // Prædikattræ
+    // ---------------------------------------------------------------
+
+    /**
+     * Node i prædikattræet
+     */
+    public abstract static class Node {
+        /**
+         * Tjekker om noten opfylder prædikatet
+         */
+        public abstract boolean matches(NoteData note, Context context);
+
+        /**
+         * Relativ pris for at evaluere prædikatet på én note
+         */
+        public abstract double cost();
+
+        /**
+         * Anslået andel af noterne der opfylder prædikatet (uden indeks)
+         */
+        public double selectivity() {
+            return 0.5;
+        }
+    }
+
+    /**
+     * Alle børn skal matche
+     */
+    public static final class AndNode extends Node {
+        final List<Node> children;
+
+        AndNode(List<Node> children) {
+            this.children = children;
+        }
+
+        public List<Node> getChildren() {
+            return children;
+        }
+
+        @Override
+        public boolean matches(NoteData note, Context context) {
+            for (Node child : children) {
+                if (!child.matches(note, context)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public double cost() {
+            double sum = 0;
+            for (Node child : children) sum += child.cost();
+            return sum;
+        }
+
+        @Override
+        public double selectivity() {
+            double product = 1;
+            for (Node child : children) product *= child.selectivity();
+            return product;
+        }
+    }
+
+    /**
+     * Mindst ét barn skal matche
+     */
+    public static final class OrNode extends Node {
+        final List<Node> children;
+
+        OrNode(List<Node> children) {
+            this.children = children;
+        }
+
+        public List<Node> getChildren() {
+            return children;
+        }
+
+        @Override
+        public boolean matches(NoteData note, Context context) {
+            for (Node child : children) {
+                if (child.matches(note, context)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public double cost() {
+            double sum = 0;
+            for (Node child : children) sum += child.cost();
+            return sum;
+        }
+
+        @Override
+        public double selectivity() {
+            double none = 1;
+            for (Node child : children) none *= 1 - child.selectivity();
+            return 1 - none;
+        }
+    }
+
+    /**
+     * Negation af et prædikat (-ord)
+     */
+    public static final class NotNode extends Node {
+        final Node child;
+
+        NotNode(Node child) {
+            this.child = child;
+        }
+
+        public Node getChild() {
+            return child;
+        }
+
+        @Override
+        public boolean matches(NoteData note, Context context) {
+            return !child.matches(note, context);
+        }
+
+        @Override
+        public double cost() {
+            return child.cost();
+        }
+
+        @Override
+        public double selectivity() {
+            return 1 - child.selectivity();
+        }
+    }
+
+    /**
+     * Frit søgeord; matcher som delstreng i titel eller indhold
+     */
+    public static final class WordNode extends Node {
+        final String word;
+
+        WordNode(String word) {
+            this.word = word.toLowerCase();
+        }
+
+        @Override
+        public boolean matches(NoteData note, Context context) {
+            String title = note.getTitle().toLowerCase();
+            String content = note.getContent().toLowerCase();
+            for (String variant : context.variants(word)) {
+                if (title.contains(variant) || content.contains(variant)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public double cost() {
+            return 10;
+        }
+
+        @Override
+        public double selectivity() {
+            return 0.2;
+        }
+    }
+
+    /**
+     * Præcis sætning i anførselstegn; fuzzy udvidelse bruges ikke
+     */
+    public static final class PhraseNode extends Node {
+        final String phrase;
+
+        PhraseNode(String phrase) {
+            this.phrase = phrase.toLowerCase();
+        }
+
+        @Override
+        public boolean matches(NoteData note, Context context) {
+            return note.getTitle().toLowerCase().contains(phrase)
+                || note.getContent().toLowerCase().contains(phrase);
+        }
+
+        @Override
+        public double cost() {
+            return 10;
+        }
+
+        @Override
+        public double selectivity() {
+            return 0.1;
+        }
+    }
+
+    /**
+     * Søgning kun i titlen (titel:ord)
+     */
+    public static final class TitleNode extends Node {
+        final String text;
+
+        TitleNode(String text) {
+            this.text = text.toLowerCase();
+        }
+
+        @Override
+        public boolean matches(NoteData note, Context context) {
+            return note.getTitle().toLowerCase().contains(text);
+        }
+
+        @Override
+        public double cost() {
+            return 2;
+        }
+
+        @Override
+        public double selectivity() {
+            return 0.1;
+        }
+    }
+
+    /**
+     * kategori:Navn - understøttes af kategori-indekset
+     */
+    public static final class CategoryNode extends Node {
+        final String category;
+
+        CategoryNode(String category) {
+            this.category = category;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        @Override
+        public boolean matches(NoteData note, Context context) {
+            return note.getCategory().equalsIgnoreCase(category);
+        }
+
+        @Override
+        public double cost() {
+            return 1;
+        }
+
+        @Override
+        public double selectivity() {
+            return 0.25;
+        }
+    }
+
+    /**
+     * fav:ja / fav:nej - understøttes af favorit-indekset
+     */
+    public static final class FavoriteNode extends Node {
+        final boolean favorite;
+
+        FavoriteNode(boolean favorite) {
+            this.favorite = favorite;
+        }
+
+        public boolean isFavorite() {
+            return favorite;
+        }
+
+        @Override
+        public boolean matches(NoteData note, Context context) {
+            return note.isFavorite() == favorite;
+        }
+
+        @Override
+        public double cost() {
+            return 1;
+        }
+
+        @Override
+        public double selectivity() {
+            return favorite ? 0.1 : 0.9;
+        }
+    }
+
+    /**
+     * Sammenligning på et talfelt: ord, ændret eller oprettet
+     */
+    public static final class RangeNode extends Node {
+        enum Field { WORDS, MODIFIED, CREATED }
+
+        final Field field;
+        final String operator;
+        final long value;
+
+        RangeNode(Field field, String operator, long value) {
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        public boolean matches(NoteData note, Context context) {
+            long actual;
+            switch (field) {
+                case WORDS:
+                    actual = note.getWordCount();
+                    break;
+                case CREATED:
+                    actual = toEpochDay(note.getCreatedAtMillis());
+                    break;
+                default:
+                    actual = toEpochDay(note.getLastModifiedMillis());
+                    break;
+            }
+            switch (operator) {
+                case ">": return actual > value;
+                case ">=": return actual >= value;
+                case "<": return actual < value;
+                case "<=": return actual <= value;
+                default: return actual == value;
+            }
+        }
+
+        @Override
+        public double cost() {
+            return field == Field.WORDS ? 5 : 1;
+        }
+
+        @Override
+        public double selectivity() {
+            return "=".equals(operator) ? 0.05 : 0.5;
+        }
+
+        private static long toEpochDay(long localMillis) {
+            return Math.floorDiv(localMillis, 86_400_000L);
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Parser
+    // ---------------------------------------------------------------
+
+    /**
+     * Parser et søgeudtryk. Ukendte felter og ugyldige værdier behandles som almindelige søgeord,
+     * så parseren aldrig fejler på brugerinput
+     */
+    public static NoteQuery parse(String text) {
+        List<String> tokens = tokenize(text == null ? "" : text);
+        List<Node> alternatives = new ArrayList<>();
+        List<Node> current = new ArrayList<>();
+
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            if (token.equals("OR") || token.equals("ELLER")) {
+                if (!current.isEmpty()) {
+                    alternatives.add(new AndNode(current));
+                    current = new ArrayList<>();
+                }
+                continue;
+            }
+            boolean negate = token.length() > 1 && token.startsWith("-");
+            Node node = parseTerm(negate ? token.substring(1) : token);
+            current.add(negate ? new NotNode(node) : node);
+        }
+
+        if (alternatives.isEmpty()) {
+            return new NoteQuery(new AndNode(current));
+        }
+        if (!current.isEmpty()) {
+            alternatives.add(new AndNode(current));
+        }
+        return new NoteQuery(new OrNode(alternatives));
+    }
+
+    /**
+     * Parser et søgeudtryk og kræver desuden at alle klausuler i filters er opfyldt,
+     * uanset om søgeudtrykket indeholder OR
+     */
+    public static NoteQuery parse(String text, String filters) {
+        NoteQuery query = parse(text);
+        if (filters == null || filters.trim().isEmpty()) {
+            return query;
+        }
+        List<Node> children = new ArrayList<>();
+        if (!query.isEmpty()) {
+            children.add(query.root);
+        }
+        children.addAll(((AndNode) parse(filters).root).children);
+        return new NoteQuery(new AndNode(children));
+    }
+
+    /**
+     * Bygger de faste filterklausuler for en kategori og favoritvalget; null kategori betyder alle
+     * Kategorinavnet sættes i anførselstegn med \" og \\ escapet, så det læses tilbage uændret
+     */
+    public static String filters(String category, boolean favoritesOnly) {
+        StringBuilder filters = new StringBuilder();
+        if (category != null) {
+            filters.append("kategori:").append(quote(category)).append(' ');
+        }
+        if (favoritesOnly) {
+            filters.append("fav:ja");
+        }
+        return filters.toString();
+    }
+
+    private static Node parseTerm(String token) {
+        if (token.startsWith("\"")) {
+            return new PhraseNode(unquote(token));
+        }
+
+        int colon = token.indexOf(':');
+        if (colon > 0 && colon < token.length() - 1) {
+            String field = token.substring(0, colon).toLowerCase();
+            String value = unquote(token.substring(colon + 1));
+            Node node = parseField(field, value);
+            if (node != null) {
+                return node;
+            }
+        }
+        return new WordNode(token);
+    }
+
+    private static Node parseField(String field, String value) {
+        switch (field) {
+            case "kategori":
+            case "kat":
+            case "category":
+                return new CategoryNode(value);
+            case "fav":
+            case "favorit":
+            case "favorite":
+                String lower = value.toLowerCase();
+                if (lower.equals("ja") || lower.equals("true") || lower.equals("1")) return new FavoriteNode(true);
+                if (lower.equals("nej") || lower.equals("false") || lower.equals("0")) return new FavoriteNode(false);
+                return null;
+            case "titel":
+            case "title":
+                return new TitleNode(value);
+            case "ord":
+            case "words":
+                return parseRange(RangeNode.Field.WORDS, value);
+            case "ændret":
+            case "aendret":
+            case "modified":
+                return parseRange(RangeNode.Field.MODIFIED, value);
+            case "oprettet":
+            case "created":
+                return parseRange(RangeNode.Field.CREATED, value);
+            default:
+                return null;
+        }
+    }
+
+    private static Node parseRange(RangeNode.Field field, String value) {
+        String operator = "=";
+        for (String candidate : new String[]{">=", "<=", ">", "<", "="}) {
+            if (value.startsWith(candidate)) {
+                operator = candidate;
+                value = value.substring(candidate.length());
+                break;
+            }
+        }
+        try {
+            long parsed = field == RangeNode.Field.WORDS
+                ? Long.parseLong(value)
+                : LocalDate.parse(value).toEpochDay();
+            return new RangeNode(field, operator, parsed);
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sætter en værdi i anførselstegn som tokenize og unquote læser den
+     */
+    static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Deler ved mellemrum men holder anførselstegn samlet, også efter "felt:"
+     * Inde i anførselstegn er \" og \\ et bogstaveligt anførselstegn og en backslash
+     */
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (inQuotes && isEscape(text, i)) {
+                current.append(c).append(text.charAt(++i));
+            } else if (c == '"') {
+                inQuotes = !inQuotes;
+                current.append(c);
+            } else if (Character.isWhitespace(c) && !inQuotes) {
+                if (current.length() > 0) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                }
+            } else {
+                current.append(c);
+            }
+        }
+        if (current.length() > 0) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+
+    private static boolean isEscape(String text, int i) {
+        return text.charAt(i) == '\\' && i + 1 < text.length()
+            && (text.charAt(i + 1) == '"' || text.charAt(i + 1) == '\\');
+    }
+
+    private static String unquote(String value) {
+        if (!value.startsWith("\"")) {
+            return value.endsWith("\"") ? value.substring(0, value.length() - 1) : value;
+        }
+        StringBuilder unquoted = new StringBuilder(value.length());
+        for (int i = 1; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (isEscape(value, i)) {
+                unquoted.append(value.charAt(++i));
+            } else if (c == '"') {
+                break;
+            } else {
+                unquoted.append(c);
+            }
+        }
+        return unquoted.toString();
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * NoteRepository holder de seneste uforanderlige versioner af alle noter i et PersistentMap efter id
+ * Læsere tager et Snapshot med snapshot() uden låse og ser en sammenhængende samling, også mens der
+ * skrives. Skrivere laver et nyt map og skifter det ind atomisk (compare-and-set); to samtidige
+ * skrivere prøver blot igen, så ingen ændring går tabt
+ */
+public class NoteRepository {
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(new Snapshot(PersistentMap.empty(), 0));
+
+    /**
+     * Uforanderligt billede af samlingen; version stiger med én for hver udgivet ændring
+     */
+    public static final class Snapshot implements Iterable<NoteVersion> {
+        private final PersistentMap<String, NoteVersion> notes;
+        private final long version;
+
+        Snapshot(PersistentMap<String, NoteVersion> notes, long version) {
+            this.notes = notes;
+            this.version = version;
+        }
+
+        public NoteVersion get(String id) {
+            return notes.get(id);
+        }
+
+        public boolean contains(String id) {
+            return notes.containsKey(id);
+        }
+
+        public int size() {
+            return notes.size();
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Noterne sorteret efter oprettelse og id, så filer og svar får en fast rækkefølge
+         */
+        public List<NoteVersion> toList() {
+            List<NoteVersion> list = new ArrayList<>(notes.size());
+            notes.forEach((id, note) -> list.add(note));
+            list.sort(Comparator.comparingLong(NoteVersion::getCreatedAtMillis).thenComparing(NoteVersion::getId));
+            return list;
+        }
+
+        /**
+         * Besøger noterne uden at sortere eller kopiere dem
+         */
+        @Override
+        public void forEach(Consumer<? super NoteVersion> action) {
+            notes.forEach((id, note) -> action.accept(note));
+        }
+
+        @Override
+        public Iterator<NoteVersion> iterator() {
+            List<NoteVersion> list = new ArrayList<>(notes.size());
+            notes.forEach((id, note) -> list.add(note));
+            return Collections.unmodifiableList(list).iterator();
+        }
+    }
+
+    /**
+     * Det nuværende snapshot; kan læses fra alle tråde
+     */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    public void put(NoteVersion note) {
+        update(notes -> notes.put(note.getId(), note));
+    }
+
+    public void putAll(Collection<NoteVersion> added) {
+        update(notes -> {
+            for (NoteVersion note : added) {
+                notes = notes.put(note.getId(), note);
+            }
+            return notes;
+        });
+    }
+
+    public void remove(String id) {
+        update(notes -> notes.remove(id));
+    }
+
+    /**
+     * Erstatter hele samlingen (fx efter indlæsning)
+     */
+    public void replaceAll(Collection<NoteVersion> notes) {
+        update(old -> {
+            PersistentMap<String, NoteVersion> fresh = PersistentMap.empty();
+            for (NoteVersion note : notes) {
+                fresh = fresh.put(note.getId(), note);
+            }
+            return fresh;
+        });
+    }
+
+    /**
+     * Anvender ændringen på det nuværende map og udgiver resultatet; ændringen kan køre flere gange
+     * hvis en anden tråd nåede at skrive imens, og må derfor ikke have sideeffekter
+     */
+    public Snapshot update(UnaryOperator<PersistentMap<String, NoteVersion>> change) {
+        while (true) {
+            Snapshot before = current.get();
+            PersistentMap<String, NoteVersion> notes = change.apply(before.notes);
+            if (notes == before.notes) {
+                return before;
+            }
+            Snapshot after = new Snapshot(notes, before.version + 1);
+            if (current.compareAndSet(before, after)) {
+                return after;
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * NoteSortOrder beskriver de sorteringer der kan vælges i sidebaren
+ * Hver sortering er en total orden (uafgjort afgøres af note-pladsen), så NoteIndex kan
+ * vedligeholde den som et sorteret array og indsætte med binær søgning
+ */
+public enum NoteSortOrder {
+    NEWEST("Nyeste først"),
+    OLDEST("Ældste først"),
+    TITLE_ASC("A-Z"),
+    TITLE_DESC("Z-A"),
+    FAVORITES_FIRST("Favoritter først"),
+    MOST_WORDS("Mest ordrig");
+
+    private final String label;
+
+    NoteSortOrder(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Teksten der vises i sorterings-dropdown
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Finder sorteringen ud fra dropdown-teksten (standard er nyeste først)
+     */
+    public static NoteSortOrder fromLabel(String label) {
+        NoteSortOrder order = find(label);
+        return order != null ? order : NEWEST;
+    }
+
+    /**
+     * Finder sorteringen ud fra dropdown-teksten eller navnet (fx "A-Z" eller "title_asc"), eller null
+     * hvis værdien ikke er en sortering; til input fra kommandolinjen og API'et
+     */
+    public static NoteSortOrder find(String value) {
+        for (NoteSortOrder order : values()) {
+            if (order.label.equals(value) || order.name().equalsIgnoreCase(value)) {
+                return order;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Alle dropdown-tekster i rækkefølge
+     */
+    public static String[] labels() {
+        NoteSortOrder[] orders = values();
+        String[] labels = new String[orders.length];
+        for (int i = 0; i < orders.length; i++) {
+            labels[i] = orders[i].label;
+        }
+        return labels;
+    }
+
+    /**
+     * Tjekker om en ændring af feltet kan flytte en note i denne sortering
+     */
+    public boolean dependsOn(Note.Field field) {
+        switch (this) {
+            case TITLE_ASC:
+            case TITLE_DESC:
+                return field == Note.Field.TITLE;
+            case FAVORITES_FIRST:
+                return field == Note.Field.FAVORITE;
+            case MOST_WORDS:
+                return field == Note.Field.CONTENT;
+            default:
+                return false; // Oprettelsesdato ændres aldrig
+        }
+    }
+
+    /**
+     * Sammenligner to noter; wordsA/wordsB er cachede ordantal så "Mest ordrig" ikke tæller ord igen
+     */
+    public int compare(NoteData a, int wordsA, NoteData b, int wordsB) {
+        switch (this) {
+            case OLDEST:
+                return Long.compare(a.getCreatedAtMillis(), b.getCreatedAtMillis());
+            case TITLE_ASC:
+                return a.getTitle().compareToIgnoreCase(b.getTitle());
+            case TITLE_DESC:
+                return b.getTitle().compareToIgnoreCase(a.getTitle());
+            case FAVORITES_FIRST:
+                if (a.isFavorite() != b.isFavorite()) {
+                    return a.isFavorite() ? -1 : 1;
+                }
+                return Long.compare(b.getCreatedAtMillis(), a.getCreatedAtMillis());
+            case MOST_WORDS:
+                return Integer.compare(wordsB, wordsA);
+            default:
+                return Long.compare(b.getCreatedAtMillis(), a.getCreatedAtMillis());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * NoteVersion er en uforanderlig udgave af en note på et bestemt tidspunkt
+ * Alle felter er final, så en version kan deles mellem tråde uden låse. NoteRepository
+ * gemmer versionerne, og en ændring af en Note laver en ny version i stedet for at ændre den gamle
+ */
+public final class NoteVersion implements NoteData {
+    private final String id;
+    private final String title;
+    private final String content;
+    private final String category;
+    private final boolean favorite;
+    private final long createdAt;
+    private final long lastModified;
+    private final byte[] history;
+
+    // Ordantallet tælles første gang det bruges; et kapløb tæller blot to gange og får samme tal
+    private int wordCount;
+
+    public NoteVersion(String id, String title, String content, String category, boolean favorite,
+                       long createdAtMillis, long lastModifiedMillis, int wordCount, byte[] history) {
+        this.id = id;
+        this.title = title;
+        this.content = content;
+        this.category = category;
+        this.favorite = favorite;
+        this.createdAt = createdAtMillis;
+        this.lastModified = lastModifiedMillis;
+        this.wordCount = wordCount;
+        this.history = history;
+    }
+
+    /**
+     * En uforanderlig udgave af notens felter; er den allerede en NoteVersion, bruges den selv
+     */
+    public static NoteVersion copyOf(NoteData note) {
+        if (note instanceof NoteVersion) {
+            return (NoteVersion) note;
+        }
+        if (note instanceof Note) {
+            return of((Note) note);
+        }
+        return new NoteVersion(note.getId(), note.getTitle(), note.getContent(), note.getCategory(), note.isFavorite(),
+            note.getCreatedAtMillis(), note.getLastModifiedMillis(), -1, note.getHistory());
+    }
+
+    /**
+     * Fastfryser notens nuværende felter; et ordantal noten allerede kender genbruges
+     */
+    public static NoteVersion of(Note note) {
+        return new NoteVersion(note.getId(), note.getTitle(), note.getContent(), note.getCategory(), note.isFavorite(),
+            note.getCreatedAtMillis(), note.getLastModifiedMillis(), note.knownWordCount(), note.getHistory());
+    }
+
+    /**
+     * Ny redigerbar note med samme felter
+     */
+    public Note toNote() {
+        Note note = new Note(id, title, content, category, favorite, createdAt, lastModified);
+        note.setHistory(history);
+        return note;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getTitle() {
+        return title;
+    }
+
+    @Override
+    public String getContent() {
+        return content;
+    }
+
+    @Override
+    public String getCategory() {
+        return category;
+    }
+
+    @Override
+    public boolean isFavorite() {
+        return favorite;
+    }
+
+    @Override
+    public long getCreatedAtMillis() {
+        return createdAt;
+    }
+
+    @Override
+    public long getLastModifiedMillis() {
+        return lastModified;
+    }
+
+    @Override
+    public int getWordCount() {
+        int words = wordCount;
+        if (words < 0) {
+            words = content == null ? 0 : WordCounter.countWords(content, 0, content.length());
+            wordCount = words;
+        }
+        return words;
+    }
+
+    @Override
+    public byte[] getHistory() {
+        return history;
+    }
+
+    @Override
+    public String toString() {
+        return title;
+    }
+}
@@ -14,6 +14,11 @@ public class NotesApp {
     private NotesStorage notesStorage;
     
     public static void main(String[] args) {
+        // Med argumenter køres kommandolinje-udgaven uden vinduer, fx "java NotesApp list"
+        if (args.length > 0) {
+            System.exit(NotesCli.run(args));
+        }
+        
         // Sæt Swing Look and Feel
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -21,6 +26,14 @@ public class NotesApp {
             // Brug standard Look and Feel hvis system L&F ikke er tilgængelig
         }
         
+        // Tællere og latenstider for lager, kryptering og søgning via JMX (notesapp:type=Metrics)
+        NotesMetrics.register();
+        
+        // Mål hvor længe events blokerer EDT (rapporten vises med F12); slå fra med -Dnotesapp.edtWatchdog=false
+        if (!"false".equals(System.getProperty("notesapp.edtWatchdog"))) {
+            EdtWatchdog.install();
+        }
+        
         SwingUtilities.invokeLater(() -> {
             new NotesApp().start();
         });
@@ -275,9 +288,9 @@ public class NotesApp {
                         }
                         cryptoManager.generateKeyFromPassword(password, salt);
                         
-                        // Test om password er korrekt ved at prøve at indlæse data
+                        // Test om password er korrekt; noterne indlæses først i hovedvinduet
                         try {
-                            notesStorage.loadNotes();
+                            notesStorage.verifyPassword();
                         } catch (Exception decryptException) {
                             throw new Exception("Forkert password eller beskadigede data");
                         }
@@ -9,16 +9,17 @@ import java.awt.event.WindowEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.InputEvent;
 import java.util.List;
-import java.util.ArrayList;
 
 /**
  * NotesAppGUI er hovedvinduet for notes applikationen med moderne dark theme
  * Håndterer al brugerinteraktion og koordinerer med backend klasserne
  */
 public class NotesAppGUI extends JFrame {
+    private static final long serialVersionUID = 1L;
+    
     private final CryptoManager cryptoManager;
     private final NotesStorage notesStorage;
-    private List<Note> notes;
+    private final NotesModel notesModel;
     
     // Dark Theme Farver - Opdaterede for bedre synlighed
     private static final Color DARK_BACKGROUND = new Color(32, 33, 36);
@@ -34,7 +35,7 @@ public class NotesAppGUI extends JFrame {
     private static final Color BORDER_COLOR = new Color(95, 99, 104);
     
     // GUI komponenter
-    private DefaultListModel<Note> listModel;
+    private NoteListModel listModel;
     private DefaultListModel<Note> filteredListModel;
     private JList<Note> notesList;
     private JTextField titleField;
@@ -43,6 +44,8 @@ public class NotesAppGUI extends JFrame {
     private JButton deleteButton;
     private JButton newNoteButton;
     private JButton exportButton;
+    private JButton importButton;
+    private JButton exportAllButton;
     private JButton favoriteButton;
     private JLabel statusLabel;
     private JLabel noteCountLabel;
@@ -51,16 +54,29 @@ public class NotesAppGUI extends JFrame {
     private JComboBox<String> categoryComboBox;
     private JComboBox<String> sortComboBox;
     private JCheckBox favoriteFilter;
+    private JCheckBox fuzzyFilter;
     
     // Nye features
     private Note currentNote;
     private boolean hasUnsavedChanges = false;
-    private java.util.Set<String> categories = new java.util.HashSet<>();
+    private static final String ALL_CATEGORIES = "Alle kategorier";
+    private long shownCategoryVersion = -1;
+    private boolean updatingCategories = false;
+    private boolean restoringSelection = false;
+    private final NoteIndex noteIndex;
+    private final WordCounter wordCounter = new WordCounter();
+    private final javax.swing.undo.UndoManager undoManager = new javax.swing.undo.UndoManager();
+    private boolean contentChanged = false;
+    private boolean loading = false;
+    private VaultWatcher vaultWatcher;
+    private VaultBackup vaultBackup;
+    private boolean saveRejected = false;
     
     public NotesAppGUI(CryptoManager cryptoManager, NotesStorage notesStorage) {
         this.cryptoManager = cryptoManager;
         this.notesStorage = notesStorage;
-        this.notes = new ArrayList<>();
+        this.notesModel = new NotesModel(notesStorage);
+        this.noteIndex = notesModel.getIndex();
         
         // Sæt dark theme Look and Feel
         setDarkTheme();
@@ -192,6 +208,8 @@ public class NotesAppGUI extends JFrame {
         ));
         searchField.setFont(new Font("Segoe UI", Font.PLAIN, 13));
         searchField.setMaximumSize(new Dimension(Integer.MAX_VALUE, 35));
+        searchField.setToolTipText("<html>Fritekst eller felter, fx:<br>"
+            + "kategori:Arbejde fav:ja ændret:&gt;2026-01-01 ord:&gt;500 \"præcis sætning\" -kladde</html>");
         
         JLabel searchLabel = new JLabel("[SOG] Soeg i noter:");
         searchLabel.setFont(new Font("Segoe UI", Font.BOLD, 12));
@@ -220,15 +238,32 @@ public class NotesAppGUI extends JFrame {
         JPanel filtersPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 5));
         filtersPanel.setOpaque(false);
         
-        categoryComboBox = new JComboBox<>(new String[]{"Alle kategorier", "Generel", "Arbejde", "Personligt", "Ideer"});
+        // Kategorierne hentes fra indekset; antal vises live ud for hver kategori
+        categoryComboBox = new JComboBox<>(new String[]{ALL_CATEGORIES});
         categoryComboBox.setBackground(INPUT_BACKGROUND);
         categoryComboBox.setForeground(TEXT_PRIMARY);
         categoryComboBox.setFont(new Font("Segoe UI", Font.PLAIN, 11));
         categoryComboBox.setPreferredSize(new Dimension(130, 28));
-        categoryComboBox.addActionListener(evt -> filterNotes());
+        categoryComboBox.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                         boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                if (value != null) {
+                    int count = ALL_CATEGORIES.equals(value) ? noteIndex.size() : noteIndex.countCategory((String) value);
+                    setText(value + " (" + count + ")");
+                }
+                return this;
+            }
+        });
+        categoryComboBox.addActionListener(evt -> {
+            if (!updatingCategories) {
+                filterNotes();
+            }
+        });
         
         // Sortering dropdown
-        sortComboBox = new JComboBox<>(new String[]{"Nyeste først", "Ældste først", "A-Z", "Z-A", "Favoritter først", "Mest ordrig"});
+        sortComboBox = new JComboBox<>(NoteSortOrder.labels());
         sortComboBox.setBackground(INPUT_BACKGROUND);
         sortComboBox.setForeground(TEXT_PRIMARY);
         sortComboBox.setFont(new Font("Segoe UI", Font.PLAIN, 11));
@@ -241,75 +276,41 @@ public class NotesAppGUI extends JFrame {
         favoriteFilter.setFont(new Font("Segoe UI", Font.PLAIN, 11));
         favoriteFilter.addActionListener(evt -> filterNotes());
         
+        fuzzyFilter = new JCheckBox("[~] Fuzzy");
+        fuzzyFilter.setOpaque(false);
+        fuzzyFilter.setForeground(TEXT_SECONDARY);
+        fuzzyFilter.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+        fuzzyFilter.setToolTipText("Find også ord med 1-2 tastefejl");
+        fuzzyFilter.addActionListener(evt -> filterNotes());
+        
         filtersPanel.add(categoryComboBox);
         filtersPanel.add(Box.createHorizontalStrut(8));
         filtersPanel.add(sortComboBox);
         filtersPanel.add(Box.createHorizontalStrut(10));
         filtersPanel.add(favoriteFilter);
+        filtersPanel.add(fuzzyFilter);
         
         headerSection.add(filtersPanel);
         
         sidebar.add(headerSection, BorderLayout.NORTH);
         
         // Notes liste med custom styling
-        listModel = new DefaultListModel<>();
+        listModel = new NoteListModel(noteIndex);
         notesList = new JList<>(listModel);
         notesList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         notesList.setBackground(SIDEBAR_BACKGROUND);
         notesList.setForeground(TEXT_PRIMARY);
         notesList.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        // Faste cellemål, så JList aldrig skal måle alle rækker for at lave layout
         notesList.setFixedCellHeight(60);
+        notesList.setFixedCellWidth(300);
         notesList.setBorder(new EmptyBorder(5, 15, 5, 15));
         
         // Avanceret custom cell renderer for notes med favorit status
-        notesList.setCellRenderer(new DefaultListCellRenderer() {
-            @Override
-            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
-                                                         boolean isSelected, boolean cellHasFocus) {
-                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-                
-                Note note = (Note) value;
-                
-                // Baggrundsfarver baseret på favorit status
-                Color backgroundColor;
-                if (isSelected) {
-                    backgroundColor = note.isFavorite() ? new Color(255, 193, 7, 150) : ACCENT_BLUE;
-                } else {
-                    backgroundColor = note.isFavorite() ? new Color(255, 248, 220) : SIDEBAR_BACKGROUND;
-                }
-                
-                setBackground(backgroundColor);
-                setForeground(isSelected ? Color.WHITE : TEXT_PRIMARY);
-                setBorder(BorderFactory.createCompoundBorder(
-                    new LineBorder(note.isFavorite() ? new Color(255, 193, 7) : BORDER_COLOR, 1),
-                    new EmptyBorder(8, 12, 8, 12)
-                ));
-                
-                // Avanceret HTML display med favorit status, kategori og statistik
-                String favoriteIcon = note.isFavorite() ? "[*] " : "";
-                String categoryInfo = note.getCategory().equals("Generel") ? "" : 
-                    " <span style='color: " + (isSelected ? "#E0E0E0" : "#6C757D") + 
-                    "; font-size: 9px;'>[" + note.getCategory() + "]</span>";
-                
-                String titleDisplay = favoriteIcon + (note.getTitle().isEmpty() ? "Untitled" : note.getTitle());
-                String statsDisplay = note.getWordCount() + " ord";
-                
-                String displayText = "<html>" +
-                    "<div style='font-weight: bold; color: " + 
-                    (note.isFavorite() && !isSelected ? "#B8860B" : "inherit") + ";'>" + 
-                    titleDisplay + categoryInfo + "</div>" +
-                    "<div style='font-size: 10px; color: " + 
-                    (isSelected ? "#E0E0E0" : "#9AA0A6") + ";'>" +
-                    note.getFormattedDate() + " • " + statsDisplay + "</div>" +
-                    "</html>";
-                setText(displayText);
-                
-                return this;
-            }
-        });
+        notesList.setCellRenderer(new NoteCellRenderer(SIDEBAR_BACKGROUND, ACCENT_BLUE, TEXT_PRIMARY, BORDER_COLOR));
         
         notesList.addListSelectionListener(e -> {
-            if (!e.getValueIsAdjusting()) {
+            if (!e.getValueIsAdjusting() && !restoringSelection) {
                 handleNoteSelection();
             }
         });
@@ -359,8 +360,25 @@ public class NotesAppGUI extends JFrame {
         row2.add(favoriteButton);
         row2.add(exportButton);
         
+        // Tredje række: import og eksport af mange noter
+        JPanel row3 = new JPanel(new FlowLayout(FlowLayout.CENTER, 8, 5));
+        row3.setOpaque(false);
+        
+        importButton = createStyledButton("[<<] Import", new Color(108, 117, 125));
+        importButton.addActionListener(evt -> importNotes());
+        importButton.setPreferredSize(new Dimension(110, 35));
+        
+        exportAllButton = createStyledButton("[>>] Alle", new Color(108, 117, 125));
+        exportAllButton.setToolTipText("Eksporter de viste noter til et ZIP-arkiv");
+        exportAllButton.addActionListener(evt -> exportAllNotes());
+        exportAllButton.setPreferredSize(new Dimension(110, 35));
+        
+        row3.add(importButton);
+        row3.add(exportAllButton);
+        
         buttonsPanel.add(row1);
         buttonsPanel.add(row2);
+        buttonsPanel.add(row3);
         sidebar.add(buttonsPanel, BorderLayout.SOUTH);
         
         return sidebar;
@@ -415,18 +433,23 @@ public class NotesAppGUI extends JFrame {
         contentHeader.add(contentLabel, BorderLayout.WEST);
         contentHeader.add(wordCountLabel, BorderLayout.EAST);
         
-        contentArea = new JTextArea();
+        // Piece table i stedet for PlainDocuments gap buffer, så store noter kan redigeres uden at flytte hele teksten
+        contentArea = new JTextArea(new javax.swing.text.PlainDocument(new PieceTableContent()));
         styleTextArea(contentArea);
+        wordCounter.install((javax.swing.text.AbstractDocument) contentArea.getDocument());
+        contentArea.getDocument().addUndoableEditListener(undoManager);
         contentArea.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
             public void changedUpdate(javax.swing.event.DocumentEvent e) { 
                 markAsChanged(); 
                 SwingUtilities.invokeLater(() -> updateWordCount());
             }
             public void removeUpdate(javax.swing.event.DocumentEvent e) { 
+                contentChanged = true;
                 markAsChanged(); 
                 SwingUtilities.invokeLater(() -> updateWordCount());
             }
             public void insertUpdate(javax.swing.event.DocumentEvent e) { 
+                contentChanged = true;
                 markAsChanged(); 
                 SwingUtilities.invokeLater(() -> updateWordCount());
             }
@@ -721,6 +744,8 @@ public class NotesAppGUI extends JFrame {
             titleField.setText("");
             contentArea.setText("");
         }
+        contentChanged = false;
+        undoManager.discardAllEdits();
         
         updateUI();
     }
@@ -737,6 +762,9 @@ public class NotesAppGUI extends JFrame {
      * Opretter en ny note
      */
     private void createNewNote() {
+        if (loading) {
+            return;
+        }
         if (hasUnsavedChanges) {
             int result = JOptionPane.showConfirmDialog(
                 this,
@@ -752,8 +780,7 @@ public class NotesAppGUI extends JFrame {
             }
         }
         
-        Note newNote = new Note("Ny Note", "Skriv dit indhold her...");
-        notes.add(newNote);
+        Note newNote = notesModel.createNote("Ny Note", "Skriv dit indhold her...");
         filterNotes(); // Opdater filteret liste
         notesList.setSelectedValue(newNote, true);
         
@@ -767,29 +794,38 @@ public class NotesAppGUI extends JFrame {
      * Gemmer den nuværende note
      */
     private void saveCurrentNote() {
-        if (currentNote != null) {
-            currentNote.setTitle(titleField.getText().trim());
-            currentNote.setContent(contentArea.getText());
-            currentNote.updateModifiedDate();
+        if (currentNote != null && !loading) {
+            // Indholdet kopieres kun ud af editoren hvis det faktisk er ændret
+            String content = contentChanged ? contentArea.getText() : null;
+            notesModel.updateNote(currentNote, titleField.getText().trim(), content);
+            contentChanged = false;
+            hasUnsavedChanges = false;
+            statusLabel.setText("Gemmer...");
             
-            try {
-                notesStorage.saveNotes(notes);
-                hasUnsavedChanges = false;
-                statusLabel.setText("Note gemt: " + java.time.LocalTime.now().toString().substring(0, 5));
-                
-                // Opdater listen for at vise ændret dato
-                int selectedIndex = notesList.getSelectedIndex();
-                listModel.setElementAt(currentNote, selectedIndex);
-                
-            } catch (Exception e) {
+            // Opdater listen for at vise ændret dato
+            listModel.fireRowChanged(notesList.getSelectedIndex());
+            
+            // Kryptering og skrivning sker på gemmetråden ud fra et uforanderligt snapshot
+            notesModel.saveInBackground().whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> {
+                if (error == null) {
+                    statusLabel.setText("Note gemt: " + java.time.LocalTime.now().toString().substring(0, 5));
+                    return;
+                }
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof NotesStorage.ExternalChangeException) {
+                    rejectedSave();
+                    return;
+                }
+                hasUnsavedChanges = true;
                 JOptionPane.showMessageDialog(
                     this,
-                    "Fejl ved gemning: " + e.getMessage(),
+                    "Fejl ved gemning: " + cause.getMessage(),
                     "Gem fejl",
                     JOptionPane.ERROR_MESSAGE
                 );
                 statusLabel.setText("Fejl ved gemning!");
-            }
+                updateUI();
+            }));
         }
         updateUI();
     }
@@ -798,7 +834,7 @@ public class NotesAppGUI extends JFrame {
      * Sletter den nuværende note
      */
     private void deleteCurrentNote() {
-        if (currentNote != null) {
+        if (currentNote != null && !loading) {
             int result = JOptionPane.showConfirmDialog(
                 this,
                 "Er du sikker på at du vil slette denne note?\n\"" + currentNote.getTitle() + "\"",
@@ -807,20 +843,26 @@ public class NotesAppGUI extends JFrame {
             );
             
             if (result == JOptionPane.YES_OPTION) {
-                notes.remove(currentNote);
-                listModel.removeElement(currentNote);
+                listModel.remove(currentNote);
+                notesModel.delete(currentNote);
                 
                 currentNote = null;
                 titleField.setText("");
                 contentArea.setText("");
                 hasUnsavedChanges = false;
+                contentChanged = false;
+                undoManager.discardAllEdits();
                 
-                try {
-                    notesStorage.saveNotes(notes);
-                    statusLabel.setText("Note slettet");
-                } catch (Exception e) {
-                    statusLabel.setText("Fejl ved sletning: " + e.getMessage());
-                }
+                notesModel.saveInBackground().whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> {
+                    if (error == null) {
+                        statusLabel.setText("Note slettet");
+                    } else if (error.getCause() instanceof NotesStorage.ExternalChangeException) {
+                        rejectedSave();
+                    } else {
+                        Throwable cause = error.getCause() != null ? error.getCause() : error;
+                        statusLabel.setText("Fejl ved sletning: " + cause.getMessage());
+                    }
+                }));
                 
                 updateNoteCount();
                 updateUI();
@@ -832,22 +874,229 @@ public class NotesAppGUI extends JFrame {
      * Indlæser noter fra storage
      */
     private void loadNotes() {
+        // Vinduet vises med det samme; dekryptering og afkodning sker i baggrunden, og noterne
+        // kommer ind i sidebaren i bidder efterhånden som de er læst
+        notesModel.clear();
+        listModel.setSlots(new int[0]);
+        setLoading(true);
+        
+        SwingWorker<Void, Note> loader = new SwingWorker<Void, Note>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                notesModel.readNotes(this::publish);
+                return null;
+            }
+            
+            @Override
+            protected void process(List<Note> batch) {
+                // Under indlæsning vises noterne i filens rækkefølge; sorteringerne bygges først til sidst
+                int[] added = new int[batch.size()];
+                for (int i = 0; i < added.length; i++) {
+                    added[i] = notesModel.add(batch.get(i));
+                }
+                listModel.append(added);
+                statusLabel.setText("Indlæser noter... " + notesModel.size());
+                updateNoteCount();
+            }
+            
+            @Override
+            protected void done() {
+                setLoading(false);
+                try {
+                    get();
+                    statusLabel.setText("Noter indlæst succesfuldt");
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    statusLabel.setText("Fejl ved indlæsning: " + cause.getMessage());
+                }
+                filterNotes(); // Brug filter i stedet for direkte liste update
+                warnCorruptNotes();
+                startWatching();
+                startBackups();
+            }
+        };
+        loader.execute();
+    }
+    
+    /**
+     * Fortæller hvilke noter der ikke kunne læses; de øvrige er indlæst, og de beskadigede bevares i filen
+     */
+    private void warnCorruptNotes() {
+        List<NotesStorage.CorruptRecord> corrupt = notesStorage.getCorruptRecords();
+        if (corrupt.isEmpty()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        message.append(corrupt.size()).append(corrupt.size() == 1 ? " note" : " noter")
+            .append(" kunne ikke læses (beskadigede data) og er ikke indlæst:\n\n");
+        for (int i = 0; i < Math.min(corrupt.size(), 10); i++) {
+            message.append("  ").append(corrupt.get(i)).append('\n');
+        }
+        if (corrupt.size() > 10) {
+            message.append("  ... og ").append(corrupt.size() - 10).append(" flere\n");
+        }
+        message.append("\nDe øvrige noter er indlæst. De beskadigede bevares i filen, så de kan gendannes fra en\n")
+            .append("sikkerhedskopi (NotesApp backup restore) eller fjernes (NotesApp scrub --remove).");
+        statusLabel.setText(corrupt.size() + " beskadigede noter sprunget over");
+        JOptionPane.showMessageDialog(this, message.toString(), "Beskadigede noter", JOptionPane.WARNING_MESSAGE);
+    }
+    
+    /**
+     * Overvåger notefilen, så ændringer fra et andet program (fx CLI'en) dukker op uden genindlæsning
+     */
+    private void startWatching() {
+        if (vaultWatcher != null) {
+            return;
+        }
+        try {
+            vaultWatcher = new VaultWatcher(java.nio.file.Paths.get(notesStorage.getNotesFile()), this::readExternalChanges);
+            vaultWatcher.start();
+        } catch (java.io.IOException e) {
+            statusLabel.setText("Kan ikke overvåge noterne for ændringer: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Tager trinvise snapshots af notefilen i backups-mappen i baggrunden (hver time som standard;
+     * -Dnotesapp.backupIntervalMinutes=0 slår det fra)
+     */
+    private void startBackups() {
+        long interval = Long.getLong("notesapp.backupIntervalMinutes", 60);
+        if (vaultBackup != null || interval <= 0) {
+            return;
+        }
+        vaultBackup = new VaultBackup(notesStorage);
+        vaultBackup.schedule(interval,
+            snapshot -> SwingUtilities.invokeLater(() -> statusLabel.setText("Sikkerhedskopi taget: "
+                + snapshot.getNewRecords() + " ændrede noter gemt")),
+            error -> SwingUtilities.invokeLater(() -> statusLabel.setText("Fejl ved sikkerhedskopi: " + error.getMessage())));
+    }
+    
+    /**
+     * Dekrypterer kun de ændrede poster; kaldes uden for EDT, og fletningen sker bagefter på EDT
+     */
+    private void readExternalChanges() {
+        try {
+            NotesStorage.Changes changes = notesStorage.readChanges();
+            if (changes != null) {
+                SwingUtilities.invokeLater(() -> mergeExternalChanges(changes));
+            }
+        } catch (Exception e) {
+            SwingUtilities.invokeLater(() -> statusLabel.setText("Fejl ved læsning af ændringer: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Fletter ændringerne ind i modellen og sidebaren; en note med ikke-gemte redigeringer beholdes som den er
+     */
+    private void mergeExternalChanges(NotesStorage.Changes changes) {
+        if (loading) {
+            // Importen kører videre med de gamle poster; gemningen bagefter bliver afvist og prøver igen
+            return;
+        }
+        String keepId = currentNote != null && hasUnsavedChanges ? currentNote.getId() : null;
+        if (keepId != null && contentChanged && changes.getChanged().stream().anyMatch(note -> note.getId().equals(keepId))) {
+            // Editorens tekst føjes til notens historik først, så den flettes med den eksterne udgave
+            notesModel.updateNote(currentNote, titleField.getText().trim(), contentArea.getText());
+            contentChanged = false;
+        }
         try {
-            notes = notesStorage.loadNotes();
-            filterNotes(); // Brug filter i stedet for direkte liste update
-            statusLabel.setText("Noter indlæst succesfuldt");
+            if (!notesModel.tryApplyExternalChanges(changes, keepId)) {
+                // En gemning er i gang eller ændringerne er forældede: EDT venter ikke, de læses igen bagefter
+                readExternalChangesAfterSaves();
+                return;
+            }
         } catch (Exception e) {
-            statusLabel.setText("Fejl ved indlæsning: " + e.getMessage());
+            statusLabel.setText("Fejl ved fletning af ændringer: " + e.getMessage());
+            return;
+        }
+        if (!changes.isEmpty()) {
+            if (currentNote != null) {
+                Note fresh = notesModel.findNote(currentNote.getId());
+                if (fresh != currentNote) {
+                    // Den åbne note er ændret, flettet eller slettet udefra: vis den nye udgave
+                    int caret = contentArea.getCaretPosition();
+                    currentNote = fresh;
+                    titleField.setText(fresh == null ? "" : fresh.getTitle());
+                    contentArea.setText(fresh == null ? "" : fresh.getContent());
+                    contentArea.setCaretPosition(Math.min(caret, contentArea.getDocument().getLength()));
+                    // Flettede lokale ændringer er stadig ikke gemt på disken
+                    hasUnsavedChanges = keepId != null && fresh != null;
+                    contentChanged = false;
+                    undoManager.discardAllEdits();
+                }
+            }
+            filterNotes();
+            updateNoteCount();
+            updateUI();
+            statusLabel.setText("Noter opdateret udefra: " + changes.getChanged().size() + " ændret, "
+                + changes.getRemoved().size() + " slettet");
+        }
+        if (saveRejected) {
+            saveRejected = false;
+            notesModel.saveInBackground().whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> {
+                if (error == null) {
+                    statusLabel.setText("Note gemt efter fletning: " + java.time.LocalTime.now().toString().substring(0, 5));
+                } else if (error.getCause() instanceof NotesStorage.ExternalChangeException) {
+                    rejectedSave();
+                } else {
+                    statusLabel.setText("Fejl ved gemning: " + error.getCause().getMessage());
+                }
+            }));
         }
     }
     
+    /**
+     * Et andet program har skrevet filen siden sidst: flet dens ændringer ind og gem derefter igen
+     */
+    private void rejectedSave() {
+        saveRejected = true;
+        statusLabel.setText("Noterne er ændret udefra - fletter og gemmer igen...");
+        readExternalChangesAfterSaves();
+    }
+    
+    /**
+     * Læser ændringerne udefra på en baggrundstråd når gemningerne i kø er færdige
+     */
+    private void readExternalChangesAfterSaves() {
+        Thread reader = new Thread(() -> {
+            try {
+                notesModel.awaitSaves();
+            } catch (Exception e) {
+                // Den fejlede gemning giver selv besked
+            }
+            readExternalChanges();
+        }, "notes-merge");
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    /**
+     * Slår søgning, filtre og ændringer fra mens noterne indlæses (gemning ville ellers overskrive filen med en halv liste)
+     */
+    private void setLoading(boolean loading) {
+        this.loading = loading;
+        searchField.setEnabled(!loading);
+        categoryComboBox.setEnabled(!loading);
+        sortComboBox.setEnabled(!loading);
+        favoriteFilter.setEnabled(!loading);
+        fuzzyFilter.setEnabled(!loading);
+        newNoteButton.setEnabled(!loading);
+        importButton.setEnabled(!loading);
+        exportAllButton.setEnabled(!loading);
+        if (loading) {
+            statusLabel.setText("Indlæser noter...");
+        }
+        updateUI();
+    }
+    
     /**
      * Opdaterer note tæller og statistik
      */
     private void updateNoteCount() {
-        int totalNotes = notes.size();
+        int totalNotes = notesModel.size();
         int displayedNotes = listModel.getSize();
-        long favorites = notes.stream().filter(Note::isFavorite).count();
+        int favorites = notesModel.countFavorites();
         
         // Opdater note count
         String noteText = " • " + displayedNotes;
@@ -872,7 +1121,7 @@ public class NotesAppGUI extends JFrame {
      * Opdaterer UI tilstand
      */
     private void updateUI() {
-        boolean hasSelection = currentNote != null;
+        boolean hasSelection = currentNote != null && !loading;
         boolean canSave = hasSelection && hasUnsavedChanges;
         
         saveButton.setEnabled(canSave);
@@ -917,25 +1166,78 @@ public class NotesAppGUI extends JFrame {
             
             if (result == JOptionPane.YES_OPTION) {
                 saveCurrentNote();
-                System.exit(0);
+                exitAfterSaves();
             } else if (result == JOptionPane.NO_OPTION) {
-                System.exit(0);
+                exitAfterSaves();
             }
             // CANCEL_OPTION - gør ingenting, bliv i programmet
         } else {
-            System.exit(0);
+            exitAfterSaves();
         }
     }
     
+    /**
+     * Lukker først når gemninger i baggrunden er skrevet, så en netop gemt note ikke går tabt
+     * Der ventes uden for EDT, så vinduet stadig tegnes imens; fletning af ændringer udefra sker på EDT
+     */
+    private void exitAfterSaves() {
+        setEnabled(false);
+        statusLabel.setText("Gemmer før lukning...");
+        SwingWorker<NotesStorage.Changes, Void> waiter = new SwingWorker<NotesStorage.Changes, Void>() {
+            private boolean rejected;
+            
+            @Override
+            protected NotesStorage.Changes doInBackground() throws Exception {
+                try {
+                    notesModel.awaitSaves();
+                    return null;
+                } catch (NotesStorage.ExternalChangeException e) {
+                    rejected = true;
+                    return notesStorage.readChanges();
+                }
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    NotesStorage.Changes changes = get();
+                    if (rejected) {
+                        // Et andet program har skrevet imens: flet dets ændringer ind (den åbne note beholdes) og gem igen
+                        if (changes != null) {
+                            notesModel.applyExternalChanges(changes, currentNote != null ? currentNote.getId() : null);
+                        }
+                        notesModel.saveInBackground();
+                        exitAfterSaves();
+                        return;
+                    }
+                } catch (Exception e) {
+                    setEnabled(true);
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    int result = JOptionPane.showConfirmDialog(
+                        NotesAppGUI.this,
+                        "Fejl ved gemning: " + cause.getMessage() + "\nVil du lukke alligevel?",
+                        "Gem fejl",
+                        JOptionPane.YES_NO_OPTION
+                    );
+                    if (result != JOptionPane.YES_OPTION) {
+                        statusLabel.setText("Fejl ved gemning!");
+                        return;
+                    }
+                }
+                dispose();
+                System.exit(0);
+            }
+        };
+        waiter.execute();
+    }
+    
     /**
      * Opdaterer word count display
      */
     private void updateWordCount() {
         if (currentNote != null) {
-            String content = contentArea.getText();
-            int words = content.trim().isEmpty() ? 0 : content.trim().split("\\s+").length;
-            int chars = content.length();
-            wordCountLabel.setText(words + " ord, " + chars + " tegn");
+            // Tallene vedligeholdes løbende af wordCounter, så teksten skal ikke splittes igen
+            wordCountLabel.setText(wordCounter.getWordCount() + " ord, " + wordCounter.getCharacterCount() + " tegn");
         } else {
             wordCountLabel.setText("0 ord, 0 tegn");
         }
@@ -946,17 +1248,14 @@ public class NotesAppGUI extends JFrame {
      */
     private void toggleFavorite() {
         if (currentNote != null) {
-            currentNote.setFavorite(!currentNote.isFavorite());
+            notesModel.setFavorite(currentNote, !currentNote.isFavorite());
             favoriteButton.setText(currentNote.isFavorite() ? "[*] Favorit" : "[ ] Favorit");
             favoriteButton.setBackground(currentNote.isFavorite() ? 
                 new Color(255, 193, 7) : new Color(108, 117, 125));
             markAsChanged();
             
             // Opdater liste visning
-            int selectedIndex = notesList.getSelectedIndex();
-            if (selectedIndex >= 0) {
-                listModel.setElementAt(currentNote, selectedIndex);
-            }
+            listModel.fireRowChanged(notesList.getSelectedIndex());
         }
     }
     
@@ -975,15 +1274,17 @@ public class NotesAppGUI extends JFrame {
             if (result == JFileChooser.APPROVE_OPTION) {
                 java.io.File file = fileChooser.getSelectedFile();
                 
-                try (java.io.PrintWriter writer = new java.io.PrintWriter(file)) {
+                try (java.io.PrintWriter writer = new java.io.PrintWriter(file, java.nio.charset.StandardCharsets.UTF_8)) {
                     writer.println("Titel: " + currentNote.getTitle());
                     writer.println("Kategori: " + currentNote.getCategory());
                     writer.println("Oprettet: " + currentNote.getFormattedCreatedAt());
                     writer.println("Sidst ændret: " + currentNote.getFormattedLastModified());
                     writer.println("Favorit: " + (currentNote.isFavorite() ? "Ja" : "Nej"));
                     writer.println("Statistik: " + currentNote.getStats());
-                    writer.println("\\n" + "=".repeat(50));
-                    writer.println("\\n" + currentNote.getContent());
+                    writer.println();
+                    writer.println("=".repeat(50));
+                    writer.println();
+                    writer.println(currentNote.getContent());
                 }
                 
                 statusLabel.setText("Note eksporteret til: " + file.getName());
@@ -997,83 +1298,214 @@ public class NotesAppGUI extends JFrame {
     }
     
     /**
-     * Filtrerer noter baseret på søgning, kategori og favorit filter
+     * Importerer valgte mapper med .txt/.md filer og JSON-arkiver (.jsonl/.json)
+     * Filerne læses parallelt i baggrunden, og noterne kommer ind i sidebaren i bidder ligesom ved indlæsning
      */
-    private void filterNotes() {
-        String searchText = searchField.getText().toLowerCase();
-        String selectedCategory = (String) categoryComboBox.getSelectedItem();
-        boolean showOnlyFavorites = favoriteFilter.isSelected();
-        String sortOption = (String) sortComboBox.getSelectedItem();
+    private void importNotes() {
+        if (loading) {
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Importer noter");
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        fileChooser.setMultiSelectionEnabled(true);
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        java.io.File[] selected = fileChooser.getSelectedFiles();
         
-        // Samle alle matchende noter
-        java.util.List<Note> filteredNotes = new ArrayList<>();
+        // Id-mængden ejes af importtråden fra nu af
+        java.util.Set<String> existing = new java.util.HashSet<>();
+        for (Note note : notesModel.getNotes()) {
+            existing.add(note.getId());
+        }
+        setLoading(true);
+        statusLabel.setText("Importerer...");
         
-        for (Note note : notes) {
-            boolean matches = true;
-            
-            // Søg filter
-            if (!searchText.isEmpty()) {
-                boolean titleMatch = note.getTitle().toLowerCase().contains(searchText);
-                boolean contentMatch = note.getContent().toLowerCase().contains(searchText);
-                if (!titleMatch && !contentMatch) {
-                    matches = false;
+        SwingWorker<int[], List<Note>> importer = new SwingWorker<int[], List<Note>>() {
+            @Override
+            protected int[] doInBackground() throws Exception {
+                int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+                try (NoteImporter noteImporter = new NoteImporter(existing, 500, threads, batch -> publish(batch), null)) {
+                    for (java.io.File file : selected) {
+                        noteImporter.importPath(file.toPath());
+                    }
+                    return new int[]{noteImporter.getImported(), noteImporter.getSkipped()};
                 }
             }
             
-            // Kategori filter
-            if (matches && !selectedCategory.equals("Alle kategorier")) {
-                if (!note.getCategory().equals(selectedCategory)) {
-                    matches = false;
+            @Override
+            protected void process(List<List<Note>> batches) {
+                for (List<Note> batch : batches) {
+                    int[] added = new int[batch.size()];
+                    for (int i = 0; i < added.length; i++) {
+                        added[i] = notesModel.add(batch.get(i));
+                    }
+                    listModel.append(added);
                 }
+                statusLabel.setText("Importerer... " + notesModel.size());
+                updateNoteCount();
             }
             
-            // Favorit filter
-            if (matches && showOnlyFavorites) {
-                if (!note.isFavorite()) {
-                    matches = false;
+            @Override
+            protected void done() {
+                setLoading(false);
+                try {
+                    int[] counts = get();
+                    statusLabel.setText(counts[0] + " noter importeret"
+                        + (counts[1] > 0 ? ", " + counts[1] + " fandtes allerede" : ""));
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    statusLabel.setText("Fejl ved import: " + cause.getMessage());
                 }
+                // Det der nåede at blive importeret gemmes under alle omstændigheder
+                notesModel.saveInBackground().whenComplete((ignored, error) -> {
+                    if (error != null && error.getCause() instanceof NotesStorage.ExternalChangeException) {
+                        SwingUtilities.invokeLater(NotesAppGUI.this::rejectedSave);
+                    }
+                });
+                filterNotes();
+                updateNoteCount();
             }
-            
-            if (matches) {
-                filteredNotes.add(note);
-            }
+        };
+        importer.execute();
+    }
+    
+    /**
+     * Eksporterer de noter der vises i sidebaren (med de aktuelle filtre) til et ZIP-arkiv
+     * Noterne fastfryses som NoteVersion på EDT, og formatering og skrivning sker i baggrunden
+     */
+    private void exportAllNotes() {
+        if (loading || listModel.getSize() == 0) {
+            return;
         }
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Eksporter " + listModel.getSize() + " noter");
+        fileChooser.setSelectedFile(new java.io.File("noter.zip"));
+        JComboBox<String> formatBox = new JComboBox<>(new String[]{"Markdown", "JSON"});
+        JCheckBox encryptBox = new JCheckBox("Krypter med samlingens nøgle");
+        JPanel options = new JPanel(new GridLayout(0, 1, 0, 5));
+        options.add(new JLabel("Format:"));
+        options.add(formatBox);
+        options.add(encryptBox);
+        fileChooser.setAccessory(options);
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        java.io.File file = fileChooser.getSelectedFile();
+        NoteExporter.Format format = NoteExporter.Format.parse((String) formatBox.getSelectedItem());
+        boolean encrypt = encryptBox.isSelected();
         
-        // Sortér notes baseret på valgt sortering
-        switch (sortOption) {
-            case "Ældste først":
-                filteredNotes.sort((a, b) -> a.getCreatedAt().compareTo(b.getCreatedAt()));
-                break;
-            case "A-Z":
-                filteredNotes.sort((a, b) -> a.getTitle().compareToIgnoreCase(b.getTitle()));
-                break;
-            case "Z-A":
-                filteredNotes.sort((a, b) -> b.getTitle().compareToIgnoreCase(a.getTitle()));
-                break;
-            case "Favoritter først":
-                filteredNotes.sort((a, b) -> {
-                    if (a.isFavorite() && !b.isFavorite()) return -1;
-                    if (!a.isFavorite() && b.isFavorite()) return 1;
-                    return b.getCreatedAt().compareTo(a.getCreatedAt());
-                });
-                break;
-            case "Mest ordrig":
-                filteredNotes.sort((a, b) -> Integer.compare(b.getWordCount(), a.getWordCount()));
-                break;
-            default: // "Nyeste først"
-                filteredNotes.sort((a, b) -> b.getCreatedAt().compareTo(a.getCreatedAt()));
-                break;
+        List<NoteData> visible = new java.util.ArrayList<>(listModel.getSize());
+        for (int i = 0; i < listModel.getSize(); i++) {
+            visible.add(NoteVersion.of(listModel.getElementAt(i)));
         }
+        exportAllButton.setEnabled(false);
+        statusLabel.setText("Eksporterer " + visible.size() + " noter...");
         
-        // Opdater list model
-        listModel.clear();
-        for (Note note : filteredNotes) {
-            listModel.addElement(note);
+        SwingWorker<Integer, Void> exporter = new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() throws Exception {
+                int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+                try (NoteExporter noteExporter = new NoteExporter(format, threads)) {
+                    return noteExporter.export(visible::forEach, file.toPath(), encrypt ? notesModel.getStorage() : null);
+                }
+            }
+            
+            @Override
+            protected void done() {
+                exportAllButton.setEnabled(!loading);
+                try {
+                    statusLabel.setText(get() + " noter eksporteret til " + file.getName());
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(NotesAppGUI.this,
+                        "Fejl ved eksport: " + cause.getMessage(),
+                        "Eksport Fejl",
+                        JOptionPane.ERROR_MESSAGE);
+                    statusLabel.setText("Fejl ved eksport!");
+                }
+            }
+        };
+        exporter.execute();
+    }
+    
+    /**
+     * Filtrerer noter baseret på søgeudtryk, kategori og favorit filter
+     */
+    private void filterNotes() {
+        if (loading) {
+            return; // Listen fyldes af indlæsningen; filtre virker når den er færdig
+        }
+        refreshCategoryComboBox();
+        String selectedCategory = (String) categoryComboBox.getSelectedItem();
+        boolean showOnlyFavorites = favoriteFilter.isSelected();
+        NoteSortOrder sortOrder = NoteSortOrder.fromLabel((String) sortComboBox.getSelectedItem());
+        
+        // Samle alle matchende noter i den valgte sortering og udskift modellens array på én gang
+        String category = ALL_CATEGORIES.equals(selectedCategory) ? null : selectedCategory;
+        int[] filteredSlots = notesModel.filter(searchField.getText().trim(), category, showOnlyFavorites,
+            fuzzyFilter.isSelected(), sortOrder);
+        listModel.setSlots(filteredSlots);
+        
+        // Behold den valgte note markeret hvis den stadig vises; ellers ryd valget som før
+        int row = currentNote == null ? -1 : listModel.indexOf(currentNote);
+        if (row >= 0) {
+            restoringSelection = true;
+            try {
+                notesList.setSelectedIndex(row);
+            } finally {
+                restoringSelection = false;
+            }
+        } else {
+            notesList.clearSelection();
         }
         
         updateNoteCount();
     }
     
+    /**
+     * Genopbygger kategori-dropdown fra indekset når mængden af kategorier har ændret sig
+     */
+    private void refreshCategoryComboBox() {
+        if (shownCategoryVersion == noteIndex.getCategoryVersion()) {
+            categoryComboBox.repaint(); // Antal kan have ændret sig
+            return;
+        }
+        shownCategoryVersion = noteIndex.getCategoryVersion();
+        
+        Object selected = categoryComboBox.getSelectedItem();
+        updatingCategories = true;
+        try {
+            DefaultComboBoxModel<String> model = new DefaultComboBoxModel<>();
+            model.addElement(ALL_CATEGORIES);
+            for (String category : noteIndex.getCategories()) {
+                model.addElement(category);
+            }
+            categoryComboBox.setModel(model);
+            // Behold valget hvis kategorien stadig findes
+            categoryComboBox.setSelectedItem(model.getIndexOf(selected) >= 0 ? selected : ALL_CATEGORIES);
+        } finally {
+            updatingCategories = false;
+        }
+    }
+    
+    /**
+     * Viser EdtWatchdog rapporten over de længste stop på EDT med stakprøver
+     */
+    private void showStallReport() {
+        EdtWatchdog watchdog = EdtWatchdog.getInstalled();
+        String report = watchdog == null
+            ? "EDT overvågning er slået fra (-Dnotesapp.edtWatchdog=false)."
+            : watchdog.report();
+        
+        JTextArea reportArea = new JTextArea(report, 30, 100);
+        reportArea.setEditable(false);
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        reportArea.setCaretPosition(0);
+        JOptionPane.showMessageDialog(this, new JScrollPane(reportArea), "EDT stop rapport", JOptionPane.INFORMATION_MESSAGE);
+    }
+    
     /**
      * Sætter keyboard shortcuts op for hurtigere navigation
      */
@@ -1119,6 +1551,39 @@ public class NotesAppGUI extends JFrame {
             }
         });
         
+        // Ctrl+Z / Ctrl+Y = Fortryd og gentag i editoren
+        KeyStroke ctrlZ = KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK);
+        contentArea.getInputMap().put(ctrlZ, "undoEdit");
+        contentArea.getActionMap().put("undoEdit", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (undoManager.canUndo()) {
+                    undoManager.undo();
+                }
+            }
+        });
+        
+        KeyStroke ctrlY = KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK);
+        contentArea.getInputMap().put(ctrlY, "redoEdit");
+        contentArea.getActionMap().put("redoEdit", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (undoManager.canRedo()) {
+                    undoManager.redo();
+                }
+            }
+        });
+        
+        // F12 = Vis rapport over de værste EDT stop
+        KeyStroke f12 = KeyStroke.getKeyStroke(KeyEvent.VK_F12, 0);
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(f12, "stallReport");
+        getRootPane().getActionMap().put("stallReport", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showStallReport();
+            }
+        });
+        
         // F2 = Toggle favorit
         KeyStroke f2 = KeyStroke.getKeyStroke(KeyEvent.VK_F2, 0);
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(f2, "toggleFavorite");
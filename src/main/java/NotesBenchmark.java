@@ -0,0 +1,447 @@
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * NotesBenchmark måler de varme stier i kryptering, serialisering, lager, søgning og noter
+ * Hver benchmark kører i sin egen JVM (fork) med opvarmning og tidsbestemte målerunder som i JMH.
+ * Ud over ns/op måles allokerede bytes pr. operation og GC-antal/-tid, og alle data genereres med
+ * faste frø og fast salt, så kørsler på samme maskine kan sammenlignes:
+ * {@code java -Xmx2g NotesBenchmark [regex] [-f forks] [-wi runder] [-i runder] [-r ms] [-o resultater.csv]}
+ */
+public class NotesBenchmark {
+    private static final long SEED = 42;
+    private static final String PASSWORD = "benchmark";
+    private static final byte[] SALT = new byte[16];
+    private static final int[] PAYLOAD_SIZES = {64, 1024, 16 * 1024, 256 * 1024};
+    private static final int[] NOTE_COUNTS = {1000, 10000, 100000};
+    private static final int NOTE_SAMPLE = 1024;
+    private static final String QUERY = "kaffe budget -ferie";
+
+    // Som JMH's Blackhole: resultaterne lægges her, så JIT'en ikke kan fjerne arbejdet
+    private static volatile long sink;
+
+    /**
+     * Én operation der måles; returnerer et tal fra resultatet så intet skal boxes
+     */
+    private interface Operation {
+        long run() throws Exception;
+
+        default void close() throws Exception {
+        }
+    }
+
+    /**
+     * Forbereder data uden for målingen og returnerer operationen
+     */
+    private interface Setup {
+        Operation create() throws Exception;
+    }
+
+    /**
+     * Resultatet af én målerunde
+     */
+    private static final class Iteration {
+        final double nanosPerOp;
+        final double bytesPerOp;
+        final long gcCount;
+        final long gcMillis;
+
+        Iteration(double nanosPerOp, double bytesPerOp, long gcCount, long gcMillis) {
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        String format() {
+            return "ITER " + nanosPerOp + " " + bytesPerOp + " " + gcCount + " " + gcMillis;
+        }
+
+        static Iteration parse(String line) {
+            String[] parts = line.split(" ");
+            return new Iteration(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                Long.parseLong(parts[3]), Long.parseLong(parts[4]));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String filter = ".*";
+        String worker = null;
+        String output = null;
+        int forks = 2;
+        int warmups = 3;
+        int iterations = 5;
+        long iterationMillis = 1000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-f": forks = Integer.parseInt(args[++i]); break;
+                case "-wi": warmups = Integer.parseInt(args[++i]); break;
+                case "-i": iterations = Integer.parseInt(args[++i]); break;
+                case "-r": iterationMillis = Long.parseLong(args[++i]); break;
+                case "-o": output = args[++i]; break;
+                case "--worker": worker = args[++i]; break;
+                default: filter = args[i];
+            }
+        }
+
+        Map<String, Setup> benchmarks = benchmarks();
+        if (worker != null) {
+            // Kørt af en forælder-JVM: mål og skriv runderne på stdout
+            for (Iteration iteration : measure(benchmarks.get(worker), warmups, iterations, iterationMillis)) {
+                System.out.println(iteration.format());
+            }
+            return;
+        }
+
+        Pattern pattern = Pattern.compile(filter);
+        List<String> selected = new ArrayList<>();
+        for (String name : benchmarks.keySet()) {
+            if (pattern.matcher(name).find()) {
+                selected.add(name);
+            }
+        }
+        printEnvironment(forks, warmups, iterations, iterationMillis);
+
+        Map<String, List<Iteration>> results = new LinkedHashMap<>();
+        for (String name : selected) {
+            System.out.println("Kører " + name + " ...");
+            List<Iteration> measured = new ArrayList<>();
+            if (forks == 0) {
+                measured.addAll(measure(benchmarks.get(name), warmups, iterations, iterationMillis));
+            }
+            for (int fork = 0; fork < forks; fork++) {
+                measured.addAll(fork(name, warmups, iterations, iterationMillis));
+            }
+            results.put(name, measured);
+        }
+
+        System.out.println();
+        System.out.printf("%-28s %6s %16s %14s %14s %10s %8s%n",
+            "Benchmark", "Runder", "ns/op", "± stdafv", "alloc B/op", "gc antal", "gc ms");
+        for (Map.Entry<String, List<Iteration>> entry : results.entrySet()) {
+            Summary summary = new Summary(entry.getValue());
+            System.out.printf("%-28s %6d %,16.1f %,14.1f %,14.0f %10d %8d%n", entry.getKey(), summary.count,
+                summary.mean, summary.deviation, summary.bytesPerOp, summary.gcCount, summary.gcMillis);
+        }
+        if (output != null) {
+            writeCsv(Paths.get(output), results);
+            System.out.println("\nResultater skrevet til " + output);
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Benchmarks
+    // ---------------------------------------------------------------
+
+    private static Map<String, Setup> benchmarks() {
+        Map<String, Setup> benchmarks = new LinkedHashMap<>();
+
+        for (int size : PAYLOAD_SIZES) {
+            benchmarks.put("crypto.encrypt/" + size, () -> {
+                CryptoManager crypto = cryptoManager();
+                String text = randomText(new Random(SEED), size);
+                return () -> crypto.encrypt(text).length();
+            });
+            benchmarks.put("crypto.decrypt/" + size, () -> {
+                CryptoManager crypto = cryptoManager();
+                String encrypted = crypto.encrypt(randomText(new Random(SEED), size));
+                return () -> crypto.decrypt(encrypted).length();
+            });
+        }
+
+        benchmarks.put("codec.encode", () -> {
+            Note[] notes = sampleNotes();
+            int[] next = {0};
+            return () -> NoteCodec.encode(notes[next[0]++ & (NOTE_SAMPLE - 1)]).length;
+        });
+        benchmarks.put("codec.decode", () -> {
+            byte[][] encoded = new byte[NOTE_SAMPLE][];
+            Note[] notes = sampleNotes();
+            for (int i = 0; i < NOTE_SAMPLE; i++) {
+                encoded[i] = NoteCodec.encode(notes[i]);
+            }
+            int[] next = {0};
+            return () -> NoteCodec.decode(encoded[next[0]++ & (NOTE_SAMPLE - 1)]).getCharacterCount();
+        });
+
+        for (int count : NOTE_COUNTS) {
+            benchmarks.put("storage.save/" + count, () -> {
+                Path directory = Files.createTempDirectory("notesapp-bench");
+                NotesStorage storage = new NotesStorage(cryptoManager(), directory.toString());
+                List<Note> notes = FilterBenchmark.generateNotes(count, new Random(SEED));
+                return deleting(directory, () -> {
+                    storage.saveNotes(notes);
+                    return notes.size();
+                });
+            });
+            benchmarks.put("storage.load/" + count, () -> {
+                Path directory = Files.createTempDirectory("notesapp-bench");
+                NotesStorage storage = new NotesStorage(cryptoManager(), directory.toString());
+                storage.saveNotes(FilterBenchmark.generateNotes(count, new Random(SEED)));
+                return deleting(directory, () -> storage.loadNotes().size());
+            });
+            benchmarks.put("search.filter/" + count, () -> {
+                NoteIndex index = new NoteIndex();
+                index.rebuild(FilterBenchmark.generateNotes(count, new Random(SEED)));
+                String filters = NoteQuery.filters("Arbejde", false);
+                return () -> index.filter(QUERY, filters, Collections::singleton, NoteSortOrder.NEWEST).length;
+            });
+            benchmarks.put("search.fuzzy/" + count, () -> {
+                List<Note> notes = FilterBenchmark.generateNotes(count, new Random(SEED));
+                NoteIndex index = new NoteIndex();
+                index.rebuild(notes);
+                TermDictionary dictionary = new TermDictionary();
+                dictionary.rebuild(notes);
+                // Ny kontekst pr. søgning som i GUI'en, så udvidelsen af søgeordene tælles med
+                return () -> index.filter("kafe budgt", "", dictionary.queryContext(true), NoteSortOrder.NEWEST).length;
+            });
+            benchmarks.put("search.sort/" + count, () -> {
+                NoteIndex index = new NoteIndex();
+                index.rebuild(FilterBenchmark.generateNotes(count, new Random(SEED)));
+                return () -> index.filter("", "", Collections::singleton, NoteSortOrder.TITLE_ASC).length;
+            });
+        }
+
+        benchmarks.put("note.wordCount", () -> {
+            Note[] notes = sampleNotes();
+            int[] next = {0};
+            return () -> notes[next[0]++ & (NOTE_SAMPLE - 1)].getWordCount();
+        });
+        benchmarks.put("note.wordCount.uncached", () -> {
+            // Det arbejde getWordCount gør første gang et nyt indhold tælles
+            Note[] notes = sampleNotes();
+            int[] next = {0};
+            return () -> {
+                String content = notes[next[0]++ & (NOTE_SAMPLE - 1)].getContent();
+                return WordCounter.countWords(content, 0, content.length());
+            };
+        });
+        benchmarks.put("note.contentPreview", () -> {
+            Note[] notes = sampleNotes();
+            int[] next = {0};
+            return () -> notes[next[0]++ & (NOTE_SAMPLE - 1)].getContentPreview().length();
+        });
+        return benchmarks;
+    }
+
+    private static CryptoManager cryptoManager() throws Exception {
+        CryptoManager crypto = new CryptoManager();
+        crypto.generateKeyFromPassword(PASSWORD, SALT);
+        return crypto;
+    }
+
+    private static Note[] sampleNotes() {
+        return FilterBenchmark.generateNotes(NOTE_SAMPLE, new Random(SEED)).toArray(new Note[0]);
+    }
+
+    /**
+     * Tekst af tilfældige ord på præcis det antal tegn
+     */
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(FilterBenchmark.randomText(random, 50)).append(' ');
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+
+    /**
+     * Sletter den midlertidige data mappe når benchmarken er færdig
+     */
+    private static Operation deleting(Path directory, Operation operation) {
+        return new Operation() {
+            @Override
+            public long run() throws Exception {
+                return operation.run();
+            }
+
+            @Override
+            public void close() throws Exception {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                    for (Path file : files) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(directory);
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------
+    // Måling
+    // ---------------------------------------------------------------
+
+    /**
+     * Kører opvarmningsrunder og målerunder; hver runde kører operationen mindst én gang og indtil tiden er gået
+     */
+    private static List<Iteration> measure(Setup setup, int warmups, int iterations, long iterationMillis) throws Exception {
+        Operation operation = setup.create();
+        List<Iteration> measured = new ArrayList<>();
+        try {
+            for (int i = 0; i < warmups + iterations; i++) {
+                Iteration iteration = iteration(operation, iterationMillis * 1_000_000);
+                if (i >= warmups) {
+                    measured.add(iteration);
+                }
+            }
+        } finally {
+            operation.close();
+        }
+        return measured;
+    }
+
+    private static Iteration iteration(Operation operation, long iterationNanos) throws Exception {
+        System.gc();
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long allocatedBefore = allocatedBytes();
+
+        long ops = 0;
+        long result = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            result += operation.run();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        sink += result;
+
+        long allocated = allocatedBytes() - allocatedBefore;
+        return new Iteration((double) elapsed / ops, allocatedBefore < 0 ? -1 : (double) allocated / ops,
+            gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+    }
+
+    /**
+     * Starter en ny JVM med samme classpath og JVM-argumenter og læser dens målerunder
+     */
+    private static List<Iteration> fork(String name, int warmups, int iterations, long iterationMillis) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(NotesBenchmark.class.getName());
+        command.addAll(Arrays.asList("--worker", name, "-wi", String.valueOf(warmups), "-i", String.valueOf(iterations),
+            "-r", String.valueOf(iterationMillis)));
+
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        List<Iteration> measured = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("ITER ")) {
+                    measured.add(Iteration.parse(line));
+                } else {
+                    System.out.println(line);
+                }
+            }
+        }
+        int exit = process.waitFor();
+        if (exit != 0) {
+            throw new IOException("Fork for " + name + " fejlede med kode " + exit);
+        }
+        return measured;
+    }
+
+    /**
+     * Allokerede bytes for alle levende tråde (som JMH's -prof gc); -1 hvis JVM'en ikke kan måle det
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    // ---------------------------------------------------------------
+    // Rapport
+    // ---------------------------------------------------------------
+
+    /**
+     * Gennemsnit og spredning over alle målerunder fra alle forks
+     */
+    private static final class Summary {
+        final int count;
+        final double mean;
+        final double deviation;
+        final double bytesPerOp;
+        final long gcCount;
+        final long gcMillis;
+
+        Summary(List<Iteration> iterations) {
+            count = iterations.size();
+            double sum = 0;
+            double bytes = 0;
+            long collections = 0;
+            long millis = 0;
+            for (Iteration iteration : iterations) {
+                sum += iteration.nanosPerOp;
+                bytes += iteration.bytesPerOp;
+                collections += iteration.gcCount;
+                millis += iteration.gcMillis;
+            }
+            mean = count == 0 ? 0 : sum / count;
+            double squares = 0;
+            for (Iteration iteration : iterations) {
+                squares += (iteration.nanosPerOp - mean) * (iteration.nanosPerOp - mean);
+            }
+            deviation = count < 2 ? 0 : Math.sqrt(squares / (count - 1));
+            bytesPerOp = count == 0 ? 0 : bytes / count;
+            gcCount = collections;
+            gcMillis = millis;
+        }
+    }
+
+    private static void printEnvironment(int forks, int warmups, int iterations, long iterationMillis) {
+        System.out.println("# JVM: " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+        System.out.println("# JVM-argumenter: " + ManagementFactory.getRuntimeMXBean().getInputArguments());
+        System.out.println("# System: " + System.getProperty("os.name") + ", "
+            + Runtime.getRuntime().availableProcessors() + " kerner");
+        System.out.println("# Forks: " + forks + ", opvarmning: " + warmups + " x " + iterationMillis + " ms, måling: "
+            + iterations + " x " + iterationMillis + " ms, frø: " + SEED);
+    }
+
+    private static void writeCsv(Path file, Map<String, List<Iteration>> results) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("benchmark,runder,ns_op,stdafv,alloc_b_op,gc_antal,gc_ms");
+            writer.newLine();
+            for (Map.Entry<String, List<Iteration>> entry : results.entrySet()) {
+                Summary summary = new Summary(entry.getValue());
+                writer.write(String.format(Locale.ROOT, "%s,%d,%.1f,%.1f,%.0f,%d,%d", entry.getKey(), summary.count,
+                    summary.mean, summary.deviation, summary.bytesPerOp, summary.gcCount, summary.gcMillis));
+                writer.newLine();
+            }
+        }
+    }
+}
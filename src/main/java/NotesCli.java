@@ -0,0 +1,614 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * NotesCli er kommandolinje-udgaven af appen til scripts og servere uden skærm
+ * Passwordet læses fra en fil (--password-file) eller som første linje på stdin. Kommandoer der kun
+ * læser strømmer noterne fra filen én ad gangen, og import føjer noterne til filen i bidder uden at
+ * indlæse samlingen
+ */
+public class NotesCli {
+    private static final String USAGE = String.join("\n",
+        "Brug: java NotesApp <kommando> [argumenter] [--dir mappe] [--password-file fil]",
+        "",
+        "  list    [--category K] [--favorites] [--sort \"A-Z\"]   vis noterne (id, ændret, kategori, favorit, titel)",
+        "  search  <udtryk> [--fuzzy] [--category K] [--favorites] [--sort ...]",
+        "  cat     <id eller starten af et id>                   skriv notens indhold",
+        "  add     --title T [--category K] [--favorite] [--file fil]   indhold fra fil eller stdin",
+        "  import  [fil/mappe ...] [-] [--batch 1000] [--threads N]   .txt/.md bliver noter; .jsonl/.json og - (stdin)",
+        "                                                        er JSON-linjer eller ét JSON-array",
+        "  export  [udtryk] [--out fil] [--category K] [--favorites]   skriv noterne som JSON-linjer, eller som",
+        "          ZIP med én fil pr. note når --out ender på .zip [--format markdown|json] [--encrypt]",
+        "  decrypt <arkiv> --out fil.zip                         pak et krypteret eksport-arkiv ud til en ZIP",
+        "  sync    <mappe>                                       synkroniser med en anden mappe med samme samling",
+        "                                                        (oprettes hvis den er tom); kun ændrede noter kopieres",
+        "  backup  [list | verify [navn] | restore <navn>]        tag et trinvist, krypteret snapshot (kun ændrede",
+        "          [--backup-dir mappe] [--keep 10] [--keep-days 30]   records gemmes), vis, kontroller eller gendan;",
+        "                                                        restore opretter samlingen hvis --dir ikke findes",
+        "  scrub   [--threads N] [--remove]                      kontroller hver note parallelt og vis de beskadigede;",
+        "                                                        --remove fjerner dem fra filen (gendan først fra backup)",
+        "  stats                                                 antal, ord, tegn og kategorier",
+        "  serve   [--port 8765] [--token T]                     JSON API på localhost (se NotesServer)",
+        "",
+        "Uden --password-file læses passwordet fra første linje på stdin.");
+    private static final Set<String> VALUE_OPTIONS = new HashSet<>(Arrays.asList(
+        "--dir", "--password-file", "--category", "--sort", "--title", "--file", "--out", "--port", "--token",
+        "--batch", "--threads", "--format", "--backup-dir", "--keep", "--keep-days"));
+
+    private final Map<String, String> options = new HashMap<>();
+    private final List<String> arguments = new ArrayList<>();
+    private final PrintWriter out;
+    private BufferedReader stdin;
+    private NotesModel model;
+
+    private NotesCli(PrintWriter out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Kører en kommando og returnerer exit-koden: 0 ok, 1 fejl, 2 forkert brug
+     */
+    public static int run(String[] args) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        NotesCli cli = new NotesCli(out);
+        try {
+            cli.parseArguments(args);
+            if (cli.arguments.isEmpty() || cli.options.containsKey("--help")) {
+                System.err.println(USAGE);
+                return 2;
+            }
+            cli.execute(cli.arguments.remove(0));
+            cli.warnCorrupt();
+            return 0;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println();
+            System.err.println(USAGE);
+            return 2;
+        } catch (Exception e) {
+            System.err.println("Fejl: " + e.getMessage());
+            return 1;
+        } finally {
+            out.flush();
+        }
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (VALUE_OPTIONS.contains(arg)) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Mangler værdi til " + arg);
+                }
+                options.put(arg, args[++i]);
+            } else if (arg.startsWith("--")) {
+                options.put(arg, "");
+            } else {
+                arguments.add(arg);
+            }
+        }
+    }
+
+    private void execute(String command) throws Exception {
+        switch (command) {
+            case "list": list(""); break;
+            case "search":
+                if (arguments.isEmpty()) {
+                    throw new IllegalArgumentException("search kræver et søgeudtryk");
+                }
+                list(String.join(" ", arguments));
+                break;
+            case "cat": cat(); break;
+            case "add": add(); break;
+            case "import": importNotes(); break;
+            case "export": export(); break;
+            case "decrypt": decrypt(); break;
+            case "sync": sync(); break;
+            case "backup": backup(); break;
+            case "scrub": scrub(); break;
+            case "stats": stats(); break;
+            case "serve": serve(); break;
+            default: throw new IllegalArgumentException("Ukendt kommando: " + command);
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Kommandoer
+    // ---------------------------------------------------------------
+
+    /**
+     * Viser noterne der matcher; uden sortering og fuzzy strømmes de i filens rækkefølge
+     */
+    private void list(String query) throws Exception {
+        NotesModel model = open();
+        String category = options.get("--category");
+        boolean favorites = options.containsKey("--favorites");
+        String sort = options.get("--sort");
+        if (sort == null && !options.containsKey("--fuzzy")) {
+            NoteQuery.Node predicate = NoteQuery.parse(query, NoteQuery.filters(category, favorites)).getRoot();
+            model.readNotes(note -> {
+                if (predicate.matches(note, Collections::singleton)) {
+                    printRow(note);
+                }
+            });
+            return;
+        }
+        model.load();
+        int[] slots = model.filter(query, category, favorites, options.containsKey("--fuzzy"),
+            sort == null ? NoteSortOrder.NEWEST : sortOrder(sort));
+        for (int slot : slots) {
+            printRow(model.getIndex().getNote(slot));
+        }
+    }
+
+    private void printRow(Note note) {
+        out.print(note.getId());
+        out.print('\t');
+        out.print(note.getFormattedLastModified());
+        out.print('\t');
+        out.print(note.getCategory());
+        out.print('\t');
+        out.print(note.isFavorite() ? '*' : '-');
+        out.print('\t');
+        out.println(note.getTitle());
+    }
+
+    /**
+     * Skriver indholdet af noten hvis id starter med argumentet (som korte git-hashes)
+     */
+    private void cat() throws Exception {
+        if (arguments.size() != 1) {
+            throw new IllegalArgumentException("cat kræver præcis ét id");
+        }
+        String prefix = arguments.get(0);
+        List<Note> matches = new ArrayList<>();
+        open().readNotes(note -> {
+            if (note.getId().startsWith(prefix)) {
+                matches.add(note);
+            }
+        });
+        if (matches.isEmpty()) {
+            throw new IOException("Ingen note med id " + prefix);
+        }
+        if (matches.size() > 1) {
+            throw new IOException(matches.size() + " noter har id der starter med " + prefix);
+        }
+        out.println(matches.get(0).getContent());
+    }
+
+    private void add() throws Exception {
+        String title = options.get("--title");
+        if (title == null) {
+            throw new IllegalArgumentException("add kræver --title");
+        }
+        NotesModel model = open();
+        String file = options.get("--file");
+        String content = file != null
+            ? new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8)
+            : readRemaining(stdin());
+        model.load();
+        Note note = new Note(title, content);
+        if (options.containsKey("--category")) {
+            note.setCategory(options.get("--category"));
+        }
+        if (options.containsKey("--favorite")) {
+            note.setFavorite(true);
+        }
+        model.add(note);
+        model.save();
+        out.println(note.getId());
+    }
+
+    /**
+     * Importerer kilderne som en strøm: filerne læses parallelt og noterne føjes til filen i bidder,
+     * så hverken samlingen eller importen skal være i hukommelsen. Kun id'erne læses først, så noter
+     * hvis id allerede findes (fx fra en tidligere eksport) kan springes over
+     */
+    private void importNotes() throws Exception {
+        NotesModel model = open();
+        NotesStorage storage = model.getStorage();
+        if (storage.hasExistingData() && !storage.isCurrentFormat()) {
+            // Gamle filer er ét krypteret blob; de skrives om til én record pr. linje før der kan tilføjes
+            model.load();
+            model.save();
+            model.clear();
+        }
+        Set<String> existing = new HashSet<>();
+        model.readNotes(note -> existing.add(note.getId()));
+
+        int batchSize = intOption("--batch", 1000);
+        int threads = intOption("--threads", Math.max(2, Runtime.getRuntime().availableProcessors()));
+        long started = System.nanoTime();
+        List<String> sources = arguments.isEmpty() ? Collections.singletonList("-") : arguments;
+        NoteImporter importer = new NoteImporter(existing, batchSize, threads, storage::appendNotes, this::printProgress);
+        try {
+            for (String source : sources) {
+                if (source.equals("-")) {
+                    importer.importJson(stdin());
+                } else {
+                    importer.importPath(Paths.get(source));
+                }
+            }
+        } finally {
+            importer.close();
+            if (importer.getImported() > 0) {
+                System.err.println();
+            }
+        }
+        out.printf("%d noter importeret%s (%.1f s)%n", importer.getImported(),
+            importer.getSkipped() > 0 ? ", " + importer.getSkipped() + " fandtes allerede" : "",
+            (System.nanoTime() - started) / 1e9);
+    }
+
+    private void printProgress(NoteImporter importer) {
+        System.err.printf("\rImporteret %,d noter (%,.1f MB)", importer.getImported(), importer.getBytesRead() / 1e6);
+    }
+
+    private int intOption(String name, int fallback) {
+        return intOption(name, fallback, 1);
+    }
+
+    private int intOption(String name, int fallback, int minimum) {
+        String value = options.get(name);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= minimum) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Falder igennem til fejlen nedenfor
+        }
+        throw new IllegalArgumentException(name + (minimum > 0 ? " skal være et positivt tal" : " skal være 0 eller mere"));
+    }
+
+    private static NoteSortOrder sortOrder(String value) {
+        NoteSortOrder order = NoteSortOrder.find(value);
+        if (order == null) {
+            throw new IllegalArgumentException("Ukendt sortering: " + value + " (brug "
+                + String.join(", ", NoteSortOrder.labels()) + ")");
+        }
+        return order;
+    }
+
+    /**
+     * Strømmer de matchende noter ud som JSON-linjer (samme format som import læser), eller som ZIP
+     * hvis --out ender på .zip eller --encrypt er angivet
+     */
+    private void export() throws Exception {
+        NotesModel model = open();
+        NoteQuery.Node predicate = NoteQuery.parse(String.join(" ", arguments),
+            NoteQuery.filters(options.get("--category"), options.containsKey("--favorites"))).getRoot();
+        String file = options.get("--out");
+        if (file != null && (file.toLowerCase().endsWith(".zip") || options.containsKey("--encrypt"))) {
+            exportZip(model, predicate, file);
+            return;
+        }
+        PrintWriter target = file == null ? out
+            : new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8));
+        StringBuilder line = new StringBuilder();
+        int[] count = {0};
+        try {
+            model.readNotes(note -> {
+                if (predicate.matches(note, Collections::singleton)) {
+                    line.setLength(0);
+                    NoteJson.write(note, line);
+                    target.println(line);
+                    count[0]++;
+                }
+            });
+        } finally {
+            if (target != out) {
+                target.close();
+            }
+        }
+        if (target != out) {
+            out.println(count[0] + " noter eksporteret til " + file);
+        }
+    }
+
+    /**
+     * Skriver de matchende noter som filer i et ZIP-arkiv, evt. krypteret med samlingens nøgle
+     */
+    private void exportZip(NotesModel model, NoteQuery.Node predicate, String file) throws Exception {
+        NoteExporter.Format format = NoteExporter.Format.parse(options.getOrDefault("--format", "markdown"));
+        int threads = intOption("--threads", Math.max(2, Runtime.getRuntime().availableProcessors()));
+        long started = System.nanoTime();
+        NotesStorage encryptWith = options.containsKey("--encrypt") ? model.getStorage() : null;
+        int count;
+        try (NoteExporter exporter = new NoteExporter(format, threads)) {
+            count = exporter.export(consumer -> model.readNotes(note -> {
+                if (predicate.matches(note, Collections::singleton)) {
+                    consumer.accept(note);
+                }
+            }), Paths.get(file), encryptWith);
+        }
+        out.printf("%d noter eksporteret til %s (%.1f s)%n", count, file, (System.nanoTime() - started) / 1e9);
+    }
+
+    /**
+     * Dekrypterer et arkiv fra export --encrypt til en almindelig ZIP; kræver kun passwordet
+     */
+    private void decrypt() throws Exception {
+        if (arguments.size() != 1 || !options.containsKey("--out")) {
+            throw new IllegalArgumentException("decrypt kræver ét arkiv og --out");
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(arguments.get(0))))) {
+            byte[] salt = EncryptedArchive.readSalt(in);
+            CryptoManager cryptoManager = new CryptoManager();
+            cryptoManager.generateKeyFromPassword(readPassword(), salt);
+            Path target = Paths.get(options.get("--out"));
+            try (InputStream plain = new EncryptedArchive.Input(cryptoManager, in)) {
+                Files.copy(plain, target, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.deleteIfExists(target);
+                throw e;
+            }
+            out.println("Dekrypteret til " + target);
+        }
+    }
+
+    private void sync() throws Exception {
+        if (arguments.size() != 1) {
+            throw new IllegalArgumentException("sync kræver én mappe");
+        }
+        NotesStorage storage = open().getStorage();
+        NotesStorage peer = VaultSync.openPeer(storage, arguments.get(0));
+        long start = System.nanoTime();
+        VaultSync.Result result = new VaultSync(storage, peer).sync();
+        out.printf("Synkroniseret med %s: %d ændret her, %d ændret der, %d flettet, %d konflikter (%.1f s)%n",
+            peer.getDataDirectory(), result.getCopiedToFirst(), result.getCopiedToSecond(), result.getMerged(),
+            result.getConflicts(), (System.nanoTime() - start) / 1e9);
+        out.printf("%d forskellige noter fundet ved at sammenligne %d knuder; %d records dekrypteret%n",
+            result.getDiffering(), result.getComparedNodes(), result.getDecrypted());
+        // Den første mappes beskadigede noter nævnes allerede af warnCorrupt når kommandoen er færdig
+        warnCorrupt(peer.getDataDirectory(), result.getCorruptInSecond());
+    }
+
+    private void warnCorrupt(String directory, List<NotesStorage.CorruptRecord> corrupt) {
+        if (!corrupt.isEmpty()) {
+            out.flush();
+            System.err.println("Advarsel: " + corrupt.size() + " beskadigede noter i " + directory
+                + " blev ikke synkroniseret (se scrub):");
+            for (NotesStorage.CorruptRecord record : corrupt) {
+                System.err.println("  " + record);
+            }
+        }
+    }
+
+    /**
+     * Snapshot, oversigt, kontrol eller gendannelse; backup-mappen er som standard backups under --dir
+     */
+    private void backup() throws Exception {
+        String action = arguments.isEmpty() ? "create" : arguments.remove(0);
+        if ("restore".equals(action)) {
+            restore();
+            return;
+        }
+        VaultBackup backup = openBackup(open().getStorage());
+        long start = System.nanoTime();
+        switch (action) {
+            case "create":
+                VaultBackup.Snapshot snapshot = backup.backup();
+                if (snapshot == null) {
+                    out.println("Ingen ændringer siden sidste snapshot");
+                } else {
+                    out.printf("Snapshot %s: %d noter, %d nye records (%d KB) i %s (%.1f s)%n", snapshot.getName(),
+                        snapshot.getRecordCount(), snapshot.getNewRecords(), snapshot.getNewBytes() / 1024,
+                        backup.getDirectory(), (System.nanoTime() - start) / 1e9);
+                }
+                break;
+            case "list":
+                for (VaultBackup.Snapshot listed : backup.list()) {
+                    out.printf("%s\t%d noter\t%d nye (%d KB)%n", listed.getName(), listed.getRecordCount(),
+                        listed.getNewRecords(), listed.getNewBytes() / 1024);
+                }
+                break;
+            case "verify":
+                List<String> names = new ArrayList<>();
+                if (arguments.isEmpty()) {
+                    backup.list().forEach(listed -> names.add(listed.getName()));
+                } else {
+                    names.addAll(arguments);
+                }
+                for (String name : names) {
+                    out.printf("%s: %d records ok%n", name, backup.verify(name, true));
+                }
+                out.printf("%d snapshots kontrolleret (%.1f s)%n", names.size(), (System.nanoTime() - start) / 1e9);
+                break;
+            default:
+                throw new IllegalArgumentException("Ukendt backup-handling: " + action);
+        }
+    }
+
+    /**
+     * Gendanner et snapshot; findes samlingen ikke, oprettes den med snapshottets salt
+     */
+    private void restore() throws Exception {
+        if (arguments.size() != 1) {
+            throw new IllegalArgumentException("backup restore kræver navnet på ét snapshot");
+        }
+        String name = arguments.get(0);
+        String directory = directory();
+        CryptoManager cryptoManager = new CryptoManager();
+        NotesStorage storage = new NotesStorage(cryptoManager, directory);
+        String password = readPassword();
+        boolean created = !storage.hasExistingData();
+        if (created) {
+            byte[] salt = VaultBackup.readSalt(openBackup(storage).snapshotFile(name));
+            cryptoManager.generateKeyFromPassword(password, salt);
+            storage.saveSalt(salt);
+            storage.saveNotes(Collections.emptyList());
+        } else {
+            storage = NotesModel.open(directory, password).getStorage();
+        }
+        long start = System.nanoTime();
+        int restored;
+        try {
+            restored = openBackup(storage).restore(name);
+        } catch (Exception e) {
+            if (created) {
+                // Fx forkert password: efterlad ikke en tom samling med det forkerte password
+                storage.deleteAllData();
+            }
+            throw e;
+        }
+        out.printf("Gendannede %d noter fra %s til %s (%.1f s)%n", restored, name, directory,
+            (System.nanoTime() - start) / 1e9);
+    }
+
+    private VaultBackup openBackup(NotesStorage storage) {
+        String directory = options.get("--backup-dir");
+        VaultBackup backup = directory == null ? new VaultBackup(storage) : new VaultBackup(storage, Paths.get(directory));
+        backup.setRetention(intOption("--keep", 10), intOption("--keep-days", 30, 0));
+        return backup;
+    }
+
+    /**
+     * Kontrollerer hver record; exit-kode 1 hvis noget er beskadiget og ikke fjernet
+     */
+    private void scrub() throws Exception {
+        int threads = intOption("--threads", Runtime.getRuntime().availableProcessors());
+        VaultScrub scrub = new VaultScrub(open().getStorage(), threads);
+        VaultScrub.Report report = options.containsKey("--remove") ? scrub.removeCorrupt() : scrub.scrub();
+        out.printf("Kontrollerede %d noter på %.1f s (%d tråde): %d i orden, %d beskadigede%n", report.getRecords(),
+            report.getNanos() / 1e9, threads, report.getRecords() - report.getCorrupt().size(), report.getCorrupt().size());
+        for (NotesStorage.CorruptRecord corrupt : report.getCorrupt()) {
+            out.println("  " + corrupt);
+        }
+        if (!report.isCheckValueOk()) {
+            out.println("Kontrolværdien er beskadiget; den skrives om ved næste gemning");
+        }
+        if (!report.getDuplicateIds().isEmpty()) {
+            out.println("Id'er der står flere gange: " + String.join(", ", report.getDuplicateIds()));
+        }
+        if (report.getWithoutChecksum() > 0) {
+            out.println(report.getWithoutChecksum() + " noter er fra før kontrolsummer og får dem ved næste gemning");
+        }
+        if (report.getCorrupt().isEmpty()) {
+            return;
+        }
+        if (options.containsKey("--remove")) {
+            out.println(report.getCorrupt().size() + " beskadigede noter fjernet fra filen");
+        } else {
+            out.flush();
+            throw new IOException(report.getCorrupt().size()
+                + " beskadigede noter; gendan dem med backup restore, eller fjern dem med scrub --remove");
+        }
+    }
+
+    private void stats() throws Exception {
+        long start = System.nanoTime();
+        int[] counts = new int[2];
+        long[] totals = new long[2];
+        Map<String, Integer> categories = new TreeMap<>();
+        open().readNotes(note -> {
+            counts[0]++;
+            if (note.isFavorite()) {
+                counts[1]++;
+            }
+            totals[0] += note.getWordCount();
+            totals[1] += note.getCharacterCount();
+            categories.merge(note.getCategory(), 1, Integer::sum);
+        });
+        out.printf("Noter:       %d%n", counts[0]);
+        out.printf("Favoritter:  %d%n", counts[1]);
+        out.printf("Ord:         %d%n", totals[0]);
+        out.printf("Tegn:        %d%n", totals[1]);
+        out.println("Kategorier:");
+        for (Map.Entry<String, Integer> entry : categories.entrySet()) {
+            out.printf("  %-20s %d%n", entry.getKey(), entry.getValue());
+        }
+        out.printf("Læst på %.0f ms%n", (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Starter API-serveren på localhost og kører indtil processen stoppes
+     */
+    private void serve() throws Exception {
+        NotesModel model = open();
+        model.load();
+        String token = options.getOrDefault("--token", NotesServer.generateToken());
+        NotesServer server = new NotesServer(model, Integer.parseInt(options.getOrDefault("--port", "8765")), token);
+        server.start();
+        out.println("Lytter på http://127.0.0.1:" + server.getPort() + "/notes (" + model.size() + " noter)");
+        out.println("Authorization: Bearer " + token);
+        out.flush();
+        new CountDownLatch(1).await();
+    }
+
+    // ---------------------------------------------------------------
+    // Hjælpere
+    // ---------------------------------------------------------------
+
+    /**
+     * Åbner samlingen med passwordet fra fil eller stdin
+     */
+    private NotesModel open() throws Exception {
+        model = NotesModel.open(directory(), readPassword());
+        return model;
+    }
+
+    /**
+     * Noter der ikke kunne læses, springes over; det siges på stderr så scripts ikke tror alt kom med
+     */
+    private void warnCorrupt() {
+        List<NotesStorage.CorruptRecord> corrupt = model == null ? Collections.emptyList() : model.getStorage().getCorruptRecords();
+        if (!corrupt.isEmpty()) {
+            out.flush();
+            System.err.println("Advarsel: " + corrupt.size() + " beskadigede noter blev sprunget over (se scrub):");
+            for (NotesStorage.CorruptRecord record : corrupt) {
+                System.err.println("  " + record);
+            }
+        }
+    }
+
+    private String directory() {
+        return options.getOrDefault("--dir", System.getProperty("user.home") + File.separator + ".notesapp");
+    }
+
+    private String readPassword() throws IOException {
+        String file = options.get("--password-file");
+        String password;
+        if (file != null) {
+            List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+            password = lines.isEmpty() ? null : lines.get(0);
+        } else if (System.console() != null) {
+            char[] typed = System.console().readPassword("Password: ");
+            password = typed == null ? null : new String(typed);
+        } else {
+            password = stdin().readLine();
+        }
+        if (password == null || password.isEmpty()) {
+            throw new IOException("Intet password angivet");
+        }
+        return password;
+    }
+
+    private BufferedReader stdin() {
+        if (stdin == null) {
+            stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        }
+        return stdin;
+    }
+
+    private static String readRemaining(BufferedReader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) > 0) {
+            text.append(buffer, 0, read);
+        }
+        return text.toString();
+    }
+}
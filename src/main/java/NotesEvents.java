@@ -0,0 +1,63 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * NotesEvents samler de JDK Flight Recorder events appen udsender
+ * Når der ikke optages, er begin/commit næsten gratis; optag fx med
+ * {@code java -XX:StartFlightRecording=filename=notes.jfr NotesApp}
+ */
+public final class NotesEvents {
+    private NotesEvents() {
+    }
+
+    @Name("notesapp.Storage")
+    @Label("Notes lager")
+    @Category({"NotesApp", "Lager"})
+    @Description("Gemning, indlæsning, sikkerhedskopi eller gendannelse af notes.dat")
+    public static class StorageEvent extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Antal noter")
+        public int noteCount;
+    }
+
+    @Name("notesapp.Crypto")
+    @Label("Kryptering")
+    @Category({"NotesApp", "Kryptering"})
+    @Description("Kryptering, dekryptering eller nøgleafledning")
+    public static class CryptoEvent extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("notesapp.Search")
+    @Label("Søgning")
+    @Category({"NotesApp", "Søgning"})
+    @Description("Filtrering af notelisten; selve søgeteksten optages ikke, da den kan afsløre notes indhold")
+    public static class SearchEvent extends Event {
+        @Label("Forespørgslens længde")
+        public int queryLength;
+
+        @Label("Betingelser")
+        public int clauses;
+
+        @Label("Antal træffere")
+        public int noteCount;
+
+        @Label("Noter i alt")
+        public int totalNotes;
+    }
+}
@@ -0,0 +1,231 @@
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * NotesMetrics tæller og måler lager-, krypterings- og søgeoperationer
+ * Hver operation har et låsefrit log-histogram over latenstider, så p50/p99/max kan læses via JMX.
+ * Med -Dnotesapp.metrics=false springes målingerne helt over
+ */
+public class NotesMetrics implements NotesMetricsMXBean {
+    public static final boolean ENABLED = !"false".equals(System.getProperty("notesapp.metrics"));
+
+    public static final Operation SAVE = new Operation("lager.gem");
+    public static final Operation LOAD = new Operation("lager.indlæs");
+    public static final Operation ENCRYPT = new Operation("krypto.krypter");
+    public static final Operation DECRYPT = new Operation("krypto.dekrypter");
+    public static final Operation DERIVE_KEY = new Operation("krypto.nøgle");
+    public static final Operation FILTER = new Operation("søgning.filtrer");
+    public static final Operation BACKUP = new Operation("lager.sikkerhedskopi");
+
+    private static final Operation[] OPERATIONS = {SAVE, LOAD, ENCRYPT, DECRYPT, DERIVE_KEY, FILTER, BACKUP};
+    private static final NotesMetrics INSTANCE = new NotesMetrics();
+    private static boolean registered = false;
+
+    private NotesMetrics() {
+    }
+
+    /**
+     * Registrerer MBean'en som notesapp:type=Metrics (kun én gang)
+     */
+    public static synchronized void register() {
+        if (!ENABLED || registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("notesapp:type=Metrics"));
+            registered = true;
+        } catch (Exception e) {
+            System.err.println("Kunne ikke registrere metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starttidspunkt til Operation.record; 0 når målinger er slået fra
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        List<OperationStats> stats = new ArrayList<>(OPERATIONS.length);
+        for (Operation operation : OPERATIONS) {
+            stats.add(operation.snapshot());
+        }
+        return stats;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    public void reset() {
+        for (Operation operation : OPERATIONS) {
+            operation.reset();
+        }
+    }
+
+    /**
+     * En målt operation med tællere og et log-lineært histogram (8 underinddelinger pr. 2-potens, ca. 12% fejl)
+     */
+    public static final class Operation {
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = SUB_BUCKETS + 61 * SUB_BUCKETS;
+
+        private final String name;
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Registrerer en gennemført operation startet ved start()
+         */
+        public void record(long startNanos, long byteCount) {
+            if (!ENABLED) {
+                return;
+            }
+            long micros = Math.max(0, (System.nanoTime() - startNanos) / 1000);
+            histogram.incrementAndGet(bucket(micros));
+            count.incrementAndGet();
+            bytes.addAndGet(byteCount);
+            maxMicros.accumulateAndGet(micros, Math::max);
+        }
+
+        /**
+         * Registrerer en operation der fejlede
+         */
+        public void recordError() {
+            if (ENABLED) {
+                errors.incrementAndGet();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram.set(i, 0);
+            }
+            count.set(0);
+            errors.set(0);
+            bytes.set(0);
+            maxMicros.set(0);
+        }
+
+        OperationStats snapshot() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = histogram.get(i);
+                total += counts[i];
+            }
+            // Spandenes øvre grænse kan ligge over det største målte; percentiler vises aldrig over max
+            long max = maxMicros.get();
+            return new OperationStats(name, count.get(), errors.get(), bytes.get(),
+                Math.min(max, percentile(counts, total, 0.50)), Math.min(max, percentile(counts, total, 0.99)), max);
+        }
+
+        private static int bucket(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS + (exponent - 3) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * Øvre grænse for spandet (i mikrosekunder)
+         */
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + 3;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+        }
+
+        private static long percentile(long[] counts, long total, double fraction) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(counts.length - 1);
+        }
+    }
+
+    /**
+     * Et øjebliksbillede af én operation; bliver til CompositeData i JMX
+     */
+    public static final class OperationStats {
+        private final String name;
+        private final long count;
+        private final long errors;
+        private final long bytes;
+        private final long p50Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+
+        public OperationStats(String name, long count, long errors, long bytes, long p50Micros, long p99Micros, long maxMicros) {
+            this.name = name;
+            this.count = count;
+            this.errors = errors;
+            this.bytes = bytes;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-18s %8d kald %6d fejl  p50 %8d µs  p99 %8d µs  max %8d µs  %10d bytes",
+                name, count, errors, p50Micros, p99Micros, maxMicros, bytes);
+        }
+    }
+}
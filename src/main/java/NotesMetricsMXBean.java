@@ -0,0 +1,21 @@
+import java.util.List;
+
+/**
+ * JMX interface for NotesMetrics (vises under notesapp:type=Metrics i JConsole/VisualVM)
+ */
+public interface NotesMetricsMXBean {
+    /**
+     * Tællere og latenstider for hver målt operation
+     */
+    List<NotesMetrics.OperationStats> getOperations();
+
+    /**
+     * Om målingerne er slået til (-Dnotesapp.metrics=false slår dem fra)
+     */
+    boolean isEnabled();
+
+    /**
+     * Nulstiller alle tællere og histogrammer
+     */
+    void reset();
+}
@@ -0,0 +1,398 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * NotesModel er notesamlingen uden brugerflade: listen af noter, søgeindeksene og lageret
+ * NotesAppGUI viser og redigerer modellen, og værktøjer som VaultDriver kan bruge den samme
+ * logik headless. Modellen ændres fra én tråd ad gangen (i GUI'en EDT), og hver ændring udgives som en
+ * ny uforanderlig NoteVersion i NoteRepository. Andre tråde (gemning, server) læser kun derfra
+ */
+public class NotesModel {
+    private final NotesStorage storage;
+    private final List<Note> notes = new ArrayList<>();
+    private final Map<String, Note> notesById = new HashMap<>();
+    private final TermDictionary termDictionary = new TermDictionary();
+    private final NoteIndex noteIndex = new NoteIndex();
+    private final NoteRepository repository = new NoteRepository();
+    // Replika-id for redigeringer i denne instans (TextCrdt); nyt for hver instans, så to programmer på
+    // samme mappe aldrig giver to tegn samme id
+    private final String replicaId = UUID.randomUUID().toString().substring(0, 8);
+
+    // Gemninger i baggrunden kører på én tråd, så filen aldrig skrives af to på én gang
+    private ExecutorService saveExecutor;
+    private CompletableFuture<Void> lastSave = CompletableFuture.completedFuture(null);
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private long savedVersion = -1;
+
+    public NotesModel(NotesStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Opretter en ny tom samling i mappen med et nyt salt afledt af passwordet
+     */
+    public static NotesModel create(String dataDirectory, String password) throws Exception {
+        CryptoManager cryptoManager = new CryptoManager();
+        NotesStorage storage = new NotesStorage(cryptoManager, dataDirectory);
+        byte[] salt = cryptoManager.generateSalt();
+        cryptoManager.generateKeyFromPassword(password, salt);
+        storage.saveSalt(salt);
+        return new NotesModel(storage);
+    }
+
+    /**
+     * Åbner en eksisterende samling og tjekker passwordet; noterne indlæses først med load()
+     */
+    public static NotesModel open(String dataDirectory, String password) throws Exception {
+        CryptoManager cryptoManager = new CryptoManager();
+        NotesStorage storage = new NotesStorage(cryptoManager, dataDirectory);
+        if (!storage.hasExistingData()) {
+            throw new IOException("Ingen noter fundet i " + dataDirectory);
+        }
+        cryptoManager.generateKeyFromPassword(password, storage.loadSalt());
+        try {
+            storage.verifyPassword();
+        } catch (Exception e) {
+            throw new IOException("Forkert password eller beskadigede data", e);
+        }
+        return new NotesModel(storage);
+    }
+
+    /**
+     * Indlæser alle noter fra lageret og bygger indeksene én gang
+     */
+    public void load() throws Exception {
+        List<Note> loaded = storage.loadNotes();
+        notes.clear();
+        notesById.clear();
+        notes.addAll(loaded);
+        for (Note note : loaded) {
+            notesById.put(note.getId(), note);
+        }
+        termDictionary.rebuild(notes);
+        noteIndex.rebuild(notes);
+        repository.replaceAll(versionsOf(loaded));
+        // Det indlæste står allerede på disken
+        writeLock.lock();
+        try {
+            savedVersion = repository.snapshot().getVersion();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Læser noterne fra lageret uden at tilføje dem; rører ikke modellen og må kaldes fra en baggrundstråd
+     */
+    public void readNotes(Consumer<Note> consumer) throws Exception {
+        storage.readNotes(consumer);
+    }
+
+    /**
+     * Tømmer modellen (fx før noterne indlæses på ny)
+     */
+    public void clear() {
+        notes.clear();
+        notesById.clear();
+        termDictionary.rebuild(notes);
+        noteIndex.rebuild(notes);
+        repository.replaceAll(Collections.emptyList());
+    }
+
+    /**
+     * Tilføjer en eksisterende note og returnerer dens slot i indekset
+     */
+    public int add(Note note) {
+        notes.add(note);
+        notesById.put(note.getId(), note);
+        termDictionary.indexNote(note);
+        noteIndex.add(note);
+        repository.put(NoteVersion.of(note));
+        return noteIndex.slotOf(note);
+    }
+
+    /**
+     * Tilføjer mange noter på én gang og bygger indeksene én gang i stedet for pr. note
+     */
+    public void addAll(Collection<Note> added) {
+        notes.addAll(added);
+        for (Note note : added) {
+            notesById.put(note.getId(), note);
+        }
+        termDictionary.rebuild(notes);
+        noteIndex.rebuild(notes);
+        repository.putAll(versionsOf(added));
+    }
+
+    /**
+     * Opretter en ny note og tilføjer den
+     */
+    public Note createNote(String title, String content) {
+        Note note = new Note(title, content);
+        add(note);
+        return note;
+    }
+
+    /**
+     * Gemmer en redigering af en note. Indholdet sættes kun hvis det er angivet, så en uændret tekst ikke
+     * skal kopieres; ordantallet tælles af noten selv ud fra indholdet. Ændringen i teksten føjes til
+     * notens historik, så den kan flettes med ændringer fra andre steder
+     */
+    public void updateNote(Note note, String title, String content) {
+        note.setTitle(title);
+        if (content != null) {
+            if (!content.equals(note.getContent())) {
+                TextCrdt text = TextCrdt.of(note);
+                text.setText(replicaId, content);
+                note.setHistory(text.encode(content));
+            }
+            note.setContent(content);
+        }
+        note.updateModifiedDate();
+        termDictionary.indexNote(note);
+        repository.put(NoteVersion.of(note));
+    }
+
+    public void setCategory(Note note, String category) {
+        note.setCategory(category);
+        repository.put(NoteVersion.of(note));
+    }
+
+    public void setFavorite(Note note, boolean favorite) {
+        note.setFavorite(favorite);
+        repository.put(NoteVersion.of(note));
+    }
+
+    /**
+     * Fjerner en note fra listen og indeksene
+     */
+    public void delete(Note note) {
+        notes.remove(note);
+        notesById.remove(note.getId());
+        termDictionary.removeNote(note);
+        noteIndex.remove(note);
+        repository.remove(note.getId());
+    }
+
+    /**
+     * Fletter ændringer som en anden proces har skrevet (fra NotesStorage.readChanges) ind i samlingen
+     * Er en note ændret begge steder og har begge udgaver historik, flettes teksten (TextCrdt). Ellers vinder
+     * den eksterne udgave, undtagen for keepId (fx en note med ikke-gemte redigeringer), hvis lokale
+     * udgave overskriver den eksterne ved næste gemning. Kaldes på samme tråd som de andre ændringer og
+     * venter på en gemning der er i gang; returnerer false hvis ændringerne var forældede og intet blev flettet
+     */
+    public boolean applyExternalChanges(NotesStorage.Changes changes, String keepId) throws Exception {
+        writeLock.lock();
+        try {
+            return merge(changes, keepId);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Som applyExternalChanges, men venter ikke på en gemning der er i gang, så EDT ikke fryser
+     * Returnerer false uden at flette hvis gemmetråden holder låsen eller ændringerne var forældede;
+     * kalderen læser så ændringerne igen når gemningerne er færdige
+     */
+    public boolean tryApplyExternalChanges(NotesStorage.Changes changes, String keepId) throws Exception {
+        if (!writeLock.tryLock()) {
+            return false;
+        }
+        try {
+            return merge(changes, keepId);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private boolean merge(NotesStorage.Changes changes, String keepId) throws Exception {
+        if (!storage.acceptChanges(changes)) {
+            return false;
+        }
+        boolean inSync = repository.snapshot().getVersion() <= savedVersion;
+        for (String id : changes.getRemoved()) {
+            Note note = findNote(id);
+            if (id.equals(keepId)) {
+                inSync = false;
+            } else if (note != null) {
+                delete(note);
+            }
+        }
+        for (Note note : changes.getChanged()) {
+            Note old = findNote(note.getId());
+            Note merged = old == null ? null : TextCrdt.merge(old, note);
+            if (merged != null && !sameNote(merged, note)) {
+                // Der var lokale ændringer den eksterne udgave ikke har set; resultatet skal gemmes
+                note = merged;
+                inSync = false;
+            } else if (merged == null && note.getId().equals(keepId)) {
+                inSync = false;
+                continue;
+            }
+            if (old != null) {
+                delete(old);
+            }
+            add(note);
+        }
+        // Det flettede står allerede på disken, så der er intet nyt at gemme hvis alt var gemt før
+        if (inSync) {
+            savedVersion = repository.snapshot().getVersion();
+        }
+        return true;
+    }
+
+    private static boolean sameNote(NoteData a, NoteData b) {
+        return Objects.equals(a.getTitle(), b.getTitle()) && Objects.equals(a.getContent(), b.getContent())
+            && Objects.equals(a.getCategory(), b.getCategory()) && a.isFavorite() == b.isFavorite();
+    }
+
+    /**
+     * Skriver det nuværende snapshot til lageret
+     */
+    public void save() throws Exception {
+        write(true);
+    }
+
+    /**
+     * Skriver det nuværende snapshot hvis noget er ændret siden sidste gemning
+     */
+    public void saveChanges() throws Exception {
+        write(false);
+    }
+
+    /**
+     * Skriver det nuværende snapshot på gemmetråden, så kalderen (fx EDT) ikke venter på kryptering og disk
+     * Flere gemninger i kø bliver til én: når en gemning når frem og et nyere snapshot allerede er skrevet, springes den over
+     */
+    public synchronized CompletableFuture<Void> saveInBackground() {
+        if (saveExecutor == null) {
+            saveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "notes-save");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        lastSave = CompletableFuture.runAsync(() -> {
+            try {
+                write(false);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, saveExecutor);
+        return lastSave;
+    }
+
+    /**
+     * Venter til alle gemninger i baggrunden er færdige (fx før programmet lukker)
+     */
+    public void awaitSaves() throws Exception {
+        CompletableFuture<Void> pending;
+        synchronized (this) {
+            pending = lastSave;
+        }
+        try {
+            pending.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Snapshottet tages under låsen, så en ældre udgave aldrig overskriver en nyere på disken
+     */
+    private void write(boolean always) throws Exception {
+        writeLock.lock();
+        try {
+            NoteRepository.Snapshot snapshot = repository.snapshot();
+            if (!always && snapshot.getVersion() <= savedVersion) {
+                return;
+            }
+            storage.saveNotes(snapshot.toList());
+            savedVersion = snapshot.getVersion();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Finder noterne der matcher søgeudtrykket og de faste filtre, i den ønskede sortering
+     * Kategori null betyder alle kategorier; fuzzy udvider søgeordene med stavevarianter
+     */
+    public int[] filter(String query, String category, boolean favoritesOnly, boolean fuzzy, NoteSortOrder sortOrder) {
+        // Dropdown og checkbox bliver blot ekstra klausuler der altid skal være opfyldt
+        String filters = NoteQuery.filters(category, favoritesOnly);
+        NoteQuery.Context context = termDictionary.queryContext(fuzzy);
+
+        long start = NotesMetrics.start();
+        NotesEvents.SearchEvent event = new NotesEvents.SearchEvent();
+        event.begin();
+        int[] slots = noteIndex.filter(query, filters, context, sortOrder);
+        event.end();
+        if (event.shouldCommit()) {
+            // Kun længden og antallet af betingelser, så søgninger i krypterede noter ikke står i klartekst i optagelsen
+            event.queryLength = query == null ? 0 : query.length();
+            event.clauses = NoteQuery.parse(query, filters).countClauses();
+            event.noteCount = slots.length;
+            event.totalNotes = noteIndex.size();
+            event.commit();
+        }
+        NotesMetrics.FILTER.record(start, 0);
+        return slots;
+    }
+
+    /**
+     * Alle noter i den rækkefølge de blev tilføjet (skrivebeskyttet)
+     */
+    public List<Note> getNotes() {
+        return Collections.unmodifiableList(notes);
+    }
+
+    /**
+     * Finder noten med præcis dette id, eller null
+     */
+    public Note findNote(String id) {
+        return notesById.get(id);
+    }
+
+    public int size() {
+        return notes.size();
+    }
+
+    public int countFavorites() {
+        return noteIndex.countFavorites();
+    }
+
+    public NoteIndex getIndex() {
+        return noteIndex;
+    }
+
+    public TermDictionary getTermDictionary() {
+        return termDictionary;
+    }
+
+    public NotesStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Snapshots af noterne som andre tråde kan læse uden låse
+     */
+    public NoteRepository getRepository() {
+        return repository;
+    }
+
+    private static List<NoteVersion> versionsOf(Collection<Note> notes) {
+        List<NoteVersion> versions = new ArrayList<>(notes.size());
+        for (Note note : notes) {
+            versions.add(NoteVersion.of(note));
+        }
+        return versions;
+    }
+}
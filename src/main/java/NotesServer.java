@@ -0,0 +1,568 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NotesServer er en lille JSON API på localhost, så andre lokale værktøjer kan læse og skrive noter
+ * Læsninger kører samtidigt uden låse mod et snapshot fra modellens NoteRepository. Alle skrivninger
+ * går gennem én skrivetråd, der samler ventende ændringer og gemmer samlingen én gang pr. samling. Hver forespørgsel kører på en virtuel tråd når JVM'en har dem.
+ * Ændringer fra andre programmer (GUI'en, CLI'en) flettes ind på skrivetråden, både når notefilen ændres og
+ * når en gemning bliver afvist fordi filen er skrevet udefra.
+ *
+ * <pre>
+ * GET    /notes?category=K&amp;favorites=true&amp;sort=A-Z&amp;limit=100&amp;offset=0
+ * GET    /notes/search?q=kaffe -ferie (samme filtre)
+ * GET    /notes/{id}
+ * PUT    /notes/{id}   {"title": ..., "content": ..., "category": ..., "favorite": ...}
+ * DELETE /notes/{id}
+ * </pre>
+ * Alle kald kræver {@code Authorization: Bearer <token>}
+ */
+public class NotesServer {
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_SAVE_ATTEMPTS = 3;
+
+    private final NotesModel model;
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final byte[] token;
+    private final BlockingQueue<PendingWrite> writes = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private VaultWatcher watcher;
+    private volatile boolean stopped;
+
+    /**
+     * En ændring der venter på skrivetråden; kan køres igen hvis gemningen blev afvist og ændringer udefra
+     * er flettet ind. Returnerer null hvis der ikke er noget at svare
+     */
+    private interface Write {
+        Written apply(NotesModel model) throws Exception;
+    }
+
+    /**
+     * Resultatet af en ændring: notens nye version (null hvis den ikke fandtes) og om den blev oprettet
+     * Afgøres på skrivetråden, så to samtidige PUT for samme id ikke begge svarer 201
+     */
+    private static final class Written {
+        final NoteVersion note;
+        final boolean created;
+
+        Written(Note note, boolean created) {
+            this.note = note == null ? null : NoteVersion.of(note);
+            this.created = created;
+        }
+    }
+
+    private static final class PendingWrite {
+        final String id;
+        final Write write;
+        final CompletableFuture<Written> result = new CompletableFuture<>();
+
+        PendingWrite(String id, Write write) {
+            this.id = id;
+            this.write = write;
+        }
+    }
+
+    // Lægges i køen af stop(): skrivetråden gør alt før den færdigt og stopper så
+    private static final PendingWrite STOP = new PendingWrite(null, null);
+
+    /**
+     * Fejl der skal sendes til klienten med en bestemt statuskode
+     */
+    private static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Modellen skal være indlæst og må derefter kun bruges af serveren
+     * Sætter systemegenskaben sun.net.httpserver.nodelay=true for hele JVM'en, hvis den ikke allerede er sat:
+     * svar skrives som header og krop hver for sig, og uden TCP_NODELAY giver Nagle og forsinket ACK ~40 ms
+     * pr. svar. JDK'ens HttpServer læser egenskaben én gang, så den skal sættes før den første server oprettes
+     */
+    public NotesServer(NotesModel model, int port, String token) throws IOException {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.model = model;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.requestExecutor = requestExecutor();
+        server.setExecutor(requestExecutor);
+        server.createContext("/notes", this::handle);
+        this.writerThread = new Thread(this::writeLoop, "notes-writer");
+        writerThread.setDaemon(true);
+    }
+
+    /**
+     * Starter skrivetråden, overvågningen af notefilen og HTTP-serveren
+     */
+    public void start() throws IOException {
+        writerThread.start();
+        watcher = new VaultWatcher(Paths.get(model.getStorage().getNotesFile()), this::readExternalChanges);
+        watcher.start();
+        server.start();
+    }
+
+    /**
+     * Stopper serveren; ændringer der allerede står i kø gemmes færdigt, og senere ændringer afvises
+     * Skrivetråden afbrydes ikke, da en afbrudt FileChannel lukkes midt i en gemning
+     */
+    public void stop() {
+        stopped = true;
+        server.stop(0);
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                // Overvågningen er stoppet alligevel
+            }
+        }
+        writes.add(STOP);
+        if (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        failPending();
+        requestExecutor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Et tilfældigt token til Authorization-headeren
+     */
+    public static String generateToken() {
+        byte[] bytes = new byte[24];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * En virtuel tråd pr. forespørgsel hvis JVM'en har dem (Java 21+), ellers en trådpulje der vokser efter behov
+     */
+    static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            AtomicInteger number = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "notes-http-" + number.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Forespørgsler
+    // ---------------------------------------------------------------
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!authorized(exchange)) {
+                throw new HttpError(401, "Manglende eller forkert token");
+            }
+            String path = exchange.getRequestURI().getRawPath();
+            String method = exchange.getRequestMethod();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+            if (path.equals("/notes") || path.equals("/notes/")) {
+                requireMethod(method, "GET");
+                sendJson(exchange, 200, listJson(model.getRepository().snapshot(), "", query));
+            } else if (path.equals("/notes/search")) {
+                requireMethod(method, "GET");
+                String text = query.get("q");
+                if (text == null) {
+                    throw new HttpError(400, "Parameteren q mangler");
+                }
+                sendJson(exchange, 200, listJson(model.getRepository().snapshot(), text, query));
+            } else if (path.startsWith("/notes/")) {
+                String id = URLDecoder.decode(path.substring("/notes/".length()), "UTF-8");
+                switch (method) {
+                    case "GET": get(exchange, id); break;
+                    case "PUT": put(exchange, id); break;
+                    case "DELETE": delete(exchange, id); break;
+                    default: throw new HttpError(405, "Metoden " + method + " understøttes ikke");
+                }
+            } else {
+                throw new HttpError(404, "Ukendt sti");
+            }
+        } catch (HttpError e) {
+            sendJson(exchange, e.status, "{\"error\":" + Json.quote(e.getMessage()) + "}");
+        } catch (Exception e) {
+            sendJson(exchange, 500, "{\"error\":" + Json.quote(String.valueOf(e.getMessage())) + "}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean authorized(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            return false;
+        }
+        // Sammenligning i konstant tid, så tokenet ikke kan gættes tegn for tegn
+        return MessageDigest.isEqual(token, header.substring(7).trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void get(HttpExchange exchange, String id) throws Exception {
+        NoteVersion note = model.getRepository().snapshot().get(id);
+        if (note == null) {
+            throw new HttpError(404, "Ingen note med id " + id);
+        }
+        sendJson(exchange, 200, NoteJson.toJson(note));
+    }
+
+    /**
+     * Opretter eller opdaterer noten; felter der ikke er med i kroppen bevares
+     */
+    private void put(HttpExchange exchange, String id) throws Exception {
+        Map<String, Object> body;
+        try {
+            body = Json.parseObject(readBody(exchange));
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, "Ugyldig JSON: " + e.getMessage());
+        }
+        String title = optionalString(body, "title");
+        String content = optionalString(body, "content");
+        String category = optionalString(body, "category");
+        Object favorite = body.get("favorite");
+        if (favorite != null && !(favorite instanceof Boolean)) {
+            throw new HttpError(400, "favorite skal være true eller false");
+        }
+
+        Written result = submit(id, model -> {
+            Note note = model.findNote(id);
+            if (note == null) {
+                long now = nowMillis();
+                note = new Note(id, title == null ? "Ny Note" : title, content == null ? "" : content,
+                    category == null ? "Generel" : category, Boolean.TRUE.equals(favorite), now, now);
+                model.add(note);
+                return new Written(note, true);
+            }
+            model.updateNote(note, title == null ? note.getTitle() : title, content);
+            if (category != null && !category.equals(note.getCategory())) {
+                model.setCategory(note, category);
+            }
+            if (favorite != null && (Boolean) favorite != note.isFavorite()) {
+                model.setFavorite(note, (Boolean) favorite);
+            }
+            return new Written(note, false);
+        });
+        sendJson(exchange, result.created ? 201 : 200, NoteJson.toJson(result.note));
+    }
+
+    private void delete(HttpExchange exchange, String id) throws Exception {
+        Written removed = submit(id, model -> {
+            Note note = model.findNote(id);
+            if (note != null) {
+                model.delete(note);
+            }
+            return new Written(note, false);
+        });
+        if (removed.note == null) {
+            throw new HttpError(404, "Ingen note med id " + id);
+        }
+        exchange.sendResponseHeaders(204, -1);
+    }
+
+    /**
+     * Finder, sorterer og udsnitter noterne i snapshottet; kører uden låse på forespørgslens tråd
+     */
+    private static String listJson(NoteRepository.Snapshot snapshot, String text, Map<String, String> query) throws HttpError {
+        String filters = NoteQuery.filters(query.get("category"), "true".equals(query.get("favorites")));
+        NoteQuery.Node predicate = NoteQuery.parse(text, filters).getRoot();
+        NoteSortOrder order = sortOrder(query.get("sort"));
+        int limit = intParameter(query, "limit", DEFAULT_LIMIT);
+        int offset = intParameter(query, "offset", 0);
+
+        List<NoteVersion> matches = new ArrayList<>();
+        snapshot.forEach(note -> {
+            if (predicate.matches(note, Collections::singleton)) {
+                matches.add(note);
+            }
+        });
+        matches.sort((a, b) -> {
+            int result = order.compare(a, a.getWordCount(), b, b.getWordCount());
+            return result != 0 ? result : a.getId().compareTo(b.getId());
+        });
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"total\":").append(matches.size()).append(",\"notes\":[");
+        int end = Math.min(matches.size(), offset + limit);
+        for (int i = offset; i < end; i++) {
+            if (i > offset) {
+                json.append(',');
+            }
+            NoteVersion note = matches.get(i);
+            json.append("{\"id\":");
+            Json.quote(note.getId(), json);
+            json.append(",\"title\":");
+            Json.quote(note.getTitle(), json);
+            json.append(",\"category\":");
+            Json.quote(note.getCategory(), json);
+            json.append(",\"favorite\":").append(note.isFavorite());
+            json.append(",\"modified\":");
+            Json.quote(note.getLastModified().toString(), json);
+            json.append(",\"words\":").append(note.getWordCount()).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static NoteSortOrder sortOrder(String value) throws HttpError {
+        if (value == null) {
+            return NoteSortOrder.NEWEST;
+        }
+        NoteSortOrder order = NoteSortOrder.find(value);
+        if (order == null) {
+            throw new HttpError(400, "Ukendt sortering " + value);
+        }
+        return order;
+    }
+
+    // ---------------------------------------------------------------
+    // Skrivetråden
+    // ---------------------------------------------------------------
+
+    /**
+     * Lægger ændringen i køen og venter til den er gemt
+     */
+    private Written submit(String id, Write write) throws Exception {
+        PendingWrite pending = new PendingWrite(id, write);
+        writes.add(pending);
+        if (stopped && writes.remove(pending)) {
+            // Kom i køen efter stop() tømte den, så ingen andre besvarer den
+            pending.result.completeExceptionally(new IOException("Serveren er stoppet"));
+        }
+        try {
+            return pending.result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Tager alle ventende ændringer, anvender dem og gemmer én gang; modellen udgiver hver ændring selv
+     * Fejler gemningen, rulles samlingens ændringer tilbage i modellen, så et nyt forsøg ikke svarer 200
+     * for en note der aldrig blev skrevet. Blev den afvist fordi filen er skrevet udefra, flettes de
+     * ændringer ind og samlingen køres igen ovenpå
+     */
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            batch.clear();
+            try {
+                batch.add(writes.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            writes.drainTo(batch);
+            stopping = batch.remove(STOP);
+
+            Written[] results = new Written[batch.size()];
+            Exception[] errors = new Exception[batch.size()];
+            Exception saveError = null;
+            for (int attempt = 1; ; attempt++) {
+                // Noternes udgaver før samlingen, så de kan genskabes hvis gemningen fejler
+                NoteRepository.Snapshot before = model.getRepository().snapshot();
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        results[i] = batch.get(i).write.apply(model);
+                        errors[i] = null;
+                    } catch (Exception e) {
+                        errors[i] = e;
+                    }
+                }
+                try {
+                    model.saveChanges();
+                    saveError = null;
+                    break;
+                } catch (Exception e) {
+                    saveError = e;
+                    undo(batch, before);
+                }
+                if (!(saveError instanceof NotesStorage.ExternalChangeException) || attempt == MAX_SAVE_ATTEMPTS) {
+                    break;
+                }
+                // Et andet program har skrevet filen: flet dens ændringer ind og kør samlingen igen ovenpå
+                try {
+                    NotesStorage.Changes changes = model.getStorage().readChanges();
+                    if (changes != null) {
+                        model.applyExternalChanges(changes, null);
+                    }
+                } catch (Exception e) {
+                    saveError = e;
+                    break;
+                }
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                CompletableFuture<Written> result = batch.get(i).result;
+                if (errors[i] != null) {
+                    result.completeExceptionally(errors[i]);
+                } else if (saveError != null) {
+                    result.completeExceptionally(saveError);
+                } else {
+                    result.complete(results[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sætter noterne som samlingen rørte tilbage til deres udgave i snapshottet (eller fjerner dem)
+     */
+    private void undo(List<PendingWrite> batch, NoteRepository.Snapshot before) {
+        Set<String> ids = new HashSet<>();
+        for (PendingWrite pending : batch) {
+            if (pending.id == null || !ids.add(pending.id)) {
+                continue;
+            }
+            Note current = model.findNote(pending.id);
+            if (current != null) {
+                model.delete(current);
+            }
+            NoteVersion old = before.get(pending.id);
+            if (old != null) {
+                model.add(old.toNote());
+            }
+        }
+    }
+
+    /**
+     * Kaldes af overvågningen når notefilen er skrevet; læser ændringerne her og fletter dem på skrivetråden
+     */
+    private void readExternalChanges() {
+        try {
+            NotesStorage.Changes changes = model.getStorage().readChanges();
+            if (changes != null && !changes.isEmpty() && !stopped) {
+                writes.add(new PendingWrite(null, model -> {
+                    model.applyExternalChanges(changes, null);
+                    return null;
+                }));
+            }
+        } catch (Exception e) {
+            System.err.println("Fejl ved læsning af ændrede noter: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Afviser de ændringer der stadig står i køen efter skrivetråden er stoppet
+     */
+    private void failPending() {
+        List<PendingWrite> left = new ArrayList<>();
+        writes.drainTo(left);
+        for (PendingWrite pending : left) {
+            if (pending != STOP) {
+                pending.result.completeExceptionally(new IOException("Serveren er stoppet"));
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Hjælpere
+    // ---------------------------------------------------------------
+
+    private static long nowMillis() {
+        return NoteData.toMillis(LocalDateTime.now());
+    }
+
+    private static void requireMethod(String method, String expected) throws HttpError {
+        if (!method.equals(expected)) {
+            throw new HttpError(405, "Metoden " + method + " understøttes ikke her");
+        }
+    }
+
+    private static String optionalString(Map<String, Object> body, String field) throws HttpError {
+        Object value = body.get(field);
+        if (value != null && !(value instanceof String)) {
+            throw new HttpError(400, field + " skal være en streng");
+        }
+        return (String) value;
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int fallback) throws HttpError {
+        String value = query.get(name);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            int number = Integer.parseInt(value);
+            if (number < 0) {
+                throw new NumberFormatException();
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, name + " skal være et ikke-negativt tal");
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            query.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return query;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException, HttpError {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+                if (body.size() > MAX_BODY_BYTES) {
+                    throw new HttpError(413, "Kroppen er for stor");
+                }
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
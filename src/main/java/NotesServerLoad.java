@@ -0,0 +1,137 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * NotesServerLoad måler hvor mange forespørgsler i sekundet NotesServer klarer
+ * Laver en syntetisk samling i en midlertidig mappe, starter serveren på en ledig port og lader et antal
+ * klienter hente, søge, liste og opdatere noter samtidigt. Viser req/s og p50/p99 pr. forespørgselstype:
+ * {@code java NotesServerLoad [--notes 10000] [--clients 16] [--seconds 10] [--writes 0.02]}
+ */
+public class NotesServerLoad {
+    private static final String[] TYPES = {"get", "search", "list", "put"};
+
+    public static void main(String[] args) throws Exception {
+        int noteCount = 10000;
+        int clients = 16;
+        int seconds = 10;
+        double writeRatio = 0.02;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--notes": noteCount = Integer.parseInt(args[++i]); break;
+                case "--clients": clients = Integer.parseInt(args[++i]); break;
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--writes": writeRatio = Double.parseDouble(args[++i]); break;
+                default: throw new IllegalArgumentException("Ukendt argument: " + args[i]);
+            }
+        }
+
+        Path directory = Files.createTempDirectory("notesapp-load");
+        NotesModel model = NotesModel.create(directory.toString(), "load");
+        model.addAll(new VaultGenerator(42, 150, 1.0, 5000, VaultGenerator.parseWeights("Generel:50,Arbejde:30,Personligt:20"), 0.1)
+            .generate(noteCount));
+        model.save();
+        List<String> ids = new ArrayList<>();
+        for (Note note : model.getNotes()) {
+            ids.add(note.getId());
+        }
+
+        String token = NotesServer.generateToken();
+        NotesServer server = new NotesServer(model, 0, token);
+        server.start();
+        String base = "http://127.0.0.1:" + server.getPort() + "/notes";
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        System.out.printf("%d noter, %d klienter, %d s, %.0f%% skrivninger, %d kerner%n",
+            noteCount, clients, seconds, writeRatio * 100, Runtime.getRuntime().availableProcessors());
+
+        // Opvarmning, så JIT og forbindelser er klar før der måles
+        runClients(client, base, token, ids, clients, 2, writeRatio);
+        Map<String, List<Long>> latencies = runClients(client, base, token, ids, clients, seconds, writeRatio);
+        server.stop();
+
+        long total = 0;
+        for (List<Long> measured : latencies.values()) {
+            total += measured.size();
+        }
+        System.out.printf("%n%,d forespørgsler: %,.0f req/s%n%n", total, total / (double) seconds);
+        System.out.printf("%-8s %10s %10s %10s %10s%n", "", "antal", "p50 ms", "p99 ms", "max ms");
+        for (String type : TYPES) {
+            List<Long> measured = latencies.get(type);
+            if (measured == null || measured.isEmpty()) {
+                continue;
+            }
+            Collections.sort(measured);
+            System.out.printf("%-8s %10d %10.2f %10.2f %10.2f%n", type, measured.size(),
+                measured.get(measured.size() / 2) / 1e6,
+                measured.get((int) Math.min(measured.size() - 1, Math.ceil(measured.size() * 0.99) - 1)) / 1e6,
+                measured.get(measured.size() - 1) / 1e6);
+        }
+
+        try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Kører klienterne til tiden er gået og samler latenserne pr. type
+     */
+    private static Map<String, List<Long>> runClients(HttpClient client, String base, String token, List<String> ids,
+                                                      int clients, int seconds, double writeRatio) throws Exception {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<Map<String, List<Long>>>> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            long seed = c;
+            results.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                Map<String, List<Long>> latencies = new HashMap<>();
+                while (System.nanoTime() < deadline) {
+                    double roll = random.nextDouble();
+                    String id = ids.get(random.nextInt(ids.size()));
+                    String type;
+                    HttpRequest.Builder request;
+                    if (roll < writeRatio) {
+                        type = "put";
+                        request = HttpRequest.newBuilder(URI.create(base + "/" + id))
+                            .PUT(HttpRequest.BodyPublishers.ofString("{\"title\":" + Json.quote("Opdateret " + random.nextInt(1000)) + "}"));
+                    } else if (roll < writeRatio + 0.2) {
+                        type = "search";
+                        String query = FilterBenchmark.randomText(random, 1 + random.nextInt(2)).replace(' ', '+');
+                        request = HttpRequest.newBuilder(URI.create(base + "/search?limit=20&q=" + query));
+                    } else if (roll < writeRatio + 0.3) {
+                        type = "list";
+                        request = HttpRequest.newBuilder(URI.create(base + "?limit=50&category=Arbejde"));
+                    } else {
+                        type = "get";
+                        request = HttpRequest.newBuilder(URI.create(base + "/" + id));
+                    }
+                    long start = System.nanoTime();
+                    HttpResponse<byte[]> response = client.send(request.header("Authorization", "Bearer " + token).build(),
+                        HttpResponse.BodyHandlers.ofByteArray());
+                    long duration = System.nanoTime() - start;
+                    if (response.statusCode() >= 300) {
+                        throw new IllegalStateException(type + " gav " + response.statusCode() + ": " + new String(response.body()));
+                    }
+                    latencies.computeIfAbsent(type, t -> new ArrayList<>()).add(duration);
+                }
+                return latencies;
+            }));
+        }
+        Map<String, List<Long>> merged = new HashMap<>();
+        for (Future<Map<String, List<Long>>> result : results) {
+            for (Map.Entry<String, List<Long>> entry : result.get().entrySet()) {
+                merged.computeIfAbsent(entry.getKey(), t -> new ArrayList<>()).addAll(entry.getValue());
+            }
+        }
+        pool.shutdown();
+        return merged;
+    }
+}
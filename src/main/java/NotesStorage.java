@@ -1,20 +1,242 @@
 import java.io.*;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
 
 /**
  * NotesStorage håndterer gemning og indlæsning af krypterede notes til/fra lokal fil
- * Bruger Java objektserialisering og krypterer hele datasættet
+ * Filen består af en header, en krypteret kontrolværdi og én krypteret record pr. note pr. linje,
+ * så noterne kan læses og vises efterhånden. Gamle filer (hele listen som ét krypteret blob) kan
+ * stadig læses og skrives om til det nye format ved næste gemning.
+ * En record er "id:krypteret:crc" (id URL-kodet, de krypterede bytes i Base64 og CRC32C af resten), så en
+ * beskadiget record kan genkendes og knyttes til sin note uden at kunne dekrypteres. Beskadigede records
+ * springes over ved indlæsning (se getCorruptRecords) og bevares i filen ved gemning, så én dårlig sektor
+ * koster én note og ikke hele samlingen. Records uden id og CRC fra ældre filer læses stadig
+ * Skrivninger tager en eksklusiv FileChannel-lås på notes.lock (læsninger en delt), så to programmer
+ * med samme mappe aldrig skriver samtidigt
  */
 public class NotesStorage {
+    private static final String FORMAT_HEADER = "NOTESAPP 2";
+    private static final byte[] CHECK_VALUE = "notesapp-check".getBytes(StandardCharsets.UTF_8);
+    private static final char FIELD_SEPARATOR = ':';
+    // Så mange records prøves når kontrolværdien ikke passer, før passwordet regnes for forkert
+    private static final int PROBE_RECORDS = 16;
+    
     private final String dataDirectory;
     private final String notesFile;
     private final String saltFile;
     private final CryptoManager cryptoManager;
     
+    // FileChannel-låse gælder for hele JVM'en, så tråde, andre NotesStorage og VaultBackup på samme mappe skiftes
+    // her først (se directoryMonitor)
+    private static final Map<String, Object> DIRECTORY_LOCKS = new ConcurrentHashMap<>();
+    
+    // Records i filen som den så ud efter sidste læsning eller skrivning herfra, efter fingeraftryk
+    private Map<String, Record> records = new HashMap<>();
+    private FileStamp stamp;
+    // Beskadigede records fra sidste læsning; skrives uændret med igen, medmindre noten er gemt på ny
+    private volatile List<CorruptRecord> corruptRecords = Collections.emptyList();
+    
+    /**
+     * En kendt record: hvilken note den indeholder og notens felter som de blev skrevet
+     * Felterne deler strenge med noten, så sammenligningen med den nuværende udgave er eksakt og som
+     * regel kun et referencetjek
+     */
+    private static final class Record {
+        final String id;
+        final NoteVersion note;
+        
+        Record(NoteData note) {
+            this.id = note.getId();
+            this.note = NoteVersion.copyOf(note);
+        }
+        
+        boolean matches(NoteData current) {
+            return note.getLastModifiedMillis() == current.getLastModifiedMillis()
+                && note.getCreatedAtMillis() == current.getCreatedAtMillis()
+                && note.isFavorite() == current.isFavorite()
+                && Objects.equals(note.getTitle(), current.getTitle())
+                && Objects.equals(note.getCategory(), current.getCategory())
+                && Objects.equals(note.getContent(), current.getContent())
+                && Arrays.equals(note.getHistory(), current.getHistory());
+        }
+    }
+    
+    /**
+     * Filens identitet, størrelse og ændringstid; ændres af alle skrivninger (også flytning på plads)
+     */
+    private static final class FileStamp {
+        final Object fileKey;
+        final long size;
+        final long modified;
+        
+        FileStamp(Object fileKey, long size, long modified) {
+            this.fileKey = fileKey;
+            this.size = size;
+            this.modified = modified;
+        }
+        
+        static FileStamp of(Path path) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new FileStamp(attributes.fileKey(), attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FileStamp)) return false;
+            FileStamp other = (FileStamp) obj;
+            return Objects.equals(fileKey, other.fileKey) && size == other.size && modified == other.modified;
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileKey, size, modified);
+        }
+    }
+    
+    /**
+     * Resultatet af readChanges: nye eller ændrede noter og id'er der er slettet
+     */
+    public static final class Changes {
+        private final List<Note> changed;
+        private final Set<String> removed;
+        private final Map<String, Record> records;
+        private final List<CorruptRecord> corrupt;
+        private final FileStamp stamp;
+        private final FileStamp base;
+        
+        Changes(List<Note> changed, Set<String> removed, Map<String, Record> records, List<CorruptRecord> corrupt,
+                FileStamp stamp, FileStamp base) {
+            this.changed = changed;
+            this.removed = removed;
+            this.records = records;
+            this.corrupt = corrupt;
+            this.stamp = stamp;
+            this.base = base;
+        }
+        
+        public List<Note> getChanged() {
+            return changed;
+        }
+        
+        public Set<String> getRemoved() {
+            return removed;
+        }
+        
+        public boolean isEmpty() {
+            return changed.isEmpty() && removed.isEmpty();
+        }
+    }
+    
+    /**
+     * Filens krypterede records som de står, uden at være dekrypteret, og filens stempel da de blev læst
+     */
+    public static final class RawRecords {
+        private final List<String> lines;
+        private final String checkLine;
+        private final FileStamp stamp;
+        
+        RawRecords(List<String> lines, String checkLine, FileStamp stamp) {
+            this.lines = lines;
+            this.checkLine = checkLine;
+            this.stamp = stamp;
+        }
+        
+        public List<String> getLines() {
+            return lines;
+        }
+    }
+    
+    /**
+     * Filen er ændret af en anden proces siden den sidst blev læst; ændringerne skal flettes ind før der gemmes
+     */
+    public static class ExternalChangeException extends IOException {
+        private static final long serialVersionUID = 1L;
+        
+        public ExternalChangeException() {
+            super("Noterne er ændret af et andet program siden de blev indlæst");
+        }
+    }
+    
+    /**
+     * En record der ikke kan læses: nummer i filen (1 er den første note), notens id hvis det kan læses, og årsagen
+     */
+    public static final class CorruptRecord {
+        private final int index;
+        private final String noteId;
+        private final String reason;
+        private final String line;
+        
+        CorruptRecord(int index, String noteId, String reason, String line) {
+            this.index = index;
+            this.noteId = noteId;
+            this.reason = reason;
+            this.line = line;
+        }
+        
+        public int getIndex() {
+            return index;
+        }
+        
+        /**
+         * Notens id, eller null hvis også id'et er beskadiget (eller recorden er fra en ældre fil uden id)
+         */
+        public String getNoteId() {
+            return noteId;
+        }
+        
+        public String getReason() {
+            return reason;
+        }
+        
+        @Override
+        public String toString() {
+            return "post " + index + " (" + (noteId == null ? "ukendt note" : noteId) + "): " + reason;
+        }
+    }
+    
+    /**
+     * En record kunne ikke læses; se getRecord for hvilken og hvorfor
+     */
+    public static class CorruptRecordException extends IOException {
+        private static final long serialVersionUID = 1L;
+        
+        // CorruptRecord kan ikke serialiseres; en serialiseret undtagelse har kun beskeden
+        private final transient CorruptRecord record;
+        
+        CorruptRecordException(CorruptRecord record, Throwable cause) {
+            super("Beskadiget " + record, cause);
+            this.record = record;
+        }
+        
+        public CorruptRecord getRecord() {
+            return record;
+        }
+    }
+    
+    private interface LockedAction<T> {
+        T run() throws Exception;
+    }
+    
     public NotesStorage(CryptoManager cryptoManager) {
+        this(cryptoManager, System.getProperty("user.home") + File.separator + ".notesapp");
+    }
+    
+    /**
+     * Bruger en anden data mappe end ~/.notesapp (fx til benchmarks og værktøjer)
+     */
+    public NotesStorage(CryptoManager cryptoManager, String dataDirectory) {
         this.cryptoManager = cryptoManager;
-        this.dataDirectory = System.getProperty("user.home") + File.separator + ".notesapp";
+        this.dataDirectory = dataDirectory;
         this.notesFile = dataDirectory + File.separator + "notes.dat";
         this.saltFile = dataDirectory + File.separator + "salt.dat";
         
@@ -59,43 +281,676 @@ public class NotesStorage {
     
     /**
      * Gemmer liste af noter til krypteret fil
+     * Filen skrives som en midlertidig fil der derefter flyttes på plads, så andre læsere aldrig ser en halv fil.
+     * Records for noter der ikke er ændret siden de sidst blev læst eller skrevet, kopieres uændret fra den
+     * gamle fil i stedet for at blive krypteret igen. Er filen ændret af en anden proces siden, afvises gemningen
+     * med ExternalChangeException, så ændringerne kan flettes ind først
      */
-    public void saveNotes(List<Note> notes) throws Exception {
+    public void saveNotes(Collection<? extends NoteData> notes) throws Exception {
         if (!cryptoManager.isInitialized()) {
             throw new IllegalStateException("CryptoManager er ikke initialiseret");
         }
+        locked(false, () -> {
+            checkUnchanged();
+            writeAll(notes);
+            return null;
+        });
+    }
+    
+    private void writeAll(Collection<? extends NoteData> notes) throws Exception {
+        long start = NotesMetrics.start();
+        NotesEvents.StorageEvent event = new NotesEvents.StorageEvent();
+        event.begin();
         
-        // Serialiser noter til bytes
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
-            oos.writeObject(notes);
+        Path path = Paths.get(notesFile);
+        Path temp = Paths.get(notesFile + ".tmp");
+        Map<String, NoteData> wanted = new HashMap<>();
+        for (NoteData note : notes) {
+            wanted.put(note.getId(), note);
         }
+        Map<String, Record> written = new HashMap<>();
+        List<CorruptRecord> keptCorrupt = new ArrayList<>();
+        long bytes = 0;
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(FORMAT_HEADER);
+                writer.newLine();
+                writer.write(Base64.getEncoder().encodeToString(cryptoManager.encryptBytes(CHECK_VALUE)));
+                writer.newLine();
+                // Først de uændrede records fra den gamle fil, derefter de nye og ændrede
+                if (!records.isEmpty() && isCurrentFormat()) {
+                    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                        reader.readLine();
+                        reader.readLine();
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            String fingerprint = fingerprint(line);
+                            Record record = records.get(fingerprint);
+                            NoteData note = record == null ? null : wanted.get(record.id);
+                            // Records fra før der var id og kontrolsum skrives om, så de også får dem
+                            if (note != null && record.matches(note) && line.indexOf(FIELD_SEPARATOR) >= 0) {
+                                writer.write(line);
+                                writer.newLine();
+                                bytes += line.length() + 1;
+                                written.put(fingerprint, record);
+                                wanted.remove(record.id);
+                            }
+                        }
+                    }
+                }
+                for (NoteData note : notes) {
+                    if (wanted.remove(note.getId()) == null) {
+                        continue;
+                    }
+                    String line = encodeLine(note);
+                    writer.write(line);
+                    writer.newLine();
+                    bytes += line.length() + 1;
+                    written.put(fingerprint(line), new Record(note));
+                }
+                // Beskadigede records bevares til de kan gendannes, medmindre noten er gemt på ny ovenfor
+                Set<String> ids = new HashSet<>();
+                for (NoteData note : notes) {
+                    ids.add(note.getId());
+                }
+                for (CorruptRecord corrupt : corruptRecords) {
+                    if (corrupt.noteId == null || !ids.contains(corrupt.noteId)) {
+                        writer.write(corrupt.line);
+                        writer.newLine();
+                        keptCorrupt.add(corrupt);
+                    }
+                }
+            }
+            moveIntoPlace(temp, path);
+        } catch (Exception e) {
+            Files.deleteIfExists(temp);
+            NotesMetrics.SAVE.recordError();
+            throw e;
+        }
+        records = written;
+        corruptRecords = keptCorrupt;
+        stamp = FileStamp.of(path);
         
-        // Konverter til string for kryptering
-        String serializedData = Base64.getEncoder().encodeToString(baos.toByteArray());
-        
-        // Krypter data
-        String encryptedData = cryptoManager.encrypt(serializedData);
-        
-        // Gem til fil
-        Files.write(Paths.get(notesFile), encryptedData.getBytes("UTF-8"));
+        event.operation = "gem";
+        event.bytes = bytes;
+        event.noteCount = notes.size();
+        event.commit();
+        NotesMetrics.SAVE.record(start, bytes);
+    }
+    
+    /**
+     * Erstatter filen med den nye, så læsere enten ser den gamle eller den nye fil og aldrig en halv
+     */
+    static void moveIntoPlace(Path temp, Path path) throws IOException {
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Læser de krypterede records uden at dekryptere dem (til synkronisering mellem to mapper med samme nøgle)
+     */
+    public RawRecords readRawRecords() throws Exception {
+        return locked(true, () -> {
+            Path path = Paths.get(notesFile);
+            FileStamp readStamp = FileStamp.of(path);
+            List<String> lines = new ArrayList<>();
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                if (!FORMAT_HEADER.equals(reader.readLine())) {
+                    throw new IOException("Notes filen er i det gamle format og skal gemmes igen først");
+                }
+                String checkLine = reader.readLine();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        lines.add(line);
+                    }
+                }
+                return new RawRecords(lines, checkLine, readStamp);
+            }
+        });
+    }
+    
+    /**
+     * Skriver filen om med de givne krypterede records; afvises med ExternalChangeException hvis filen er
+     * ændret siden base blev læst. Programmer der har filen åben opdager ændringen som en ekstern ændring
+     */
+    public void writeRawRecords(RawRecords base, Collection<String> lines) throws Exception {
+        if (!cryptoManager.isInitialized()) {
+            throw new IllegalStateException("CryptoManager er ikke initialiseret");
+        }
+        locked(false, () -> {
+            Path path = Paths.get(notesFile);
+            if (!FileStamp.of(path).equals(base.stamp)) {
+                throw new ExternalChangeException();
+            }
+            Path temp = Paths.get(notesFile + ".tmp");
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    writer.write(FORMAT_HEADER);
+                    writer.newLine();
+                    writer.write(Base64.getEncoder().encodeToString(cryptoManager.encryptBytes(CHECK_VALUE)));
+                    writer.newLine();
+                    for (String line : lines) {
+                        writer.write(line);
+                        writer.newLine();
+                    }
+                }
+                moveIntoPlace(temp, path);
+            } catch (Exception e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            return null;
+        });
+    }
+    
+    /**
+     * Dekrypterer én record fra filen
+     */
+    public Note decodeRecord(String line) throws Exception {
+        return decodeLine(line, 0);
+    }
+    
+    /**
+     * Dekrypterer record nummer index (fra 1) i filen; kaster CorruptRecordException hvis den ikke kan læses
+     */
+    public Note decodeRecord(String line, int index) throws CorruptRecordException {
+        return decodeLine(line, index);
+    }
+    
+    /**
+     * Krypterer en note til en record som den står i filen
+     */
+    public String encodeRecord(NoteData note) throws Exception {
+        return encodeLine(note);
+    }
+    
+    /**
+     * Notens id uden at dekryptere recorden; null hvis recorden ikke har et id eller kontrolsummen ikke passer
+     */
+    public static String recordId(String line) {
+        int first = line.indexOf(FIELD_SEPARATOR);
+        int last = line.lastIndexOf(FIELD_SEPARATOR);
+        if (first < 0 || first == last || !checksum(line, last).equals(line.substring(last + 1))) {
+            return null;
+        }
+        return decodeId(line.substring(0, first));
+    }
+    
+    /**
+     * Tjekker kontrolværdien i en fil læst med readRawRecords, dvs. at nøglen passer og linjen er hel
+     */
+    public boolean checkValueMatches(RawRecords raw) {
+        try {
+            checkPassword(raw.checkLine);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+    
+    /**
+     * De beskadigede records der blev sprunget over ved sidste indlæsning (tom hvis alt kunne læses)
+     */
+    public List<CorruptRecord> getCorruptRecords() {
+        return Collections.unmodifiableList(corruptRecords);
+    }
+    
+    private String encodeLine(NoteData note) throws Exception {
+        StringBuilder line = new StringBuilder();
+        line.append(URLEncoder.encode(note.getId(), StandardCharsets.UTF_8)).append(FIELD_SEPARATOR);
+        line.append(Base64.getEncoder().encodeToString(cryptoManager.encryptBytes(NoteCodec.encode(note))));
+        String checksum = checksum(line, line.length());
+        return line.append(FIELD_SEPARATOR).append(checksum).toString();
+    }
+    
+    /**
+     * Dekrypterer en record; index er dens nummer i filen og bruges kun i fejlen. Passer kontrolsummen ikke,
+     * er linjen beskadiget; passer den, men GCM-tagget ikke, er recorden krypteret med en anden nøgle eller ændret
+     */
+    private Note decodeLine(String line, int index) throws CorruptRecordException {
+        int first = line.indexOf(FIELD_SEPARATOR);
+        int last = line.lastIndexOf(FIELD_SEPARATOR);
+        String id = null;
+        String data = line;
+        boolean intact = true;
+        if (first >= 0) {
+            if (first == last) {
+                throw new CorruptRecordException(new CorruptRecord(index, null, "ufuldstændig linje", line), null);
+            }
+            id = decodeId(line.substring(0, first));
+            data = line.substring(first + 1, last);
+            intact = checksum(line, last).equals(line.substring(last + 1));
+        }
+        Note note;
+        try {
+            note = NoteCodec.decode(cryptoManager.decryptBytes(Base64.getDecoder().decode(data)));
+        } catch (Exception e) {
+            String reason = intact ? "kan ikke dekrypteres (anden nøgle eller ændret)" : "beskadiget (kontrolsummen passer ikke)";
+            throw new CorruptRecordException(new CorruptRecord(index, id, reason, line), e);
+        }
+        if (id != null && !id.equals(note.getId())) {
+            throw new CorruptRecordException(new CorruptRecord(index, id, "id passer ikke til indholdet", line), null);
+        }
+        return note;
+    }
+    
+    /**
+     * CRC32C af linjen op til end, som 8 hex-cifre
+     */
+    private static String checksum(CharSequence line, int end) {
+        CRC32C crc = new CRC32C();
+        crc.update(line.subSequence(0, end).toString().getBytes(StandardCharsets.US_ASCII));
+        String hex = Long.toHexString(crc.getValue());
+        return "00000000".substring(hex.length()) + hex;
+    }
+    
+    private static String decodeId(String encoded) {
+        try {
+            return URLDecoder.decode(encoded, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Tilføjer noterne sidst i filen uden at læse eller skrive de eksisterende records om
+     * Bruges til import i bidder; hele bidden skrives med ét kald og synkroniseres til disken, så en afbrudt
+     * import højst mister den sidste bid, og en halv linje fra den skæres af ved næste tilføjelse.
+     * Findes filen ikke, oprettes den; gamle filer skal først gemmes i det nye format
+     */
+    public void appendNotes(Collection<? extends NoteData> notes) throws Exception {
+        if (!cryptoManager.isInitialized()) {
+            throw new IllegalStateException("CryptoManager er ikke initialiseret");
+        }
+        locked(false, () -> {
+            Path path = Paths.get(notesFile);
+            if (!Files.exists(path) || Files.size(path) == 0) {
+                writeAll(Collections.<NoteData>emptyList());
+            } else if (!isCurrentFormat()) {
+                throw new IOException("Notes filen er i det gamle format og skal gemmes igen før der kan tilføjes");
+            } else {
+                checkUnchanged();
+            }
+            
+            long start = NotesMetrics.start();
+            NotesEvents.StorageEvent event = new NotesEvents.StorageEvent();
+            event.begin();
+            
+            StringBuilder lines = new StringBuilder();
+            Map<String, Record> appended = new HashMap<>();
+            try {
+                for (NoteData note : notes) {
+                    String line = encodeLine(note);
+                    lines.append(line).append(System.lineSeparator());
+                    appended.put(fingerprint(line), new Record(note));
+                }
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    repairTail(channel);
+                    ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer, channel.size());
+                    }
+                    channel.force(true);
+                }
+            } catch (Exception e) {
+                NotesMetrics.SAVE.recordError();
+                throw e;
+            }
+            records.putAll(appended);
+            stamp = FileStamp.of(path);
+            
+            event.operation = "tilføj";
+            event.bytes = lines.length();
+            event.noteCount = notes.size();
+            event.commit();
+            NotesMetrics.SAVE.record(start, lines.length());
+            return null;
+        });
+    }
+    
+    /**
+     * Fjerner den halve linje en afbrudt tilføjelse kan have efterladt sidst i filen, så den næste record
+     * ikke klistres på den; er linjen en hel record der kun mangler linjeskiftet, får den det i stedet
+     */
+    private void repairTail(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = size;
+        long lineStart = -1;
+        while (position > 0 && lineStart < 0) {
+            int length = (int) Math.min(buffer.capacity(), position);
+            position -= length;
+            buffer.clear().limit(length);
+            readFully(channel, buffer, position);
+            for (int i = length - 1; i >= 0 && lineStart < 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    lineStart = position + i + 1;
+                }
+            }
+        }
+        // Uden noget linjeskift er filen ikke i det nuværende format, og så rører vi den ikke
+        if (lineStart <= 0 || lineStart == size) {
+            return;
+        }
+        ByteBuffer tail = ByteBuffer.allocate((int) (size - lineStart));
+        readFully(channel, tail, lineStart);
+        String line = new String(tail.array(), StandardCharsets.UTF_8);
+        String record = line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+        if (recordId(record) != null) {
+            channel.write(ByteBuffer.wrap(System.lineSeparator().getBytes(StandardCharsets.UTF_8)), size);
+            return;
+        }
+        channel.truncate(lineStart);
+        List<CorruptRecord> kept = new ArrayList<>(corruptRecords);
+        kept.removeIf(corrupt -> corrupt.line.equals(record));
+        corruptRecords = kept;
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Filen blev kortere under læsning");
+            }
+        }
+    }
+    
+    /**
+     * Tjekker om filen er i det nuværende format med én record pr. linje
+     */
+    public boolean isCurrentFormat() throws IOException {
+        if (!Files.exists(Paths.get(notesFile))) {
+            return false;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(notesFile), StandardCharsets.UTF_8)) {
+            return FORMAT_HEADER.equals(reader.readLine());
+        }
     }
     
     /**
      * Indlæser og dekrypterer noter fra fil
      */
-    @SuppressWarnings("unchecked")
     public List<Note> loadNotes() throws Exception {
+        List<Note> notes = new ArrayList<>();
+        readNotes(notes::add);
+        return notes;
+    }
+    
+    /**
+     * Læser noterne én ad gangen og giver hver videre til consumer, så de kan vises mens resten læses
+     */
+    public void readNotes(Consumer<Note> consumer) throws Exception {
         if (!Files.exists(Paths.get(notesFile))) {
-            return new ArrayList<>();
+            return;
         }
         
         if (!cryptoManager.isInitialized()) {
             throw new IllegalStateException("CryptoManager er ikke initialiseret");
         }
         
-        // Læs krypteret data fra fil
-        String encryptedData = new String(Files.readAllBytes(Paths.get(notesFile)), "UTF-8");
+        locked(true, () -> {
+            long start = NotesMetrics.start();
+            NotesEvents.StorageEvent event = new NotesEvents.StorageEvent();
+            event.begin();
+            Path path = Paths.get(notesFile);
+            long bytes = Files.size(path);
+            FileStamp readStamp = FileStamp.of(path);
+            Map<String, Record> read = new HashMap<>();
+            List<CorruptRecord> corrupt = new ArrayList<>();
+            int count = 0;
+            
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String header = reader.readLine();
+                if (!FORMAT_HEADER.equals(header)) {
+                    // Gammelt format: hele listen er ét krypteret blob
+                    for (Note note : loadLegacyNotes(header)) {
+                        consumer.accept(note);
+                        count++;
+                    }
+                } else {
+                    // En beskadiget kontrolværdi er ikke fatal hvis bare én record kan dekrypteres med nøglen
+                    Exception checkError = tryCheckPassword(reader.readLine());
+                    String line;
+                    int index = 0;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty()) {
+                            continue;
+                        }
+                        index++;
+                        try {
+                            Note note = decodeLine(line, index);
+                            read.put(fingerprint(line), new Record(note));
+                            consumer.accept(note);
+                            count++;
+                        } catch (CorruptRecordException e) {
+                            corrupt.add(e.getRecord());
+                            if (checkError != null && count == 0 && corrupt.size() >= PROBE_RECORDS) {
+                                throw checkError;
+                            }
+                        }
+                    }
+                    if (checkError != null && count == 0) {
+                        throw checkError;
+                    }
+                }
+            } catch (Exception e) {
+                NotesMetrics.LOAD.recordError();
+                throw e;
+            }
+            records = read;
+            corruptRecords = corrupt;
+            stamp = readStamp;
+            
+            event.operation = "indlæs";
+            event.bytes = bytes;
+            event.noteCount = count;
+            event.commit();
+            NotesMetrics.LOAD.record(start, bytes);
+            return null;
+        });
+    }
+    
+    /**
+     * Finder hvad en anden proces har ændret i filen siden den sidst blev læst eller skrevet herfra
+     * Kun records der ikke var her før dekrypteres; kendte records genkendes på IV og GCM-tag. Ændringerne
+     * registreres først som kendte når acceptChanges kaldes, så en gemning imens stadig bliver afvist
+     */
+    public Changes readChanges() throws Exception {
+        if (!cryptoManager.isInitialized()) {
+            throw new IllegalStateException("CryptoManager er ikke initialiseret");
+        }
+        return locked(true, () -> {
+            Path path = Paths.get(notesFile);
+            if (!Files.exists(path)) {
+                return null;
+            }
+            FileStamp readStamp = FileStamp.of(path);
+            if (readStamp.equals(stamp)) {
+                return new Changes(Collections.emptyList(), Collections.emptySet(), records, corruptRecords, readStamp, stamp);
+            }
+            Map<String, Record> read = new HashMap<>();
+            Set<String> seen = new HashSet<>();
+            List<Note> changed = new ArrayList<>();
+            List<CorruptRecord> corrupt = new ArrayList<>();
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                if (!FORMAT_HEADER.equals(reader.readLine())) {
+                    throw new IOException("Notes filen er i det gamle format");
+                }
+                reader.readLine();
+                String line;
+                int index = 0;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    index++;
+                    String fingerprint = fingerprint(line);
+                    Record record = records.get(fingerprint);
+                    if (record == null) {
+                        Note note;
+                        try {
+                            note = decodeLine(line, index);
+                        } catch (CorruptRecordException e) {
+                            // Noten regnes ikke som slettet, så den beholdes som den var her
+                            corrupt.add(e.getRecord());
+                            if (e.getRecord().noteId != null) {
+                                seen.add(e.getRecord().noteId);
+                            }
+                            continue;
+                        }
+                        record = new Record(note);
+                        changed.add(note);
+                    }
+                    read.put(fingerprint, record);
+                    seen.add(record.id);
+                }
+            }
+            Set<String> removed = new HashSet<>();
+            for (Record record : records.values()) {
+                if (!seen.contains(record.id)) {
+                    removed.add(record.id);
+                }
+            }
+            return new Changes(changed, removed, read, corrupt, readStamp, stamp);
+        });
+    }
+    
+    /**
+     * Registrerer ændringerne fra readChanges som kendte, før de flettes ind i noterne i hukommelsen
+     * Returnerer false hvis de er forældede, dvs. en anden læsning allerede er registreret siden
+     */
+    public boolean acceptChanges(Changes changes) throws Exception {
+        return locked(true, () -> {
+            if (!Objects.equals(stamp, changes.base)) {
+                return false;
+            }
+            records = changes.records;
+            corruptRecords = changes.corrupt;
+            stamp = changes.stamp;
+            return true;
+        });
+    }
+    
+    /**
+     * Kører handlingen med låsen på notes.lock; delt til læsning, eksklusiv til skrivning
+     */
+    private <T> T locked(boolean shared, LockedAction<T> action) throws Exception {
+        synchronized (directoryMonitor(Paths.get(dataDirectory))) {
+            try (FileChannel channel = FileChannel.open(Paths.get(dataDirectory, "notes.lock"),
+                     StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock(0, Long.MAX_VALUE, shared);
+                try {
+                    return action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Monitoren alle i JVM'en skal holde før de tager en FileChannel-lås på en fil i mappen (også VaultBackup)
+     */
+    static Object directoryMonitor(Path directory) {
+        return DIRECTORY_LOCKS.computeIfAbsent(directory.toAbsolutePath().normalize().toString(), key -> new Object());
+    }
+    
+    /**
+     * Afviser en skrivning hvis filen er skiftet ud siden den sidst blev læst eller skrevet herfra
+     */
+    private void checkUnchanged() throws IOException {
+        Path path = Paths.get(notesFile);
+        if (stamp != null && Files.exists(path) && !stamp.equals(FileStamp.of(path))) {
+            throw new ExternalChangeException();
+        }
+    }
+    
+    /**
+     * Genkender en record uden at dekryptere den: IV'en forrest og GCM-tagget sidst er unikke pr. kryptering
+     * (i en record med id starter de krypterede bytes efter id'et, og CRC'en står efter tagget)
+     */
+    private static String fingerprint(String line) {
+        int start = line.indexOf(FIELD_SEPARATOR) + 1;
+        if (line.length() - start <= 40) {
+            return line;
+        }
+        return line.substring(start, start + 16) + line.substring(line.length() - 24) + line.length();
+    }
+    
+    /**
+     * Tjekker om nøglen passer til filen; i det nye format dekrypteres kun kontrolværdien
+     */
+    public void verifyPassword() throws Exception {
+        if (!Files.exists(Paths.get(notesFile))) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(notesFile), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (FORMAT_HEADER.equals(header)) {
+                Exception checkError = tryCheckPassword(reader.readLine());
+                if (checkError != null && !anyRecordDecrypts(reader)) {
+                    throw checkError;
+                }
+            } else {
+                loadLegacyNotes(header);
+            }
+        }
+    }
+    
+    /**
+     * Som checkPassword, men returnerer fejlen i stedet for at kaste den
+     */
+    private Exception tryCheckPassword(String checkLine) {
+        try {
+            checkPassword(checkLine);
+            return null;
+        } catch (Exception e) {
+            return e;
+        }
+    }
+    
+    /**
+     * Om mindst én af de næste PROBE_RECORDS records kan dekrypteres, dvs. nøglen er rigtig selvom
+     * kontrolværdien er beskadiget
+     */
+    private boolean anyRecordDecrypts(BufferedReader reader) throws IOException {
+        String line;
+        int tried = 0;
+        while ((line = reader.readLine()) != null && tried++ < PROBE_RECORDS) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                decodeLine(line, 0);
+                return true;
+            } catch (CorruptRecordException e) {
+                // Prøv den næste
+            }
+        }
+        return false;
+    }
+    
+    private void checkPassword(String checkLine) throws Exception {
+        if (checkLine == null) {
+            throw new IOException("Notes filen er ufuldstændig");
+        }
+        byte[] value = cryptoManager.decryptBytes(Base64.getDecoder().decode(checkLine));
+        if (!Arrays.equals(value, CHECK_VALUE)) {
+            throw new IOException("Forkert kontrolværdi");
+        }
+    }
+    
+    /**
+     * Læser det gamle format hvor hele listen er serialiseret og krypteret samlet
+     */
+    @SuppressWarnings("unchecked")
+    private List<Note> loadLegacyNotes(String encryptedData) throws Exception {
+        if (encryptedData == null || encryptedData.isEmpty()) {
+            return new ArrayList<>();
+        }
         
         // Dekrypter data
         String serializedData = cryptoManager.decrypt(encryptedData);
@@ -118,6 +973,11 @@ public class NotesStorage {
     public void deleteAllData() throws IOException {
         Files.deleteIfExists(Paths.get(notesFile));
         Files.deleteIfExists(Paths.get(saltFile));
+        Files.deleteIfExists(Paths.get(dataDirectory, VaultSync.STATE_FILE));
+    }
+    
+    public CryptoManager getCryptoManager() {
+        return cryptoManager;
     }
     
     /**
@@ -126,4 +986,11 @@ public class NotesStorage {
     public String getDataDirectory() {
         return dataDirectory;
     }
+    
+    /**
+     * Returnerer stien til filen med de krypterede noter
+     */
+    public String getNotesFile() {
+        return notesFile;
+    }
 }
\ No newline at end of file
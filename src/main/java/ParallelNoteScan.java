@@ -0,0 +1,119 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ParallelNoteScan filtrerer meget store note-samlinger på flere tråde
+ * Pladserne deles i bidder på en ForkJoin pool; hver bid matcher og sorterer sine træffere efter
+ * sorteringens position, og til sidst flettes de sorterede bidder med en k-vejs fletning
+ */
+public class ParallelNoteScan {
+    private static final int CHUNK_SIZE = 2048;
+
+    private final Note[] slots;
+    private final int[] positions;
+    private final NoteQuery.Node root;
+    private final NoteQuery.Context context;
+
+    /**
+     * @param slots     noterne pr. plads (null for ledige pladser)
+     * @param positions hver plads' position i den ønskede sortering
+     * @param root      prædikattræet der skal matches
+     * @param context   evalueringskontekst; skal være trådsikker
+     */
+    public ParallelNoteScan(Note[] slots, int[] positions, NoteQuery.Node root, NoteQuery.Context context) {
+        this.slots = slots;
+        this.positions = positions;
+        this.root = root;
+        this.context = context;
+    }
+
+    /**
+     * Kører scanningen og returnerer de matchende pladser i sorteret rækkefølge
+     */
+    public int[] run(ForkJoinPool pool) {
+        List<int[]> chunks = pool.invoke(new ScanTask(0, slots.length));
+        return merge(chunks);
+    }
+
+    /**
+     * Deler pladsintervallet op indtil bidderne er små nok og samler bidresultaterne
+     */
+    private final class ScanTask extends RecursiveTask<List<int[]>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        ScanTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<int[]> compute() {
+            if (to - from <= CHUNK_SIZE) {
+                List<int[]> result = new ArrayList<>(1);
+                int[] hits = scanChunk(from, to);
+                if (hits.length > 0) {
+                    result.add(hits);
+                }
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(from, middle);
+            left.fork();
+            List<int[]> right = new ScanTask(middle, to).compute();
+            List<int[]> result = left.join();
+            result.addAll(right);
+            return result;
+        }
+    }
+
+    /**
+     * Matcher én bid og sorterer træfferne efter position (pakket som position << 32 | plads)
+     */
+    private int[] scanChunk(int from, int to) {
+        long[] keyed = new long[to - from];
+        int count = 0;
+        for (int slot = from; slot < to; slot++) {
+            Note note = slots[slot];
+            if (note != null && root.matches(note, context)) {
+                keyed[count++] = ((long) positions[slot] << 32) | slot;
+            }
+        }
+        Arrays.sort(keyed, 0, count);
+        int[] hits = new int[count];
+        for (int i = 0; i < count; i++) {
+            hits[i] = (int) keyed[i];
+        }
+        return hits;
+    }
+
+    /**
+     * K-vejs fletning af de sorterede bidder med en min-hob over bidderne hoveder
+     */
+    private int[] merge(List<int[]> chunks) {
+        int total = 0;
+        for (int[] chunk : chunks) {
+            total += chunk.length;
+        }
+        int[] result = new int[total];
+        int next = 0;
+        int[] cursors = new int[chunks.size()];
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, chunks.size()),
+            Comparator.comparingInt(chunk -> positions[chunks.get(chunk)[cursors[chunk]]]));
+        for (int chunk = 0; chunk < chunks.size(); chunk++) {
+            heap.add(chunk);
+        }
+        while (!heap.isEmpty()) {
+            int chunk = heap.poll();
+            int[] hits = chunks.get(chunk);
+            result[next++] = hits[cursors[chunk]];
+            if (++cursors[chunk] < hits.length) {
+                heap.add(chunk);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,532 @@
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * PieceTableContent er et piece table til editorens dokument: {@code new PlainDocument(new PieceTableContent())}
+ * Tekst skrives kun én gang i append-only bidder, og dokumentet er en liste af stykker der peger ind i dem.
+ * Indsæt og slet flytter kun stykker, fortryd gemmer stykkerne i stedet for kopier af teksten, og
+ * tekst inden for ét stykke læses direkte uden kopi. Positioner følger med ændringerne som i GapContent
+ */
+public class PieceTableContent implements AbstractDocument.Content {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int GAP_GROWTH = 1 << 20;
+
+    /**
+     * Et udsnit af en tekstbid; bidderne ændres aldrig, så stykker kan deles med fortryd-historikken
+     */
+    private static final class Piece {
+        final char[] buffer;
+        final int start;
+        int length;
+
+        Piece(char[] buffer, int start, int length) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+        }
+
+        Piece copy() {
+            return new Piece(buffer, start, length);
+        }
+    }
+
+    private final List<Piece> pieces = new ArrayList<>();
+    private int[] pieceStarts = new int[16];
+    private int validStarts = 0; // pieceStarts er korrekte for stykker før dette indeks
+    private int length = 0;
+
+    private char[] chunk;
+    private int chunkUsed;
+
+    // Positioner: sorteret efter offset og delt af et "hul" som i GapContent. Mærker før hullet gemmer
+    // deres offset direkte, mærker efter gemmer offset + gapSize, så en ændring kun flytter mærkerne
+    // mellem den forrige og den nye ændring i stedet for alle mærker efter den
+    private MarkData[] marks = new MarkData[16];
+    private int markCount = 0;
+    private int gapIndex = 0;
+    private int gapStart = 0;
+    private int gapSize = GAP_GROWTH;
+    private final ReferenceQueue<StickyPosition> queue = new ReferenceQueue<>();
+    private int clearedMarks = 0;
+
+    public PieceTableContent() {
+        // AbstractDocument forventer altid et afsluttende linjeskift
+        pieces.add(append("\n"));
+        length = 1;
+    }
+
+    @Override
+    public synchronized Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length) {
+            throw new BadLocationException("Ugyldig position", offset);
+        }
+        drainQueue();
+        int index = markIndex(offset);
+        if (index < markCount && offsetOf(marks[index]) == offset) {
+            StickyPosition existing = marks[index].get();
+            if (existing != null) {
+                return existing;
+            }
+        }
+        StickyPosition position = new StickyPosition();
+        MarkData mark = new MarkData(position, offset < gapStart ? offset : offset + gapSize);
+        position.mark = mark;
+        insertMark(index, mark);
+        if (offset < gapStart) {
+            gapIndex++;
+        }
+        return position;
+    }
+
+    @Override
+    public synchronized int length() {
+        return length;
+    }
+
+    @Override
+    public synchronized UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where >= length) {
+            throw new BadLocationException("Ugyldig indsættelse", where);
+        }
+        Piece piece = append(str);
+        insertPieces(where, new Piece[]{piece});
+        shiftForInsert(where, str.length());
+        return new InsertEdit(where, piece.copy());
+    }
+
+    @Override
+    public synchronized UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length) {
+            throw new BadLocationException("Ugyldig sletning", where + nitems);
+        }
+        MarkRef[] refs = marksInRange(where, nitems);
+        Piece[] removed = removePieces(where, nitems);
+        shiftForRemove(where, nitems);
+        return new RemoveEdit(where, nitems, removed, refs);
+    }
+
+    @Override
+    public synchronized String getString(int where, int len) throws BadLocationException {
+        Segment segment = new Segment();
+        getChars(where, len, segment);
+        return new String(segment.array, segment.offset, segment.count);
+    }
+
+    @Override
+    public synchronized void getChars(int where, int len, Segment txt) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length) {
+            throw new BadLocationException("Ugyldigt udsnit", where + len);
+        }
+        if (len == 0) {
+            txt.array = new char[0];
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+        int index = pieceIndex(where);
+        Piece piece = pieces.get(index);
+        int inPiece = where - pieceStarts[index];
+
+        // Inden for ét stykke (det normale ved tegning af en linje) peges direkte ind i bidden
+        if (inPiece + len <= piece.length || txt.isPartialReturn()) {
+            txt.array = piece.buffer;
+            txt.offset = piece.start + inPiece;
+            txt.count = Math.min(len, piece.length - inPiece);
+            return;
+        }
+        char[] copy = new char[len];
+        int copied = 0;
+        while (copied < len) {
+            piece = pieces.get(index++);
+            int count = Math.min(piece.length - inPiece, len - copied);
+            System.arraycopy(piece.buffer, piece.start + inPiece, copy, copied, count);
+            copied += count;
+            inPiece = 0;
+        }
+        txt.array = copy;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    /**
+     * Antal stykker i tabellen (til diagnostik)
+     */
+    public synchronized int pieceCount() {
+        return pieces.size();
+    }
+
+    // ---------------------------------------------------------------
+    // Stykker
+    // ---------------------------------------------------------------
+
+    /**
+     * Skriver tekst i den aktuelle bid; store tekster får deres egen bid i præcis størrelse
+     */
+    private Piece append(String str) {
+        int len = str.length();
+        if (chunk == null || chunk.length - chunkUsed < len) {
+            chunk = new char[Math.max(CHUNK_SIZE, len)];
+            chunkUsed = 0;
+        }
+        str.getChars(0, len, chunk, chunkUsed);
+        Piece piece = new Piece(chunk, chunkUsed, len);
+        chunkUsed += len;
+        return piece;
+    }
+
+    private void insertPieces(int where, Piece[] inserted) {
+        int total = 0;
+        for (Piece piece : inserted) {
+            total += piece.length;
+        }
+        // Skrivning i træk: forlæng stykket lige før hvis den nye tekst ligger lige efter i samme bid
+        if (inserted.length == 1 && where > 0) {
+            int before = pieceIndex(where - 1);
+            Piece previous = pieces.get(before);
+            Piece piece = inserted[0];
+            if (pieceStarts[before] + previous.length == where && previous.buffer == piece.buffer
+                    && previous.start + previous.length == piece.start) {
+                previous.length += piece.length;
+                length += total;
+                invalidateStarts(before + 1);
+                return;
+            }
+        }
+        int index = splitAt(where);
+        pieces.addAll(index, Arrays.asList(inserted));
+        length += total;
+        invalidateStarts(index);
+    }
+
+    private Piece[] removePieces(int where, int count) {
+        int from = splitAt(where);
+        int to = splitAt(where + count);
+        List<Piece> range = pieces.subList(from, to);
+        Piece[] removed = new Piece[range.size()];
+        for (int i = 0; i < removed.length; i++) {
+            removed[i] = range.get(i).copy();
+        }
+        range.clear();
+        length -= count;
+        invalidateStarts(from);
+        return removed;
+    }
+
+    /**
+     * Sørger for at et stykke begynder ved offset og returnerer dets indeks
+     */
+    private int splitAt(int offset) {
+        if (offset >= length) {
+            return pieces.size();
+        }
+        int index = pieceIndex(offset);
+        int inPiece = offset - pieceStarts[index];
+        if (inPiece == 0) {
+            return index;
+        }
+        Piece piece = pieces.get(index);
+        Piece tail = new Piece(piece.buffer, piece.start + inPiece, piece.length - inPiece);
+        piece.length = inPiece;
+        pieces.add(index + 1, tail);
+        invalidateStarts(index + 1);
+        return index + 1;
+    }
+
+    private void invalidateStarts(int from) {
+        validStarts = Math.min(validStarts, from);
+    }
+
+    /**
+     * Finder stykket der indeholder offset med binær søgning over stykkernes startpositioner
+     */
+    private int pieceIndex(int offset) {
+        int count = pieces.size();
+        if (validStarts < count) {
+            if (pieceStarts.length < count) {
+                pieceStarts = Arrays.copyOf(pieceStarts, Math.max(count, pieceStarts.length * 2));
+            }
+            int start = validStarts == 0 ? 0 : pieceStarts[validStarts - 1] + pieces.get(validStarts - 1).length;
+            for (int i = validStarts; i < count; i++) {
+                pieceStarts[i] = start;
+                start += pieces.get(i).length;
+            }
+            validStarts = count;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (pieceStarts[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    // ---------------------------------------------------------------
+    // Positioner
+    // ---------------------------------------------------------------
+
+    private final class StickyPosition implements Position {
+        MarkData mark;
+
+        @Override
+        public int getOffset() {
+            synchronized (PieceTableContent.this) {
+                return offsetOf(mark);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getOffset());
+        }
+    }
+
+    /**
+     * Mærket bag en position; forsvinder fra tabellen når positionen ikke længere bruges
+     */
+    private final class MarkData extends WeakReference<StickyPosition> {
+        int raw;
+
+        MarkData(StickyPosition position, int raw) {
+            super(position, queue);
+            this.raw = raw;
+        }
+    }
+
+    /**
+     * Et mærke og dets afstand fra starten af et slettet område, så fortryd kan lægge det tilbage
+     */
+    private static final class MarkRef {
+        final MarkData mark;
+        final int relative;
+
+        MarkRef(MarkData mark, int relative) {
+            this.mark = mark;
+            this.relative = relative;
+        }
+    }
+
+    private int offsetOf(MarkData mark) {
+        return mark.raw < gapStart ? mark.raw : mark.raw - gapSize;
+    }
+
+    /**
+     * Første mærke med offset >= offset
+     */
+    private int markIndex(int offset) {
+        int low = 0;
+        int high = markCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (offsetOf(marks[middle]) < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void insertMark(int index, MarkData mark) {
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, markCount * 2);
+        }
+        System.arraycopy(marks, index, marks, index + 1, markCount - index);
+        marks[index] = mark;
+        markCount++;
+    }
+
+    /**
+     * Flytter hullet så mærker med offset >= start ligger efter det
+     */
+    private void moveGap(int start) {
+        int index = markIndex(start);
+        if (index < gapIndex) {
+            for (int i = index; i < gapIndex; i++) {
+                marks[i].raw += gapSize;
+            }
+        } else {
+            for (int i = gapIndex; i < index; i++) {
+                marks[i].raw -= gapSize;
+            }
+        }
+        gapIndex = index;
+        gapStart = start;
+    }
+
+    /**
+     * Mærker ved eller efter indsættelsen rykker frem; et mærke ved 0 bliver dog ved starten
+     */
+    private void shiftForInsert(int where, int count) {
+        moveGap(where == 0 ? 1 : where);
+        gapSize -= count;
+        if (gapSize < 0) {
+            int growth = -gapSize + GAP_GROWTH;
+            for (int i = gapIndex; i < markCount; i++) {
+                marks[i].raw += growth;
+            }
+            gapSize += growth;
+        }
+    }
+
+    /**
+     * Mærker inde i det slettede område samles ved where, mærker efter rykker tilbage
+     */
+    private void shiftForRemove(int where, int count) {
+        moveGap(where);
+        int end = markIndex(where + count);
+        for (int i = gapIndex; i < end; i++) {
+            marks[i].raw = where + gapSize + count;
+        }
+        gapSize += count;
+    }
+
+    private MarkRef[] marksInRange(int where, int count) {
+        drainQueue();
+        int from = markIndex(where);
+        int to = markIndex(where + count + 1);
+        MarkRef[] refs = new MarkRef[to - from];
+        for (int i = from; i < to; i++) {
+            refs[i - from] = new MarkRef(marks[i], offsetOf(marks[i]) - where);
+        }
+        return refs;
+    }
+
+    /**
+     * Lægger mærker tilbage efter at en sletning er fortrudt
+     */
+    private void restoreMarks(int where, int count, MarkRef[] refs) {
+        if (refs.length == 0) {
+            return;
+        }
+        moveGap(where);
+        int end = markIndex(where + count + 1);
+        for (MarkRef ref : refs) {
+            if (ref.mark.get() != null) {
+                ref.mark.raw = where + ref.relative + gapSize;
+            }
+        }
+        Arrays.sort(marks, gapIndex, end, Comparator.comparingInt((MarkData mark) -> mark.raw));
+    }
+
+    /**
+     * Fjerner mærker hvis positioner er samlet op af GC, når der er nok af dem til at det betaler sig
+     */
+    private void drainQueue() {
+        while (queue.poll() != null) {
+            clearedMarks++;
+        }
+        if (clearedMarks < 1024 || clearedMarks * 4 < markCount) {
+            return;
+        }
+        int kept = 0;
+        int keptBeforeGap = 0;
+        for (int i = 0; i < markCount; i++) {
+            MarkData mark = marks[i];
+            if (mark.get() != null) {
+                if (i < gapIndex) {
+                    keptBeforeGap++;
+                }
+                marks[kept++] = mark;
+            }
+        }
+        Arrays.fill(marks, kept, markCount, null);
+        markCount = kept;
+        gapIndex = keptBeforeGap;
+        clearedMarks = 0;
+    }
+
+    // ---------------------------------------------------------------
+    // Fortryd
+    // ---------------------------------------------------------------
+
+    private final class InsertEdit extends AbstractUndoableEdit {
+        private static final long serialVersionUID = 1L;
+
+        private final int where;
+        private final Piece piece;
+        private MarkRef[] refs;
+
+        InsertEdit(int where, Piece piece) {
+            this.where = where;
+            this.piece = piece;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            synchronized (PieceTableContent.this) {
+                refs = marksInRange(where, piece.length);
+                removePieces(where, piece.length);
+                shiftForRemove(where, piece.length);
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            synchronized (PieceTableContent.this) {
+                insertPieces(where, new Piece[]{piece.copy()});
+                shiftForInsert(where, piece.length);
+                restoreMarks(where, piece.length, refs);
+                refs = null;
+            }
+        }
+    }
+
+    private final class RemoveEdit extends AbstractUndoableEdit {
+        private static final long serialVersionUID = 1L;
+
+        private final int where;
+        private final int count;
+        private final Piece[] removed;
+        private MarkRef[] refs;
+
+        RemoveEdit(int where, int count, Piece[] removed, MarkRef[] refs) {
+            this.where = where;
+            this.count = count;
+            this.removed = removed;
+            this.refs = refs;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            synchronized (PieceTableContent.this) {
+                Piece[] copies = new Piece[removed.length];
+                for (int i = 0; i < copies.length; i++) {
+                    copies[i] = removed[i].copy();
+                }
+                insertPieces(where, copies);
+                shiftForInsert(where, count);
+                restoreMarks(where, count, refs);
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            synchronized (PieceTableContent.this) {
+                refs = marksInRange(where, count);
+                removePieces(where, count);
+                shiftForRemove(where, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+import java.util.*;
+
+/**
+ * TermDictionary vedligeholder en ordbog over alle ord i noterne til fuzzy søgning
+ * Kandidater findes via et bigram-indeks med længde- og tællefilter, så redigeringsafstanden
+ * kun beregnes for de få ord der overhovedet kan ligge inden for afstanden
+ */
+public class TermDictionary {
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private final List<String> terms = new ArrayList<>();
+    private int[] termRefs = new int[16];
+    private int[] termGramCounts = new int[16];
+    private int[] termLengths = new int[16];
+    private final Map<Integer, int[]> postings = new HashMap<>();
+    private final Map<Integer, Integer> postingSizes = new HashMap<>();
+    private final Map<Note, String[]> noteTerms = new HashMap<>();
+    private int liveTerms = 0;
+
+    // Genbruges mellem søgninger for at undgå allokering af tællere
+    private int[] sharedCounts = new int[0];
+    private int[] touched = new int[0];
+
+    /**
+     * Indekserer (eller genindekserer) ordene i en note
+     */
+    public void indexNote(Note note) {
+        String[] newTerms = distinctTerms(note.getTitle() + " " + note.getContent());
+        String[] oldTerms = noteTerms.put(note, newTerms);
+        if (oldTerms != null) {
+            for (String term : oldTerms) {
+                decrement(term);
+            }
+        }
+        for (String term : newTerms) {
+            increment(term);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Fjerner en notes ord fra ordbogen
+     */
+    public void removeNote(Note note) {
+        String[] oldTerms = noteTerms.remove(note);
+        if (oldTerms != null) {
+            for (String term : oldTerms) {
+                decrement(term);
+            }
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Nulstiller ordbogen og indekserer alle noter på ny
+     */
+    public void rebuild(Collection<Note> notes) {
+        termIds.clear();
+        terms.clear();
+        postings.clear();
+        postingSizes.clear();
+        noteTerms.clear();
+        liveTerms = 0;
+        for (Note note : notes) {
+            indexNote(note);
+        }
+    }
+
+    /**
+     * Returnerer alle kendte ord inden for maxDistance redigeringer af term (inklusiv term selv)
+     */
+    public synchronized Set<String> expand(String term, int maxDistance) {
+        Set<String> result = new LinkedHashSet<>();
+        result.add(term);
+        if (maxDistance <= 0 || terms.isEmpty()) {
+            return result;
+        }
+
+        if (sharedCounts.length < terms.size()) {
+            sharedCounts = new int[terms.size()];
+            touched = new int[terms.size()];
+        }
+
+        // Tæl fælles bigrammer for alle ord der deler mindst ét bigram med søgeordet
+        int touchedCount = 0;
+        int[] queryGrams = bigrams(term);
+        Set<Integer> seenGrams = new HashSet<>();
+        for (int gram : queryGrams) {
+            if (!seenGrams.add(gram)) continue;
+            int[] list = postings.get(gram);
+            if (list == null) continue;
+            int size = postingSizes.get(gram);
+            for (int i = 0; i < size; i++) {
+                int id = list[i];
+                if (sharedCounts[id]++ == 0) {
+                    touched[touchedCount++] = id;
+                }
+            }
+        }
+
+        // En redigering fjerner højst to forskellige bigrammer, så kandidater skal dele mindst max(|A|, |B|) - 2 * maxDistance
+        int length = term.length();
+        int queryGramCount = seenGrams.size();
+        for (int i = 0; i < touchedCount; i++) {
+            int id = touched[i];
+            int shared = sharedCounts[id];
+            sharedCounts[id] = 0;
+
+            if (termRefs[id] <= 0) continue;
+            if (Math.abs(termLengths[id] - length) > maxDistance) continue;
+            if (shared < Math.max(termGramCounts[id], queryGramCount) - 2 * maxDistance) continue;
+            String candidate = terms.get(id);
+            if (boundedDistance(term, candidate, maxDistance) <= maxDistance) {
+                result.add(candidate);
+            }
+        }
+
+        // Meget korte ord kan ligge inden for afstanden uden fælles bigrammer
+        if (queryGramCount <= 2 * maxDistance) {
+            for (int id = 0; id < terms.size(); id++) {
+                String candidate = terms.get(id);
+                if (termRefs[id] > 0 && Math.abs(termLengths[id] - length) <= maxDistance
+                        && boundedDistance(term, candidate, maxDistance) <= maxDistance) {
+                    result.add(candidate);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Søgekontekst der udvider hvert søgeord med kendte ord inden for standardafstanden (kun ved fuzzy)
+     * Udvidelsen huskes for resten af søgningen og er trådsikker, da filtreringen kan køre parallelt
+     */
+    public NoteQuery.Context queryContext(boolean fuzzy) {
+        if (!fuzzy) {
+            return Collections::singleton;
+        }
+        Map<String, Set<String>> variants = new java.util.concurrent.ConcurrentHashMap<>();
+        return word -> variants.computeIfAbsent(word, w -> expand(w, defaultMaxDistance(w)));
+    }
+
+    /**
+     * Standard redigeringsafstand for et søgeord: 1 for korte ord, ellers 2
+     */
+    public static int defaultMaxDistance(String term) {
+        if (term.length() <= 2) return 0;
+        return term.length() <= 4 ? 1 : 2;
+    }
+
+    /**
+     * Deler tekst op i små bogstavs-ord (bogstaver og tal)
+     */
+    public static List<String> tokenize(String text) {
+        List<String> result = new ArrayList<>();
+        if (text == null) {
+            return result;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                result.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Antal forskellige ord i ordbogen
+     */
+    public int size() {
+        return liveTerms;
+    }
+
+    private static String[] distinctTerms(String text) {
+        return new LinkedHashSet<>(tokenize(text)).toArray(new String[0]);
+    }
+
+    private void increment(String term) {
+        Integer id = termIds.get(term);
+        if (id == null) {
+            id = terms.size();
+            termIds.put(term, id);
+            terms.add(term);
+            if (id == termRefs.length) {
+                termRefs = Arrays.copyOf(termRefs, id * 2);
+                termGramCounts = Arrays.copyOf(termGramCounts, id * 2);
+                termLengths = Arrays.copyOf(termLengths, id * 2);
+            }
+            Set<Integer> grams = new LinkedHashSet<>(toList(bigrams(term)));
+            termRefs[id] = 0;
+            termGramCounts[id] = grams.size();
+            termLengths[id] = term.length();
+            for (int gram : grams) {
+                addPosting(gram, id);
+            }
+        }
+        if (termRefs[id]++ == 0) {
+            liveTerms++;
+        }
+    }
+
+    private void decrement(String term) {
+        Integer id = termIds.get(term);
+        if (id == null) {
+            return;
+        }
+        if (termRefs[id] == 1) {
+            // Ordet bliver liggende i indekset som dødt indtil næste komprimering
+            liveTerms--;
+        }
+        if (termRefs[id] > 0) {
+            termRefs[id]--;
+        }
+    }
+
+    private void addPosting(int gram, int id) {
+        int[] list = postings.get(gram);
+        int size = list == null ? 0 : postingSizes.get(gram);
+        if (list == null) {
+            list = new int[4];
+        } else if (size == list.length) {
+            list = Arrays.copyOf(list, size * 2);
+        }
+        list[size] = id;
+        postings.put(gram, list);
+        postingSizes.put(gram, size + 1);
+    }
+
+    /**
+     * Genopbygger indekset når over halvdelen af ordene er døde
+     */
+    private void compactIfNeeded() {
+        int dead = terms.size() - liveTerms;
+        if (dead > 1024 && dead > liveTerms) {
+            Map<String, Integer> live = new LinkedHashMap<>();
+            for (int id = 0; id < terms.size(); id++) {
+                if (termRefs[id] > 0) {
+                    live.put(terms.get(id), termRefs[id]);
+                }
+            }
+            termIds.clear();
+            terms.clear();
+            postings.clear();
+            postingSizes.clear();
+            liveTerms = 0;
+            for (Map.Entry<String, Integer> entry : live.entrySet()) {
+                increment(entry.getKey());
+                termRefs[termIds.get(entry.getKey())] = entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * Bigrammer med start- og slutmarkør, så "ab" giver "^a", "ab" og "b$"
+     */
+    private static int[] bigrams(String term) {
+        int[] grams = new int[term.length() + 1];
+        char previous = '\u0002';
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            grams[i] = (previous << 16) | c;
+            previous = c;
+        }
+        grams[term.length()] = (previous << 16) | '\u0003';
+        return grams;
+    }
+
+    private static List<Integer> toList(int[] values) {
+        List<Integer> list = new ArrayList<>(values.length);
+        for (int value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    /**
+     * Levenshtein afstand der stopper tidligt og returnerer limit + 1 når afstanden overstiger limit
+     */
+    private static int boundedDistance(String a, String b, int limit) {
+        int n = a.length();
+        int m = b.length();
+        if (Math.abs(n - m) > limit) {
+            return limit + 1;
+        }
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                if (current[j] < rowMin) rowMin = current[j];
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[m], limit + 1);
+    }
+}
@@ -0,0 +1,572 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * TextCrdt er en notes indhold som en replikeret sekvens (RGA), så to udgaver der er redigeret hver for sig
+ * kan flettes uden at tekst går tabt. Hvert tegn har et id (Lamport-tid, replika) og husker tegnet til venstre
+ * da det blev skrevet; samtidige indsættelser samme sted ordnes efter id, så alle der fletter de samme
+ * ændringer får den samme tekst, uanset rækkefølge. Slettede tegn bliver stående som gravsten uden tekst.
+ * <p>
+ * Tegn skrevet i ét stræk af samme replika gemmes som én run (id, længde, tekst), og compact() lægger
+ * naboruns sammen igen efter splitninger og sletninger. encode gemmer kun runs, ikke teksten, som i
+ * stedet tages fra notens indhold ved decode; en CRC32 af indholdet afslører hvis det er ændret uden om
+ * historikken, og så startes en ny historik fra indholdet
+ */
+public final class TextCrdt {
+    private static final int FORMAT = 1;
+    // Replikaen for tekst der fandtes før historikken; navnet afhænger af teksten, så to kopier af samme
+    // note der begge starter en historik, får de samme id'er for den fælles tekst
+    private static final String BASE_PREFIX = "~";
+
+    private static final int DELETED = 1;
+    private static final int ORIGIN_START = 2;
+    private static final int ORIGIN_PREVIOUS = 4;
+
+    private final List<String> replicas = new ArrayList<>();
+    private final Map<String, Integer> replicaIndex = new HashMap<>();
+    private final List<TreeMap<Long, Run>> runsByReplica = new ArrayList<>();
+    private final Run head = new Run(-1, 0, 0, -1, 0, "");
+    private long clock;
+    private int runCount;
+    private int length;
+
+    /**
+     * Et stræk af tegn fra samme replika med fortløbende Lamport-tider; hvert tegn efter det første har
+     * tegnet før som venstre nabo, så kun det første tegns nabo (origin) skal huskes
+     */
+    private static final class Run {
+        final int replica;
+        final long lamport;
+        int length;
+        final int originReplica;
+        final long originLamport;
+        String text;
+        Run prev;
+        Run next;
+
+        Run(int replica, long lamport, int length, int originReplica, long originLamport, String text) {
+            this.replica = replica;
+            this.lamport = lamport;
+            this.length = length;
+            this.originReplica = originReplica;
+            this.originLamport = originLamport;
+            this.text = text;
+        }
+
+        boolean isDeleted() {
+            return text == null;
+        }
+
+        long end() {
+            return lamport + length;
+        }
+    }
+
+    private TextCrdt() {
+    }
+
+    /**
+     * Notens historik, eller en ny historik med indholdet som fælles udgangspunkt hvis den mangler eller ikke passer
+     */
+    public static TextCrdt of(NoteData note) {
+        String content = note.getContent() == null ? "" : note.getContent();
+        byte[] history = note.getHistory();
+        if (history != null) {
+            try {
+                TextCrdt crdt = decode(history, content);
+                if (crdt != null) {
+                    return crdt;
+                }
+            } catch (IOException e) {
+                // Beskadiget historik: start forfra fra indholdet
+            }
+        }
+        return fromText(content);
+    }
+
+    /**
+     * Historik der kun består af teksten som den er nu
+     */
+    public static TextCrdt fromText(String text) {
+        TextCrdt crdt = new TextCrdt();
+        if (!text.isEmpty()) {
+            int replica = crdt.replica(BASE_PREFIX + Long.toHexString(crc(text)));
+            crdt.link(crdt.head, new Run(replica, 1, text.length(), -1, 0, text));
+            crdt.length = text.length();
+        }
+        return crdt;
+    }
+
+    /**
+     * Fletter to udgaver af en note; null hvis de ikke har fælles historik (så kan de ikke flettes meningsfuldt)
+     * Teksten flettes tegn for tegn, mens titel, kategori og favorit tages fra den senest ændrede
+     */
+    public static Note merge(NoteData local, NoteData remote) {
+        if (local.getHistory() == null || remote.getHistory() == null) {
+            return null;
+        }
+        TextCrdt mine = of(local);
+        TextCrdt theirs = of(remote);
+        if (!mine.sharesHistory(theirs)) {
+            return null;
+        }
+        mine.merge(theirs);
+        String content = mine.text();
+        NoteData newest = remote.getLastModifiedMillis() > local.getLastModifiedMillis() ? remote : local;
+        Note merged = new Note(local.getId(), newest.getTitle(), content, newest.getCategory(), newest.isFavorite(),
+            Math.min(local.getCreatedAtMillis(), remote.getCreatedAtMillis()),
+            Math.max(local.getLastModifiedMillis(), remote.getLastModifiedMillis()));
+        merged.setHistory(mine.encode(content));
+        return merged;
+    }
+
+    /**
+     * Den synlige tekst
+     */
+    public String text() {
+        StringBuilder text = new StringBuilder(length);
+        for (Run run = head.next; run != null; run = run.next) {
+            if (!run.isDeleted()) {
+                text.append(run.text);
+            }
+        }
+        return text.toString();
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Antal runs (inkl. gravsten); et mål for hvor meget historikken fylder ud over teksten
+     */
+    public int getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * Sætter teksten og registrerer forskellen som én sletning og én indsættelse fra replikaen
+     */
+    public void setText(String replica, String text) {
+        String current = text();
+        int prefix = 0;
+        int max = Math.min(current.length(), text.length());
+        while (prefix < max && current.charAt(prefix) == text.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix
+            && current.charAt(current.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+            suffix++;
+        }
+        delete(prefix, current.length() - prefix - suffix);
+        insert(replica, prefix, text.substring(prefix, text.length() - suffix));
+    }
+
+    /**
+     * Indsætter tekst på den synlige position
+     */
+    public void insert(String replicaName, int position, String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        if (position < 0 || position > length) {
+            throw new IndexOutOfBoundsException("Position " + position + " af " + length);
+        }
+        int replica = replica(replicaName);
+        Run left = head;
+        int remaining = position;
+        for (Run run = head.next; run != null && remaining > 0; run = run.next) {
+            if (!run.isDeleted()) {
+                left = run;
+                if (remaining <= run.length) {
+                    if (remaining < run.length) {
+                        split(run, remaining);
+                    }
+                    remaining = 0;
+                } else {
+                    remaining -= run.length;
+                }
+            }
+        }
+        long lamport = clock + 1;
+        if (left != head && left.replica == replica && !left.isDeleted() && left.end() == lamport) {
+            // Fortsætter replikaens seneste run (almindelig skrivning): udvid i stedet for en ny run
+            left.text += text;
+            left.length += text.length();
+        } else {
+            Run run = left == head
+                ? new Run(replica, lamport, text.length(), -1, 0, text)
+                : new Run(replica, lamport, text.length(), left.replica, left.end() - 1, text);
+            // Den nye run har den største tid og hører derfor lige efter sin venstre nabo
+            link(left, run);
+        }
+        clock = lamport + text.length() - 1;
+        length += text.length();
+    }
+
+    /**
+     * Sletter count synlige tegn fra positionen
+     */
+    public void delete(int position, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (position < 0 || position + count > length) {
+            throw new IndexOutOfBoundsException("Sletning " + position + "+" + count + " af " + length);
+        }
+        int skip = position;
+        Run run = head.next;
+        while (count > 0) {
+            if (run.isDeleted()) {
+                run = run.next;
+                continue;
+            }
+            if (skip >= run.length) {
+                skip -= run.length;
+                run = run.next;
+                continue;
+            }
+            if (skip > 0) {
+                run = split(run, skip);
+                skip = 0;
+            }
+            if (count < run.length) {
+                split(run, count);
+            }
+            count -= run.length;
+            markDeleted(run);
+            run = run.next;
+        }
+    }
+
+    /**
+     * Fletter alle tegn og sletninger fra other ind; other ændres ikke
+     */
+    public void merge(TextCrdt other) {
+        List<Run> missing = new ArrayList<>();
+        for (Run run = other.head.next; run != null; run = run.next) {
+            int replica = replica(other.replicas.get(run.replica));
+            int originReplica = run.originReplica < 0 ? -1 : replica(other.replicas.get(run.originReplica));
+            long position = run.lamport;
+            while (position < run.end()) {
+                Run known = find(replica, position);
+                if (known != null) {
+                    position = Math.min(known.end(), run.end());
+                    continue;
+                }
+                Map.Entry<Long, Run> after = runsByReplica.get(replica).higherEntry(position);
+                long gapEnd = after == null ? run.end() : Math.min(run.end(), after.getKey());
+                int from = (int) (position - run.lamport);
+                int to = (int) (gapEnd - run.lamport);
+                String text = run.isDeleted() ? null : run.text.substring(from, to);
+                missing.add(position == run.lamport
+                    ? new Run(replica, position, to - from, originReplica, run.originLamport, text)
+                    : new Run(replica, position, to - from, replica, position - 1, text));
+                position = gapEnd;
+            }
+        }
+        // Et tegns venstre nabo har altid en mindre Lamport-tid, så i denne rækkefølge findes naboen altid
+        missing.sort((a, b) -> compareIds(a, b));
+        for (Run run : missing) {
+            integrate(run);
+        }
+        for (Run run = other.head.next; run != null; run = run.next) {
+            if (run.isDeleted()) {
+                deleteIds(replica(other.replicas.get(run.replica)), run.lamport, run.end());
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Om de to historikker har tegn til fælles (eller en af dem er tom), dvs. stammer fra samme note
+     */
+    public boolean sharesHistory(TextCrdt other) {
+        if (runCount == 0 || other.runCount == 0) {
+            return true;
+        }
+        for (int i = 0; i < other.replicas.size(); i++) {
+            Integer mine = replicaIndex.get(other.replicas.get(i));
+            if (mine == null) {
+                continue;
+            }
+            for (Run run : other.runsByReplica.get(i).values()) {
+                Map.Entry<Long, Run> floor = runsByReplica.get(mine).floorEntry(run.end() - 1);
+                if (floor != null && floor.getValue().end() > run.lamport) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Oprydning: lægger naboruns fra samme replika med fortløbende tider og samme tilstand sammen igen
+     * (efter splitninger ved indsættelser og sletninger). Gravsten har ingen tekst, så en lang slettet
+     * strækning fylder én run
+     */
+    public void compact() {
+        Run run = head.next;
+        while (run != null && run.next != null) {
+            Run next = run.next;
+            if (next.replica == run.replica && next.lamport == run.end() && next.isDeleted() == run.isDeleted()
+                && next.originReplica == run.replica && next.originLamport == run.end() - 1) {
+                if (!run.isDeleted()) {
+                    run.text += next.text;
+                }
+                run.length += next.length;
+                unlink(next);
+            } else {
+                run = next;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Kodning: runs uden tekst; teksten er notens indhold
+    // ---------------------------------------------------------------
+
+    /**
+     * Koder historikken; content skal være text(), og bruges kun til kontrolsummen
+     */
+    public byte[] encode(String content) {
+        compact();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 12 * runCount);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT);
+            out.writeInt((int) crc(content));
+            writeVarLong(out, replicas.size());
+            for (String replica : replicas) {
+                out.writeUTF(replica);
+            }
+            writeVarLong(out, runCount);
+            for (Run run = head.next; run != null; run = run.next) {
+                int flags = run.isDeleted() ? DELETED : 0;
+                if (run.originReplica < 0) {
+                    flags |= ORIGIN_START;
+                } else if (run.originReplica == run.replica && run.originLamport == run.lamport - 1) {
+                    flags |= ORIGIN_PREVIOUS;
+                }
+                out.writeByte(flags);
+                writeVarLong(out, run.replica);
+                writeVarLong(out, run.lamport);
+                writeVarLong(out, run.length);
+                if ((flags & (ORIGIN_START | ORIGIN_PREVIOUS)) == 0) {
+                    writeVarLong(out, run.originReplica);
+                    writeVarLong(out, run.originLamport);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Modsat encode; null hvis indholdet ikke er det historikken blev gemt med
+     */
+    public static TextCrdt decode(byte[] history, String content) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(history));
+        if (in.readUnsignedByte() != FORMAT) {
+            throw new IOException("Ukendt historik-format");
+        }
+        if (in.readInt() != (int) crc(content)) {
+            return null;
+        }
+        TextCrdt crdt = new TextCrdt();
+        int replicaCount = (int) readVarLong(in);
+        for (int i = 0; i < replicaCount; i++) {
+            crdt.replica(in.readUTF());
+        }
+        int runs = (int) readVarLong(in);
+        Run last = crdt.head;
+        int offset = 0;
+        for (int i = 0; i < runs; i++) {
+            int flags = in.readUnsignedByte();
+            int replica = (int) readVarLong(in);
+            long lamport = readVarLong(in);
+            int length = (int) readVarLong(in);
+            int originReplica = -1;
+            long originLamport = 0;
+            if ((flags & ORIGIN_PREVIOUS) != 0) {
+                originReplica = replica;
+                originLamport = lamport - 1;
+            } else if ((flags & ORIGIN_START) == 0) {
+                originReplica = (int) readVarLong(in);
+                originLamport = readVarLong(in);
+            }
+            if (!crdt.validRun(replica, lamport, length, originReplica, originLamport, replicaCount)) {
+                throw new IOException("Beskadiget historik");
+            }
+            String text = null;
+            if ((flags & DELETED) == 0) {
+                if (offset + length > content.length()) {
+                    return null;
+                }
+                text = content.substring(offset, offset + length);
+                offset += length;
+                crdt.length += length;
+            }
+            Run run = new Run(replica, lamport, length, originReplica, originLamport, text);
+            crdt.link(last, run);
+            last = run;
+        }
+        return offset == content.length() ? crdt : null;
+    }
+
+    /**
+     * Om en læst run kan stå i historikken: gyldige replikaer og tider, ingen overlap med en kendt run fra
+     * samme replika, og en venstre nabo der allerede er læst og er ældre (som merge og integrate forudsætter)
+     */
+    private boolean validRun(int replica, long lamport, int length, int originReplica, long originLamport, int replicaCount) {
+        if (replica < 0 || replica >= replicaCount || originReplica < -1 || originReplica >= replicaCount
+            || length <= 0 || lamport < 1 || lamport > Long.MAX_VALUE / 2) {
+            return false;
+        }
+        Map.Entry<Long, Run> before = runsByReplica.get(replica).floorEntry(lamport);
+        Map.Entry<Long, Run> after = runsByReplica.get(replica).higherEntry(lamport);
+        if (before != null && before.getValue().end() > lamport || after != null && after.getKey() < lamport + length) {
+            return false;
+        }
+        return originReplica < 0 || originLamport < lamport && find(originReplica, originLamport) != null;
+    }
+
+    // ---------------------------------------------------------------
+    // Runs
+    // ---------------------------------------------------------------
+
+    private int replica(String name) {
+        Integer index = replicaIndex.get(name);
+        if (index == null) {
+            index = replicas.size();
+            replicas.add(name);
+            replicaIndex.put(name, index);
+            runsByReplica.add(new TreeMap<>());
+        }
+        return index;
+    }
+
+    /**
+     * Runnen der indeholder tegnet med id'et, eller null
+     */
+    private Run find(int replica, long lamport) {
+        Map.Entry<Long, Run> floor = runsByReplica.get(replica).floorEntry(lamport);
+        return floor != null && floor.getValue().end() > lamport ? floor.getValue() : null;
+    }
+
+    /**
+     * Deler runnen efter offset tegn og returnerer den nye anden del
+     */
+    private Run split(Run run, int offset) {
+        Run tail = new Run(run.replica, run.lamport + offset, run.length - offset, run.replica, run.lamport + offset - 1,
+            run.isDeleted() ? null : run.text.substring(offset));
+        run.length = offset;
+        if (!run.isDeleted()) {
+            run.text = run.text.substring(0, offset);
+        }
+        link(run, tail);
+        return tail;
+    }
+
+    /**
+     * Indsætter en run fra en anden udgave efter RGA: lige efter sin venstre nabo, men efter alle
+     * naboens andre efterfølgere med større id (de er samtidige og vinder pladsen tættest på naboen)
+     */
+    private void integrate(Run run) {
+        Run left = head;
+        if (run.originReplica >= 0) {
+            left = find(run.originReplica, run.originLamport);
+            if (left == null) {
+                throw new IllegalStateException("Mangler venstre nabo for et tegn");
+            }
+            if (run.originLamport < left.end() - 1) {
+                split(left, (int) (run.originLamport - left.lamport + 1));
+            }
+        }
+        while (left.next != null && compareIds(left.next, run) > 0) {
+            left = left.next;
+        }
+        link(left, run);
+        clock = Math.max(clock, run.end() - 1);
+        if (!run.isDeleted()) {
+            length += run.length;
+        }
+    }
+
+    private void deleteIds(int replica, long start, long end) {
+        long position = start;
+        while (position < end) {
+            Run run = find(replica, position);
+            if (position > run.lamport) {
+                run = split(run, (int) (position - run.lamport));
+            }
+            if (end < run.end()) {
+                split(run, (int) (end - run.lamport));
+            }
+            markDeleted(run);
+            position = run.end();
+        }
+    }
+
+    private void markDeleted(Run run) {
+        if (!run.isDeleted()) {
+            length -= run.length;
+            run.text = null;
+        }
+    }
+
+    private int compareIds(Run a, Run b) {
+        int order = Long.compare(a.lamport, b.lamport);
+        return order != 0 ? order : replicas.get(a.replica).compareTo(replicas.get(b.replica));
+    }
+
+    private void link(Run left, Run run) {
+        run.prev = left;
+        run.next = left.next;
+        if (left.next != null) {
+            left.next.prev = run;
+        }
+        left.next = run;
+        runsByReplica.get(run.replica).put(run.lamport, run);
+        clock = Math.max(clock, run.end() - 1);
+        runCount++;
+    }
+
+    private void unlink(Run run) {
+        run.prev.next = run.next;
+        if (run.next != null) {
+            run.next.prev = run.prev;
+        }
+        runsByReplica.get(run.replica).remove(run.lamport);
+        runCount--;
+    }
+
+    private static long crc(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Beskadiget historik");
+    }
+}
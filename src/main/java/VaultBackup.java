@@ -0,0 +1,730 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * VaultBackup tager trinvise sikkerhedskopier (snapshots) af notefilen i en backup-mappe
+ * Records i notes.dat er allerede krypteret hver for sig, så de kopieres som de står. Kun records der ikke
+ * allerede ligger i en pakke fra et tidligere snapshot (genkendt på SHA-256), skrives i snapshottets egen
+ * pakke, så en uændret note gemmes én gang uanset hvor mange snapshots den er med i. Pakkens indeks har
+ * hver records hash, og manifestet peger blot på (pakke, nummer). Indeks og manifest krypteres med
+ * samlingens nøgle og har saltet i headeren, så et snapshot kan gendannes med passwordet alene; ved
+ * gendannelse tjekkes hver record mod sin hash (GCM sikrer at indekset ikke er ændret)
+ * <pre>
+ * &lt;navn&gt;.pack   nye records i snapshottet, én pr. linje som i notes.dat
+ * &lt;navn&gt;.idx    "NOTESAPP-BACKUP 1\n" | int saltlængde | salt | krypteret (int antal | (varlong længde | 32 bytes hash)*)
+ * &lt;navn&gt;.snap   samme header | krypteret (long oprettet | int nye records | long nye bytes |
+ *               int pakker | (UTF pakke)* | int records | (varlong pakke | varlong afstand til forrige nummer)*)
+ * </pre>
+ * Oprydning beholder de nyeste snapshots og det nyeste fra hver af de seneste dage; pakker som intet
+ * tilbageværende snapshot bruger, slettes. Kun én backup kører ad gangen pr. mappe (backup.lock)
+ */
+public class VaultBackup implements AutoCloseable {
+    public static final String DIRECTORY = "backups";
+    private static final byte[] MAGIC = "NOTESAPP-BACKUP 1\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String PACK_SUFFIX = ".pack";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    // En pakke hvor under halvdelen stadig er i brug, genbruges ikke; dens records skrives med i den nye pakke,
+    // så den kan slettes når de ældre snapshots der bruger den, er ryddet op
+    private static final double MIN_LIVE_FRACTION = 0.5;
+
+    private final NotesStorage storage;
+    private final Path directory;
+    private int keepLatest = 10;
+    private int keepDays = 30;
+    private ScheduledExecutorService scheduler;
+    // Det nyeste manifest og de pakkeindekser der er læst, så en planlagt backup ikke skal dekryptere dem igen
+    private Manifest latest;
+    private final Map<String, PackIndex> indexes = new HashMap<>();
+
+    /**
+     * Et snapshot som det vises i en oversigt
+     */
+    public static final class Snapshot {
+        private final String name;
+        private final long createdMillis;
+        private final int recordCount;
+        private final int newRecords;
+        private final long newBytes;
+
+        Snapshot(String name, long createdMillis, int recordCount, int newRecords, long newBytes) {
+            this.name = name;
+            this.createdMillis = createdMillis;
+            this.recordCount = recordCount;
+            this.newRecords = newRecords;
+            this.newBytes = newBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * Records der ikke fandtes i et tidligere snapshot og derfor blev skrevet i snapshottets pakke
+         */
+        public int getNewRecords() {
+            return newRecords;
+        }
+
+        public long getNewBytes() {
+            return newBytes;
+        }
+    }
+
+    /**
+     * En pakkes indeks: offset, længde og SHA-256 af hver record i pakken, i pakkens rækkefølge
+     */
+    private static final class PackIndex {
+        final long[] offsets;
+        final int[] lengths;
+        final byte[][] hashes;
+
+        PackIndex(int count) {
+            offsets = new long[count];
+            lengths = new int[count];
+            hashes = new byte[count][];
+        }
+
+        long size() {
+            int count = lengths.length;
+            return count == 0 ? 0 : offsets[count - 1] + lengths[count - 1] + 1;
+        }
+    }
+
+    /**
+     * Et snapshot: for hver record i notefilen hvilken pakke (indeks i packs) og hvilket nummer i pakken
+     */
+    private static final class Manifest {
+        Snapshot snapshot;
+        final List<String> packs = new ArrayList<>();
+        int[] pack;
+        int[] record;
+    }
+
+    /**
+     * Sikkerhedskopier i DIRECTORY under samlingens mappe
+     */
+    public VaultBackup(NotesStorage storage) {
+        this(storage, Paths.get(storage.getDataDirectory(), DIRECTORY));
+    }
+
+    /**
+     * Sikkerhedskopier i en anden mappe (fx på et andet drev)
+     */
+    public VaultBackup(NotesStorage storage, Path directory) {
+        this.storage = storage;
+        this.directory = directory;
+    }
+
+    /**
+     * Hvor mange af de nyeste snapshots og hvor mange dages daglige snapshots oprydningen beholder
+     */
+    public void setRetention(int keepLatest, int keepDays) {
+        if (keepLatest < 1 || keepDays < 0) {
+            throw new IllegalArgumentException("Der skal beholdes mindst ét snapshot");
+        }
+        this.keepLatest = keepLatest;
+        this.keepDays = keepDays;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // ---------------------------------------------------------------
+    // Planlagte backups
+    // ---------------------------------------------------------------
+
+    /**
+     * Tager en backup med faste mellemrum på en baggrundstråd med lav prioritet. Notefilen læses under den
+     * delte lås og kun så længe det tager at læse den; hashing, skrivning og oprydning sker bagefter, så
+     * gemninger aldrig venter på resten. onBackup kaldes på tråden med hvert nyt snapshot, onError med fejl
+     */
+    public synchronized void schedule(long intervalMinutes, Consumer<Snapshot> onBackup, Consumer<Exception> onError) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Backups er allerede planlagt");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notes-backup");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                Snapshot snapshot = backup();
+                if (snapshot != null) {
+                    onBackup.accept(snapshot);
+                }
+            } catch (Exception e) {
+                onError.accept(e);
+            }
+        }, Math.min(intervalMinutes, 1), intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Backup
+    // ---------------------------------------------------------------
+
+    /**
+     * Tager et snapshot af notefilen som den står på disken; null hvis den er uændret siden sidste snapshot
+     */
+    public Snapshot backup() throws Exception {
+        return locked(this::backupLocked);
+    }
+
+    private Snapshot backupLocked() throws Exception {
+        long start = NotesMetrics.start();
+        NotesEvents.StorageEvent event = new NotesEvents.StorageEvent();
+        event.begin();
+        try {
+            List<String> lines = storage.readRawRecords().getLines();
+            MessageDigest sha = MerkleTree.sha256();
+            byte[][] hashes = new byte[lines.size()][];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = sha.digest(lines.get(i).getBytes(StandardCharsets.US_ASCII));
+            }
+
+            // Records der allerede ligger i en pakke fra det forrige snapshot, efter hash: {pakke, nummer}
+            Manifest previous = latest();
+            Map<String, int[]> known = new HashMap<>();
+            boolean[] reusable = new boolean[previous == null ? 0 : previous.packs.size()];
+            if (previous != null) {
+                for (int pack = 0; pack < reusable.length; pack++) {
+                    PackIndex index = index(previous.packs.get(pack));
+                    for (int record = 0; record < index.hashes.length; record++) {
+                        known.put(hex(index.hashes[record]), new int[]{pack, record});
+                    }
+                }
+                reusable = reusablePacks(previous, known, hashes);
+            }
+
+            String name = newName();
+            Manifest manifest = new Manifest();
+            manifest.pack = new int[lines.size()];
+            manifest.record = new int[lines.size()];
+            Map<String, Integer> packNumbers = new HashMap<>();
+            Map<String, int[]> written = new HashMap<>();
+            List<Integer> newLengths = new ArrayList<>();
+            List<byte[]> newHashes = new ArrayList<>();
+            long newBytes = 0;
+            Path packTemp = directory.resolve(name + PACK_SUFFIX + ".tmp");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(packTemp))) {
+                for (int i = 0; i < lines.size(); i++) {
+                    String key = hex(hashes[i]);
+                    int[] reference = written.get(key);
+                    int[] old = known.get(key);
+                    if (reference == null && old != null && reusable[old[0]]) {
+                        String packName = previous.packs.get(old[0]);
+                        reference = new int[]{packNumbers.computeIfAbsent(packName, ignored -> addPack(manifest, packName)), old[1]};
+                    } else if (reference == null) {
+                        byte[] record = lines.get(i).getBytes(StandardCharsets.US_ASCII);
+                        out.write(record);
+                        out.write('\n');
+                        reference = new int[]{packNumbers.computeIfAbsent(name, ignored -> addPack(manifest, name)), newHashes.size()};
+                        newLengths.add(record.length);
+                        newHashes.add(hashes[i]);
+                        newBytes += record.length + 1;
+                    }
+                    written.put(key, reference);
+                    manifest.pack[i] = reference[0];
+                    manifest.record[i] = reference[1];
+                }
+            }
+            if (newHashes.isEmpty()) {
+                Files.delete(packTemp);
+                if (previous != null && sameRecords(previous, manifest)) {
+                    return null;
+                }
+            } else {
+                // Pakken og dens indeks skrives før manifestet, så et manifest aldrig peger på en halv pakke
+                PackIndex index = new PackIndex(newHashes.size());
+                long offset = 0;
+                for (int i = 0; i < index.hashes.length; i++) {
+                    index.offsets[i] = offset;
+                    index.lengths[i] = newLengths.get(i);
+                    index.hashes[i] = newHashes.get(i);
+                    offset += index.lengths[i] + 1;
+                }
+                NotesStorage.moveIntoPlace(packTemp, directory.resolve(name + PACK_SUFFIX));
+                writeIndex(name, index);
+            }
+            manifest.snapshot = new Snapshot(name, System.currentTimeMillis(), lines.size(), newHashes.size(), newBytes);
+            writeManifest(manifest);
+            latest = manifest;
+            rotate();
+
+            event.operation = "sikkerhedskopi";
+            event.bytes = newBytes;
+            event.noteCount = newHashes.size();
+            event.commit();
+            NotesMetrics.BACKUP.record(start, newBytes);
+            return manifest.snapshot;
+        } catch (Exception e) {
+            NotesMetrics.BACKUP.recordError();
+            throw e;
+        }
+    }
+
+    private static int addPack(Manifest manifest, String packName) {
+        manifest.packs.add(packName);
+        return manifest.packs.size() - 1;
+    }
+
+    /**
+     * Pakkerne i det forrige snapshot hvor mindst MIN_LIVE_FRACTION af bytes stadig bruges af den nye fil
+     */
+    private boolean[] reusablePacks(Manifest previous, Map<String, int[]> known, byte[][] hashes) throws Exception {
+        long[] live = new long[previous.packs.size()];
+        Set<String> counted = new HashSet<>();
+        for (byte[] hash : hashes) {
+            String key = hex(hash);
+            int[] reference = known.get(key);
+            if (reference != null && counted.add(key)) {
+                live[reference[0]] += index(previous.packs.get(reference[0])).lengths[reference[1]] + 1;
+            }
+        }
+        boolean[] reusable = new boolean[live.length];
+        for (int pack = 0; pack < live.length; pack++) {
+            reusable[pack] = live[pack] >= MIN_LIVE_FRACTION * index(previous.packs.get(pack)).size();
+        }
+        return reusable;
+    }
+
+    /**
+     * Om to snapshots peger på de samme records i samme rækkefølge
+     */
+    private static boolean sameRecords(Manifest a, Manifest b) {
+        if (a.record.length != b.record.length) {
+            return false;
+        }
+        for (int i = 0; i < a.record.length; i++) {
+            if (a.record[i] != b.record[i] || !a.packs.get(a.pack[i]).equals(b.packs.get(b.pack[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String newName() {
+        String name = LocalDateTime.now().format(NAME_FORMAT);
+        while (Files.exists(directory.resolve(name + SNAPSHOT_SUFFIX))) {
+            name = LocalDateTime.now().plusNanos(1_000_000).format(NAME_FORMAT);
+        }
+        return name;
+    }
+
+    // ---------------------------------------------------------------
+    // Oprydning
+    // ---------------------------------------------------------------
+
+    /**
+     * Sletter snapshots uden for reglerne og derefter pakker som ingen af de resterende bruger
+     */
+    private void rotate() throws Exception {
+        List<String> names = snapshotNames();
+        Set<String> keep = new HashSet<>(names.subList(0, Math.min(keepLatest, names.size())));
+        String oldestDay = LocalDate.now().minusDays(keepDays).format(DateTimeFormatter.BASIC_ISO_DATE);
+        Set<String> days = new HashSet<>();
+        for (String name : names) {
+            String day = name.substring(0, 8);
+            if (day.compareTo(oldestDay) >= 0 && days.add(day)) {
+                keep.add(name);
+            }
+        }
+        boolean removed = false;
+        for (String name : names) {
+            if (!keep.contains(name)) {
+                Files.deleteIfExists(snapshotFile(name));
+                removed = true;
+            }
+        }
+        if (!removed) {
+            return;
+        }
+        Set<String> usedPacks = new HashSet<>();
+        for (String name : keep) {
+            usedPacks.addAll(readManifest(name).packs);
+        }
+        indexes.keySet().retainAll(usedPacks);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String fileName = file.getFileName().toString();
+                int dot = fileName.indexOf('.');
+                String suffix = dot < 0 ? "" : fileName.substring(dot);
+                if (suffix.endsWith(".tmp")
+                    || (suffix.equals(PACK_SUFFIX) || suffix.equals(INDEX_SUFFIX)) && !usedPacks.contains(fileName.substring(0, dot))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Oversigt, kontrol og gendannelse
+    // ---------------------------------------------------------------
+
+    /**
+     * Snapshots i mappen, nyeste først
+     */
+    public List<Snapshot> list() throws Exception {
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (String name : snapshotNames()) {
+            snapshots.add(readManifest(name).snapshot);
+        }
+        return snapshots;
+    }
+
+    /**
+     * Læser alle records i snapshottet og tjekker deres hashes; med decrypt dekrypteres de også, så både
+     * GCM-tag og password kontrolleres. Returnerer antallet af records, eller kaster IOException ved fejl
+     */
+    public int verify(String name, boolean decrypt) throws Exception {
+        List<String> lines = readRecords(readManifest(name));
+        if (decrypt) {
+            for (int i = 0; i < lines.size(); i++) {
+                try {
+                    storage.decodeRecord(lines.get(i));
+                } catch (Exception e) {
+                    throw new IOException("Record " + (i + 1) + " i " + name + " kan ikke dekrypteres", e);
+                }
+            }
+        }
+        return lines.size();
+    }
+
+    /**
+     * Erstatter notefilen med snapshottet. Den nuværende fil tages først som et snapshot (hvis den er ændret
+     * og har noter; en tom eller netop oprettet samling er der intet at fortryde i), så gendannelsen kan fortrydes. Alle records tjekkes mod pakkernes hashes før noget skrives;
+     * programmer der har samlingen åben, opdager den nye fil som en ekstern ændring
+     */
+    public int restore(String name) throws Exception {
+        return locked(() -> {
+            NotesEvents.StorageEvent event = new NotesEvents.StorageEvent();
+            event.begin();
+            List<String> lines = readRecords(readManifest(name));
+            NotesStorage.RawRecords current = storage.readRawRecords();
+            if (!current.getLines().isEmpty()) {
+                backupLocked();
+            }
+            storage.writeRawRecords(current, lines);
+            event.operation = "gendan";
+            event.noteCount = lines.size();
+            event.commit();
+            return lines.size();
+        });
+    }
+
+    /**
+     * Saltet i et snapshots header, så nøglen kan afledes før samlingen findes (gendannelse i en tom mappe)
+     */
+    public static byte[] readSalt(Path snapshotFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            return readHeader(in, snapshotFile);
+        }
+    }
+
+    /**
+     * Stien til snapshottet med navnet
+     */
+    public Path snapshotFile(String name) {
+        return directory.resolve(name + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Records i snapshottets rækkefølge; hver pakke læses én gang, og hver record tjekkes mod sin hash
+     */
+    private List<String> readRecords(Manifest manifest) throws Exception {
+        MessageDigest sha = MerkleTree.sha256();
+        String[] lines = new String[manifest.record.length];
+        for (int pack = 0; pack < manifest.packs.size(); pack++) {
+            String packName = manifest.packs.get(pack);
+            PackIndex index = index(packName);
+            Path file = directory.resolve(packName + PACK_SUFFIX);
+            if (!Files.exists(file)) {
+                throw new IOException("Pakken " + packName + " mangler i " + directory);
+            }
+            byte[] bytes = Files.readAllBytes(file);
+            if (bytes.length != index.size()) {
+                throw new IOException("Pakken " + packName + " har forkert størrelse");
+            }
+            for (int i = 0; i < lines.length; i++) {
+                if (manifest.pack[i] != pack) {
+                    continue;
+                }
+                int record = manifest.record[i];
+                int offset = (int) index.offsets[record];
+                sha.update(bytes, offset, index.lengths[record]);
+                if (!Arrays.equals(sha.digest(), index.hashes[record])) {
+                    throw new IOException("Record " + (record + 1) + " i pakken " + packName + " er beskadiget");
+                }
+                lines[i] = new String(bytes, offset, index.lengths[record], StandardCharsets.US_ASCII);
+            }
+        }
+        return Arrays.asList(lines);
+    }
+
+    // ---------------------------------------------------------------
+    // Manifester og pakkeindekser
+    // ---------------------------------------------------------------
+
+    /**
+     * Det nyeste snapshot; læses kun igen hvis et andet program har taget eller slettet et siden
+     */
+    private Manifest latest() throws Exception {
+        List<String> names = snapshotNames();
+        if (names.isEmpty()) {
+            latest = null;
+        } else if (latest == null || !latest.snapshot.getName().equals(names.get(0))) {
+            latest = readManifest(names.get(0));
+        }
+        return latest;
+    }
+
+    /**
+     * Navnene på snapshots i mappen, nyeste først (navnet er tidspunktet)
+     */
+    private List<String> snapshotNames() throws IOException {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return names;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                .filter(fileName -> fileName.endsWith(SNAPSHOT_SUFFIX))
+                .forEach(fileName -> names.add(fileName.substring(0, fileName.length() - SNAPSHOT_SUFFIX.length())));
+        }
+        names.sort(Comparator.reverseOrder());
+        return names;
+    }
+
+    /**
+     * Records fra samme pakke står oftest i rækkefølge, så nummeret gemmes som afstand til det forrige
+     * fra pakken; et uændret snapshot fylder omkring 2 bytes pr. note
+     */
+    private void writeManifest(Manifest manifest) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + manifest.record.length * 2);
+        DataOutputStream body = new DataOutputStream(bytes);
+        Snapshot snapshot = manifest.snapshot;
+        body.writeLong(snapshot.getCreatedMillis());
+        body.writeInt(snapshot.getNewRecords());
+        body.writeLong(snapshot.getNewBytes());
+        body.writeInt(manifest.packs.size());
+        for (String pack : manifest.packs) {
+            body.writeUTF(pack);
+        }
+        body.writeInt(manifest.record.length);
+        int[] last = new int[manifest.packs.size()];
+        Arrays.fill(last, -1);
+        for (int i = 0; i < manifest.record.length; i++) {
+            int pack = manifest.pack[i];
+            writeVarLong(body, pack);
+            long delta = manifest.record[i] - last[pack] - 1L;
+            writeVarLong(body, (delta << 1) ^ (delta >> 63));
+            last[pack] = manifest.record[i];
+        }
+        body.flush();
+        writeEncrypted(snapshotFile(snapshot.getName()), bytes.toByteArray());
+    }
+
+    private Manifest readManifest(String name) throws Exception {
+        Path file = snapshotFile(name);
+        if (!Files.exists(file)) {
+            throw new IOException("Intet snapshot med navnet " + name);
+        }
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(readEncrypted(file)));
+        Manifest manifest = new Manifest();
+        long created = body.readLong();
+        int newRecords = body.readInt();
+        long newBytes = body.readLong();
+        int packs = body.readInt();
+        for (int i = 0; i < packs; i++) {
+            manifest.packs.add(body.readUTF());
+        }
+        int count = body.readInt();
+        manifest.pack = new int[count];
+        manifest.record = new int[count];
+        int[] last = new int[packs];
+        Arrays.fill(last, -1);
+        for (int i = 0; i < count; i++) {
+            int pack = (int) readVarLong(body);
+            if (pack >= packs) {
+                throw new IOException("Ugyldigt snapshot " + name);
+            }
+            long zigzag = readVarLong(body);
+            long delta = (zigzag >>> 1) ^ -(zigzag & 1);
+            manifest.pack[i] = pack;
+            manifest.record[i] = (int) (last[pack] + 1 + delta);
+            last[pack] = manifest.record[i];
+        }
+        manifest.snapshot = new Snapshot(name, created, count, newRecords, newBytes);
+        return manifest;
+    }
+
+    private void writeIndex(String packName, PackIndex index) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + index.hashes.length * 36);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeInt(index.hashes.length);
+        for (int i = 0; i < index.hashes.length; i++) {
+            writeVarLong(body, index.lengths[i]);
+            body.write(index.hashes[i]);
+        }
+        body.flush();
+        writeEncrypted(directory.resolve(packName + INDEX_SUFFIX), bytes.toByteArray());
+        indexes.put(packName, index);
+    }
+
+    /**
+     * Pakkens indeks; læses én gang og huskes, da pakker aldrig ændres
+     */
+    private PackIndex index(String packName) throws Exception {
+        PackIndex cached = indexes.get(packName);
+        if (cached != null) {
+            return cached;
+        }
+        Path file = directory.resolve(packName + INDEX_SUFFIX);
+        if (!Files.exists(file)) {
+            throw new IOException("Indekset for pakken " + packName + " mangler i " + directory);
+        }
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(readEncrypted(file)));
+        PackIndex index = new PackIndex(body.readInt());
+        long offset = 0;
+        for (int i = 0; i < index.hashes.length; i++) {
+            index.offsets[i] = offset;
+            index.lengths[i] = (int) readVarLong(body);
+            index.hashes[i] = new byte[32];
+            body.readFully(index.hashes[i]);
+            offset += index.lengths[i] + 1;
+        }
+        indexes.put(packName, index);
+        return index;
+    }
+
+    /**
+     * Skriver header med salt og det krypterede indhold via en midlertidig fil
+     */
+    private void writeEncrypted(Path file, byte[] plain) throws Exception {
+        byte[] salt = storage.loadSalt();
+        Path temp = Paths.get(file + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.write(MAGIC);
+            out.writeInt(salt.length);
+            out.write(salt);
+            out.write(storage.getCryptoManager().encryptBytes(plain));
+        }
+        NotesStorage.moveIntoPlace(temp, file);
+    }
+
+    private byte[] readEncrypted(Path file) throws Exception {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] salt = readHeader(in, file);
+            if (!Arrays.equals(salt, storage.loadSalt())) {
+                throw new IOException(file.getFileName() + " hører til en anden samling");
+            }
+            try {
+                return storage.getCryptoManager().decryptBytes(in.readAllBytes());
+            } catch (Exception e) {
+                throw new IOException("Kunne ikke læse " + file + " (forkert password eller beskadiget)", e);
+            }
+        }
+    }
+
+    private static byte[] readHeader(DataInputStream in, Path file) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException(file + " er ikke en sikkerhedskopi");
+        }
+        int length = in.readInt();
+        if (length <= 0 || length > 1024) {
+            throw new IOException("Ugyldigt salt i " + file);
+        }
+        byte[] salt = new byte[length];
+        in.readFully(salt);
+        return salt;
+    }
+
+    // ---------------------------------------------------------------
+    // Hjælpere
+    // ---------------------------------------------------------------
+
+    private interface LockedAction<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Én backup, oprydning eller gendannelse ad gangen pr. mappe, også på tværs af programmer
+     */
+    private <T> T locked(LockedAction<T> action) throws Exception {
+        Files.createDirectories(directory);
+        synchronized (NotesStorage.directoryMonitor(directory)) {
+            try (FileChannel channel = FileChannel.open(directory.resolve("backup.lock"),
+                     StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    return action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Ugyldigt tal i sikkerhedskopien");
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
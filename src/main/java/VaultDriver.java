@@ -0,0 +1,243 @@
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import java.util.*;
+
+/**
+ * VaultDriver afspiller en arbejdsbelastning mod NotesModel uden Swing-vinduer
+ * Operationerne er de samme som brugeren laver i GUI'en: åbne en note i editoren, skrive i den,
+ * søge, gemme og slette. Editoren er det rigtige dokument (PieceTableContent og WordCounter), så
+ * tallene svarer til appen. Til sidst vises gennemløb og latens-percentiler pr. operation:
+ * {@code java VaultDriver --dir mappe [--password pw] [--ops 5000] [--warmup 500]
+ * [--mix open:30,type:50,search:15,save:4,delete:1] [--seed 42]}
+ */
+public class VaultDriver {
+    private static final String[] OPERATIONS = {"open", "type", "search", "save", "delete"};
+    private static final NoteSortOrder[] SORT_ORDERS = NoteSortOrder.values();
+
+    private final NotesModel model;
+    private final Random random;
+    private final String[] operations;
+    private final double[] weights;
+    private final Map<String, Latencies> latencies = new LinkedHashMap<>();
+
+    // Editorens tilstand, som i NotesAppGUI
+    private final PlainDocument document = new PlainDocument(new PieceTableContent());
+    private final WordCounter wordCounter = new WordCounter();
+    private Note currentNote;
+    private boolean contentChanged;
+    private int caret;
+
+    /**
+     * Målte varigheder for én operationstype
+     */
+    private static final class Latencies {
+        private long[] nanos = new long[256];
+        private int count;
+        private long total;
+
+        void add(long duration) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = duration;
+            total += duration;
+        }
+
+        /**
+         * Percentil i mikrosekunder (nærmeste rang på de sorterede målinger)
+         */
+        double percentileMicros(long[] sorted, double fraction) {
+            int rank = (int) Math.ceil(fraction * count);
+            return sorted[Math.max(0, rank - 1)] / 1000.0;
+        }
+    }
+
+    public VaultDriver(NotesModel model, long seed, Map<String, Double> mix) {
+        this.model = model;
+        this.random = new Random(seed);
+        this.operations = new String[mix.size()];
+        this.weights = new double[mix.size()];
+        double total = 0;
+        int i = 0;
+        for (Map.Entry<String, Double> entry : mix.entrySet()) {
+            if (!Arrays.asList(OPERATIONS).contains(entry.getKey())) {
+                throw new IllegalArgumentException("Ukendt operation: " + entry.getKey());
+            }
+            operations[i] = entry.getKey();
+            total += entry.getValue();
+            weights[i++] = total;
+        }
+        for (i = 0; i < weights.length; i++) {
+            weights[i] /= total;
+        }
+        wordCounter.install(document);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String directory = null;
+        String password = "vault";
+        int ops = 5000;
+        int warmup = 500;
+        String mix = "open:30,type:50,search:15,save:4,delete:1";
+        long seed = 42;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dir": directory = args[++i]; break;
+                case "--password": password = args[++i]; break;
+                case "--ops": ops = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--mix": mix = args[++i]; break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Ukendt argument: " + args[i]);
+            }
+        }
+        if (directory == null) {
+            System.err.println("Brug: java VaultDriver --dir mappe [--ops N] [--mix open:30,type:50,...]");
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        NotesModel model = NotesModel.open(directory, password);
+        long opened = System.nanoTime();
+        model.load();
+        long loaded = System.nanoTime();
+        System.out.printf("Åbnet på %.0f ms (nøgle og password), %d noter indlæst på %.0f ms%n",
+            (opened - start) / 1e6, model.size(), (loaded - opened) / 1e6);
+
+        VaultDriver driver = new VaultDriver(model, seed, VaultGenerator.parseWeights(mix));
+        driver.run(warmup);
+        driver.latencies.clear();
+
+        long runStart = System.nanoTime();
+        driver.run(ops);
+        double seconds = (System.nanoTime() - runStart) / 1e9;
+        System.out.printf("%d operationer på %.2f s: %.1f op/s (efter %d opvarmning)%n%n", ops, seconds, ops / seconds, warmup);
+        driver.printReport();
+    }
+
+    /**
+     * Kører et antal operationer valgt tilfældigt efter vægtene
+     */
+    public void run(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            String operation = pick();
+            long start = System.nanoTime();
+            String performed = perform(operation);
+            long duration = System.nanoTime() - start;
+            latencies.computeIfAbsent(performed, name -> new Latencies()).add(duration);
+        }
+    }
+
+    private String pick() {
+        double value = random.nextDouble();
+        for (int i = 0; i < operations.length; i++) {
+            if (value < weights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    /**
+     * Udfører operationen og returnerer navnet på det der faktisk blev gjort
+     * (uden åben note bliver skriv/gem til at åbne en)
+     */
+    private String perform(String operation) throws Exception {
+        if (currentNote == null && (operation.equals("type") || operation.equals("save"))) {
+            operation = "open";
+        }
+        switch (operation) {
+            case "open": open(); break;
+            case "type": type(); break;
+            case "search": search(); break;
+            case "save": save(); break;
+            case "delete": delete(); break;
+            default: throw new IllegalStateException(operation);
+        }
+        return operation;
+    }
+
+    /**
+     * Viser en tilfældig note i editoren, som når den vælges i listen
+     */
+    private void open() throws BadLocationException {
+        List<Note> notes = model.getNotes();
+        if (notes.isEmpty()) {
+            return;
+        }
+        currentNote = notes.get(random.nextInt(notes.size()));
+        document.remove(0, document.getLength());
+        document.insertString(0, currentNote.getContent(), null);
+        wordCounter.getWordCount();
+        contentChanged = false;
+        caret = random.nextInt(document.getLength() + 1);
+    }
+
+    /**
+     * Skriver et ord tegn for tegn ved markøren; hvert tegn er én indsættelse som et tastetryk
+     */
+    private void type() throws BadLocationException {
+        String word = FilterBenchmark.randomText(random, 1) + " ";
+        for (int i = 0; i < word.length(); i++) {
+            document.insertString(caret++, word.substring(i, i + 1), null);
+        }
+        contentChanged = true;
+    }
+
+    /**
+     * Søger med 1-2 ord; nogle gange med kategori, favoritter, fuzzy og en stavefejl
+     */
+    private void search() {
+        String query = FilterBenchmark.randomText(random, 1 + random.nextInt(2));
+        boolean fuzzy = random.nextInt(5) == 0;
+        if (fuzzy && query.length() > 3) {
+            int drop = random.nextInt(query.length());
+            query = query.substring(0, drop) + query.substring(drop + 1);
+        }
+        String category = random.nextInt(5) == 0 ? "Arbejde" : null;
+        model.filter(query, category, random.nextInt(10) == 0, fuzzy, SORT_ORDERS[random.nextInt(SORT_ORDERS.length)]);
+    }
+
+    /**
+     * Gemmer den åbne note og skriver hele samlingen, som Gem-knappen
+     */
+    private void save() throws Exception {
+        String content = contentChanged ? document.getText(0, document.getLength()) : null;
+        model.updateNote(currentNote, currentNote.getTitle(), content);
+        contentChanged = false;
+        model.save();
+    }
+
+    /**
+     * Sletter en tilfældig note og gemmer, som Slet-knappen
+     */
+    private void delete() throws Exception {
+        List<Note> notes = model.getNotes();
+        if (notes.isEmpty()) {
+            return;
+        }
+        Note note = notes.get(random.nextInt(notes.size()));
+        model.delete(note);
+        if (note == currentNote) {
+            currentNote = null;
+            document.remove(0, document.getLength());
+            contentChanged = false;
+        }
+        model.save();
+    }
+
+    private void printReport() {
+        System.out.printf("%-8s %8s %12s %10s %10s %10s %10s %10s%n",
+            "", "antal", "op/s", "p50 µs", "p90 µs", "p99 µs", "p99.9 µs", "max µs");
+        for (Map.Entry<String, Latencies> entry : latencies.entrySet()) {
+            Latencies measured = entry.getValue();
+            long[] sorted = Arrays.copyOf(measured.nanos, measured.count);
+            Arrays.sort(sorted);
+            System.out.printf("%-8s %8d %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n", entry.getKey(), measured.count,
+                measured.count / (measured.total / 1e9),
+                measured.percentileMicros(sorted, 0.50), measured.percentileMicros(sorted, 0.90),
+                measured.percentileMicros(sorted, 0.99), measured.percentileMicros(sorted, 0.999),
+                sorted[sorted.length - 1] / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * VaultGenerator opretter en syntetisk krypteret notesamling til skalerings- og belastningstest
+ * Noterne skrives gennem den rigtige NotesStorage/CryptoManager, så filen er præcis som appens egen.
+ * Længden af noterne er log-normal fordelt omkring medianen, og samme frø giver samme noter:
+ * {@code java VaultGenerator --dir mappe [--password pw] [--notes 10000] [--median-words 150]
+ * [--spread 1.0] [--max-words 20000] [--categories Generel:50,Arbejde:30,Personligt:15,Ideer:5]
+ * [--favorites 0.1] [--seed 42]}
+ */
+public class VaultGenerator {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final Random random;
+    private final int medianWords;
+    private final double spread;
+    private final int maxWords;
+    private final String[] categories;
+    private final double[] categoryWeights;
+    private final double favoriteRatio;
+    // Lokal tid som millisekunder, samme skala som Note
+    private final long now = NoteData.toMillis(LocalDateTime.now());
+
+    public VaultGenerator(long seed, int medianWords, double spread, int maxWords,
+                          Map<String, Double> categoryMix, double favoriteRatio) {
+        this.random = new Random(seed);
+        this.medianWords = medianWords;
+        this.spread = spread;
+        this.maxWords = maxWords;
+        this.categories = categoryMix.keySet().toArray(new String[0]);
+        this.categoryWeights = new double[categories.length];
+        double total = 0;
+        for (int i = 0; i < categories.length; i++) {
+            total += categoryMix.get(categories[i]);
+            categoryWeights[i] = total;
+        }
+        for (int i = 0; i < categories.length; i++) {
+            categoryWeights[i] /= total;
+        }
+        this.favoriteRatio = favoriteRatio;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String directory = null;
+        String password = "vault";
+        int count = 10000;
+        int medianWords = 150;
+        double spread = 1.0;
+        int maxWords = 20000;
+        String categories = "Generel:50,Arbejde:30,Personligt:15,Ideer:5";
+        double favorites = 0.1;
+        long seed = 42;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dir": directory = args[++i]; break;
+                case "--password": password = args[++i]; break;
+                case "--notes": count = Integer.parseInt(args[++i]); break;
+                case "--median-words": medianWords = Integer.parseInt(args[++i]); break;
+                case "--spread": spread = Double.parseDouble(args[++i]); break;
+                case "--max-words": maxWords = Integer.parseInt(args[++i]); break;
+                case "--categories": categories = args[++i]; break;
+                case "--favorites": favorites = Double.parseDouble(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Ukendt argument: " + args[i]);
+            }
+        }
+        if (directory == null) {
+            System.err.println("Brug: java VaultGenerator --dir mappe [--notes N] [--password pw] ...");
+            System.exit(1);
+        }
+
+        VaultGenerator generator = new VaultGenerator(seed, medianWords, spread, maxWords,
+            parseWeights(categories), favorites);
+        long start = System.nanoTime();
+        NotesModel model = NotesModel.create(directory, password);
+        List<Note> notes = generator.generate(count);
+        model.addAll(notes);
+        long generated = System.nanoTime();
+        model.save();
+        long saved = System.nanoTime();
+
+        long words = 0;
+        long characters = 0;
+        for (Note note : notes) {
+            words += note.getWordCount();
+            characters += note.getCharacterCount();
+        }
+        System.out.printf("%d noter (%,d ord, %,d tegn, %d favoritter) skrevet til %s%n",
+            count, words, characters, model.countFavorites(), directory);
+        System.out.printf("Generering %.0f ms, kryptering og skrivning %.0f ms%n",
+            (generated - start) / 1e6, (saved - generated) / 1e6);
+    }
+
+    /**
+     * Genererer noterne; oprettelsestider spredes over de sidste to år og ændringer ligger efter oprettelsen
+     */
+    public List<Note> generate(int count) {
+        List<Note> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long created = now - (long) (random.nextDouble() * 730 * DAY_MILLIS);
+            long modified = created + (long) (random.nextDouble() * (now - created));
+            String id = new UUID(random.nextLong(), random.nextLong()).toString();
+            notes.add(new Note(id, FilterBenchmark.randomText(random, 1 + random.nextInt(6)),
+                FilterBenchmark.randomText(random, wordCount()), category(),
+                random.nextDouble() < favoriteRatio, created, modified));
+        }
+        return notes;
+    }
+
+    /**
+     * Log-normal længde: de fleste noter er korte, få er meget lange
+     */
+    private int wordCount() {
+        double words = medianWords * Math.exp(spread * random.nextGaussian());
+        return (int) Math.max(1, Math.min(maxWords, Math.round(words)));
+    }
+
+    private String category() {
+        double value = random.nextDouble();
+        for (int i = 0; i < categories.length; i++) {
+            if (value < categoryWeights[i]) {
+                return categories[i];
+            }
+        }
+        return categories[categories.length - 1];
+    }
+
+    /**
+     * Parser en vægtet liste som {@code Arbejde:30,Personligt:10}; vægte uden tal tæller 1
+     */
+    static Map<String, Double> parseWeights(String text) {
+        Map<String, Double> mix = new LinkedHashMap<>();
+        for (String part : text.split(",")) {
+            String[] pair = part.trim().split(":");
+            if (!pair[0].isEmpty()) {
+                mix.put(pair[0], pair.length > 1 ? Double.parseDouble(pair[1]) : 1.0);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("Tom vægtet liste: " + text);
+        }
+        return mix;
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * VaultScrub kontrollerer hver record i notefilen: kontrolsum, GCM-tag og at id'et passer til indholdet
+ * Filen læses én gang under den delte lås, og records dekrypteres derefter parallelt på en ForkJoin pool.
+ * Rapporten siger præcis hvilke noter der er beskadiget, så de kan gendannes fra en sikkerhedskopi
+ * (VaultBackup) eller fjernes med removeCorrupt
+ */
+public class VaultScrub {
+    private final NotesStorage storage;
+    private final int threads;
+
+    /**
+     * Resultatet af en kontrol
+     */
+    public static final class Report {
+        private final int records;
+        private final List<NotesStorage.CorruptRecord> corrupt;
+        private final Set<String> duplicateIds;
+        private final boolean checkValueOk;
+        private final int withoutChecksum;
+        private final long nanos;
+
+        Report(int records, List<NotesStorage.CorruptRecord> corrupt, Set<String> duplicateIds, boolean checkValueOk,
+               int withoutChecksum, long nanos) {
+            this.records = records;
+            this.corrupt = corrupt;
+            this.duplicateIds = duplicateIds;
+            this.checkValueOk = checkValueOk;
+            this.withoutChecksum = withoutChecksum;
+            this.nanos = nanos;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        public List<NotesStorage.CorruptRecord> getCorrupt() {
+            return corrupt;
+        }
+
+        /**
+         * Id'er der står i mere end én læsbar record (fx efter en afbrudt import)
+         */
+        public Set<String> getDuplicateIds() {
+            return duplicateIds;
+        }
+
+        /**
+         * Om filens kontrolværdi kan dekrypteres; er den beskadiget, skrives den om ved næste gemning
+         */
+        public boolean isCheckValueOk() {
+            return checkValueOk;
+        }
+
+        /**
+         * Records fra før der var id og kontrolsum; de skrives om ved næste gemning
+         */
+        public int getWithoutChecksum() {
+            return withoutChecksum;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public boolean isClean() {
+            return corrupt.isEmpty() && checkValueOk;
+        }
+    }
+
+    public VaultScrub(NotesStorage storage, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Mindst én tråd");
+        }
+        this.storage = storage;
+        this.threads = threads;
+    }
+
+    public Report scrub() throws Exception {
+        return check(storage.readRawRecords(), null);
+    }
+
+    /**
+     * Skriver filen om uden de beskadigede records og returnerer rapporten fra kontrollen før. Noterne
+     * er tabt bagefter, så gendan dem først fra en sikkerhedskopi hvis det er muligt
+     */
+    public Report removeCorrupt() throws Exception {
+        NotesStorage.RawRecords raw = storage.readRawRecords();
+        List<String> kept = new ArrayList<>();
+        Report report = check(raw, kept);
+        if (!report.getCorrupt().isEmpty()) {
+            storage.writeRawRecords(raw, kept);
+        }
+        return report;
+    }
+
+    /**
+     * Dekrypterer alle records parallelt; kept får de læsbare linjer i filens rækkefølge hvis den ikke er null
+     */
+    private Report check(NotesStorage.RawRecords raw, List<String> kept) throws Exception {
+        long start = System.nanoTime();
+        List<String> lines = raw.getLines();
+        String[] ids = new String[lines.size()];
+        NotesStorage.CorruptRecord[] corrupt = new NotesStorage.CorruptRecord[lines.size()];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(0, lines.size()).parallel().forEach(i -> {
+                try {
+                    ids[i] = storage.decodeRecord(lines.get(i), i + 1).getId();
+                } catch (NotesStorage.CorruptRecordException e) {
+                    corrupt[i] = e.getRecord();
+                }
+            })).get();
+        } finally {
+            pool.shutdown();
+        }
+
+        List<NotesStorage.CorruptRecord> corruptList = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        Set<String> duplicates = new TreeSet<>();
+        int withoutChecksum = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (corrupt[i] != null) {
+                corruptList.add(corrupt[i]);
+                continue;
+            }
+            if (!seen.add(ids[i])) {
+                duplicates.add(ids[i]);
+            }
+            if (NotesStorage.recordId(lines.get(i)) == null) {
+                withoutChecksum++;
+            }
+            if (kept != null) {
+                kept.add(lines.get(i));
+            }
+        }
+        return new Report(lines.size(), corruptList, duplicates, storage.checkValueMatches(raw), withoutChecksum,
+            System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,536 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * VaultSync synkroniserer to mapper med den samme samling (samme salt og password), fx en mappe på laptoppen
+ * og en backup-mappe på et drev. Begge sider bygger et MerkleTree over note-id og hash af notens krypterede
+ * record, og kun de noter hvor træerne er forskellige, kopieres som de står (uden at blive dekrypteret).
+ * Hver note har en VersionVector pr. side, gemt krypteret i sync.dat. Er en note ændret på begge sider
+ * siden sidste synkronisering, flettes teksten med notens historik (TextCrdt). Mangler historikken,
+ * beholdes den senest ændrede, og den anden gemmes som en kopi med "(konflikt)" i titlen på begge sider.
+ * Slettede noter huskes som gravsten, så sletninger også synkroniseres; en gravsten begge sider har haft i
+ * TOMBSTONE_DAYS dage glemmes igen (en mappe der ikke er synkroniseret så længe, kan få noten tilbage).
+ * Beskadigede records springes over og rapporteres som ved indlæsning; en note der mangler på en side med
+ * beskadigede records, regnes ikke for slettet, men hentes fra den anden side.
+ * Træerne bygges forfra ved hver synkronisering. Det er O(n) hashing, men hver record skal alligevel læses
+ * og hashes for at se hvad der er ændret lokalt, så et gemt træ ville ikke spare læsningen
+ */
+public class VaultSync {
+    static final String STATE_FILE = "sync.dat";
+    private static final String STATE_MAGIC = "NOTESAPP-SYNC 2";
+    private static final String STATE_MAGIC_V1 = "NOTESAPP-SYNC 1";
+    static final int TOMBSTONE_DAYS = 90;
+
+    private final Replica first;
+    private final Replica second;
+    private final Result result = new Result();
+    private long tombstoneMillis = TOMBSTONE_DAYS * 24L * 60 * 60 * 1000;
+
+    /**
+     * Hvad en synkronisering nåede at gøre
+     */
+    public static final class Result {
+        private int copiedToFirst;
+        private int copiedToSecond;
+        private int conflicts;
+        private int merged;
+        private int differing;
+        private int comparedNodes;
+        private int decrypted;
+        private int forgottenTombstones;
+        private final List<NotesStorage.CorruptRecord> corruptInFirst = new ArrayList<>();
+        private final List<NotesStorage.CorruptRecord> corruptInSecond = new ArrayList<>();
+
+        /** Noter kopieret, ændret eller slettet i den første mappe */
+        public int getCopiedToFirst() {
+            return copiedToFirst;
+        }
+
+        /** Noter kopieret, ændret eller slettet i den anden mappe */
+        public int getCopiedToSecond() {
+            return copiedToSecond;
+        }
+
+        /** Noter ændret på begge sider, hvor den ene udgave er gemt som kopi */
+        public int getConflicts() {
+            return conflicts;
+        }
+
+        /** Noter ændret på begge sider, hvis tekst er flettet til én udgave */
+        public int getMerged() {
+            return merged;
+        }
+
+        /** Noter hvor Merkle-træerne var forskellige */
+        public int getDiffering() {
+            return differing;
+        }
+
+        /** Knuder i Merkle-træerne der blev sammenlignet for at finde forskellene */
+        public int getComparedNodes() {
+            return comparedNodes;
+        }
+
+        /** Records der måtte dekrypteres (nye og ændrede siden sidst, samt konflikter) */
+        public int getDecrypted() {
+            return decrypted;
+        }
+
+        /** Gravsten der var gamle nok til at blive glemt på begge sider */
+        public int getForgottenTombstones() {
+            return forgottenTombstones;
+        }
+
+        /** Records i den første mappe der ikke kunne læses og blev sprunget over */
+        public List<NotesStorage.CorruptRecord> getCorruptInFirst() {
+            return Collections.unmodifiableList(corruptInFirst);
+        }
+
+        /** Records i den anden mappe der ikke kunne læses og blev sprunget over */
+        public List<NotesStorage.CorruptRecord> getCorruptInSecond() {
+            return Collections.unmodifiableList(corruptInSecond);
+        }
+    }
+
+    /**
+     * En notes tilstand på én side: hash af dens record (null for en slettet note) og dens versionsvektor,
+     * og for en slettet note hvornår sletningen blev set første gang
+     */
+    private static final class Entry {
+        final String hash;
+        final VersionVector vector;
+        final long deletedAt;
+
+        Entry(String hash, VersionVector vector) {
+            this(hash, vector, 0);
+        }
+
+        Entry(String hash, VersionVector vector, long deletedAt) {
+            this.hash = hash;
+            this.vector = vector;
+            this.deletedAt = deletedAt;
+        }
+
+        boolean isLive() {
+            return hash != null;
+        }
+
+        String leaf() {
+            return (hash == null ? "-" : hash) + " " + vector;
+        }
+    }
+
+    /**
+     * Den ene side: lageret, tilstanden fra sync.dat og de ændringer der skal skrives
+     */
+    private static final class Replica {
+        final NotesStorage storage;
+        String replicaId;
+        final Map<String, Entry> state = new HashMap<>();
+        NotesStorage.RawRecords raw;
+        final Map<String, String> lineByHash = new HashMap<>();
+        final Set<String> removedHashes = new HashSet<>();
+        final List<NotesStorage.CorruptRecord> corrupt;
+        final List<String> addedLines = new ArrayList<>();
+        boolean stateChanged;
+
+        Replica(NotesStorage storage, List<NotesStorage.CorruptRecord> corrupt) {
+            this.storage = storage;
+            this.corrupt = corrupt;
+        }
+
+        Path stateFile() {
+            return Paths.get(storage.getDataDirectory(), STATE_FILE);
+        }
+
+        void replace(String id, Entry entry, String line) {
+            Entry old = state.get(id);
+            if (old != null && old.isLive() && !old.hash.equals(entry.hash)) {
+                removedHashes.add(old.hash);
+            }
+            if (entry.isLive() && (old == null || !entry.hash.equals(old.hash))) {
+                addedLines.add(line);
+                lineByHash.put(entry.hash, line);
+            }
+            put(id, entry);
+        }
+
+        void put(String id, Entry entry) {
+            state.put(id, entry);
+            stateChanged = true;
+        }
+
+        boolean hasChanges() {
+            return !removedHashes.isEmpty() || !addedLines.isEmpty();
+        }
+    }
+
+    /**
+     * Begge lagre skal have samme nøgle (samme salt og password); se openPeer for at oprette den anden mappe
+     */
+    public VaultSync(NotesStorage first, NotesStorage second) throws IOException {
+        Path a = Paths.get(first.getDataDirectory()).toAbsolutePath().normalize();
+        Path b = Paths.get(second.getDataDirectory()).toAbsolutePath().normalize();
+        if (a.equals(b)) {
+            throw new IllegalArgumentException("Kan ikke synkronisere en mappe med sig selv");
+        }
+        if (!Arrays.equals(first.loadSalt(), second.loadSalt())) {
+            throw new IOException("Mapperne indeholder ikke den samme samling (forskelligt salt)");
+        }
+        this.first = new Replica(first, result.corruptInFirst);
+        this.second = new Replica(second, result.corruptInSecond);
+    }
+
+    /**
+     * Hvor længe begge sider skal have haft en gravsten før den glemmes (standard TOMBSTONE_DAYS dage)
+     */
+    public void setTombstoneRetention(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Tiden skal være 0 eller mere");
+        }
+        tombstoneMillis = millis;
+    }
+
+    /**
+     * Åbner den anden mappe med samme nøgle som source; er den tom, oprettes en tom samling med samme salt
+     */
+    public static NotesStorage openPeer(NotesStorage source, String directory) throws Exception {
+        NotesStorage peer = new NotesStorage(source.getCryptoManager(), directory);
+        if (!peer.hasExistingData()) {
+            if (Files.exists(Paths.get(peer.getNotesFile()))) {
+                throw new IOException("Der mangler salt.dat i " + directory);
+            }
+            peer.saveSalt(source.loadSalt());
+            peer.saveNotes(Collections.<NoteData>emptyList());
+        } else if (!Arrays.equals(source.loadSalt(), peer.loadSalt())) {
+            throw new IOException("Mapperne indeholder ikke den samme samling (forskelligt salt)");
+        } else {
+            peer.verifyPassword();
+        }
+        return peer;
+    }
+
+    /**
+     * Bringer begge mapper til samme indhold; afvises med NotesStorage.ExternalChangeException hvis en af
+     * filerne ændres undervejs (så kan man blot synkronisere igen)
+     */
+    public Result sync() throws Exception {
+        load(first);
+        load(second);
+
+        int depth = MerkleTree.depthFor(Math.max(first.state.size(), second.state.size()));
+        MerkleTree firstTree = new MerkleTree(leaves(first), depth);
+        MerkleTree secondTree = new MerkleTree(leaves(second), depth);
+        Set<String> differing = new TreeSet<>();
+        result.comparedNodes = firstTree.diff(secondTree, differing);
+        result.differing = differing.size();
+
+        for (String id : differing) {
+            Entry a = first.state.get(id);
+            Entry b = second.state.get(id);
+            if (a == null) {
+                copy(second, first, id);
+            } else if (b == null) {
+                copy(first, second, id);
+            } else {
+                switch (a.vector.compare(b.vector)) {
+                    case AFTER: copy(first, second, id); break;
+                    case BEFORE: copy(second, first, id); break;
+                    default: resolve(id, a, b); break;
+                }
+            }
+        }
+
+        forgetTombstones();
+
+        // Hver side skrives og får sin tilstand gemt før den næste, så en fejl aldrig efterlader en side
+        // hvis tilstand ikke passer til dens fil
+        write(first);
+        write(second);
+        return result;
+    }
+
+    /**
+     * Læser tilstanden og filens records og registrerer hvad der er ændret på siden siden sidst
+     */
+    private void load(Replica replica) throws Exception {
+        readState(replica);
+        replica.raw = replica.storage.readRawRecords();
+        Map<String, String> idByHash = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : replica.state.entrySet()) {
+            if (entry.getValue().isLive()) {
+                idByHash.put(entry.getValue().hash, entry.getKey());
+            }
+        }
+        MessageDigest sha = MerkleTree.sha256();
+        Map<String, String> current = new HashMap<>();
+        Set<String> corruptIds = new HashSet<>();
+        boolean unknownCorrupt = false;
+        int index = 0;
+        for (String line : replica.raw.getLines()) {
+            index++;
+            String hash = hash(sha, line);
+            String id = idByHash.get(hash);
+            if (id == null) {
+                // Records med id og gyldig kontrolsum kan genkendes uden at blive dekrypteret
+                id = NotesStorage.recordId(line);
+            }
+            if (id == null) {
+                try {
+                    id = replica.storage.decodeRecord(line, index).getId();
+                    result.decrypted++;
+                } catch (NotesStorage.CorruptRecordException e) {
+                    // Recorden bliver stående i filen (til scrub fjerner den) og kopieres ikke
+                    replica.corrupt.add(e.getRecord());
+                    if (e.getRecord().getNoteId() == null) {
+                        unknownCorrupt = true;
+                    } else {
+                        corruptIds.add(e.getRecord().getNoteId());
+                    }
+                    continue;
+                }
+            }
+            current.put(id, hash);
+            replica.lineByHash.put(hash, line);
+        }
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            Entry known = replica.state.get(entry.getKey());
+            if (known == null) {
+                replica.put(entry.getKey(), new Entry(entry.getValue(), VersionVector.EMPTY.increment(replica.replicaId)));
+            } else if (!entry.getValue().equals(known.hash)) {
+                replica.put(entry.getKey(), new Entry(entry.getValue(), known.vector.increment(replica.replicaId)));
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<String, Entry>> it = replica.state.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry> entry = it.next();
+            Entry known = entry.getValue();
+            if (known.isLive() && !current.containsKey(entry.getKey())) {
+                if (unknownCorrupt || corruptIds.contains(entry.getKey())) {
+                    // Måske er det notens record der er beskadiget: glem den her, så den hentes fra den anden side
+                    it.remove();
+                } else {
+                    entry.setValue(new Entry(null, known.vector.increment(replica.replicaId), now));
+                }
+                replica.stateChanged = true;
+            }
+        }
+    }
+
+    /**
+     * Fjerner gravsten som begge sider har haft længe nok; de er ens på begge sider, så træerne forbliver ens
+     */
+    private void forgetTombstones() {
+        long cutoff = System.currentTimeMillis() - tombstoneMillis;
+        List<String> forgotten = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : first.state.entrySet()) {
+            Entry a = entry.getValue();
+            Entry b = second.state.get(entry.getKey());
+            if (!a.isLive() && b != null && !b.isLive() && a.vector.compare(b.vector) == VersionVector.Order.EQUAL
+                    && Math.max(a.deletedAt, b.deletedAt) <= cutoff) {
+                forgotten.add(entry.getKey());
+            }
+        }
+        for (String id : forgotten) {
+            first.state.remove(id);
+            second.state.remove(id);
+        }
+        if (!forgotten.isEmpty()) {
+            first.stateChanged = true;
+            second.stateChanged = true;
+        }
+        result.forgottenTombstones = forgotten.size();
+    }
+
+    private static Map<String, String> leaves(Replica replica) {
+        Map<String, String> leaves = new HashMap<>(replica.state.size() * 2);
+        for (Map.Entry<String, Entry> entry : replica.state.entrySet()) {
+            leaves.put(entry.getKey(), entry.getValue().leaf());
+        }
+        return leaves;
+    }
+
+    /**
+     * Kopierer notens udgave (eller gravsten) fra den ene side til den anden
+     */
+    private void copy(Replica from, Replica to, String id) {
+        Entry entry = from.state.get(id);
+        to.replace(id, entry, entry.isLive() ? from.lineByHash.get(entry.hash) : null);
+        if (to == first) {
+            result.copiedToFirst++;
+        } else {
+            result.copiedToSecond++;
+        }
+    }
+
+    /**
+     * Noten er ændret på begge sider: en ændring vinder over en sletning, og to ændringer giver en konfliktkopi
+     */
+    private void resolve(String id, Entry a, Entry b) throws Exception {
+        VersionVector merged = a.vector.merge(b.vector);
+        if (Objects.equals(a.hash, b.hash)) {
+            // Samme record (eller begge slettet), fx første gang to kopier af samme mappe synkroniseres
+            long deletedAt = Math.max(a.deletedAt, b.deletedAt);
+            first.put(id, new Entry(a.hash, merged, deletedAt));
+            second.put(id, new Entry(b.hash, merged, deletedAt));
+            return;
+        }
+        if (!a.isLive() || !b.isLive()) {
+            Replica live = a.isLive() ? first : second;
+            Entry kept = new Entry(live.state.get(id).hash, merged);
+            String line = live.lineByHash.get(kept.hash);
+            if (live == first) {
+                first.put(id, kept);
+                second.replace(id, kept, line);
+                result.copiedToSecond++;
+            } else {
+                second.put(id, kept);
+                first.replace(id, kept, line);
+                result.copiedToFirst++;
+            }
+            return;
+        }
+
+        Note noteA = first.storage.decodeRecord(first.lineByHash.get(a.hash));
+        Note noteB = second.storage.decodeRecord(second.lineByHash.get(b.hash));
+        result.decrypted += 2;
+        Note textMerge = sameContent(noteA, noteB) ? null : TextCrdt.merge(noteA, noteB);
+        if (textMerge != null) {
+            String mergedLine = first.storage.encodeRecord(textMerge);
+            Entry mergedEntry = new Entry(hash(MerkleTree.sha256(), mergedLine), merged.increment(first.replicaId));
+            first.replace(id, mergedEntry, mergedLine);
+            second.replace(id, mergedEntry, mergedLine);
+            result.copiedToFirst++;
+            result.copiedToSecond++;
+            result.merged++;
+            return;
+        }
+        boolean firstWins = noteA.getLastModifiedMillis() != noteB.getLastModifiedMillis()
+            ? noteA.getLastModifiedMillis() > noteB.getLastModifiedMillis()
+            : a.hash.compareTo(b.hash) < 0;
+        Replica winner = firstWins ? first : second;
+        Entry kept = new Entry(firstWins ? a.hash : b.hash, merged.increment(winner.replicaId));
+        String line = winner.lineByHash.get(kept.hash);
+        first.replace(id, kept, line);
+        second.replace(id, kept, line);
+        if (firstWins) {
+            result.copiedToSecond++;
+        } else {
+            result.copiedToFirst++;
+        }
+
+        Note loser = firstWins ? noteB : noteA;
+        if (sameContent(noteA, noteB)) {
+            return;
+        }
+        Note copy = new Note(UUID.randomUUID().toString(), loser.getTitle() + " (konflikt)", loser.getContent(),
+            loser.getCategory(), loser.isFavorite(), loser.getCreatedAtMillis(), loser.getLastModifiedMillis());
+        String copyLine = first.storage.encodeRecord(copy);
+        Entry copyEntry = new Entry(hash(MerkleTree.sha256(), copyLine),
+            VersionVector.EMPTY.increment((firstWins ? second : first).replicaId));
+        first.replace(copy.getId(), copyEntry, copyLine);
+        second.replace(copy.getId(), copyEntry, copyLine);
+        result.copiedToFirst++;
+        result.copiedToSecond++;
+        result.conflicts++;
+    }
+
+    private static boolean sameContent(Note a, Note b) {
+        return Objects.equals(a.getTitle(), b.getTitle()) && Objects.equals(a.getContent(), b.getContent())
+            && Objects.equals(a.getCategory(), b.getCategory()) && a.isFavorite() == b.isFavorite();
+    }
+
+    private static void write(Replica replica) throws Exception {
+        if (replica.hasChanges()) {
+            List<String> lines = new ArrayList<>(replica.raw.getLines().size() + replica.addedLines.size());
+            MessageDigest sha = MerkleTree.sha256();
+            for (String line : replica.raw.getLines()) {
+                if (!replica.removedHashes.contains(hash(sha, line))) {
+                    lines.add(line);
+                }
+            }
+            lines.addAll(replica.addedLines);
+            replica.storage.writeRawRecords(replica.raw, lines);
+        }
+        if (replica.stateChanged) {
+            writeState(replica);
+        }
+    }
+
+    /**
+     * SHA-256 af recorden, forkortet til 128 bit i hex
+     */
+    private static String hash(MessageDigest sha, String line) {
+        byte[] digest = sha.digest(line.getBytes(StandardCharsets.US_ASCII));
+        StringBuilder hex = new StringBuilder(32);
+        for (int i = 0; i < 16; i++) {
+            hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    // ---------------------------------------------------------------
+    // sync.dat: replika-id og hver notes hash (eller sletningstidspunkt) og versionsvektor, krypteret med samlingens nøgle
+    // ---------------------------------------------------------------
+
+    private static void readState(Replica replica) throws Exception {
+        Path file = replica.stateFile();
+        if (!Files.exists(file)) {
+            replica.replicaId = UUID.randomUUID().toString().substring(0, 8);
+            replica.stateChanged = true;
+            return;
+        }
+        byte[] plain;
+        try {
+            plain = replica.storage.getCryptoManager().decryptBytes(Files.readAllBytes(file));
+        } catch (Exception e) {
+            throw new IOException("Kunne ikke læse " + file + " (forkert password eller beskadiget)", e);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain));
+        String magic = in.readUTF();
+        if (!STATE_MAGIC.equals(magic) && !STATE_MAGIC_V1.equals(magic)) {
+            throw new IOException("Ukendt format i " + file);
+        }
+        // Gravsten fra version 1 har intet tidspunkt; de regnes fra nu af
+        boolean hasDeletedAt = STATE_MAGIC.equals(magic);
+        long now = System.currentTimeMillis();
+        replica.replicaId = in.readUTF();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String id = in.readUTF();
+            boolean live = in.readBoolean();
+            String hash = live ? in.readUTF() : null;
+            long deletedAt = live ? 0 : hasDeletedAt ? in.readLong() : now;
+            replica.state.put(id, new Entry(hash, VersionVector.parse(in.readUTF()), deletedAt));
+        }
+        if (!hasDeletedAt) {
+            replica.stateChanged = true;
+        }
+    }
+
+    private static void writeState(Replica replica) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(STATE_MAGIC);
+        out.writeUTF(replica.replicaId);
+        out.writeInt(replica.state.size());
+        for (Map.Entry<String, Entry> entry : replica.state.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeBoolean(entry.getValue().isLive());
+            if (entry.getValue().isLive()) {
+                out.writeUTF(entry.getValue().hash);
+            } else {
+                out.writeLong(entry.getValue().deletedAt);
+            }
+            out.writeUTF(entry.getValue().vector.toString());
+        }
+        out.flush();
+        Path file = replica.stateFile();
+        Path temp = Paths.get(file + ".tmp");
+        Files.write(temp, replica.storage.getCryptoManager().encryptBytes(bytes.toByteArray()));
+        NotesStorage.moveIntoPlace(temp, file);
+    }
+}
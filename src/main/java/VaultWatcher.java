@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * VaultWatcher holder øje med notefilen og giver besked når et andet program har skrevet den
+ * Mappen overvåges med en WatchService på en baggrundstråd. En gemning giver flere hændelser
+ * (midlertidig fil, flytning, ændring), så der ventes til filen har været stille et øjeblik
+ * før onChange kaldes. onChange kaldes på overvågningstråden og må gerne læse fra disken
+ */
+public class VaultWatcher implements AutoCloseable {
+    private static final long QUIET_MILLIS = 200;
+
+    private final Path directory;
+    private final Path fileName;
+    private final Runnable onChange;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    public VaultWatcher(Path file, Runnable onChange) throws IOException {
+        this.directory = file.toAbsolutePath().getParent();
+        this.fileName = file.getFileName();
+        this.onChange = onChange;
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::run, "notes-watch");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                // Vent på første hændelse for filen, og derefter til der har været stille i QUIET_MILLIS
+                WatchKey key = watchService.take();
+                boolean changed = concernsFile(key);
+                while (changed && (key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    concernsFile(key);
+                }
+                if (changed) {
+                    try {
+                        onChange.run();
+                    } catch (RuntimeException e) {
+                        // En fejl i én opdatering må ikke stoppe overvågningen
+                        System.err.println("Fejl ved håndtering af ændrede noter: " + e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Lukket
+        } catch (IOException e) {
+            System.err.println("Overvågning af noterne stoppet: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tømmer nøglens hændelser og fortæller om nogen af dem gjaldt notefilen (eller om nogle gik tabt)
+     * Er nøglen ikke længere gyldig (mappen er slettet eller flyttet), registreres mappen igen
+     */
+    private boolean concernsFile(WatchKey key) throws IOException {
+        boolean concerns = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context())) {
+                concerns = true;
+            }
+        }
+        if (!key.reset()) {
+            // Uden en gyldig nøgle kommer der aldrig flere hændelser; findes mappen ikke mere, giver register en fejl
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            concerns = true;
+        }
+        return concerns;
+    }
+}
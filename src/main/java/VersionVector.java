@@ -0,0 +1,114 @@
+import java.util.*;
+
+/**
+ * VersionVector tæller for hver samling (replika) hvor mange gange en note er ændret der
+ * To udgaver af en note kan sammenlignes: har den ene set alle ændringer den anden har set, er den
+ * nyere og kan kopieres over den anden. Har begge set ændringer den anden ikke har, er de ændret
+ * hver for sig (en konflikt). Uforanderlig; tællerne holdes sorteret, så toString er entydig
+ */
+public final class VersionVector {
+    public static final VersionVector EMPTY = new VersionVector(new TreeMap<>());
+
+    private final SortedMap<String, Long> counters;
+
+    /**
+     * Resultatet af en sammenligning, set fra den vektor compare kaldes på
+     */
+    public enum Order {
+        EQUAL, BEFORE, AFTER, CONCURRENT
+    }
+
+    private VersionVector(SortedMap<String, Long> counters) {
+        this.counters = counters;
+    }
+
+    public long get(String replica) {
+        return counters.getOrDefault(replica, 0L);
+    }
+
+    public Map<String, Long> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * Ny vektor med én ændring mere fra replikaen
+     */
+    public VersionVector increment(String replica) {
+        SortedMap<String, Long> next = new TreeMap<>(counters);
+        next.merge(replica, 1L, Long::sum);
+        return new VersionVector(next);
+    }
+
+    /**
+     * Den mindste vektor der har set alt hvad begge har set
+     */
+    public VersionVector merge(VersionVector other) {
+        SortedMap<String, Long> next = new TreeMap<>(counters);
+        for (Map.Entry<String, Long> entry : other.counters.entrySet()) {
+            next.merge(entry.getKey(), entry.getValue(), Math::max);
+        }
+        return new VersionVector(next);
+    }
+
+    public Order compare(VersionVector other) {
+        boolean ahead = false;
+        boolean behind = false;
+        Set<String> replicas = new HashSet<>(counters.keySet());
+        replicas.addAll(other.counters.keySet());
+        for (String replica : replicas) {
+            long mine = get(replica);
+            long theirs = other.get(replica);
+            if (mine > theirs) {
+                ahead = true;
+            } else if (mine < theirs) {
+                behind = true;
+            }
+        }
+        if (ahead && behind) {
+            return Order.CONCURRENT;
+        }
+        return ahead ? Order.AFTER : behind ? Order.BEFORE : Order.EQUAL;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof VersionVector && counters.equals(((VersionVector) obj).counters);
+    }
+
+    @Override
+    public int hashCode() {
+        return counters.hashCode();
+    }
+
+    /**
+     * fx "3f2a9c1e=2,b71d04aa=5"
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            if (text.length() > 0) {
+                text.append(',');
+            }
+            text.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Modsat toString
+     */
+    public static VersionVector parse(String text) {
+        SortedMap<String, Long> counters = new TreeMap<>();
+        if (!text.isEmpty()) {
+            for (String part : text.split(",")) {
+                int equals = part.lastIndexOf('=');
+                if (equals <= 0) {
+                    throw new IllegalArgumentException("Ugyldig versionsvektor: " + text);
+                }
+                counters.put(part.substring(0, equals), Long.parseLong(part.substring(equals + 1)));
+            }
+        }
+        return new VersionVector(counters);
+    }
+}
@@ -0,0 +1,162 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.DocumentFilter;
+import javax.swing.text.Segment;
+
+/**
+ * WordCounter holder ord- og tegnantal for et dokument opdateret mens der skrives
+ * Ved hver ændring tælles kun ordet/ordene omkring ændringen før og efter, så et tastetryk koster
+ * et par tegn i stedet for at splitte hele teksten. Et ord er en sammenhængende række ikke-blanke
+ * tegn, præcis som {@code trim().split("\\s+")} i Note. Ændringer der ikke går gennem filteret (fortryd og
+ * gentag afspilles direkte på dokumentets indhold) opdages som dokumenthændelser og tælles forfra
+ */
+public class WordCounter extends DocumentFilter {
+    private final Segment segment = new Segment();
+    private final DocumentListener bypassListener = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            recountIfBypassed(e);
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            recountIfBypassed(e);
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            // Kun attributter; teksten er uændret
+        }
+    };
+    private Document document;
+    private int wordCount;
+    private boolean filtering;
+
+    /**
+     * Sætter tælleren på dokumentet og tæller den nuværende tekst én gang
+     */
+    public void install(AbstractDocument document) {
+        if (this.document != null) {
+            this.document.removeDocumentListener(bypassListener);
+        }
+        this.document = document;
+        document.setDocumentFilter(this);
+        document.addDocumentListener(bypassListener);
+        recount();
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public int getCharacterCount() {
+        return document == null ? 0 : document.getLength();
+    }
+
+    @Override
+    public void insertString(FilterBypass fb, int offset, String text, AttributeSet attrs) throws BadLocationException {
+        replace(fb, offset, 0, text, attrs);
+    }
+
+    @Override
+    public void remove(FilterBypass fb, int offset, int length) throws BadLocationException {
+        replace(fb, offset, length, null, null);
+    }
+
+    @Override
+    public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs) throws BadLocationException {
+        Document doc = fb.getDocument();
+        int inserted = text == null ? 0 : text.length();
+
+        // Området der kan ændre sig: det ændrede udsnit udvidet til hele ord på begge sider
+        int start = wordStart(doc, offset);
+        int end = wordEnd(doc, offset + length);
+        int before = countWords(doc, start, end);
+
+        filtering = true;
+        try {
+            if (length > 0 && inserted > 0) {
+                fb.replace(offset, length, text, attrs);
+            } else if (length > 0) {
+                fb.remove(offset, length);
+            } else if (inserted > 0) {
+                fb.insertString(offset, text, attrs);
+            } else {
+                return;
+            }
+        } finally {
+            filtering = false;
+        }
+
+        wordCount += countWords(doc, start, end - length + inserted) - before;
+    }
+
+    private void recountIfBypassed(DocumentEvent e) {
+        if (!filtering && e.getDocument() == document) {
+            recount();
+        }
+    }
+
+    private void recount() {
+        try {
+            wordCount = countWords(document, 0, document.getLength());
+        } catch (BadLocationException e) {
+            wordCount = 0;
+        }
+    }
+
+    /**
+     * Tæller ord i [from, to) i en tekst; bruges også af Note
+     */
+    public static int countWords(CharSequence text, int from, int to) {
+        int words = 0;
+        boolean inWord = false;
+        for (int i = from; i < to; i++) {
+            boolean blank = isBlank(text.charAt(i));
+            if (!blank && !inWord) {
+                words++;
+            }
+            inWord = !blank;
+        }
+        return words;
+    }
+
+    private int countWords(Document doc, int from, int to) throws BadLocationException {
+        if (to <= from) {
+            return 0;
+        }
+        doc.getText(from, to - from, segment);
+        return countWords(segment, 0, segment.length());
+    }
+
+    private int wordStart(Document doc, int offset) throws BadLocationException {
+        while (offset > 0 && !isBlank(charAt(doc, offset - 1))) {
+            offset--;
+        }
+        return offset;
+    }
+
+    private int wordEnd(Document doc, int offset) throws BadLocationException {
+        int length = doc.getLength();
+        while (offset < length && !isBlank(charAt(doc, offset))) {
+            offset++;
+        }
+        return offset;
+    }
+
+    private char charAt(Document doc, int offset) throws BadLocationException {
+        doc.getText(offset, 1, segment);
+        return segment.first();
+    }
+
+    /**
+     * Samme blanke tegn som regex {@code \s}
+     */
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,163 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EncryptedArchiveTest {
+    private static CryptoManager cryptoManager;
+    private static byte[] salt;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void deriveKey() throws Exception {
+        cryptoManager = new CryptoManager();
+        salt = cryptoManager.generateSalt();
+        cryptoManager.generateKeyFromPassword("pw", salt);
+    }
+
+    @Test
+    void roundTripAroundChunkBoundaries() throws Exception {
+        Random random = new Random(5);
+        for (int size : new int[] {0, 1, 65535, 65536, 65537, 200000}) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            byte[] archive = encrypt(data);
+            assertArrayEquals(data, decrypt(archive), "størrelse " + size);
+        }
+    }
+
+    @Test
+    void wrongPasswordIsRejected() throws Exception {
+        byte[] archive = encrypt(new byte[100]);
+        CryptoManager other = new CryptoManager();
+        other.generateKeyFromPassword("forkert", salt);
+        IOException e = assertThrows(IOException.class, () -> decrypt(archive, other));
+        assertTrue(e.getMessage().contains("Forkert password"), e.getMessage());
+    }
+
+    @Test
+    void truncationIsDetected() throws Exception {
+        byte[] archive = encrypt(new byte[150000]);
+        // Afskåret midt i en bid og præcis efter en hel bid (så kun den sidste mangler)
+        int header = headerLength();
+        int firstChunk = 4 + readInt(archive, header);
+        for (int length : new int[] {archive.length - 1, header + firstChunk, header + 2 * firstChunk, header}) {
+            byte[] cut = Arrays.copyOf(archive, length);
+            assertThrows(IOException.class, () -> decrypt(cut), "længde " + length);
+        }
+    }
+
+    @Test
+    void tamperingIsDetected() throws Exception {
+        byte[] archive = encrypt(new byte[150000]);
+        Random random = new Random(9);
+        for (int i = 0; i < 20; i++) {
+            byte[] changed = archive.clone();
+            changed[headerLength() + random.nextInt(changed.length - headerLength())] ^= 1 << random.nextInt(8);
+            assertThrows(IOException.class, () -> decrypt(changed));
+        }
+        byte[] wrongMagic = archive.clone();
+        wrongMagic[0] ^= 1;
+        assertThrows(IOException.class, () -> decrypt(wrongMagic));
+    }
+
+    @Test
+    void abortedArchiveCannotBeReadToTheEnd() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EncryptedArchive.Output out = new EncryptedArchive.Output(cryptoManager, salt, bytes);
+        out.write(new byte[70000]);
+        out.abort();
+        out.close();
+        IOException e = assertThrows(IOException.class, () -> decrypt(bytes.toByteArray()));
+        assertEquals("Arkivet er afkortet", e.getMessage());
+    }
+
+    @Test
+    void failedExportDeletesTheFile() throws Exception {
+        Path file = directory.resolve("noter.zip");
+        try (NoteExporter exporter = new NoteExporter(NoteExporter.Format.MARKDOWN, 2)) {
+            Exception e = assertThrows(IOException.class, () -> exporter.export(consumer -> {
+                for (int i = 0; i < 1000; i++) {
+                    consumer.accept(new Note("note " + i, "indhold"));
+                }
+                throw new IOException("kilden fejlede");
+            }, file, null));
+            assertEquals("kilden fejlede", e.getMessage());
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void errorWhileRenderingIsRethrownAsIs() throws Exception {
+        Path file = directory.resolve("noter.zip");
+        Note broken = new Note("i stykker", "") {
+            @Override
+            public String getContent() {
+                throw new AssertionError("kan ikke formateres");
+            }
+        };
+        try (NoteExporter exporter = new NoteExporter(NoteExporter.Format.JSON, 2)) {
+            AssertionError e = assertThrows(AssertionError.class,
+                () -> exporter.export(consumer -> consumer.accept(broken), file, null));
+            assertEquals("kan ikke formateres", e.getMessage());
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void encryptedExportRoundTrips() throws Exception {
+        NotesStorage storage = NotesModel.create(directory.resolve("vault").toString(), "pw").getStorage();
+        Path file = directory.resolve("noter.zip.enc");
+        List<Note> notes = Arrays.asList(new Note("a", "første"), new Note("b", "anden"));
+        try (NoteExporter exporter = new NoteExporter(NoteExporter.Format.MARKDOWN, 2)) {
+            assertEquals(2, exporter.export(consumer -> notes.forEach(consumer), file, storage));
+        }
+        byte[] zip = decrypt(Files.readAllBytes(file), storage.getCryptoManager());
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                names.add(entry.getName());
+            }
+        }
+        assertEquals(2, names.size());
+        assertTrue(names.get(0).startsWith("Generel/a ("), names.get(0));
+    }
+
+    private static byte[] encrypt(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new EncryptedArchive.Output(cryptoManager, salt, bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] archive) throws Exception {
+        return decrypt(archive, cryptoManager);
+    }
+
+    private static byte[] decrypt(byte[] archive, CryptoManager key) throws Exception {
+        InputStream source = new ByteArrayInputStream(archive);
+        EncryptedArchive.readSalt(source);
+        try (InputStream in = new EncryptedArchive.Input(key, source)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static int headerLength() {
+        return "NOTESAPP-ARKIV 1\n".length() + 4 + salt.length;
+    }
+
+    private static int readInt(byte[] bytes, int offset) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(bytes, offset, 4)).readInt();
+    }
+}
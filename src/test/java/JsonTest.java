@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonTest {
+    @Test
+    void parsesAllValueTypes() {
+        Map<String, Object> object = Json.parseObject(
+            " {\"s\":\"tekst\",\"i\":-12,\"d\":1.5e2,\"t\":true,\"f\":false,\"n\":null,\"a\":[1,[],{}],\"o\":{}} ");
+        assertEquals("tekst", object.get("s"));
+        assertEquals(-12L, object.get("i"));
+        assertEquals(150.0, object.get("d"));
+        assertEquals(Boolean.TRUE, object.get("t"));
+        assertEquals(Boolean.FALSE, object.get("f"));
+        assertTrue(object.containsKey("n"));
+        assertNull(object.get("n"));
+        assertEquals(Arrays.asList(1L, Collections.emptyList(), Collections.emptyMap()), object.get("a"));
+        assertEquals(Collections.emptyMap(), object.get("o"));
+        // Felterne beholder rækkefølgen fra teksten
+        assertEquals(Arrays.asList("s", "i", "d", "t", "f", "n", "a", "o"), new ArrayList<>(object.keySet()));
+    }
+
+    @Test
+    void quoteRoundTrips() {
+        Random random = new Random(3);
+        for (int round = 0; round < 500; round++) {
+            StringBuilder value = new StringBuilder();
+            int length = random.nextInt(20);
+            for (int i = 0; i < length; i++) {
+                // Mest kontroltegn, anførselstegn og backslash, som skal escapes
+                value.append(random.nextBoolean() ? (char) random.nextInt(0x30) : (char) random.nextInt(0x3000));
+            }
+            assertEquals(value.toString(), Json.parse(Json.quote(value)));
+        }
+        assertEquals("\"a\\\"b\\\\c\\n\\u0001\"", Json.quote("a\"b\\c\n\u0001"));
+    }
+
+    @Test
+    void decodesEscapes() {
+        assertEquals("/\b\f\t\r\né", Json.parse("\"\\/\\b\\f\\t\\r\\n\\u00e9\""));
+    }
+
+    @Test
+    void malformedInputIsRejected() {
+        String[] malformed = {
+            "", "{", "{\"a\"}", "{\"a\":}", "{a:1}", "[1,]", "[1 2]", "\"uafsluttet", "\"\\x\"", "\"\\u12\"",
+            "tru", "nul", "01x", "-", "1.2.3", "{} {}", "@"
+        };
+        for (String text : malformed) {
+            assertThrows(IllegalArgumentException.class, () -> Json.parse(text), text);
+        }
+        assertThrows(IllegalArgumentException.class, () -> Json.parseObject("[1]"));
+    }
+
+    @Test
+    void streamArrayGivesEachElement() throws Exception {
+        List<String> elements = new ArrayList<>();
+        Json.streamArray(new StringReader(" [ {\"a\":\"],[\"} , [1,2] ,\"x\\\"]\", 3 ]"), elements::add);
+        assertEquals(Arrays.asList("{\"a\":\"],[\"}", "[1,2]", "\"x\\\"]\"", "3"), elements);
+
+        elements.clear();
+        Json.streamArray(new StringReader("[]"), elements::add);
+        assertTrue(elements.isEmpty());
+    }
+
+    @Test
+    void streamArrayRejectsBrokenArrays() {
+        for (String text : new String[] {"{}", "[1,,2]", "[1,]", "[1, 2"}) {
+            assertThrows(IllegalArgumentException.class,
+                () -> Json.streamArray(new StringReader(text), element -> { }), text);
+        }
+    }
+}
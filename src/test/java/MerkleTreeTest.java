@@ -0,0 +1,77 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MerkleTreeTest {
+    @Test
+    void diffFindsExactlyTheChangedKeys() {
+        Random random = new Random(11);
+        for (int size : new int[] {0, 1, 50, 2000}) {
+            int depth = MerkleTree.depthFor(size);
+            Map<String, String> a = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                a.put("note-" + i, Integer.toString(random.nextInt()));
+            }
+            Map<String, String> b = new HashMap<>(a);
+            Set<String> expected = new TreeSet<>();
+            for (int change = 0; change < 10 && size > 0; change++) {
+                String key = "note-" + random.nextInt(size);
+                switch (random.nextInt(3)) {
+                    case 0: b.put(key, "ændret " + change); break;
+                    case 1: b.remove(key); break;
+                    default: b.put("ny-" + change, "x"); key = "ny-" + change; break;
+                }
+                expected.add(key);
+            }
+            // En ændring der bliver sat tilbage er ikke en forskel
+            expected.removeIf(key -> Objects.equals(a.get(key), b.get(key)));
+
+            Set<String> differing = new TreeSet<>();
+            new MerkleTree(a, depth).diff(new MerkleTree(b, depth), differing);
+            assertEquals(expected, differing, "størrelse " + size);
+
+            Set<String> reverse = new TreeSet<>();
+            new MerkleTree(b, depth).diff(new MerkleTree(a, depth), reverse);
+            assertEquals(expected, reverse);
+        }
+    }
+
+    @Test
+    void equalTreesCompareOnlyTheRoot() {
+        Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            entries.put("n" + i, "v" + i);
+        }
+        int depth = MerkleTree.depthFor(entries.size());
+        MerkleTree a = new MerkleTree(entries, depth);
+        MerkleTree b = new MerkleTree(new TreeMap<>(entries), depth);
+        Set<String> differing = new HashSet<>();
+        assertEquals(1, a.diff(b, differing));
+        assertTrue(differing.isEmpty());
+        assertArrayEquals(a.getRoot(), b.getRoot());
+
+        // Én ændring følger én gren ned: roden og FANOUT børn pr. niveau
+        entries.put("n7", "ændret");
+        int compared = a.diff(new MerkleTree(entries, depth), differing);
+        assertEquals(Collections.singleton("n7"), differing);
+        assertEquals(1 + 16 * depth, compared);
+    }
+
+    @Test
+    void depthGrowsWithSizeAndIsCapped() {
+        assertEquals(0, MerkleTree.depthFor(0));
+        assertEquals(0, MerkleTree.depthFor(8));
+        assertEquals(1, MerkleTree.depthFor(9));
+        assertEquals(4, MerkleTree.depthFor(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void treesOfDifferentDepthCannotBeCompared() {
+        MerkleTree a = new MerkleTree(Collections.singletonMap("a", "1"), 1);
+        MerkleTree b = new MerkleTree(Collections.singletonMap("a", "1"), 2);
+        assertThrows(IllegalArgumentException.class, () -> a.diff(b, new HashSet<>()));
+        assertThrows(IllegalArgumentException.class, () -> new MerkleTree(Collections.emptyMap(), 5));
+    }
+}
@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NoteBitmapTest {
+    @Test
+    void addRemoveAndSetOperationsMatchBitSet() {
+        Random random = new Random(3);
+        for (int round = 0; round < 20; round++) {
+            // Skiftevis tynde og tætte blokke, så både char-array og long-bitmap containere bruges
+            int range = round % 2 == 0 ? 300_000 : 70_000;
+            int count = round % 2 == 0 ? 2_000 : 40_000;
+            BitSet expectedA = new BitSet();
+            BitSet expectedB = new BitSet();
+            NoteBitmap a = fill(random, range, count, expectedA);
+            NoteBitmap b = fill(random, range, count, expectedB);
+
+            for (int i = 0; i < count / 2; i++) {
+                int id = random.nextInt(range);
+                a.remove(id);
+                expectedA.clear(id);
+            }
+            assertSame(expectedA, a);
+
+            BitSet and = (BitSet) expectedA.clone();
+            and.and(expectedB);
+            assertSame(and, a.and(b));
+            BitSet or = (BitSet) expectedA.clone();
+            or.or(expectedB);
+            assertSame(or, a.or(b));
+            BitSet andNot = (BitSet) expectedA.clone();
+            andNot.andNot(expectedB);
+            assertSame(andNot, a.andNot(b));
+            // Operanderne må ikke ændres
+            assertSame(expectedA, a);
+            assertSame(expectedB, b);
+        }
+    }
+
+    @Test
+    void copyIsIndependent() {
+        NoteBitmap bitmap = new NoteBitmap();
+        for (int id = 0; id < 10_000; id++) {
+            bitmap.add(id);
+        }
+        NoteBitmap copy = bitmap.copy();
+        copy.remove(5);
+        copy.add(1 << 20);
+        assertTrue(bitmap.contains(5));
+        assertFalse(bitmap.contains(1 << 20));
+        assertEquals(10_000, bitmap.cardinality());
+        assertEquals(10_000, copy.cardinality());
+    }
+
+    @Test
+    void removingEverythingLeavesAnEmptyBitmap() {
+        NoteBitmap bitmap = new NoteBitmap();
+        for (int id = 0; id < 200_000; id += 3) {
+            bitmap.add(id);
+        }
+        for (int id = 0; id < 200_000; id += 3) {
+            bitmap.remove(id);
+        }
+        assertTrue(bitmap.isEmpty());
+        assertEquals(0, bitmap.cardinality());
+        bitmap.clear();
+        bitmap.add(7);
+        assertTrue(bitmap.contains(7));
+    }
+
+    private static NoteBitmap fill(Random random, int range, int count, BitSet expected) {
+        NoteBitmap bitmap = new NoteBitmap();
+        for (int i = 0; i < count; i++) {
+            int id = random.nextInt(range);
+            bitmap.add(id);
+            expected.set(id);
+        }
+        return bitmap;
+    }
+
+    private static void assertSame(BitSet expected, NoteBitmap actual) {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        BitSet seen = new BitSet();
+        int[] previous = {-1};
+        actual.forEach(id -> {
+            assertTrue(id > previous[0], "forEach skal give stigende id'er");
+            previous[0] = id;
+            seen.set(id);
+        });
+        assertEquals(expected, seen);
+        for (int id = expected.nextSetBit(0); id >= 0; id = expected.nextSetBit(id + 1)) {
+            assertTrue(actual.contains(id));
+        }
+    }
+}
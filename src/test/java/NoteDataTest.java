@@ -0,0 +1,28 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NoteDataTest {
+    @Test
+    void millisRoundTripKeepsMillisecondPrecision() {
+        for (LocalDateTime time : new LocalDateTime[]{
+            LocalDateTime.of(2026, 3, 1, 9, 30, 15, 123_000_000),
+            LocalDateTime.of(1970, 1, 1, 0, 0),
+            LocalDateTime.of(1969, 12, 31, 23, 59, 59, 999_000_000),
+            LocalDateTime.of(1900, 6, 15, 12, 0, 0, 1_000_000)}) {
+            assertEquals(time, NoteData.toDateTime(NoteData.toMillis(time)));
+        }
+        assertEquals(-1, NoteData.toMillis(LocalDateTime.of(1969, 12, 31, 23, 59, 59, 999_999_999)));
+    }
+
+    @Test
+    void noteTimestampsUseTheSameScale() {
+        LocalDateTime created = LocalDateTime.of(2025, 1, 2, 3, 4, 5, 6_000_000);
+        Note note = new Note("id", "t", "", created, created.plusDays(1));
+        assertEquals(NoteData.toMillis(created), note.getCreatedAtMillis());
+        assertEquals(created, note.getCreatedAt());
+        assertEquals(created.plusDays(1), note.getLastModified());
+    }
+}
@@ -0,0 +1,150 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NoteIndexTest {
+    private static final NoteQuery.Context EXACT = Collections::singleton;
+    private static final String[] CATEGORIES = {"A", "B", "Arbejde", "Generel"};
+    private static final String[] WORDS = {"kaffe", "te", "vand", "møde", "ferie"};
+    private static final String[] QUERIES = {
+        "", "kategori:A", "fav:ja", "-kategori:B", "kaffe OR fav:nej", "ord:>3 te", "kategori:a kaffe",
+        "titel:t1", "kategori:Ukendt", "-kaffe -te"
+    };
+
+    @Test
+    void filterMatchesBruteForceWhileNotesChange() {
+        Random random = new Random(7);
+        NoteIndex index = new NoteIndex();
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            notes.add(randomNote(random, i));
+        }
+        index.rebuild(notes);
+        // Sorteringerne bygges og vedligeholdes derefter gennem ændringerne
+        assertSameAsBruteForce(index, notes);
+
+        for (int step = 1; step <= 3000; step++) {
+            int op = random.nextInt(6);
+            if (op == 0 || notes.isEmpty()) {
+                Note note = randomNote(random, step);
+                notes.add(note);
+                index.add(note);
+            } else {
+                Note note = notes.get(random.nextInt(notes.size()));
+                switch (op) {
+                    case 1:
+                        notes.remove(note);
+                        index.remove(note);
+                        break;
+                    case 2:
+                        note.setTitle("t" + random.nextInt(50));
+                        break;
+                    case 3:
+                        note.setContent(text(random));
+                        break;
+                    case 4:
+                        note.setFavorite(!note.isFavorite());
+                        break;
+                    default:
+                        note.setCategory(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+                        break;
+                }
+            }
+            if (step % 250 == 0) {
+                assertSameAsBruteForce(index, notes);
+            }
+        }
+        assertEquals(notes.size(), index.size());
+    }
+
+    @Test
+    void eachChangeIsVisibleInTheNextFilter() {
+        Random random = new Random(11);
+        NoteIndex index = new NoteIndex();
+        List<Note> notes = new ArrayList<>();
+        index.rebuild(notes);
+        for (int step = 0; step < 600; step++) {
+            Note note = randomNote(random, step);
+            notes.add(note);
+            index.add(note);
+            if (step % 3 == 0) {
+                notes.get(random.nextInt(notes.size())).setTitle("t" + random.nextInt(50));
+            }
+            List<Note> expected = new ArrayList<>(notes);
+            expected.sort((x, y) -> {
+                int result = x.getTitle().compareToIgnoreCase(y.getTitle());
+                return result != 0 ? result : Integer.compare(index.slotOf(x), index.slotOf(y));
+            });
+            assertEquals(expected, notesAt(index, index.filterSequential("", "", EXACT, NoteSortOrder.TITLE_ASC)));
+        }
+    }
+
+    @Test
+    void filtersWithCategoryAndFavoriteUseIndexes() {
+        NoteIndex index = new NoteIndex();
+        Note a = note("a", "A", true, 1);
+        Note b = note("b", "a", false, 2);
+        Note c = note("c", "B", true, 3);
+        index.rebuild(Arrays.asList(a, b, c));
+        assertEquals(2, index.countCategory("A"));
+        assertEquals(2, index.countFavorites());
+        assertEquals(Arrays.asList(a), index.search("", NoteQuery.filters("A", true), EXACT));
+
+        c.setCategory("A");
+        index.remove(a);
+        assertEquals(2, index.countCategory("a"));
+        assertEquals(1, index.countFavorites());
+        assertEquals(1, index.getCategories().size());
+    }
+
+    private static void assertSameAsBruteForce(NoteIndex index, List<Note> notes) {
+        for (String query : QUERIES) {
+            NoteQuery.Node root = NoteQuery.parse(query).getRoot();
+            for (NoteSortOrder order : NoteSortOrder.values()) {
+                List<Note> expected = new ArrayList<>();
+                for (Note note : notes) {
+                    if (root.matches(note, EXACT)) {
+                        expected.add(note);
+                    }
+                }
+                expected.sort((x, y) -> {
+                    int result = order.compare(x, x.getWordCount(), y, y.getWordCount());
+                    return result != 0 ? result : Integer.compare(index.slotOf(x), index.slotOf(y));
+                });
+                String message = query + " / " + order;
+                assertEquals(expected, notesAt(index, index.filterSequential(query, "", EXACT, order)), message);
+                assertEquals(expected, notesAt(index, index.filterParallel(query, "", EXACT, order)), message);
+            }
+        }
+    }
+
+    private static List<Note> notesAt(NoteIndex index, int[] slots) {
+        List<Note> result = new ArrayList<>(slots.length);
+        for (int slot : slots) {
+            result.add(index.getNote(slot));
+        }
+        return result;
+    }
+
+    private static Note randomNote(Random random, int i) {
+        Note note = note("t" + random.nextInt(50), CATEGORIES[random.nextInt(CATEGORIES.length)],
+            random.nextInt(5) == 0, random.nextInt(100_000));
+        note.setContent(text(random));
+        return note;
+    }
+
+    private static Note note(String title, String category, boolean favorite, long created) {
+        return new Note(UUID.randomUUID().toString(), title, "", category, favorite, created, created);
+    }
+
+    private static String text(Random random) {
+        StringBuilder text = new StringBuilder();
+        int words = random.nextInt(8);
+        for (int i = 0; i < words; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.toString();
+    }
+}
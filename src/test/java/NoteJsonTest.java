@@ -0,0 +1,46 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NoteJsonTest {
+    @Test
+    void roundTrip() {
+        Note note = new Note("id-1", "Titel \"citat\"", "linje\nlinje", "Arbejde", true,
+            NoteData.toMillis(LocalDateTime.of(2024, 1, 2, 3, 4, 5)), NoteData.toMillis(LocalDateTime.of(2024, 2, 3, 4, 5, 6)));
+        Note read = NoteJson.fromJson(Json.parseObject(NoteJson.toJson(note)));
+        assertEquals(note.getId(), read.getId());
+        assertEquals(note.getTitle(), read.getTitle());
+        assertEquals(note.getContent(), read.getContent());
+        assertEquals(note.getCategory(), read.getCategory());
+        assertTrue(read.isFavorite());
+        assertEquals(note.getCreatedAtMillis(), read.getCreatedAtMillis());
+        assertEquals(note.getLastModifiedMillis(), read.getLastModifiedMillis());
+    }
+
+    @Test
+    void nullTimesAreTreatedAsMissing() {
+        Map<String, Object> object = Json.parseObject("{\"title\":\"t\",\"created\":null,\"modified\":null}");
+        long before = NoteData.toMillis(LocalDateTime.now());
+        Note note = NoteJson.fromJson(object);
+        assertTrue(note.getCreatedAtMillis() >= before);
+        assertEquals(note.getCreatedAtMillis(), note.getLastModifiedMillis());
+    }
+
+    @Test
+    void missingModifiedFallsBackToCreated() {
+        Map<String, Object> object = new HashMap<>();
+        object.put("created", "2024-05-06T07:08:09");
+        Note note = NoteJson.fromJson(object);
+        assertEquals(note.getCreatedAtMillis(), note.getLastModifiedMillis());
+        assertEquals("Untitled", note.getTitle());
+    }
+
+    @Test
+    void wrongTypeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> NoteJson.fromJson(Json.parseObject("{\"created\":5}")));
+    }
+}
@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NoteQueryTest {
+    private static final NoteQuery.Context EXACT = Collections::singleton;
+
+    @Test
+    void parsesFieldsAndNegation() {
+        NoteQuery query = NoteQuery.parse("kategori:Arbejde fav:ja -kladde");
+        List<NoteQuery.Node> children = ((NoteQuery.AndNode) query.getRoot()).getChildren();
+        assertEquals(3, children.size());
+        assertEquals("Arbejde", ((NoteQuery.CategoryNode) children.get(0)).getCategory());
+        assertTrue(((NoteQuery.FavoriteNode) children.get(1)).isFavorite());
+        assertTrue(children.get(2) instanceof NoteQuery.NotNode);
+    }
+
+    @Test
+    void unknownFieldsBecomeWords() {
+        NoteQuery query = NoteQuery.parse("farve:rød ord:mange");
+        for (NoteQuery.Node child : ((NoteQuery.AndNode) query.getRoot()).getChildren()) {
+            assertTrue(child instanceof NoteQuery.WordNode);
+        }
+    }
+
+    @Test
+    void orSplitsIntoAlternatives() {
+        NoteQuery query = NoteQuery.parse("kaffe OR te ELLER vand");
+        assertEquals(3, ((NoteQuery.OrNode) query.getRoot()).getChildren().size());
+    }
+
+    @Test
+    void countsClauses() {
+        assertEquals(0, NoteQuery.parse("").countClauses());
+        assertEquals(3, NoteQuery.parse("kaffe -te \"to ord\"").countClauses());
+        assertEquals(4, NoteQuery.parse("kaffe OR te ELLER vand", NoteQuery.filters("Arbejde", false)).countClauses());
+    }
+
+    @Test
+    void filtersKeepOddCategoryNamesIntact() {
+        for (String category : new String[]{"Arbejde", "To ord", "Citat \"her\"", "Sti\\", "a\\\"b", "\""}) {
+            NoteQuery query = NoteQuery.parse("", NoteQuery.filters(category, true));
+            List<NoteQuery.Node> children = ((NoteQuery.AndNode) query.getRoot()).getChildren();
+            assertEquals(2, children.size(), category);
+            assertEquals(category, ((NoteQuery.CategoryNode) children.get(0)).getCategory());
+            assertTrue(((NoteQuery.FavoriteNode) children.get(1)).isFavorite());
+        }
+    }
+
+    @Test
+    void filtersApplyToEveryAlternative() {
+        Note work = new Note("kaffe", "");
+        work.setCategory("A \"B\"");
+        Note other = new Note("kaffe", "");
+        other.setCategory("A");
+        NoteQuery query = NoteQuery.parse("kaffe OR te", NoteQuery.filters("A \"B\"", false));
+        assertTrue(query.getRoot().matches(work, EXACT));
+        assertFalse(query.getRoot().matches(other, EXACT));
+    }
+
+    @Test
+    void phraseKeepsEscapedQuotes() {
+        Note note = new Note("t", "han sagde \"hej\" til mig");
+        assertTrue(NoteQuery.parse("\"sagde \\\"hej\\\"\"").getRoot().matches(note, EXACT));
+        assertFalse(NoteQuery.parse("\"sagde hej\"").getRoot().matches(note, EXACT));
+    }
+}
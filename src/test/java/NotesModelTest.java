@@ -0,0 +1,164 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * To modeller på samme mappe, som GUI'en og CLI'en: ændringer fra den ene læses og flettes ind i den anden
+ */
+class NotesModelTest {
+    @TempDir
+    Path directory;
+
+    private NotesModel here;
+    private NotesModel there;
+    private Note shared;
+
+    @BeforeEach
+    void create() throws Exception {
+        NotesModel first = NotesModel.create(directory.toString(), "pw");
+        shared = first.createNote("fælles", "tekst");
+        first.save();
+        here = open();
+        there = open();
+    }
+
+    @Test
+    void staleSaveIsRejectedThenMergedAndSaved() throws Exception {
+        Note outside = there.createNote("udefra", "");
+        there.save();
+
+        Note local = here.createNote("herfra", "");
+        assertThrows(NotesStorage.ExternalChangeException.class, here::save);
+
+        NotesStorage.Changes changes = here.getStorage().readChanges();
+        assertEquals(1, changes.getChanged().size());
+        assertEquals(outside.getId(), changes.getChanged().get(0).getId());
+        assertTrue(changes.getRemoved().isEmpty());
+        assertTrue(here.applyExternalChanges(changes, null));
+        // Ændringerne er nu kendt, så de samme ændringer kan ikke accepteres igen
+        assertFalse(here.getStorage().acceptChanges(changes));
+        here.save();
+
+        NotesModel reopened = open();
+        assertNotNull(reopened.findNote(shared.getId()));
+        assertNotNull(reopened.findNote(outside.getId()));
+        assertNotNull(reopened.findNote(local.getId()));
+    }
+
+    @Test
+    void removalIsApplied() throws Exception {
+        there.delete(there.findNote(shared.getId()));
+        there.save();
+
+        NotesStorage.Changes changes = here.getStorage().readChanges();
+        assertEquals(Collections.singleton(shared.getId()), changes.getRemoved());
+        assertTrue(here.applyExternalChanges(changes, null));
+        assertNull(here.findNote(shared.getId()));
+        assertEquals(0, here.size());
+    }
+
+    @Test
+    void keptNoteWithUnsavedEditsWins() throws Exception {
+        Note theirs = there.findNote(shared.getId());
+        there.updateNote(theirs, "deres titel", null);
+        there.save();
+
+        Note mine = here.findNote(shared.getId());
+        here.updateNote(mine, "min titel", null);
+        assertTrue(here.applyExternalChanges(here.getStorage().readChanges(), shared.getId()));
+        assertSame(mine, here.findNote(shared.getId()));
+        assertEquals("min titel", mine.getTitle());
+
+        // Den lokale udgave er ikke på disken endnu, så den skal gemmes
+        byte[] before = Files.readAllBytes(notesFile());
+        here.saveChanges();
+        assertFalse(Arrays.equals(before, Files.readAllBytes(notesFile())));
+        assertEquals("min titel", open().findNote(shared.getId()).getTitle());
+    }
+
+    @Test
+    void keptNoteSurvivesRemoval() throws Exception {
+        there.delete(there.findNote(shared.getId()));
+        there.save();
+
+        here.updateNote(here.findNote(shared.getId()), "stadig her", null);
+        assertTrue(here.applyExternalChanges(here.getStorage().readChanges(), shared.getId()));
+        here.saveChanges();
+        assertEquals("stadig her", open().findNote(shared.getId()).getTitle());
+    }
+
+    @Test
+    void mergedChangesAlreadyOnDiskAreNotSavedAgain() throws Exception {
+        there.updateNote(there.findNote(shared.getId()), "ny titel", null);
+        there.createNote("udefra", "");
+        there.save();
+
+        assertTrue(here.applyExternalChanges(here.getStorage().readChanges(), null));
+        assertEquals("ny titel", here.findNote(shared.getId()).getTitle());
+        assertEquals(2, here.size());
+
+        // Intet lokalt var ændret, så resultatet står allerede på disken og saveChanges skriver ikke
+        byte[] before = Files.readAllBytes(notesFile());
+        here.saveChanges();
+        assertArrayEquals(before, Files.readAllBytes(notesFile()));
+        // Og filen regnes som læst, så en senere gemning ikke afvises
+        here.createNote("herfra", "");
+        here.save();
+        assertEquals(3, open().size());
+    }
+
+    @Test
+    void tryApplyDoesNotWaitForSaveInProgress() throws Exception {
+        Note outside = there.createNote("udefra", "");
+        there.save();
+        NotesStorage.Changes changes = here.getStorage().readChanges();
+
+        here.createNote("herfra", "");
+        CompletableFuture<Void> save;
+        synchronized (NotesStorage.directoryMonitor(directory)) {
+            // Gemmetråden tager modellens lås og venter så på lageret, som testen holder
+            save = here.saveInBackground();
+            while (!savingThreadBlocked()) {
+                Thread.sleep(5);
+            }
+            assertFalse(assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> here.tryApplyExternalChanges(changes, null)));
+            assertNull(here.findNote(outside.getId()));
+        }
+        // Gemningen afvises, og ændringerne læses igen og flettes når den er færdig
+        assertThrows(NotesStorage.ExternalChangeException.class, here::awaitSaves);
+        assertTrue(save.isCompletedExceptionally());
+        assertTrue(here.tryApplyExternalChanges(here.getStorage().readChanges(), null));
+        here.save();
+        assertEquals(3, open().size());
+    }
+
+    private static boolean savingThreadBlocked() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("notes-save") && thread.getState() == Thread.State.BLOCKED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private NotesModel open() throws Exception {
+        NotesModel model = NotesModel.open(directory.toString(), "pw");
+        model.load();
+        return model;
+    }
+
+    private Path notesFile() {
+        return Paths.get(here.getStorage().getNotesFile());
+    }
+}
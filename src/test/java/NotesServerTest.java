@@ -0,0 +1,182 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotesServerTest {
+    @TempDir
+    Path directory;
+
+    private NotesModel model;
+    private NotesServer server;
+    private String token;
+
+    @BeforeEach
+    void start() throws Exception {
+        model = NotesModel.create(directory.toString(), "pw");
+        model.save();
+        model.load();
+        token = NotesServer.generateToken();
+        server = new NotesServer(model, 0, token);
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop();
+    }
+
+    @Test
+    void concurrentPutsCreateOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 5; round++) {
+                String id = UUID.randomUUID().toString();
+                List<Future<Integer>> statuses = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    String body = "{\"title\":\"t" + i + "\"}";
+                    statuses.add(executor.submit(() -> request("PUT", "/notes/" + id, body)));
+                }
+                int created = 0;
+                for (Future<Integer> status : statuses) {
+                    int code = status.get();
+                    assertTrue(code == 200 || code == 201, "status " + code);
+                    if (code == 201) {
+                        created++;
+                    }
+                }
+                assertEquals(1, created);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void rejectsBadRequests() throws Exception {
+        assertEquals(400, request("GET", "/notes?sort=Z-Q", null));
+        assertEquals(400, request("PUT", "/notes/x", "{\"favorite\": 1}"));
+        assertEquals(404, request("DELETE", "/notes/findes-ikke", null));
+        assertEquals(201, request("PUT", "/notes/x", "{\"title\": \"a\"}"));
+        assertEquals(200, request("PUT", "/notes/x", "{\"content\": \"b\"}"));
+        assertEquals(204, request("DELETE", "/notes/x", null));
+    }
+
+    @Test
+    void failedSaveIsUndone() throws Exception {
+        assertEquals(201, request("PUT", "/notes/x", "{\"content\": \"gemt\"}"));
+        // En mappe i stedet for notefilen får gemningen til at fejle
+        Path file = Path.of(model.getStorage().getNotesFile());
+        Path aside = Path.of(file + ".bak");
+        Files.move(file, aside);
+        Files.createDirectory(file);
+        assertEquals(500, request("PUT", "/notes/x", "{\"content\": \"tabt\"}"));
+        assertEquals(500, request("PUT", "/notes/y", "{\"title\": \"ny\"}"));
+        assertEquals("gemt", model.getRepository().snapshot().get("x").getContent());
+        assertNull(model.getRepository().snapshot().get("y"));
+
+        // Et nyt forsøg efter fejlen opretter noten igen i stedet for at svare 200 for noget der aldrig blev gemt
+        Files.delete(file);
+        Files.move(aside, file);
+        assertEquals(201, request("PUT", "/notes/y", "{\"title\": \"ny\"}"));
+        NotesModel reopened = NotesModel.open(directory.toString(), "pw");
+        reopened.load();
+        assertEquals("gemt", reopened.findNote("x").getContent());
+        assertNotNull(reopened.findNote("y"));
+    }
+
+    @Test
+    void mergesChangesFromAnotherWriter() throws Exception {
+        assertEquals(201, request("PUT", "/notes/x", "{\"title\": \"fra serveren\"}"));
+        NotesModel other = NotesModel.open(directory.toString(), "pw");
+        other.load();
+        Note outside = other.createNote("udefra", "skrevet af et andet program");
+        other.save();
+
+        // Gemningen bliver afvist, ændringerne udefra flettes ind og der gemmes igen
+        assertEquals(201, request("PUT", "/notes/y", "{\"title\": \"efter\"}"));
+        NotesModel reopened = NotesModel.open(directory.toString(), "pw");
+        reopened.load();
+        assertNotNull(reopened.findNote("x"));
+        assertNotNull(reopened.findNote("y"));
+        assertNotNull(reopened.findNote(outside.getId()));
+
+        // Overvågningen fletter også ændringer ind uden at serveren selv skriver
+        other.load();
+        Note later = other.createNote("senere", "");
+        other.save();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (model.getRepository().snapshot().get(later.getId()) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertNotNull(model.getRepository().snapshot().get(later.getId()));
+    }
+
+    @Test
+    void stopAnswersEveryWrite() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        Set<String> answered = ConcurrentHashMap.newKeySet();
+        List<Future<?>> requests = new ArrayList<>();
+        try {
+            for (int i = 0; i < 40; i++) {
+                String id = "n" + i;
+                requests.add(executor.submit(() -> {
+                    try {
+                        if (request("PUT", "/notes/" + id, "{\"title\": \"t\"}") == 201) {
+                            answered.add(id);
+                        }
+                    } catch (IOException e) {
+                        // Forbindelsen lukkes når serveren stopper
+                    }
+                    return null;
+                }));
+            }
+            Thread.sleep(20);
+            server.stop();
+            for (Future<?> request : requests) {
+                request.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // Alt der blev svaret 201 står på disken
+        NotesModel reopened = NotesModel.open(directory.toString(), "pw");
+        reopened.load();
+        for (String id : answered) {
+            assertNotNull(reopened.findNote(id), id);
+        }
+    }
+
+    private int request(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(5000);
+        connection.setRequestProperty("Authorization", "Bearer " + token);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (in != null) {
+            in.close();
+        }
+        return status;
+    }
+}
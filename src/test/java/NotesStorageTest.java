@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotesStorageTest {
+    @TempDir
+    Path directory;
+
+    private NotesStorage storage;
+    private Path file;
+
+    @BeforeEach
+    void create() throws Exception {
+        storage = NotesModel.create(directory.toString(), "pw").getStorage();
+        storage.saveNotes(Collections.singletonList(new Note("første", "a")));
+        file = Paths.get(storage.getNotesFile());
+    }
+
+    @Test
+    void appendAfterTornLineLosesOnlyTheTornRecord() throws Exception {
+        // En tilføjelse der døde midt i en record: halvdelen står sidst i filen uden linjeskift
+        String record = storage.encodeRecord(new Note("tabt", "b"));
+        Files.write(file, record.substring(0, record.length() / 2).getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+        storage.loadNotes();
+        assertEquals(1, storage.getCorruptRecords().size());
+
+        storage.appendNotes(Arrays.asList(new Note("anden", "c"), new Note("tredje", "d")));
+
+        assertEquals(Arrays.asList("første", "anden", "tredje"), titles(storage.loadNotes()));
+        assertTrue(storage.getCorruptRecords().isEmpty());
+    }
+
+    @Test
+    void appendKeepsWholeRecordMissingItsNewline() throws Exception {
+        String record = storage.encodeRecord(new Note("hel", "b"));
+        Files.write(file, record.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        storage.loadNotes();
+
+        storage.appendNotes(Collections.singletonList(new Note("anden", "c")));
+
+        assertEquals(Arrays.asList("første", "hel", "anden"), titles(storage.loadNotes()));
+        assertTrue(storage.getCorruptRecords().isEmpty());
+    }
+
+    @Test
+    void appendedNotesSurviveReload() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            storage.appendNotes(Collections.singletonList(new Note("note " + i, "")));
+        }
+        NotesStorage reopened = NotesModel.open(directory.toString(), "pw").getStorage();
+        assertEquals(Arrays.asList("første", "note 0", "note 1", "note 2"), titles(reopened.loadNotes()));
+        assertTrue(Files.readString(file).endsWith(System.lineSeparator()));
+    }
+
+    @Test
+    void changedNoteIsNeverReusedFromOldRecord() throws Exception {
+        // "Aa" og "BB" har samme hashCode og længde; ændret i samme millisekund må den gamle record ikke genbruges
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        long now = System.currentTimeMillis();
+        storage.saveNotes(Collections.singletonList(new Note("x", "titel", "Aa", "Generel", false, now, now)));
+        storage.saveNotes(Collections.singletonList(new Note("x", "titel", "BB", "Generel", false, now, now)));
+
+        NotesStorage reopened = NotesModel.open(directory.toString(), "pw").getStorage();
+        assertEquals("BB", reopened.loadNotes().get(0).getContent());
+    }
+
+    private static List<String> titles(List<Note> notes) {
+        List<String> titles = new ArrayList<>();
+        for (Note note : notes) {
+            titles.add(note.getTitle());
+        }
+        return titles;
+    }
+}
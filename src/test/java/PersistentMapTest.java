@@ -0,0 +1,94 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentMapTest {
+    /**
+     * Nøgle med styret hashCode, så fulde hash-kollisioner og dybe stier kan testes
+     */
+    private static final class Key {
+        final int hash;
+        final int value;
+
+        Key(int hash, int value) {
+            this.hash = hash;
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).hash == hash && ((Key) obj).value == value;
+        }
+    }
+
+    @Test
+    void matchesHashMapAndKeepsOldVersions() {
+        Random random = new Random(1);
+        PersistentMap<Key, Integer> map = PersistentMap.empty();
+        Map<Key, Integer> expected = new HashMap<>();
+        List<PersistentMap<Key, Integer>> versions = new ArrayList<>();
+        List<Map<Key, Integer>> expectedVersions = new ArrayList<>();
+
+        for (int step = 0; step < 20_000; step++) {
+            // Få hash-værdier giver mange kollisioner; nogle værdier deler de nederste bits
+            Key key = new Key(random.nextInt(4) == 0 ? random.nextInt(16) << 25 : random.nextInt(3000), random.nextInt(4));
+            if (random.nextInt(3) == 0) {
+                map = map.remove(key);
+                expected.remove(key);
+            } else {
+                map = map.put(key, step);
+                expected.put(key, step);
+            }
+            if (step % 1000 == 0) {
+                versions.add(map);
+                expectedVersions.add(new HashMap<>(expected));
+            }
+        }
+        assertSameContent(expected, map);
+        for (int i = 0; i < versions.size(); i++) {
+            assertSameContent(expectedVersions.get(i), versions.get(i));
+        }
+    }
+
+    @Test
+    void removingEverythingGivesAnEmptyMap() {
+        PersistentMap<Integer, String> map = PersistentMap.empty();
+        for (int i = 0; i < 5000; i++) {
+            map = map.put(i, "v" + i);
+        }
+        PersistentMap<Integer, String> full = map;
+        for (int i = 0; i < 5000; i++) {
+            map = map.remove(i);
+        }
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+        assertEquals(5000, full.size());
+        assertEquals("v4999", full.get(4999));
+    }
+
+    @Test
+    void unchangedOperationsReturnTheSameMap() {
+        PersistentMap<String, String> map = PersistentMap.<String, String>empty().put("a", "1");
+        assertSame(map, map.remove("b"));
+        assertNull(map.get("b"));
+        assertFalse(map.containsKey("b"));
+    }
+
+    private static <K, V> void assertSameContent(Map<K, V> expected, PersistentMap<K, V> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<K, V> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), actual.get(entry.getKey()));
+            assertTrue(actual.containsKey(entry.getKey()));
+        }
+        Map<K, V> seen = new HashMap<>();
+        actual.forEach((key, value) -> assertNull(seen.put(key, value), "dublet i forEach"));
+        assertEquals(expected, seen);
+    }
+}
@@ -0,0 +1,150 @@
+import org.junit.jupiter.api.Test;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.GapContent;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PieceTableContent skal opføre sig som Swings GapContent: samme tekst, samme positioner og samme
+ * resultat af fortryd og gentag
+ */
+class PieceTableContentTest {
+    @Test
+    void randomEditsMatchGapContent() throws BadLocationException {
+        for (long seed = 1; seed <= 200; seed++) {
+            Random random = new Random(seed);
+            Pair pair = new Pair();
+            Deque<UndoableEdit[]> undo = new ArrayDeque<>();
+            Deque<UndoableEdit[]> redo = new ArrayDeque<>();
+
+            for (int step = 0; step < 400; step++) {
+                int op = random.nextInt(10);
+                if (op < 4) {
+                    int where = random.nextInt(pair.gap.length());
+                    String text = text(random);
+                    undo.push(new UndoableEdit[]{pair.pieces.insertString(where, text), pair.gap.insertString(where, text)});
+                    redo.clear();
+                } else if (op < 7 && pair.gap.length() > 1) {
+                    int where = random.nextInt(pair.gap.length() - 1);
+                    int count = 1 + random.nextInt(Math.min(12, pair.gap.length() - 1 - where));
+                    undo.push(new UndoableEdit[]{pair.pieces.remove(where, count), pair.gap.remove(where, count)});
+                    redo.clear();
+                } else if (op == 7 && !undo.isEmpty()) {
+                    UndoableEdit[] edits = undo.pop();
+                    edits[0].undo();
+                    edits[1].undo();
+                    redo.push(edits);
+                } else if (op == 8 && !redo.isEmpty()) {
+                    UndoableEdit[] edits = redo.pop();
+                    edits[0].redo();
+                    edits[1].redo();
+                    undo.push(edits);
+                } else {
+                    pair.mark(random.nextInt(pair.gap.length() + 1));
+                }
+                pair.assertSame("seed " + seed + " trin " + step);
+            }
+
+            // Alt fortrydes tilbage til det tomme dokument
+            while (!undo.isEmpty()) {
+                UndoableEdit[] edits = undo.pop();
+                edits[0].undo();
+                edits[1].undo();
+                pair.assertSame("seed " + seed + " fortryd alt");
+            }
+            assertEquals("\n", pair.pieces.getString(0, pair.pieces.length()));
+        }
+    }
+
+    @Test
+    void getCharsAcrossPieceBoundaries() throws BadLocationException {
+        PieceTableContent content = new PieceTableContent();
+        StringBuilder expected = new StringBuilder("\n");
+        Random random = new Random(3);
+        for (int i = 0; i < 200; i++) {
+            int where = random.nextInt(expected.length());
+            String text = text(random);
+            content.insertString(where, text);
+            expected.insert(where, text);
+        }
+        assertTrue(content.pieceCount() > 50);
+
+        for (int i = 0; i < 2000; i++) {
+            int where = random.nextInt(expected.length());
+            int len = random.nextInt(expected.length() - where + 1);
+            Segment segment = new Segment();
+            content.getChars(where, len, segment);
+            assertEquals(expected.substring(where, where + len), segment.toString());
+
+            // Delvis returnering: stykke for stykke, aldrig mere end bedt om
+            Segment partial = new Segment();
+            partial.setPartialReturn(true);
+            StringBuilder read = new StringBuilder();
+            int offset = where;
+            while (read.length() < len) {
+                content.getChars(offset, len - read.length(), partial);
+                assertTrue(partial.count > 0 && partial.count <= len - read.length());
+                read.append(partial);
+                offset += partial.count;
+            }
+            assertEquals(expected.substring(where, where + len), read.toString());
+        }
+    }
+
+    @Test
+    void rejectsInvalidRanges() {
+        PieceTableContent content = new PieceTableContent();
+        assertThrows(BadLocationException.class, () -> content.insertString(1, "x"));
+        assertThrows(BadLocationException.class, () -> content.remove(0, 1));
+        assertThrows(BadLocationException.class, () -> content.getString(0, 2));
+        assertThrows(BadLocationException.class, () -> content.createPosition(2));
+    }
+
+    /**
+     * De to implementeringer side om side med positioner oprettet samme steder
+     */
+    private static final class Pair {
+        final PieceTableContent pieces = new PieceTableContent();
+        final GapContent gap = new GapContent();
+        final List<Position[]> positions = new ArrayList<>();
+
+        /**
+         * Kun på ledige offsets: ved et offset med flere mærker er det ikke defineret hvilket et eksisterende
+         * mærke createPosition genbruger, og GapContent vælger et tilfældigt via binær søgning
+         */
+        void mark(int offset) throws BadLocationException {
+            for (Position[] position : positions) {
+                if (position[1].getOffset() == offset) {
+                    return;
+                }
+            }
+            positions.add(new Position[]{pieces.createPosition(offset), gap.createPosition(offset)});
+        }
+
+        void assertSame(String message) throws BadLocationException {
+            assertEquals(gap.length(), pieces.length(), message);
+            assertEquals(gap.getString(0, gap.length()), pieces.getString(0, pieces.length()), message);
+            for (Position[] position : positions) {
+                assertEquals(position[1].getOffset(), position[0].getOffset(), message);
+            }
+        }
+    }
+
+    private static String text(Random random) {
+        StringBuilder text = new StringBuilder();
+        int length = 1 + random.nextInt(random.nextInt(10) == 0 ? 200 : 6);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,104 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TermDictionaryTest {
+    // Få bogstaver, så ordene deler mange bigrammer og gentager dem (det svære tilfælde for tællefilteret)
+    private static final String ALPHABET = "abcæ";
+
+    @Test
+    void expandFindsExactlyTheWordsWithinDistance() {
+        Random random = new Random(11);
+        TermDictionary dictionary = new TermDictionary();
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Note note = new Note(randomWord(random), randomWords(random, 1 + random.nextInt(4)));
+            notes.add(note);
+            dictionary.indexNote(note);
+        }
+        // Fjernede noter efterlader døde ord i indekset; de må ikke komme med
+        for (int i = 0; i < 50; i++) {
+            dictionary.removeNote(notes.remove(random.nextInt(notes.size())));
+        }
+        Set<String> live = new HashSet<>();
+        for (Note note : notes) {
+            live.addAll(TermDictionary.tokenize(note.getTitle() + " " + note.getContent()));
+        }
+        assertEquals(live.size(), dictionary.size());
+
+        for (int i = 0; i < 2000; i++) {
+            String term = randomWord(random);
+            for (int distance = 1; distance <= 2; distance++) {
+                assertEquals(bruteForce(live, term, distance), dictionary.expand(term, distance), term + " " + distance);
+            }
+        }
+    }
+
+    @Test
+    void fuzzyContextUsesDistanceByWordLength() {
+        Random random = new Random(3);
+        TermDictionary dictionary = new TermDictionary();
+        Set<String> live = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            Note note = new Note("", randomWords(random, 3));
+            live.addAll(TermDictionary.tokenize(note.getContent()));
+            dictionary.indexNote(note);
+        }
+        NoteQuery.Context fuzzy = dictionary.queryContext(true);
+        NoteQuery.Context exact = dictionary.queryContext(false);
+        for (int i = 0; i < 500; i++) {
+            String term = randomWord(random);
+            // 0 for ord på op til to tegn, 1 op til fire tegn, ellers 2
+            int distance = term.length() <= 2 ? 0 : term.length() <= 4 ? 1 : 2;
+            assertEquals(bruteForce(live, term, distance), fuzzy.variants(term), term);
+            assertEquals(Collections.singleton(term), exact.variants(term));
+        }
+    }
+
+    private static Set<String> bruteForce(Set<String> words, String term, int distance) {
+        Set<String> result = new HashSet<>();
+        result.add(term);
+        for (String word : words) {
+            if (levenshtein(term, word) <= distance) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    private static String randomWords(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(randomWord(random)).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        int length = 1 + random.nextInt(7);
+        for (int i = 0; i < length; i++) {
+            word.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return word.toString();
+    }
+}
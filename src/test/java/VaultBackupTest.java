@@ -0,0 +1,162 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VaultBackupTest {
+    @TempDir
+    Path directory;
+
+    private NotesModel model;
+    private VaultBackup backup;
+
+    @BeforeEach
+    void create() throws Exception {
+        model = NotesModel.create(directory.toString(), "pw");
+        for (int i = 0; i < 20; i++) {
+            model.createNote("note " + i, "indhold " + i);
+        }
+        model.save();
+        backup = new VaultBackup(model.getStorage());
+    }
+
+    @Test
+    void snapshotsAreIncremental() throws Exception {
+        VaultBackup.Snapshot first = backup.backup();
+        assertEquals(20, first.getNewRecords());
+        assertNull(backup.backup(), "uændret fil giver intet nyt snapshot");
+
+        model.updateNote(model.getNotes().get(3), "ændret", "nyt indhold");
+        model.save();
+        VaultBackup.Snapshot second = backup.backup();
+        assertEquals(1, second.getNewRecords());
+        assertEquals(20, second.getRecordCount());
+        assertEquals(2, backup.list().size());
+        assertEquals(20, backup.verify(second.getName(), true));
+    }
+
+    @Test
+    void restoreBringsBackTheSnapshotAndCanBeUndone() throws Exception {
+        String name = backup.backup().getName();
+        Set<String> before = titles(model.getStorage().loadNotes());
+        model.delete(model.getNotes().get(0));
+        model.createNote("ny", "");
+        model.save();
+
+        NotesStorage storage = NotesModel.open(directory.toString(), "pw").getStorage();
+        assertEquals(20, new VaultBackup(storage).restore(name));
+        assertEquals(before, titles(storage.loadNotes()));
+        // Filen før gendannelsen blev gemt som et snapshot, så gendannelsen kan fortrydes
+        List<VaultBackup.Snapshot> snapshots = backup.list();
+        assertEquals(2, snapshots.size());
+        new VaultBackup(storage).restore(snapshots.get(0).getName());
+        assertTrue(titles(storage.loadNotes()).contains("ny"));
+    }
+
+    @Test
+    void restoreIntoEmptyVaultTakesNoSnapshotOfIt() throws Exception {
+        String name = backup.backup().getName();
+        // Som backup restore i CLI'en: en tom samling med snapshottets salt
+        byte[] salt = VaultBackup.readSalt(backup.snapshotFile(name));
+        CryptoManager cryptoManager = new CryptoManager();
+        cryptoManager.generateKeyFromPassword("pw", salt);
+        NotesStorage storage = new NotesStorage(cryptoManager, directory.resolve("ny").toString());
+        storage.saveSalt(salt);
+        storage.saveNotes(Collections.<NoteData>emptyList());
+        VaultBackup targetBackup = new VaultBackup(storage, backup.getDirectory());
+
+        assertEquals(20, targetBackup.restore(name));
+        assertEquals(1, targetBackup.list().size());
+        assertEquals(20, storage.loadNotes().size());
+    }
+
+    @Test
+    void damagedPackIsDetected() throws Exception {
+        String name = backup.backup().getName();
+        Path pack = backup.getDirectory().resolve(name + ".pack");
+        byte[] bytes = Files.readAllBytes(pack);
+        bytes[bytes.length / 2] = (byte) (bytes[bytes.length / 2] == 'A' ? 'B' : 'A');
+        Files.write(pack, bytes);
+
+        assertThrows(IOException.class, () -> backup.verify(name, false));
+        Set<String> current = titles(model.getStorage().loadNotes());
+        assertThrows(IOException.class, () -> backup.restore(name));
+        // En fejlet gendannelse rører ikke notefilen
+        assertEquals(current, titles(model.getStorage().loadNotes()));
+    }
+
+    @Test
+    void damagedManifestIsDetected() throws Exception {
+        String name = backup.backup().getName();
+        Path snap = backup.getDirectory().resolve(name + ".snap");
+        byte[] bytes = Files.readAllBytes(snap);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(snap, bytes);
+        assertThrows(IOException.class, () -> backup.verify(name, false));
+    }
+
+    @Test
+    void cleanupKeepsTheNewestAndDeletesUnusedPacks() throws Exception {
+        backup.setRetention(2, 0);
+        Note note = model.getNotes().get(0);
+        for (int i = 0; i < 4; i++) {
+            model.updateNote(note, "runde " + i, "tekst " + i);
+            model.save();
+            backup.backup();
+        }
+        List<VaultBackup.Snapshot> snapshots = backup.list();
+        assertEquals(2, snapshots.size());
+        for (VaultBackup.Snapshot snapshot : snapshots) {
+            assertEquals(20, backup.verify(snapshot.getName(), true));
+        }
+        try (Stream<Path> files = Files.list(backup.getDirectory())) {
+            Set<String> packs = files.map(path -> path.getFileName().toString())
+                .filter(file -> file.endsWith(".pack")).collect(Collectors.toSet());
+            // Den første pakke bruges stadig af de andre 19 noter, og hvert beholdt snapshot har sin egen udgave
+            // af den ændrede note; pakken med runde 1 bruges ikke mere
+            assertEquals(3, packs.size(), packs.toString());
+        }
+    }
+
+    @Test
+    void twoInstancesOnTheSameDirectoryTakeTurns() throws Exception {
+        // To objekter på samme mappe i samme JVM må ikke tage FileChannel-låsen samtidig
+        VaultBackup other = new VaultBackup(NotesModel.open(directory.toString(), "pw").getStorage());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<VaultBackup.Snapshot>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                VaultBackup instance = i % 2 == 0 ? backup : other;
+                results.add(executor.submit(instance::backup));
+            }
+            int taken = 0;
+            for (Future<VaultBackup.Snapshot> result : results) {
+                if (result.get() != null) {
+                    taken++;
+                }
+            }
+            assertEquals(1, taken);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Set<String> titles(List<Note> notes) {
+        Set<String> titles = new TreeSet<>();
+        for (Note note : notes) {
+            titles.add(note.getTitle());
+        }
+        return titles;
+    }
+}
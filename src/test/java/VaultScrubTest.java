@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VaultScrubTest {
+    @TempDir
+    Path directory;
+
+    private NotesStorage storage;
+    private Path file;
+    private List<Note> notes;
+
+    @BeforeEach
+    void create() throws Exception {
+        NotesModel model = NotesModel.create(directory.toString(), "pw");
+        for (int i = 0; i < 50; i++) {
+            model.createNote("note " + i, "indhold " + i);
+        }
+        model.save();
+        storage = model.getStorage();
+        file = Paths.get(storage.getNotesFile());
+        notes = storage.loadNotes();
+    }
+
+    @Test
+    void cleanVaultIsClean() throws Exception {
+        VaultScrub.Report report = new VaultScrub(storage, 4).scrub();
+        assertTrue(report.isClean());
+        assertEquals(50, report.getRecords());
+        assertTrue(report.getDuplicateIds().isEmpty());
+        assertEquals(0, report.getWithoutChecksum());
+    }
+
+    @Test
+    void flippedByteIsReportedAtItsRecord() throws Exception {
+        flip(2 + 17, 40);
+        flip(2 + 33, -10);
+
+        VaultScrub.Report report = new VaultScrub(storage, 3).scrub();
+        assertFalse(report.isClean());
+        assertEquals(2, report.getCorrupt().size());
+        assertEquals(18, report.getCorrupt().get(0).getIndex());
+        assertEquals(notes.get(17).getId(), report.getCorrupt().get(0).getNoteId());
+        assertEquals(34, report.getCorrupt().get(1).getIndex());
+        assertEquals(notes.get(33).getId(), report.getCorrupt().get(1).getNoteId());
+
+        // Indlæsningen springer de samme records over i stedet for at fejle
+        assertEquals(48, storage.loadNotes().size());
+        assertEquals(2, storage.getCorruptRecords().size());
+    }
+
+    @Test
+    void removeCorruptLeavesOnlyReadableRecords() throws Exception {
+        flip(2 + 5, 30);
+        VaultScrub scrub = new VaultScrub(storage, 2);
+        assertEquals(1, scrub.removeCorrupt().getCorrupt().size());
+
+        assertTrue(scrub.scrub().isClean());
+        List<Note> left = storage.loadNotes();
+        assertEquals(49, left.size());
+        assertTrue(left.stream().noneMatch(note -> note.getId().equals(notes.get(5).getId())));
+        // Uden beskadigede records skrives intet
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        assertTrue(scrub.removeCorrupt().isClean());
+        assertEquals(modified, Files.getLastModifiedTime(file).toMillis());
+    }
+
+    @Test
+    void damagedCheckValueIsNotFatal() throws Exception {
+        flip(1, 20);
+        VaultScrub.Report report = new VaultScrub(storage, 1).scrub();
+        assertFalse(report.isCheckValueOk());
+        assertTrue(report.getCorrupt().isEmpty());
+        assertEquals(50, storage.loadNotes().size());
+    }
+
+    @Test
+    void duplicateIdsAreReported() throws Exception {
+        storage.appendNotes(Collections.singletonList(notes.get(7)));
+        VaultScrub.Report report = new VaultScrub(storage, 2).scrub();
+        assertTrue(report.isClean());
+        assertEquals(Collections.singleton(notes.get(7).getId()), report.getDuplicateIds());
+    }
+
+    @Test
+    void threadCountMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new VaultScrub(storage, 0));
+    }
+
+    /**
+     * Ændrer ét Base64-tegn i linjen (0 er headeren); negativ offset tæller fra slutningen
+     */
+    private void flip(int lineNumber, int offset) throws Exception {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        String line = lines.get(lineNumber);
+        int at = offset < 0 ? line.length() + offset : offset;
+        char replacement = line.charAt(at) == 'A' ? 'B' : 'A';
+        lines.set(lineNumber, line.substring(0, at) + replacement + line.substring(at + 1));
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+}
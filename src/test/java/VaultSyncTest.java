@@ -0,0 +1,148 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VaultSyncTest {
+    @TempDir
+    Path directory;
+
+    private Path first;
+    private Path second;
+
+    @BeforeEach
+    void create() throws Exception {
+        first = directory.resolve("a");
+        second = directory.resolve("b");
+        NotesModel model = NotesModel.create(first.toString(), "pw");
+        model.createNote("første", "a");
+        model.createNote("anden", "b");
+        model.save();
+        VaultSync.openPeer(model.getStorage(), second.toString());
+        sync();
+    }
+
+    @Test
+    void notesAreCopiedBothWays() throws Exception {
+        assertEquals(titles(first), titles(second));
+        NotesModel model = open(second);
+        model.createNote("tredje", "c");
+        model.save();
+
+        VaultSync.Result result = sync();
+        assertEquals(1, result.getCopiedToFirst());
+        assertEquals(0, result.getCopiedToSecond());
+        assertEquals(Arrays.asList("anden", "første", "tredje"), titles(first));
+        assertEquals(titles(first), titles(second));
+
+        // Uden ændringer er der intet at gøre
+        result = sync();
+        assertEquals(0, result.getDiffering());
+    }
+
+    @Test
+    void deletionsAreSyncedAndTombstonesForgotten() throws Exception {
+        NotesModel model = open(first);
+        model.delete(find(model, "første"));
+        model.save();
+
+        VaultSync.Result result = sync();
+        assertEquals(1, result.getCopiedToSecond());
+        assertEquals(Collections.singletonList("anden"), titles(second));
+        assertEquals(0, result.getForgottenTombstones());
+
+        VaultSync forgetting = new VaultSync(storage(first), storage(second));
+        forgetting.setTombstoneRetention(0);
+        assertEquals(1, forgetting.sync().getForgottenTombstones());
+
+        // Begge sider glemte den samme gravsten, så træerne er stadig ens og noten kommer ikke tilbage
+        assertEquals(0, sync().getDiffering());
+        assertEquals(Collections.singletonList("anden"), titles(first));
+    }
+
+    @Test
+    void editsOnBothSidesEndUpTheSame() throws Exception {
+        NotesModel a = open(first);
+        a.updateNote(find(a, "første"), "første", "a og en ændring her");
+        a.save();
+        NotesModel b = open(second);
+        b.updateNote(find(b, "første"), "første", "a og en anden ændring der");
+        b.save();
+
+        VaultSync.Result result = sync();
+        assertEquals(1, result.getMerged() + result.getConflicts());
+        assertEquals(contents(first), contents(second));
+        assertEquals(0, sync().getDiffering());
+    }
+
+    @Test
+    void corruptRecordIsSkippedAndFetchedFromTheOtherSide() throws Exception {
+        String id = find(open(second), "første").getId();
+        Path file = second.resolve("notes.dat");
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (int i = 2; i < lines.size(); i++) {
+            if (id.equals(NotesStorage.recordId(lines.get(i)))) {
+                String line = lines.get(i);
+                int middle = line.length() / 2;
+                lines.set(i, line.substring(0, middle) + (line.charAt(middle) == 'A' ? 'B' : 'A') + line.substring(middle + 1));
+            }
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+
+        VaultSync.Result result = sync();
+        assertEquals(1, result.getCorruptInSecond().size());
+        assertEquals(id, result.getCorruptInSecond().get(0).getNoteId());
+        assertTrue(result.getCorruptInFirst().isEmpty());
+        // Noten er ikke slettet i den første mappe, men kopieret tilbage til den anden
+        assertEquals(Arrays.asList("anden", "første"), titles(first));
+        assertEquals(Arrays.asList("anden", "første"), titles(second));
+        assertEquals(1, result.getCopiedToSecond());
+    }
+
+    private VaultSync.Result sync() throws Exception {
+        return new VaultSync(storage(first), storage(second)).sync();
+    }
+
+    private static NotesStorage storage(Path directory) throws Exception {
+        return NotesModel.open(directory.toString(), "pw").getStorage();
+    }
+
+    private static NotesModel open(Path directory) throws Exception {
+        NotesModel model = NotesModel.open(directory.toString(), "pw");
+        model.load();
+        return model;
+    }
+
+    private static Note find(NotesModel model, String title) {
+        for (Note note : model.getNotes()) {
+            if (note.getTitle().equals(title)) {
+                return note;
+            }
+        }
+        throw new AssertionError("Ingen note med titlen " + title);
+    }
+
+    private static List<String> titles(Path directory) throws Exception {
+        List<String> titles = new ArrayList<>();
+        for (Note note : open(directory).getNotes()) {
+            titles.add(note.getTitle());
+        }
+        Collections.sort(titles);
+        return titles;
+    }
+
+    private static Set<String> contents(Path directory) throws Exception {
+        Set<String> contents = new TreeSet<>();
+        for (Note note : open(directory).getNotes()) {
+            contents.add(note.getTitle() + "\n" + note.getContent());
+        }
+        return contents;
+    }
+}
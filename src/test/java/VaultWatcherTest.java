@@ -0,0 +1,45 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VaultWatcherTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void failingHandlerDoesNotStopWatching() throws Exception {
+        Path file = directory.resolve("notes.dat");
+        Files.writeString(file, "0");
+        Semaphore calls = new Semaphore(0);
+        try (VaultWatcher watcher = new VaultWatcher(file, () -> {
+            calls.release();
+            throw new IllegalStateException("første kald fejler");
+        })) {
+            watcher.start();
+            Files.writeString(file, "1");
+            assertTrue(calls.tryAcquire(10, TimeUnit.SECONDS));
+            Files.writeString(file, "2");
+            assertTrue(calls.tryAcquire(10, TimeUnit.SECONDS), "overvågningen stoppede efter fejlen");
+        }
+    }
+
+    @Test
+    void otherFilesAreIgnored() throws Exception {
+        Path file = directory.resolve("notes.dat");
+        Files.writeString(file, "0");
+        Semaphore calls = new Semaphore(0);
+        try (VaultWatcher watcher = new VaultWatcher(file, calls::release)) {
+            watcher.start();
+            Files.writeString(directory.resolve("andet.txt"), "x");
+            assertFalse(calls.tryAcquire(1, TimeUnit.SECONDS));
+            Files.writeString(file, "1");
+            assertTrue(calls.tryAcquire(10, TimeUnit.SECONDS));
+        }
+    }
+}
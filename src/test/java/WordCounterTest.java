@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.Test;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import javax.swing.undo.UndoManager;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WordCounterTest {
+    private static final String ALPHABET = "ab æ\n\t.";
+
+    @Test
+    void countsLikeSplitOnWhitespace() {
+        Random random = new Random(5);
+        for (int i = 0; i < 2000; i++) {
+            String text = randomText(random, random.nextInt(30));
+            assertEquals(splitCount(text), WordCounter.countWords(text, 0, text.length()), text);
+        }
+    }
+
+    @Test
+    void incrementalCountFollowsEveryEdit() throws BadLocationException {
+        Random random = new Random(9);
+        PlainDocument document = new PlainDocument(new PieceTableContent());
+        document.insertString(0, "hej med dig", null);
+        WordCounter counter = new WordCounter();
+        counter.install(document);
+        assertEquals(3, counter.getWordCount());
+
+        for (int i = 0; i < 5000; i++) {
+            int length = document.getLength();
+            int offset = random.nextInt(length + 1);
+            if (random.nextBoolean() && length > 0) {
+                document.remove(Math.min(offset, length - 1), Math.min(1 + random.nextInt(4), length - Math.min(offset, length - 1)));
+            } else {
+                document.insertString(offset, randomText(random, 1 + random.nextInt(3)), null);
+            }
+            String text = document.getText(0, document.getLength());
+            assertEquals(splitCount(text), counter.getWordCount(), text);
+            assertEquals(text.length(), counter.getCharacterCount());
+        }
+    }
+
+    @Test
+    void undoAndRedoAreCountedToo() throws BadLocationException {
+        PlainDocument document = new PlainDocument(new PieceTableContent());
+        WordCounter counter = new WordCounter();
+        counter.install(document);
+        UndoManager undo = new UndoManager();
+        document.addUndoableEditListener(undo);
+        document.insertString(0, "hello world foo", null);
+        assertEquals(3, counter.getWordCount());
+
+        undo.undo();
+        assertEquals(0, document.getLength());
+        assertEquals(0, counter.getWordCount());
+        undo.redo();
+        assertEquals(3, counter.getWordCount());
+        document.remove(5, 6);
+        assertEquals(2, counter.getWordCount());
+        undo.undo();
+        assertEquals(3, counter.getWordCount());
+    }
+
+    @Test
+    void noteCountsItsOwnContent() {
+        Note note = new Note("t", "et to tre");
+        assertEquals(3, note.getWordCount());
+        note.setContent("  ");
+        assertEquals(0, note.getWordCount());
+        note.setContent("fire fem");
+        assertEquals(2, note.getWordCount());
+    }
+
+    @Test
+    void modelCountsWordsOnUpdate() throws Exception {
+        NotesModel model = new NotesModel(null);
+        Note note = model.createNote("t", "");
+        model.updateNote(note, "t", "et to tre fire");
+        assertEquals(4, note.getWordCount());
+        assertEquals(1, model.filter("ord:4", null, false, false, NoteSortOrder.NEWEST).length);
+        model.updateNote(note, "t", "");
+        assertEquals(0, model.filter("ord:4", null, false, false, NoteSortOrder.NEWEST).length);
+    }
+
+    private static int splitCount(String text) {
+        String trimmed = text.trim();
+        return trimmed.isEmpty() ? 0 : trimmed.split("\\s+").length;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+}